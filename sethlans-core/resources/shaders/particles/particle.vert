@@ -54,7 +54,7 @@ layout(push_constant) uniform Params
 	float u_h2DistCheck;
 };
 
-layout(std140, set = 0, binding = 0) readonly buffer Particles
+layout(std430, set = 0, binding = 0) readonly buffer Particles
 {
 	Particle particles[];
 };
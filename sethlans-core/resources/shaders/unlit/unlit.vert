@@ -15,15 +15,15 @@ layout(set = 1, binding = 0) uniform Dynamic {
 	
 } dynamic;
 
-layout(push_constant) uniform matrices {
-    mat4 modelMatrix;
+layout(std430, set = 3, binding = 0) readonly buffer Instances {
+    mat4 modelMatrices[];
 	
-} push_constants;
+} instances;
 
 
 void main() {
 	
 	fragUV = uv;
 
-	gl_Position = global.projectionMatrix * dynamic.viewMatrix * push_constants.modelMatrix * vec4(pos, 1.0);
+	gl_Position = global.projectionMatrix * dynamic.viewMatrix * instances.modelMatrices[gl_InstanceIndex] * vec4(pos, 1.0);
 }
\ No newline at end of file
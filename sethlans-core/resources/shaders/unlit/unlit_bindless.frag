@@ -0,0 +1,16 @@
+#version 450
+#extension GL_EXT_nonuniform_qualifier : require
+
+layout(location = 0) in vec2 fragUV;
+
+layout(location = 0) out vec4 fragColor;
+
+layout(set = 2, binding = 0) uniform sampler2D textures[];
+
+layout(push_constant) uniform Material {
+	layout(offset = 64) uint textureIndex;
+} material;
+
+void main() {
+	fragColor = texture(textures[nonuniformEXT(material.textureIndex)], fragUV);
+}
@@ -69,6 +69,7 @@ public class AssimpTest extends SethlansApplication {
                 indices);
 
         var mat = MaterialLoader.load(getConfig(), "resources/materials/unlit.smat");
+        getRenderEngine().getBackend().precompileShaders(mat);
         mat.getMaterialPass("forward").getRenderState().getRasterizationState().setCullMode(CullMode.BACK);
         mat.getMaterialPass("forward").getRenderState().getDepthStencilState().setDepthTest(true);
         mat.getMaterialPass("forward").getRenderState().getDepthStencilState().setDepthWrite(true);
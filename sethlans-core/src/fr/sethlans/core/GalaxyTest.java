@@ -65,6 +65,7 @@ public class GalaxyTest extends SethlansApplication {
         addView(view);
 
         var mat = MaterialLoader.load(getConfig(), "resources/materials/gpu-particles.smat");
+        getRenderEngine().getBackend().precompileShaders(mat);
         var mesh = new Mesh(Topology.TRIANGLES, VERTICES_PER_PARTICLE * PARTICLE_COUNT);
         galaxy = new Geometry("Galaxy", mesh, mat);
 
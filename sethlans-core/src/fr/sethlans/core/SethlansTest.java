@@ -61,6 +61,7 @@ public class SethlansTest extends SethlansApplication {
         texture = StbImageLoader.load(getConfig(), "resources/textures/vulkan-logo.png");
 
         var mat = MaterialLoader.load(getConfig(), "resources/materials/unlit.smat");
+        getRenderEngine().getBackend().precompileShaders(mat);
         mat.getMaterialPass("forward").getRenderState().getRasterizationState().setCullMode(CullMode.BACK);
         mat.getMaterialPass("forward").getRenderState().getDepthStencilState().setDepthTest(true);
         mat.getMaterialPass("forward").getRenderState().getDepthStencilState().setDepthWrite(true);
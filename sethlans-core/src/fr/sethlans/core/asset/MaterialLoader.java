@@ -94,8 +94,9 @@ public class MaterialLoader {
             var set = setObj.getOptional("set").orElseThrow(IOException::new).asInt();
             var bindingsObj = setObj.getOptional("bindings").orElseThrow(IOException::new).asArray();
             var bindings = loadBindings(bindingsObj);
+            var push = setObj.getOptional("push").map(JSONValue::isTrue).orElse(false);
 
-            layout.putBindingsSet(set, bindings);
+            layout.putBindingsSet(set, bindings, push);
         }
         
         var pushConstants = layoutObj.getOptional("push_constants").map(JSONValue::asArray).orElse(null);
@@ -2,6 +2,7 @@ package fr.sethlans.core.material;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -16,12 +17,27 @@ public class MaterialLayout {
 
     private final List<PushConstantLayout> pushConstantLayouts = new ArrayList<>();
 
+    /**
+     * The sets whose descriptors are pushed for each draw, instead of being
+     * allocated.
+     */
+    private final Set<Integer> pushDescriptorSets = new HashSet<>();
+
     public MaterialLayout() {
         super();
     }
 
     public MaterialLayout putBindingsSet(int set, List<BindingLayout> bindings) {
+        return putBindingsSet(set, bindings, false);
+    }
+
+    public MaterialLayout putBindingsSet(int set, List<BindingLayout> bindings, boolean pushDescriptor) {
         this.setLayouts.put(set, bindings);
+        if (pushDescriptor) {
+            this.pushDescriptorSets.add(set);
+        } else {
+            this.pushDescriptorSets.remove(set);
+        }
         return this;
     }
 
@@ -34,6 +50,28 @@ public class MaterialLayout {
         return setLayouts.entrySet();
     }
 
+    /**
+     * Return whether the layout declares a binding to the given builtin.
+     * 
+     * @param name The name of the builtin.
+     * @return Whether a set binds the builtin.
+     */
+    public boolean hasBuiltin(String name) {
+        for (var bindings : setLayouts.values()) {
+            for (var binding : bindings) {
+                if (binding.builtin() && binding.name().equals(name)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public boolean isPushDescriptorSet(int set) {
+        return pushDescriptorSets.contains(set);
+    }
+
     public List<PushConstantLayout> pushConstantLayouts() {
         return pushConstantLayouts;
     }
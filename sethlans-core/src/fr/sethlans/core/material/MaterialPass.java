@@ -4,10 +4,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import fr.sethlans.core.render.state.RenderState;
 
 public class MaterialPass {
+
+    private static final AtomicLong SORT_ID_FACTORY = new AtomicLong();
     
     private final Material material;
 
@@ -54,9 +57,15 @@ public class MaterialPass {
         this.layout = layout;
     }
 
+    /**
+     * Return the unique identifier of the pass, assigned on first use. Render
+     * queues number the passes they draw densely from it to fit a sort key.
+     * 
+     * @return The sort identifier of the pass.
+     */
     public long sortId() {
         if (sortId == -1) {
-            
+            sortId = SORT_ID_FACTORY.getAndIncrement();
         }
         
         return sortId;
@@ -77,7 +77,10 @@ public class NativeResourceCleaner implements NativeResourceManager {
                         "Can't add a dependent to a destroyed resource (ref= " + reference + ").");
             }
 
-            this.dependents.add(reference);
+            // Resources may be created from worker threads, such as pipelines compiled in the background.
+            synchronized (dependents) {
+                this.dependents.add(reference);
+            }
         }
 
         @Override
@@ -88,11 +91,13 @@ public class NativeResourceCleaner implements NativeResourceManager {
         @Override
         public void destroy() {
             if (active.getAndSet(false)) {
-                for (NativeReference ref : dependents) {
-                    ref.destroy();
-                }
+                synchronized (dependents) {
+                    for (NativeReference ref : dependents) {
+                        ref.destroy();
+                    }
 
-                dependents.clear();
+                    dependents.clear();
+                }
                 cleanable.clean();
             }
         }
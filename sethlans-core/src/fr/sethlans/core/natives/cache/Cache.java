@@ -1,6 +1,7 @@
 package fr.sethlans.core.natives.cache;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
@@ -24,8 +25,21 @@ public class Cache<K, V> {
             return (T) e.acquire();
         }
 
-        this.entries.put(key, new Entry<>(element));
-        build.run();
+        // Claim the key first, so that a concurrent allocation waits for this build instead of repeating it.
+        var entry = new Entry<V>(element);
+        e = entries.putIfAbsent(key, entry);
+        if (e != null) {
+            return (T) e.acquire();
+        }
+
+        try {
+            build.run();
+            entry.built.complete(null);
+        } catch (RuntimeException | Error ex) {
+            entries.remove(key, entry);
+            entry.built.completeExceptionally(ex);
+            throw ex;
+        }
         return element;
     }
 
@@ -45,13 +59,15 @@ public class Cache<K, V> {
     private static class Entry<E> {
 
         private final E element;
-        private long lastUsed = System.nanoTime();
+        private final CompletableFuture<Void> built = new CompletableFuture<>();
+        private volatile long lastUsed = System.nanoTime();
 
         private Entry(E element) {
             this.element = element;
         }
 
         public E acquire() {
+            built.join();
             this.lastUsed = System.nanoTime();
             return element;
         }
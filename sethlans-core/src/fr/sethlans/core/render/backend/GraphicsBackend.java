@@ -1,6 +1,9 @@
 package fr.sethlans.core.render.backend;
 
+import java.util.concurrent.CompletableFuture;
+
 import fr.sethlans.core.app.ConfigFile;
+import fr.sethlans.core.material.Material;
 import fr.sethlans.core.render.Window;
 import fr.sethlans.core.render.device.GpuDevice;
 import fr.sethlans.core.render.vk.swapchain.VulkanFrame;
@@ -19,6 +22,17 @@ public interface GraphicsBackend {
 
     void waitIdle();
 
+    /**
+     * Start compiling the shaders of the given material in the background, so
+     * that its pipelines are created faster when it's first drawn.
+     * 
+     * @param material The material to precompile.
+     * @return A future completed when all the shaders are compiled.
+     */
+    default CompletableFuture<Void> precompileShaders(Material material) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     void terminate();
 
     Window getWindow();
@@ -1,14 +1,64 @@
 package fr.sethlans.core.render.buffer;
 
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-import java.util.Objects;
+import java.util.Arrays;
 
-public class DirtyRegions implements Iterable<DirtyRegions.Region> {
+/**
+ * Tracks the modified ranges of a buffer with a bitmap of fixed-size pages, and
+ * a summary bitmap of the non-empty page words. Marking a range never
+ * allocates, and the coalesced regions are only computed when queried.
+ */
+public class DirtyRegions {
 
-    private Region head = null;
+    /**
+     * The default size in bytes of a tracked page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 256;
+
+    private final long capacity;
+
+    private final int pageShift;
+
+    /**
+     * One bit per page of the buffer.
+     */
+    private final long[] pages;
+
+    /**
+     * One bit per word of {@link #pages} containing at least one dirty page.
+     */
+    private final long[] summary;
+
+    private CoalescingPolicy policy;
+
+    private boolean empty = true;
+
+    private boolean resolved = true;
+
+    private long[] starts = new long[4];
+    private long[] ends = new long[4];
     private int regionCount;
-    private int dirtySize;
+    private long dirtySize;
+
+    public DirtyRegions(long capacity) {
+        this(capacity, DEFAULT_PAGE_SIZE, CoalescingPolicy.DEFAULT);
+    }
+
+    public DirtyRegions(long capacity, int pageSize, CoalescingPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be non-negative!");
+        }
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two, but got " + pageSize + "!");
+        }
+
+        this.capacity = capacity;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.policy = policy;
+
+        var pageCount = (capacity + pageSize - 1) >>> pageShift;
+        this.pages = new long[(int) ((pageCount + 63) >>> 6)];
+        this.summary = new long[(pages.length + 63) >>> 6];
+    }
 
     public void add(long offset, long size) {
         if (offset < 0 || size < 0) {
@@ -17,154 +67,169 @@ public class DirtyRegions implements Iterable<DirtyRegions.Region> {
         if (size == 0) {
             return;
         }
-
-        var newStart = offset;
-        var newEnd = offset + size;
-
-        Region prev = null;
-        Region curr = head;
-
-        // Find first region that might overlap.
-        while (curr != null && curr.end < newStart) {
-            prev = curr;
-            curr = curr.next;
-        }
-
-        // Merge overlapping regions.
-        while (curr != null && curr.start <= newEnd) {
-            newStart = Math.min(newStart, curr.start);
-            newEnd = Math.max(newEnd, curr.end);
-
-            // Remove current.
-            curr = curr.next;
-            this.regionCount--;
+        if (offset + size > capacity) {
+            throw new IllegalArgumentException("Dirty region [" + offset + ", " + (offset + size)
+                    + "] extends outside buffer of " + capacity + " bytes!");
         }
 
-        /// Create merged region.
-        var merged = new Region(newStart, newEnd);
-        merged.next = curr;
+        var firstPage = offset >>> pageShift;
+        var lastPage = (offset + size - 1) >>> pageShift;
+        var firstWord = (int) (firstPage >>> 6);
+        var lastWord = (int) (lastPage >>> 6);
+        for (var w = firstWord; w <= lastWord; ++w) {
+            var mask = -1L;
+            if (w == firstWord) {
+                mask &= -1L << (firstPage & 63);
+            }
+            if (w == lastWord) {
+                mask &= -1L >>> (63 - (lastPage & 63));
+            }
 
-        // Link into list.
-        if (prev == null) {
-            head = merged;
-        } else {
-            prev.next = merged;
+            pages[w] |= mask;
+            summary[w >>> 6] |= 1L << (w & 63);
         }
-        this.regionCount++;
 
-        dirtySize = 0;
-        for (var r : this) {
-            dirtySize += r.size;
-        }
+        this.empty = false;
+        this.resolved = false;
     }
 
     public int regionCount() {
+        resolve();
         return regionCount;
     }
 
-    public int dirtySize() {
+    public long dirtySize() {
+        resolve();
         return dirtySize;
     }
 
+    public long regionStart(int index) {
+        resolve();
+        return starts[index];
+    }
+
+    public long regionEnd(int index) {
+        resolve();
+        return ends[index];
+    }
+
+    public long regionSize(int index) {
+        resolve();
+        return ends[index] - starts[index];
+    }
+
     public void clear() {
-        this.head = null;
+        for (var s = 0; s < summary.length; ++s) {
+            for (var bits = summary[s]; bits != 0; bits &= bits - 1) {
+                pages[(s << 6) + Long.numberOfTrailingZeros(bits)] = 0L;
+            }
+        }
+        Arrays.fill(summary, 0L);
+
         this.regionCount = 0;
+        this.dirtySize = 0;
+        this.empty = true;
+        this.resolved = true;
     }
 
     public boolean isEmpty() {
-        return head == null || head.isEmpty();
+        return empty;
     }
 
-    @Override
-    public Iterator<Region> iterator() {
-        return new RegionIterator(head);
+    public long capacity() {
+        return capacity;
     }
 
-    public final class Region {
-
-        private long start, size, end;
-        private Region next;
-
-        Region(long start, long end) {
-            this.start = start;
-            this.size = end - start;
-            this.end = end;
-        }
+    public int pageSize() {
+        return 1 << pageShift;
+    }
 
-        boolean isEmpty() {
-            return size <= 0;
-        }
-        
-        public long end() {
-            return end;
-        }
+    public CoalescingPolicy getPolicy() {
+        return policy;
+    }
 
-        public long start() {
-            return start;
-        }
+    public void setPolicy(CoalescingPolicy policy) {
+        this.policy = policy;
+        this.resolved = false;
+    }
 
-        public long size() {
-            return size;
+    private void resolve() {
+        if (resolved) {
+            return;
         }
 
-        boolean isTail() {
-            return next == null;
+        this.regionCount = 0;
+        this.dirtySize = 0;
+        for (var s = 0; s < summary.length; ++s) {
+            for (var words = summary[s]; words != 0; words &= words - 1) {
+                var w = (s << 6) + Long.numberOfTrailingZeros(words);
+                var bits = pages[w];
+                while (bits != 0) {
+                    // Extract the next run of dirty pages in the word.
+                    var low = Long.numberOfTrailingZeros(bits);
+                    var length = Long.numberOfTrailingZeros(~(bits >>> low));
+                    bits = length == 64 ? 0L : bits & ~(((1L << length) - 1) << low);
+
+                    var startPage = ((long) w << 6) + low;
+                    appendRun(startPage << pageShift, Math.min((startPage + length) << pageShift, capacity));
+                }
+            }
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(start, end, next);
+        for (var i = 0; i < regionCount; ++i) {
+            dirtySize += ends[i] - starts[i];
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
+        this.resolved = true;
+    }
 
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+    private void appendRun(long start, long end) {
+        if (regionCount > 0) {
+            var gap = start - ends[regionCount - 1];
+            if (gap == 0 || policy.shouldMerge(gap)) {
+                ends[regionCount - 1] = end;
+                return;
             }
-
-            var other = (Region) obj;
-            return start == other.start && end == other.end && Objects.equals(next, other.next);
         }
 
-        @Override
-        public String toString() {
-            return "Region [start=" + start + ", end=" + end + ", next=" + next + "]";
+        if (regionCount == starts.length) {
+            this.starts = Arrays.copyOf(starts, regionCount * 2);
+            this.ends = Arrays.copyOf(ends, regionCount * 2);
         }
-    }
 
-    private static class RegionIterator implements Iterator<Region> {
+        starts[regionCount] = start;
+        ends[regionCount] = end;
+        regionCount++;
+    }
 
-        private Region current, prev;
+    @Override
+    public String toString() {
+        return "DirtyRegions [capacity=" + capacity + ", pageSize=" + pageSize() + ", regions=" + regionCount()
+                + ", dirtySize=" + dirtySize() + "]";
+    }
 
-        private RegionIterator(Region head) {
-            this.current = head;
-        }
+    /**
+     * Decides whether two dirty regions separated by clean bytes are copied as a
+     * single region, which is cheaper than issuing another copy region when the
+     * gap is small.
+     */
+    @FunctionalInterface
+    public interface CoalescingPolicy {
 
-        @Override
-        public boolean hasNext() {
-            return current != null && !current.isEmpty();
-        }
+        /**
+         * Never merge regions separated by clean bytes.
+         */
+        CoalescingPolicy NEVER = _ -> false;
 
-        @Override
-        public Region next() {
-            if (current == null) {
-                throw new NoSuchElementException();
-            }
+        /**
+         * Merge regions separated by at most 1 KiB of clean bytes.
+         */
+        CoalescingPolicy DEFAULT = maxGap(1024);
 
-            prev = current;
-            current = current.next;
-            return prev;
-        }
+        boolean shouldMerge(long gapBytes);
 
-        @Override
-        public void remove() {
-            if (prev != null && current != null) {
-                prev.next = current.next;
-            }
+        static CoalescingPolicy maxGap(long maxGapBytes) {
+            return gapBytes -> gapBytes <= maxGapBytes;
         }
     }
 }
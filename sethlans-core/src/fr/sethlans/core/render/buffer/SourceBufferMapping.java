@@ -8,11 +8,12 @@ import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
 
 import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
 
 public class SourceBufferMapping implements BufferMapping {
 
     private final NativeBuffer source;
-    private final PointerBuffer address;
+    private final long address;
     private final long size;
     private final Runnable unmap;
     private ByteBuffer bytes;
@@ -23,6 +24,10 @@ public class SourceBufferMapping implements BufferMapping {
     private LongBuffer longs;
 
     public SourceBufferMapping(NativeBuffer source, PointerBuffer address, long size, Runnable unmap) {
+        this(source, address.get(0), size, unmap);
+    }
+
+    public SourceBufferMapping(NativeBuffer source, long address, long size, Runnable unmap) {
         this.source = source;
         this.address = address;
         this.size = size;
@@ -41,7 +46,7 @@ public class SourceBufferMapping implements BufferMapping {
 
     @Override
     public long getAddress() {
-        return address.get(0);
+        return address;
     }
 
     @Override
@@ -52,7 +57,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public ByteBuffer getBytes() {
         if (bytes == null) {
-            bytes = address.getByteBuffer(0, (int) size);
+            bytes = MemoryUtil.memByteBuffer(address, (int) size);
         }
         return bytes.position(0).limit((int) size);
     }
@@ -60,7 +65,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public ShortBuffer getShorts() {
         if (shorts == null) {
-            shorts = address.getShortBuffer(0, (int) size / Short.BYTES);
+            shorts = MemoryUtil.memShortBuffer(address, (int) size / Short.BYTES);
         }
         return shorts;
     }
@@ -68,7 +73,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public IntBuffer getInts() {
         if (ints == null) {
-            ints = address.getIntBuffer(0, (int) size / Integer.BYTES);
+            ints = MemoryUtil.memIntBuffer(address, (int) size / Integer.BYTES);
         }
         return ints;
     }
@@ -76,7 +81,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public FloatBuffer getFloats() {
         if (floats == null) {
-            floats = address.getFloatBuffer(0, (int) size / Float.BYTES);
+            floats = MemoryUtil.memFloatBuffer(address, (int) size / Float.BYTES);
         }
         return floats;
     }
@@ -84,7 +89,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public DoubleBuffer getDoubles() {
         if (doubles == null) {
-            doubles = address.getDoubleBuffer(0, (int) size / Double.BYTES);
+            doubles = MemoryUtil.memDoubleBuffer(address, (int) size / Double.BYTES);
         }
         return doubles;
     }
@@ -92,7 +97,7 @@ public class SourceBufferMapping implements BufferMapping {
     @Override
     public LongBuffer getLongs() {
         if (longs == null) {
-            longs = address.getLongBuffer(0, (int) size / Long.BYTES);
+            longs = MemoryUtil.memLongBuffer(address, (int) size / Long.BYTES);
         }
         return longs;
     }
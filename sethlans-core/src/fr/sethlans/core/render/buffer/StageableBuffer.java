@@ -8,10 +8,18 @@ public class StageableBuffer<T extends NativeBuffer> implements NativeBuffer {
     
     private NativeBuffer destBuffer;
 
-    private final DirtyRegions regions = new DirtyRegions();
+    private final DirtyRegions regions;
+
+    private final AccessHint accessHint;
 
     public StageableBuffer(T buffer) {
+        this(buffer, AccessHint.STATIC);
+    }
+
+    public StageableBuffer(T buffer, AccessHint accessHint) {
         this.buffer = buffer;
+        this.accessHint = accessHint;
+        this.regions = new DirtyRegions(buffer.size().getBytes());
         push();
     }
 
@@ -29,6 +37,10 @@ public class StageableBuffer<T extends NativeBuffer> implements NativeBuffer {
         return regions;
     }
 
+    public AccessHint getAccessHint() {
+        return accessHint;
+    }
+
     public T getBuffer() {
         return buffer;
     }
@@ -65,6 +77,6 @@ public class StageableBuffer<T extends NativeBuffer> implements NativeBuffer {
 
     @Override
     public String toString() {
-        return "StageableBuffer [buffer=" + buffer + ", destBuffer=" + destBuffer + "]";
+        return "StageableBuffer [buffer=" + buffer + ", destBuffer=" + destBuffer + ", accessHint=" + accessHint + "]";
     }
 }
@@ -23,5 +23,20 @@ public enum DeviceFeature {
     /**
      * Feature allowing anisotropic filtering for texture sampler.
      */
-    SAMPLER_ANISOTROPY;
+    SAMPLER_ANISOTROPY,
+    /**
+     * Feature allowing uniform and storage blocks to use the scalar block layout,
+     * where members are only aligned to their scalar component.
+     */
+    SCALAR_BLOCK_LAYOUT,
+    /**
+     * Feature allowing partially bound arrays of sampled images, indexed with
+     * non-uniform values and updated after being bound.
+     */
+    DESCRIPTOR_INDEXING,
+    /**
+     * Feature allowing descriptors to be pushed directly into a command buffer,
+     * without allocating a descriptor set.
+     */
+    PUSH_DESCRIPTOR;
 }
@@ -11,10 +11,32 @@ public enum DeviceLimit {
      * uniform buffer object.
      */
     MIN_UBO_ALIGNMENT,
+    /**
+     * The minimum required alignment, in bytes, for the offset member of a dynamic
+     * storage buffer object.
+     */
+    MIN_SSBO_ALIGNMENT,
     /**
      * The maximum size, in bytes, of the pool of push constant memory.
      */
     MAX_PUSH_CONSTANT_SIZE,
+    /**
+     * The maximum number of combined image samplers accessible to a single shader
+     * stage.
+     */
+    MAX_PER_STAGE_DESCRIPTOR_SAMPLERS,
+    /**
+     * The maximum number of combined image samplers accessible to a single shader
+     * stage, or declared in a single descriptor-set, when they are bound with the
+     * update-after-bind flag. Zero if descriptor indexing isn't supported.
+     */
+    MAX_UPDATE_AFTER_BIND_DESCRIPTOR_SAMPLERS,
+    /**
+     * The size and alignment, in bytes, that bounds concurrent access to
+     * host-mapped device memory, used when flushing or invalidating non-coherent
+     * memory ranges.
+     */
+    NON_COHERENT_ATOM_SIZE,
     /**
      * The color sample counts that are supported for all framebuffer color
      * attachments with floating- or fixed-point formats. For color attachments with
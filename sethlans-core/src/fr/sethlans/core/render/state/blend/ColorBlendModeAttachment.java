@@ -1,5 +1,7 @@
 package fr.sethlans.core.render.state.blend;
 
+import java.util.Objects;
+
 public class ColorBlendModeAttachment {
 
     public static final ColorBlendModeAttachment DEFAULT = new ColorBlendModeAttachment();
@@ -114,4 +116,25 @@ public class ColorBlendModeAttachment {
         copy.colorWriteMask = colorWriteMask;
         return copy;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(alphaBlendOp, blendMode, colorBlendOp, colorWriteMask, dstAlphaBlendFactor,
+                dstColorBlendFactor, srcAlphaBlendFactor, srcColorBlendFactor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        var other = (ColorBlendModeAttachment) obj;
+        return alphaBlendOp == other.alphaBlendOp && blendMode == other.blendMode
+                && colorBlendOp == other.colorBlendOp && colorWriteMask == other.colorWriteMask
+                && dstAlphaBlendFactor == other.dstAlphaBlendFactor && dstColorBlendFactor == other.dstColorBlendFactor
+                && srcAlphaBlendFactor == other.srcAlphaBlendFactor && srcColorBlendFactor == other.srcColorBlendFactor;
+    }
 }
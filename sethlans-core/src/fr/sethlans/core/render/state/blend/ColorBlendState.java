@@ -3,6 +3,7 @@ package fr.sethlans.core.render.state.blend;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 public class ColorBlendState {
 
@@ -48,6 +49,21 @@ public class ColorBlendState {
         this.blendConstants = blendConstants;
     }
 
+    /**
+     * Return whether any attachment blends with the existing colors, in which case
+     * the drawn geometries must be sorted back-to-front.
+     * 
+     * @return Whether blending is enabled.
+     */
+    public boolean isBlending() {
+        for (var attachment : blendAttachments) {
+            if (attachment.getBlendMode() != BlendMode.OFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public List<ColorBlendModeAttachment> getBlendAttachments() {
         return blendAttachments;
     }
@@ -55,7 +71,7 @@ public class ColorBlendState {
     public ColorBlendState set(ColorBlendState state) {
         logicOpEnable = state.logicOpEnable;
         logicOp = state.logicOp;
-        blendConstants = Arrays.copyOf(blendConstants, 4);
+        blendConstants = Arrays.copyOf(state.blendConstants, 4);
 
         blendAttachments.clear();
         for (var attachment : state.blendAttachments) {
@@ -70,9 +86,29 @@ public class ColorBlendState {
         copy.logicOp = logicOp;
         copy.blendConstants = Arrays.copyOf(blendConstants, 4);
 
+        copy.blendAttachments.clear();
         for (var attachment : blendAttachments) {
             copy.blendAttachments.add(attachment.copy());
         }
         return copy;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(blendAttachments, Arrays.hashCode(blendConstants), logicOp, logicOpEnable);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        var other = (ColorBlendState) obj;
+        return Objects.equals(blendAttachments, other.blendAttachments)
+                && Arrays.equals(blendConstants, other.blendConstants) && logicOp == other.logicOp
+                && logicOpEnable == other.logicOpEnable;
+    }
 }
@@ -19,6 +19,13 @@ public interface GpuStructLayout {
 
         STD140,
 
-        STD430;
+        STD430,
+
+        /**
+         * Members are only aligned to their scalar component, which requires the
+         * {@link fr.sethlans.core.render.device.DeviceFeature#SCALAR_BLOCK_LAYOUT}
+         * feature and the GL_EXT_scalar_block_layout shader extension.
+         */
+        SCALAR;
     }
 }
@@ -4,9 +4,37 @@ public interface LayoutFormatter {
     
     LayoutFormatter STD140 = new Std140Formatter();
 
+    LayoutFormatter STD430 = new Std430Formatter();
+
+    LayoutFormatter SCALAR = new ScalarFormatter();
+
     int size(ValueType valueType);
 
     int alignment(ValueType valueType);
 
-    int getStructAlignment();
+    /**
+     * Return the stride in bytes between two elements of an array.
+     * 
+     * @param elementSize      The size of an element in bytes.
+     * @param elementAlignment The base alignment of an element in bytes.
+     * @return The array stride in bytes.
+     */
+    int arrayStride(int elementSize, int elementAlignment);
+
+    /**
+     * Return the base alignment of a struct or array, given the largest base
+     * alignment of its members.
+     * 
+     * @param memberAlignment The largest base alignment of the members in bytes.
+     * @return The base alignment in bytes.
+     */
+    int structAlignment(int memberAlignment);
+
+    static LayoutFormatter of(GpuStructLayout.LayoutType type) {
+        return switch (type) {
+        case STD140 -> STD140;
+        case STD430 -> STD430;
+        case SCALAR -> SCALAR;
+        };
+    }
 }
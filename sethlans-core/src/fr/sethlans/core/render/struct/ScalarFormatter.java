@@ -0,0 +1,40 @@
+package fr.sethlans.core.render.struct;
+
+/**
+ * Formats structs following the scalar block layout, where every member is
+ * only aligned to its scalar component. It requires the device to support
+ * {@link fr.sethlans.core.render.device.DeviceFeature#SCALAR_BLOCK_LAYOUT}.
+ */
+final class ScalarFormatter implements LayoutFormatter {
+    
+    ScalarFormatter() {
+        super();
+    }
+
+    @Override
+    public int size(ValueType valueType) {
+        return switch (valueType) {
+        case BOOLEAN, INTEGER, FLOAT -> 4;
+        case VECTOR2F -> 8;
+        case VECTOR3F -> 12;
+        case VECTOR4F -> 16;
+        case MATRIX3F -> 36;
+        case MATRIX4F -> 64;
+    };
+    }
+
+    @Override
+    public int alignment(ValueType valueType) {
+        return Float.BYTES;
+    }
+
+    @Override
+    public int arrayStride(int elementSize, int elementAlignment) {
+        return StructLayoutGenerator.align(elementSize, elementAlignment);
+    }
+
+    @Override
+    public int structAlignment(int memberAlignment) {
+        return memberAlignment;
+    }
+}
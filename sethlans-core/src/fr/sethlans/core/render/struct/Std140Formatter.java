@@ -11,7 +11,9 @@ final class Std140Formatter implements LayoutFormatter {
         return switch (valueType) {
         case BOOLEAN, INTEGER, FLOAT -> 4;
         case VECTOR2F -> 8;
-        case VECTOR3F, VECTOR4F -> 16;
+        // A vec3 is aligned like a vec4, but a following scalar can use its last 4 bytes.
+        case VECTOR3F -> 12;
+        case VECTOR4F -> 16;
         case MATRIX3F -> 48;
         case MATRIX4F -> 64;
         default -> throw new IllegalArgumentException("Unexpected value type " + valueType + "!");
@@ -29,7 +31,13 @@ final class Std140Formatter implements LayoutFormatter {
     }
 
     @Override
-    public int getStructAlignment() {
-        return 16;
+    public int arrayStride(int elementSize, int elementAlignment) {
+        // Array elements are rounded up to the alignment of a vec4.
+        return StructLayoutGenerator.align(elementSize, Math.max(elementAlignment, 16));
+    }
+
+    @Override
+    public int structAlignment(int memberAlignment) {
+        return StructLayoutGenerator.align(memberAlignment, 16);
     }
 }
@@ -0,0 +1,40 @@
+package fr.sethlans.core.render.struct;
+
+final class Std430Formatter implements LayoutFormatter {
+    
+    Std430Formatter() {
+        super();
+    }
+
+    @Override
+    public int size(ValueType valueType) {
+        return switch (valueType) {
+        case BOOLEAN, INTEGER, FLOAT -> 4;
+        case VECTOR2F -> 8;
+        case VECTOR3F -> 12;
+        case VECTOR4F -> 16;
+        case MATRIX3F -> 48;
+        case MATRIX4F -> 64;
+    };
+    }
+
+    @Override
+    public int alignment(ValueType valueType) {
+        return switch (valueType) {
+        case BOOLEAN, INTEGER, FLOAT  -> Float.BYTES;
+        case VECTOR2F -> 2 * Float.BYTES;
+        case VECTOR3F, VECTOR4F, MATRIX3F, MATRIX4F -> 4 * Float.BYTES;
+    };
+    }
+
+    @Override
+    public int arrayStride(int elementSize, int elementAlignment) {
+        // Unlike std140, arrays and structs aren't rounded up to the alignment of a vec4.
+        return StructLayoutGenerator.align(elementSize, elementAlignment);
+    }
+
+    @Override
+    public int structAlignment(int memberAlignment) {
+        return memberAlignment;
+    }
+}
@@ -1,7 +1,10 @@
 package fr.sethlans.core.render.struct;
 
+import java.lang.reflect.RecordComponent;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public final class StructLayoutGenerator {
 
@@ -10,25 +13,61 @@ public final class StructLayoutGenerator {
             throw new IllegalArgumentException("Provided GpuStruct must be a record!");
         }
 
+        return (StructLayout) generateRecord(struct, struct.getSimpleName(), 0, formatter).layout();
+    }
+
+    private static Member generateRecord(Class<?> struct, String name, int structOffset, LayoutFormatter formatter) {
         var offset = 0;
+        var maxAlignment = 1;
         List<StructField> fields = new ArrayList<>();
 
         for (var component : struct.getRecordComponents()) {
-            var type = component.getType();
-            var valueType = ValueType.typeOf(type);
-            var alignment = formatter.alignment(valueType);
-            var size = formatter.size(valueType);
+            var member = generateMember(component, formatter);
 
-            offset = align(offset, alignment);
+            offset = align(offset, member.alignment());
+            fields.add(member.at(offset));
 
-            fields.add(new SimpleStructField(component.getName(), offset, size, alignment, type));
+            offset += member.layout().size();
+            maxAlignment = Math.max(maxAlignment, member.alignment());
         }
 
-        var structAlignment = formatter.getStructAlignment();
+        var structAlignment = formatter.structAlignment(maxAlignment);
         var structSize = align(offset, structAlignment);
-        var layout = new StructLayout(struct.getSimpleName(), 0, structSize, fields);
+        var layout = new StructLayout(name, structOffset, structSize, fields);
+
+        return new Member(layout, structAlignment);
+    }
+
+    private static Member generateMember(RecordComponent component, LayoutFormatter formatter) {
+        var type = component.getType();
+        var name = component.getName();
+
+        if (type.isArray()) {
+            var arraySize = component.getAnnotation(ArraySize.class);
+            if (arraySize == null) {
+                throw new IllegalStateException("Array '" + name + "' requires fixed length annotation!");
+            }
 
-        return layout;
+            var element = generateElement(type.componentType(), name, formatter);
+            var stride = formatter.arrayStride(element.layout().size(), element.alignment());
+            var alignment = formatter.structAlignment(element.alignment());
+            var count = arraySize.value();
+
+            return new Member(new ArrayField(name, 0, stride * count, stride, count, element.layout()), alignment);
+        }
+
+        return generateElement(type, name, formatter);
+    }
+
+    private static Member generateElement(Class<?> type, String name, LayoutFormatter formatter) {
+        if (type.isRecord()) {
+            return generateRecord(type, name, 0, formatter);
+        }
+
+        var valueType = ValueType.typeOf(type);
+        var alignment = formatter.alignment(valueType);
+        var size = formatter.size(valueType);
+        return new Member(new SimpleStructField(name, 0, size, alignment, type), alignment);
     }
 
     static int align(int offset, int alignment) {
@@ -47,10 +86,43 @@ public final class StructLayoutGenerator {
     public record SimpleStructField(String name, int offset, int size, int alignment, Class<?> type) implements StructField {
     }
 
-    public record StructLayout(String name, int offset, int size, List<StructField> fields) implements StructField {
+    public record ArrayField(String name, int offset, int size, int stride, int count, StructField element)
+            implements StructField {
+    }
+
+    private record Member(StructField layout, int alignment) {
+
+        StructField at(int offset) {
+            return switch (layout) {
+            case SimpleStructField f -> new SimpleStructField(f.name(), offset, f.size(), f.alignment(), f.type());
+            case ArrayField f -> new ArrayField(f.name(), offset, f.size(), f.stride(), f.count(), f.element());
+            case StructLayout f -> new StructLayout(f.name(), offset, f.size(), f.fields(), f.fieldsByName());
+            default -> throw new IllegalStateException("Unexpected struct field " + layout + "!");
+            };
+        }
+    }
+
+    public record StructLayout(String name, int offset, int size, List<StructField> fields,
+            Map<String, StructField> fieldsByName) implements StructField {
+
+        public StructLayout(String name, int offset, int size, List<StructField> fields) {
+            this(name, offset, size, fields, indexFields(fields));
+        }
 
         public StructField getField(String name) {
-            return fields.stream().filter(field -> field.name().equals(name)).findFirst().orElseThrow();
+            var field = fieldsByName.get(name);
+            if (field == null) {
+                throw new IllegalArgumentException("Struct " + name() + " has no field '" + name + "'!");
+            }
+            return field;
+        }
+
+        private static Map<String, StructField> indexFields(List<StructField> fields) {
+            Map<String, StructField> fieldsByName = new HashMap<>();
+            for (var field : fields) {
+                fieldsByName.put(field.name(), field);
+            }
+            return fieldsByName;
         }
     }
 }
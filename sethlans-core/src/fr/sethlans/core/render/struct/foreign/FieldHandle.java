@@ -0,0 +1,320 @@
+package fr.sethlans.core.render.struct.foreign;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Objects;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix3fc;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector2f;
+import org.joml.Vector2fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+import org.joml.Vector4fc;
+
+import fr.sethlans.core.render.struct.ValueType;
+
+/**
+ * A field of a {@link ForeignStructLayout} resolved to its byte offset, used to
+ * read and write the field directly in a mapped {@link MemorySegment} without
+ * allocating. Fields declared inside an array, either an array of values or an
+ * array of nested records, are accessed with an element index.
+ */
+public final class FieldHandle {
+
+    private static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+
+    private final String path;
+
+    private final ValueType type;
+
+    private final long offset;
+
+    private final int count;
+
+    private final long stride;
+
+    /**
+     * The stride in bytes between two columns of a 3x3 matrix.
+     */
+    private final long columnStride;
+
+    FieldHandle(String path, ValueType type, long offset, int count, long stride, long columnStride) {
+        this.path = path;
+        this.type = type;
+        this.offset = offset;
+        this.count = count;
+        this.stride = stride;
+        this.columnStride = columnStride;
+    }
+
+    public float getFloat(MemorySegment segment) {
+        return getFloat(segment, 0, 0);
+    }
+
+    public float getFloat(MemorySegment segment, long structOffset, int index) {
+        checkType(ValueType.FLOAT);
+        return segment.get(FLOAT, offsetOf(structOffset, index));
+    }
+
+    public void setFloat(MemorySegment segment, float value) {
+        setFloat(segment, 0, 0, value);
+    }
+
+    public void setFloat(MemorySegment segment, long structOffset, int index, float value) {
+        checkType(ValueType.FLOAT);
+        segment.set(FLOAT, offsetOf(structOffset, index), value);
+    }
+
+    public int getInt(MemorySegment segment) {
+        return getInt(segment, 0, 0);
+    }
+
+    public int getInt(MemorySegment segment, long structOffset, int index) {
+        checkType(ValueType.INTEGER);
+        return segment.get(INT, offsetOf(structOffset, index));
+    }
+
+    public void setInt(MemorySegment segment, int value) {
+        setInt(segment, 0, 0, value);
+    }
+
+    public void setInt(MemorySegment segment, long structOffset, int index, int value) {
+        checkType(ValueType.INTEGER);
+        segment.set(INT, offsetOf(structOffset, index), value);
+    }
+
+    public boolean getBoolean(MemorySegment segment) {
+        return getBoolean(segment, 0, 0);
+    }
+
+    public boolean getBoolean(MemorySegment segment, long structOffset, int index) {
+        checkType(ValueType.BOOLEAN);
+        return segment.get(INT, offsetOf(structOffset, index)) != 0;
+    }
+
+    public void setBoolean(MemorySegment segment, boolean value) {
+        setBoolean(segment, 0, 0, value);
+    }
+
+    public void setBoolean(MemorySegment segment, long structOffset, int index, boolean value) {
+        checkType(ValueType.BOOLEAN);
+        // Shader booleans are 32-bit wide.
+        segment.set(INT, offsetOf(structOffset, index), value ? 1 : 0);
+    }
+
+    public Vector2f get(MemorySegment segment, Vector2f store) {
+        return get(segment, 0, 0, store);
+    }
+
+    public Vector2f get(MemorySegment segment, long structOffset, int index, Vector2f store) {
+        checkType(ValueType.VECTOR2F);
+        var o = offsetOf(structOffset, index);
+        return store.set(segment.get(FLOAT, o), segment.get(FLOAT, o + 4));
+    }
+
+    public void set(MemorySegment segment, Vector2fc value) {
+        set(segment, 0, 0, value);
+    }
+
+    public void set(MemorySegment segment, long structOffset, int index, Vector2fc value) {
+        checkType(ValueType.VECTOR2F);
+        var o = offsetOf(structOffset, index);
+        segment.set(FLOAT, o, value.x());
+        segment.set(FLOAT, o + 4, value.y());
+    }
+
+    public Vector3f get(MemorySegment segment, Vector3f store) {
+        return get(segment, 0, 0, store);
+    }
+
+    public Vector3f get(MemorySegment segment, long structOffset, int index, Vector3f store) {
+        checkType(ValueType.VECTOR3F);
+        var o = offsetOf(structOffset, index);
+        return store.set(segment.get(FLOAT, o), segment.get(FLOAT, o + 4), segment.get(FLOAT, o + 8));
+    }
+
+    public void set(MemorySegment segment, Vector3fc value) {
+        set(segment, 0, 0, value);
+    }
+
+    public void set(MemorySegment segment, long structOffset, int index, Vector3fc value) {
+        checkType(ValueType.VECTOR3F);
+        var o = offsetOf(structOffset, index);
+        segment.set(FLOAT, o, value.x());
+        segment.set(FLOAT, o + 4, value.y());
+        segment.set(FLOAT, o + 8, value.z());
+    }
+
+    public Vector4f get(MemorySegment segment, Vector4f store) {
+        return get(segment, 0, 0, store);
+    }
+
+    public Vector4f get(MemorySegment segment, long structOffset, int index, Vector4f store) {
+        checkType(ValueType.VECTOR4F);
+        var o = offsetOf(structOffset, index);
+        return store.set(segment.get(FLOAT, o), segment.get(FLOAT, o + 4), segment.get(FLOAT, o + 8),
+                segment.get(FLOAT, o + 12));
+    }
+
+    public void set(MemorySegment segment, Vector4fc value) {
+        set(segment, 0, 0, value);
+    }
+
+    public void set(MemorySegment segment, long structOffset, int index, Vector4fc value) {
+        checkType(ValueType.VECTOR4F);
+        var o = offsetOf(structOffset, index);
+        segment.set(FLOAT, o, value.x());
+        segment.set(FLOAT, o + 4, value.y());
+        segment.set(FLOAT, o + 8, value.z());
+        segment.set(FLOAT, o + 12, value.w());
+    }
+
+    public Matrix3f get(MemorySegment segment, Matrix3f store) {
+        return get(segment, 0, 0, store);
+    }
+
+    public Matrix3f get(MemorySegment segment, long structOffset, int index, Matrix3f store) {
+        checkType(ValueType.MATRIX3F);
+        var o = offsetOf(structOffset, index);
+        for (var c = 0; c < 3; ++c) {
+            for (var r = 0; r < 3; ++r) {
+                store.set(c, r, segment.get(FLOAT, o + c * columnStride + r * Float.BYTES));
+            }
+        }
+        return store;
+    }
+
+    public void set(MemorySegment segment, Matrix3fc value) {
+        set(segment, 0, 0, value);
+    }
+
+    public void set(MemorySegment segment, long structOffset, int index, Matrix3fc value) {
+        checkType(ValueType.MATRIX3F);
+        var o = offsetOf(structOffset, index);
+        // Each column is padded to the size of a 4-component vector, except in the scalar layout.
+        for (var c = 0; c < 3; ++c) {
+            for (var r = 0; r < 3; ++r) {
+                segment.set(FLOAT, o + c * columnStride + r * Float.BYTES, value.get(c, r));
+            }
+        }
+    }
+
+    public Matrix4f get(MemorySegment segment, Matrix4f store) {
+        return get(segment, 0, 0, store);
+    }
+
+    public Matrix4f get(MemorySegment segment, long structOffset, int index, Matrix4f store) {
+        checkType(ValueType.MATRIX4F);
+        var o = offsetOf(structOffset, index);
+        for (var c = 0; c < 4; ++c) {
+            for (var r = 0; r < 4; ++r) {
+                store.set(c, r, segment.get(FLOAT, o + (c * 4 + r) * Float.BYTES));
+            }
+        }
+        return store;
+    }
+
+    public void set(MemorySegment segment, Matrix4fc value) {
+        set(segment, 0, 0, value);
+    }
+
+    public void set(MemorySegment segment, long structOffset, int index, Matrix4fc value) {
+        checkType(ValueType.MATRIX4F);
+        var o = offsetOf(structOffset, index);
+        for (var c = 0; c < 4; ++c) {
+            for (var r = 0; r < 4; ++r) {
+                segment.set(FLOAT, o + (c * 4 + r) * Float.BYTES, value.get(c, r));
+            }
+        }
+    }
+
+    /**
+     * Read the field into a newly allocated value of the field type.
+     *
+     * @param segment      The segment of the mapped buffer.
+     * @param structOffset The offset in bytes of the struct in the segment.
+     * @param index        The index of the element, or 0 if the field isn't in an
+     *                     array.
+     * @return The field value.
+     */
+    public Object getValue(MemorySegment segment, long structOffset, int index) {
+        return switch (type) {
+        case BOOLEAN -> getBoolean(segment, structOffset, index);
+        case INTEGER -> getInt(segment, structOffset, index);
+        case FLOAT -> getFloat(segment, structOffset, index);
+        case VECTOR2F -> get(segment, structOffset, index, new Vector2f());
+        case VECTOR3F -> get(segment, structOffset, index, new Vector3f());
+        case VECTOR4F -> get(segment, structOffset, index, new Vector4f());
+        case MATRIX3F -> get(segment, structOffset, index, new Matrix3f());
+        case MATRIX4F -> get(segment, structOffset, index, new Matrix4f());
+        };
+    }
+
+    /**
+     * Write a value of the field type, dispatched on the field type.
+     *
+     * @param segment      The segment of the mapped buffer.
+     * @param structOffset The offset in bytes of the struct in the segment.
+     * @param index        The index of the element, or 0 if the field isn't in an
+     *                     array.
+     * @param value        The value to write.
+     */
+    public void setValue(MemorySegment segment, long structOffset, int index, Object value) {
+        switch (type) {
+        case BOOLEAN -> setBoolean(segment, structOffset, index, (Boolean) value);
+        case INTEGER -> setInt(segment, structOffset, index, (Integer) value);
+        case FLOAT -> setFloat(segment, structOffset, index, (Float) value);
+        case VECTOR2F -> set(segment, structOffset, index, (Vector2fc) value);
+        case VECTOR3F -> set(segment, structOffset, index, (Vector3fc) value);
+        case VECTOR4F -> set(segment, structOffset, index, (Vector4fc) value);
+        case MATRIX3F -> set(segment, structOffset, index, (Matrix3fc) value);
+        case MATRIX4F -> set(segment, structOffset, index, (Matrix4fc) value);
+        }
+    }
+
+    private long offsetOf(long structOffset, int index) {
+        return structOffset + offset + Objects.checkIndex(index, count) * stride;
+    }
+
+    private void checkType(ValueType expected) {
+        if (type != expected) {
+            throw new IllegalArgumentException("Field '" + path + "' is of type " + type + ", not " + expected + "!");
+        }
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public ValueType type() {
+        return type;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long stride() {
+        return stride;
+    }
+
+    public long columnStride() {
+        return columnStride;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldHandle [path=" + path + ", type=" + type + ", offset=" + offset + ", count=" + count
+                + ", stride=" + stride + "]";
+    }
+}
@@ -2,96 +2,119 @@ package fr.sethlans.core.render.struct.foreign;
 
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
-import org.joml.Matrix4f;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
 
 import fr.alchemy.utilities.logging.FactoryLogger;
 import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.buffer.BufferMapping;
 import fr.sethlans.core.render.buffer.MemorySize;
 import fr.sethlans.core.render.buffer.NativeBuffer;
 import fr.sethlans.core.render.struct.GpuStructLayout;
-import fr.sethlans.core.render.struct.ValueType;
 
+/**
+ * A struct layout described with a foreign {@link MemoryLayout}, optionally
+ * repeated as a sequence of elements. The fields are resolved once to
+ * {@link FieldHandle}s, which read and write a mapped {@link MemorySegment}
+ * without allocating.
+ */
 public class ForeignStructLayout implements GpuStructLayout {
 
     private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.context");
 
     private final MemoryLayout structLayout;
 
+    private final Map<String, FieldHandle> fields;
+
+    private final long elementCount;
+
+    private final long stride;
+
     private final LayoutType layout;
 
-    ForeignStructLayout(MemoryLayout structLayout, LayoutType layout) {
+    ForeignStructLayout(MemoryLayout structLayout, Map<String, FieldHandle> fields, long elementCount, long stride,
+            LayoutType layout) {
         this.structLayout = structLayout;
+        this.fields = fields;
+        this.elementCount = elementCount;
+        this.stride = stride;
         this.layout = layout;
     }
 
+    /**
+     * Return the resolved handle of the given field. Fields of nested records are
+     * named by their dotted path, for example {@code "light.color"}.
+     *
+     * @param path The path of the field.
+     * @return The field handle.
+     * @throws IllegalArgumentException If the struct has no such field.
+     */
+    public FieldHandle field(String path) {
+        var field = fields.get(path);
+        if (field == null) {
+            throw new IllegalArgumentException("Struct " + structLayout.name().orElse("") + " has no field '" + path
+                    + "'!");
+        }
+        return field;
+    }
+
+    public Map<String, FieldHandle> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Return a segment over the mapped memory. The segment can be kept and reused
+     * as long as the memory stays mapped.
+     *
+     * @param mapping The buffer mapping.
+     * @return A segment of the mapped memory.
+     */
+    public MemorySegment segment(BufferMapping mapping) {
+        return MemorySegment.ofAddress(mapping.getAddress()).reinterpret(mapping.getSize());
+    }
+
+    /**
+     * Return the offset in bytes of the given element of the sequence.
+     *
+     * @param index The index of the element.
+     * @return The offset of the element.
+     */
+    public long elementOffset(int index) {
+        return Objects.checkIndex(index, elementCount) * stride;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T get(String name, NativeBuffer buffer) {
-        var handle = structLayout.varHandle(MemoryLayout.PathElement.groupElement(name),
-                MemoryLayout.PathElement.sequenceElement(), MemoryLayout.PathElement.sequenceElement());
+        var field = field(name);
         try (var map = buffer.map()) {
-            var seg = MemorySegment.ofAddress(map.getAddress());
+            return (T) field.getValue(segment(map), 0, 0);
         }
-        return null;
     }
 
     @Override
-    public void set(NativeBuffer buffer, String name, Object value) {
-        var type = ValueType.typeOf(value.getClass());
-        try (var m = buffer.map()) {
-            switch (type) {
-            case BOOLEAN:
-                break;
-            case FLOAT:
-                break;
-            case INTEGER:
-                break;
-            case MATRIX3F:
-                break;
-            case MATRIX4F:
-                var v = (Matrix4f) value;
-                v.get(0, m.getBytes());
-                break;
-            case VECTOR2F:
-                break;
-            case VECTOR3F:
-                break;
-            case VECTOR4F:
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid ValueType " + type + " from " + value);
-            }
-        }
+    public <T> void set(NativeBuffer buffer, String name, T value) {
+        set(buffer, name, 0, value);
     }
 
     @Override
     public <T> void set(NativeBuffer buffer, String name, int frameIndex, T value) {
-        var type = ValueType.typeOf(value.getClass());
-        try (var m = buffer.map()) {
-            switch (type) {
-            case BOOLEAN:
-                break;
-            case FLOAT:
-                break;
-            case INTEGER:
-                break;
-            case MATRIX3F:
-                break;
-            case MATRIX4F:
-                var v = (Matrix4f) value;
-                v.get(0, m.getBytes());
-                break;
-            case VECTOR2F:
-                break;
-            case VECTOR3F:
-                break;
-            case VECTOR4F:
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid ValueType " + type + " from " + value);
-            }
+        var field = field(name);
+        var structOffset = elementOffset(frameIndex);
+        try (var map = buffer.map()) {
+            field.setValue(segment(map), structOffset, 0, value);
         }
     }
 
+    public long elementCount() {
+        return elementCount;
+    }
+
+    public long stride() {
+        return stride;
+    }
+
     @Override
     public LayoutType type() {
         return layout;
@@ -101,4 +124,9 @@ public class ForeignStructLayout implements GpuStructLayout {
     public MemorySize size() {
         return MemorySize.bytes(structLayout.byteSize());
     }
+
+    @Override
+    public String toString() {
+        return "ForeignStructLayout [layout=" + structLayout + ", type=" + layout + "]";
+    }
 }
@@ -1,11 +1,14 @@
 package fr.sethlans.core.render.struct.foreign;
 
 import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.SequenceLayout;
 import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
 import java.lang.reflect.RecordComponent;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,26 +26,35 @@ public class ForeignStructLayoutGenerator {
 
     public static final Map<ValueType, MemoryLayout> MAPPER = new HashMap<>();
 
+    /**
+     * The layouts of the values in the scalar block layout, aligned to their scalar
+     * component.
+     */
+    public static final Map<ValueType, MemoryLayout> SCALAR_MAPPER = new HashMap<>();
+
     private static final MemoryLayout VECTOR2F = MemoryLayout
             .structLayout(ValueLayout.JAVA_FLOAT.withName("x"), ValueLayout.JAVA_FLOAT.withName("y"))
             .withByteAlignment(8);
 
+    // A vec3 is aligned like a vec4 but only occupies 12 bytes, a following scalar can use the last 4 bytes.
     private static final MemoryLayout VECTOR3F = MemoryLayout.structLayout(ValueLayout.JAVA_FLOAT.withName("x"),
-            ValueLayout.JAVA_FLOAT.withName("y"), ValueLayout.JAVA_FLOAT.withName("z"), MemoryLayout.paddingLayout(4))
-            .withByteAlignment(16);
+            ValueLayout.JAVA_FLOAT.withName("y"), ValueLayout.JAVA_FLOAT.withName("z")).withByteAlignment(16);
 
     private static final MemoryLayout VECTOR4F = MemoryLayout
             .structLayout(ValueLayout.JAVA_FLOAT.withName("x"), ValueLayout.JAVA_FLOAT.withName("y"),
                     ValueLayout.JAVA_FLOAT.withName("z"), ValueLayout.JAVA_FLOAT.withName("w"))
             .withByteAlignment(16);
 
-    private static final MemoryLayout MATRIX3F = MemoryLayout.sequenceLayout(3, VECTOR3F).withByteAlignment(16);
+    private static final MemoryLayout MATRIX3F = MemoryLayout
+            .sequenceLayout(3, MemoryLayout.structLayout(VECTOR3F, MemoryLayout.paddingLayout(4)).withByteAlignment(16))
+            .withByteAlignment(16);
 
     private static final MemoryLayout MATRIX4F = MemoryLayout
             .sequenceLayout(4, MemoryLayout.sequenceLayout(4, ValueLayout.JAVA_FLOAT)).withByteAlignment(16);
 
     static {
-        MAPPER.put(ValueType.BOOLEAN, ValueLayout.JAVA_BOOLEAN.withByteAlignment(4));
+        // Shader booleans are 32-bit wide.
+        MAPPER.put(ValueType.BOOLEAN, ValueLayout.JAVA_INT.withByteAlignment(4));
         MAPPER.put(ValueType.INTEGER, ValueLayout.JAVA_INT.withByteAlignment(4));
         MAPPER.put(ValueType.FLOAT, ValueLayout.JAVA_FLOAT.withByteAlignment(4));
         MAPPER.put(ValueType.VECTOR2F, VECTOR2F);
@@ -50,6 +62,15 @@ public class ForeignStructLayoutGenerator {
         MAPPER.put(ValueType.VECTOR4F, VECTOR4F);
         MAPPER.put(ValueType.MATRIX3F, MATRIX3F);
         MAPPER.put(ValueType.MATRIX4F, MATRIX4F);
+
+        SCALAR_MAPPER.put(ValueType.BOOLEAN, MAPPER.get(ValueType.BOOLEAN));
+        SCALAR_MAPPER.put(ValueType.INTEGER, MAPPER.get(ValueType.INTEGER));
+        SCALAR_MAPPER.put(ValueType.FLOAT, MAPPER.get(ValueType.FLOAT));
+        SCALAR_MAPPER.put(ValueType.VECTOR2F, VECTOR2F.withByteAlignment(4));
+        SCALAR_MAPPER.put(ValueType.VECTOR3F, VECTOR3F.withByteAlignment(4));
+        SCALAR_MAPPER.put(ValueType.VECTOR4F, VECTOR4F.withByteAlignment(4));
+        SCALAR_MAPPER.put(ValueType.MATRIX3F, MemoryLayout.sequenceLayout(3, VECTOR3F.withByteAlignment(4)));
+        SCALAR_MAPPER.put(ValueType.MATRIX4F, MATRIX4F.withByteAlignment(4));
     }
     
     public static <T extends GpuStruct> GpuStructLayout sequenceLayoutOf(Class<T> struct, int elementCount, LayoutType layout) {
@@ -67,7 +88,8 @@ public class ForeignStructLayoutGenerator {
         
         logger.info(structLayout);
 
-        return new ForeignStructLayout(sequenceLayout, layout);
+        return new ForeignStructLayout(sequenceLayout, resolveFields(struct, structLayout, layout), elementCount, stride,
+                layout);
     }
 
     public static <T extends GpuStruct> GpuStructLayout layoutOf(Class<T> struct, LayoutType layout) {
@@ -78,12 +100,14 @@ public class ForeignStructLayoutGenerator {
         var structLayout = resolveRecord(struct, layout);
         logger.info(structLayout);
 
-        return new ForeignStructLayout(structLayout, layout);
+        return new ForeignStructLayout(structLayout, resolveFields(struct, structLayout, layout), 1,
+                structLayout.byteSize(), layout);
     }
 
     private static StructLayout resolveRecord(Class<?> struct, LayoutType layout) {
         List<MemoryLayout> fields = new ArrayList<>();
 
+        var offset = 0L;
         var maxAlign = 0L;
 
         for (var component : struct.getRecordComponents()) {
@@ -92,20 +116,91 @@ public class ForeignStructLayoutGenerator {
             var name = component.getName();
 
             var memLayout = resolveComponent(type, component, layout);
-            memLayout.withName(name);
 
-            fields.add(memLayout);
+            // Pad up to the base alignment of the field.
+            var alignedOffset = align(offset, memLayout.byteAlignment());
+            if (alignedOffset > offset) {
+                fields.add(MemoryLayout.paddingLayout(alignedOffset - offset));
+            }
+
+            fields.add(memLayout.withName(name));
+            offset = alignedOffset + memLayout.byteSize();
 
             maxAlign = Math.max(maxAlign, memLayout.byteAlignment());
         }
 
         var structAlign = (layout == LayoutType.STD140) ? Math.max(16, maxAlign) : maxAlign;
 
+        // The size of a struct is rounded up to its base alignment.
+        var structSize = align(offset, structAlign);
+        if (structSize > offset) {
+            fields.add(MemoryLayout.paddingLayout(structSize - offset));
+        }
+
         var recordLayout = MemoryLayout.structLayout(fields.toArray(MemoryLayout[]::new)).withByteAlignment(structAlign)
                 .withName(struct.getSimpleName());
         return recordLayout;
     }
 
+    /**
+     * Resolve the offset of every value field of the record, including the fields
+     * of nested records which are named by their dotted path.
+     */
+    private static Map<String, FieldHandle> resolveFields(Class<?> struct, StructLayout structLayout,
+            LayoutType layout) {
+        // Keep the declaration order, used to match the fields against the shader blocks.
+        Map<String, FieldHandle> fields = new LinkedHashMap<>();
+        // Matrix columns are padded to a vec4, except in the scalar block layout.
+        var columnStride = (layout == LayoutType.SCALAR) ? 3 * Float.BYTES : 4 * Float.BYTES;
+        resolveFields(struct, structLayout, "", 0, 1, 0, columnStride, fields);
+        return fields;
+    }
+
+    private static void resolveFields(Class<?> struct, StructLayout structLayout, String prefix, long baseOffset,
+            int count, long stride, long columnStride, Map<String, FieldHandle> fields) {
+        for (var component : struct.getRecordComponents()) {
+            var type = component.getType();
+            var path = prefix + component.getName();
+            var memLayout = structLayout.select(PathElement.groupElement(component.getName()));
+            var offset = baseOffset + structLayout.byteOffset(PathElement.groupElement(component.getName()));
+
+            if (type.isArray()) {
+                if (count > 1) {
+                    throw new IllegalArgumentException("Nested array '" + path + "' isn't supported!");
+                }
+
+                var sequence = (SequenceLayout) memLayout;
+                var elementCount = Math.toIntExact(sequence.elementCount());
+                var elementStride = sequence.elementLayout().byteSize();
+                var componentType = type.componentType();
+                if (componentType.isRecord()) {
+                    var elementLayout = firstStruct(sequence.elementLayout());
+                    resolveFields(componentType, elementLayout, path + ".", offset, elementCount, elementStride,
+                            columnStride, fields);
+                } else {
+                    fields.put(path, new FieldHandle(path, ValueType.typeOf(componentType), offset, elementCount,
+                            elementStride, columnStride));
+                }
+
+            } else if (type.isRecord()) {
+                resolveFields(type, (StructLayout) memLayout, path + ".", offset, count, stride, columnStride,
+                        fields);
+
+            } else {
+                fields.put(path, new FieldHandle(path, ValueType.typeOf(type), offset, count, stride, columnStride));
+            }
+        }
+    }
+
+    private static StructLayout firstStruct(MemoryLayout element) {
+        // Array elements may be wrapped in a struct padding them to the array stride.
+        var struct = (StructLayout) element;
+        if (struct.name().isEmpty() && struct.memberLayouts().get(0) instanceof StructLayout inner) {
+            return inner;
+        }
+        return struct;
+    }
+
     private static MemoryLayout resolveComponent(Class<?> type, RecordComponent component, LayoutType layout) {
 
         // Nested struct.
@@ -126,7 +221,7 @@ public class ForeignStructLayoutGenerator {
 
             } else {
                 var valueType = ValueType.typeOf(componentType);
-                memLayout = MAPPER.get(valueType);
+                memLayout = mapperOf(layout).get(valueType);
             }
 
             var stride = (layout == LayoutType.STD140) ? align(memLayout.byteSize(), 16)
@@ -137,10 +232,14 @@ public class ForeignStructLayoutGenerator {
         }
 
         var valueType = ValueType.typeOf(type);
-        var memLayout = MAPPER.get(valueType);
+        var memLayout = mapperOf(layout).get(valueType);
         return memLayout.withName(component.getName());
     }
 
+    private static Map<ValueType, MemoryLayout> mapperOf(LayoutType layout) {
+        return (layout == LayoutType.SCALAR) ? SCALAR_MAPPER : MAPPER;
+    }
+
     private static MemoryLayout padToStride(MemoryLayout element, long stride) {
         var size = element.byteSize();
         if (size == stride) {
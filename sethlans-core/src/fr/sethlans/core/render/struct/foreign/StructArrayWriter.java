@@ -0,0 +1,476 @@
+package fr.sethlans.core.render.struct.foreign;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import fr.sethlans.core.render.buffer.NativeBuffer;
+import fr.sethlans.core.render.struct.GpuStruct;
+import fr.sethlans.core.render.struct.ValueType;
+
+/**
+ * Writes arrays of {@link GpuStruct} records, or columns of primitive values,
+ * into a buffer described by a sequence {@link ForeignStructLayout}. The record
+ * accessors and field offsets are resolved once, and only the written element
+ * range is mapped and pushed to the buffer, so that a {@code StageableBuffer}
+ * only stages that range. Primitive components are read through handles of
+ * their own type, so that writing a record doesn't box its fields.
+ * <p>
+ * Large arrays can be split across a {@link ForkJoinPool}, each task writing a
+ * disjoint range of elements.
+ *
+ * @param <T> The type of struct record.
+ */
+public final class StructArrayWriter<T extends GpuStruct> {
+
+    /**
+     * The default number of elements from which a write is split across the pool.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+    private final ForeignStructLayout layout;
+
+    private final List<Node> nodes;
+
+    private ForkJoinPool pool;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private StructArrayWriter(ForeignStructLayout layout, List<Node> nodes) {
+        this.layout = layout;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Create a writer of the given record type into buffers using the given
+     * layout, which must have been generated from the same record type.
+     *
+     * @param <T>    The type of struct record.
+     * @param struct The record class.
+     * @param layout The layout of the struct array.
+     * @return A new writer.
+     */
+    public static <T extends GpuStruct> StructArrayWriter<T> of(Class<T> struct, ForeignStructLayout layout) {
+        if (!struct.isRecord()) {
+            throw new IllegalArgumentException("Provided GpuStruct must be a record!");
+        }
+
+        var fields = layout.getFields().values().iterator();
+        var nodes = resolveNodes(struct, fields);
+        if (fields.hasNext()) {
+            throw new IllegalArgumentException("Layout " + layout + " wasn't generated from " + struct + "!");
+        }
+
+        return new StructArrayWriter<>(layout, nodes);
+    }
+
+    /**
+     * Split the writes of at least the given number of elements across the pool.
+     *
+     * @param pool      The pool to write with, or null to always write on the
+     *                  calling thread.
+     * @param threshold The minimum number of elements of a parallel write.
+     * @return The writer for chaining purposes.
+     */
+    public StructArrayWriter<T> parallel(ForkJoinPool pool, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Parallel threshold must be strictly positive!");
+        }
+
+        this.pool = pool;
+        this.parallelThreshold = threshold;
+        return this;
+    }
+
+    public void write(NativeBuffer buffer, T[] structs) {
+        write(buffer, 0, structs, 0, structs.length);
+    }
+
+    /**
+     * Write a range of records into consecutive elements of the buffer.
+     *
+     * @param buffer       The buffer to write to.
+     * @param firstElement The index of the first element to write in the buffer.
+     * @param structs      The records to write.
+     * @param from         The index of the first record to write.
+     * @param count        The number of records to write.
+     */
+    public void write(NativeBuffer buffer, int firstElement, T[] structs, int from, int count) {
+        Objects.checkFromIndexSize(from, count, structs.length);
+        write(buffer, firstElement, count, (segment, start, end) -> {
+            for (var i = start; i < end; ++i) {
+                var structOffset = i * layout.stride();
+                var struct = structs[from + i];
+                for (var node : nodes) {
+                    node.write(segment, structOffset, 0, struct);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a column of values into the given field of consecutive elements. The
+     * values of vector and matrix fields are packed, in column-major order for
+     * matrices.
+     *
+     * @param buffer       The buffer to write to.
+     * @param path         The path of the field to write.
+     * @param firstElement The index of the first element to write in the buffer.
+     * @param values       The packed values to write.
+     */
+    public void writeColumn(NativeBuffer buffer, String path, int firstElement, float[] values) {
+        var components = componentCount(checkColumn(path).type());
+        if (values.length % components != 0) {
+            throw new IllegalArgumentException("Column of " + values.length + " floats isn't a multiple of "
+                    + components + " components!");
+        }
+
+        writeColumn(buffer, path, firstElement, values, values.length / components);
+    }
+
+    /**
+     * Write the first values of a column into the given field of consecutive
+     * elements, so that a reused array can be larger than the written range.
+     *
+     * @param buffer       The buffer to write to.
+     * @param path         The path of the field to write.
+     * @param firstElement The index of the first element to write in the buffer.
+     * @param values       The packed values to write, from the start of the array.
+     * @param count        The number of elements to write.
+     */
+    public void writeColumn(NativeBuffer buffer, String path, int firstElement, float[] values, int count) {
+        var field = checkColumn(path);
+        var components = componentCount(field.type());
+        if (field.type() == ValueType.INTEGER || field.type() == ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("Field '" + path + "' of type " + field.type() + " isn't a float column!");
+        }
+        Objects.checkFromIndexSize(0, count * components, values.length);
+
+        // Components are contiguous inside a column, and columns are spaced by the column stride.
+        var rows = field.type() == ValueType.MATRIX3F ? 3 : components;
+        var columnStride = field.type() == ValueType.MATRIX3F ? field.columnStride() : rows * Float.BYTES;
+        write(buffer, firstElement, count, (segment, start, end) -> {
+            for (var i = start; i < end; ++i) {
+                var o = i * layout.stride() + field.offset();
+                for (var c = 0; c < components; ++c) {
+                    segment.set(ValueLayout.JAVA_FLOAT, o + (c / rows) * columnStride + (c % rows) * Float.BYTES,
+                            values[i * components + c]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a column of integers into the given integer or boolean field of
+     * consecutive elements.
+     *
+     * @param buffer       The buffer to write to.
+     * @param path         The path of the field to write.
+     * @param firstElement The index of the first element to write in the buffer.
+     * @param values       The values to write.
+     */
+    public void writeColumn(NativeBuffer buffer, String path, int firstElement, int[] values) {
+        var field = checkColumn(path);
+        if (field.type() != ValueType.INTEGER && field.type() != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("Field '" + path + "' of type " + field.type() + " isn't an int column!");
+        }
+
+        write(buffer, firstElement, values.length, (segment, start, end) -> {
+            for (var i = start; i < end; ++i) {
+                segment.set(ValueLayout.JAVA_INT, i * layout.stride() + field.offset(), values[i]);
+            }
+        });
+    }
+
+    private FieldHandle checkColumn(String path) {
+        var field = layout.field(path);
+        if (field.count() > 1) {
+            throw new IllegalArgumentException("Field '" + path + "' is an array and can't be written as a column!");
+        }
+        return field;
+    }
+
+    private void write(NativeBuffer buffer, int firstElement, int count, RangeWriter writer) {
+        if (count == 0) {
+            return;
+        }
+
+        Objects.checkFromIndexSize(firstElement, count, Math.toIntExact(layout.elementCount()));
+        var offset = layout.elementOffset(firstElement);
+        var size = count * layout.stride();
+
+        // Only map and push the written range of elements.
+        try (var mapping = buffer.map(offset, size)) {
+            var segment = layout.segment(mapping);
+            if (pool != null && count >= parallelThreshold) {
+                pool.invoke(new WriteTask(segment, writer, 0, count, parallelThreshold));
+            } else {
+                writer.write(segment, 0, count);
+            }
+        }
+
+        buffer.push(offset, size);
+    }
+
+    private static List<Node> resolveNodes(Class<?> struct, Iterator<FieldHandle> fields) {
+        List<Node> nodes = new ArrayList<>();
+        for (var component : struct.getRecordComponents()) {
+            var type = component.getType();
+            var elementType = type.isArray() ? type.componentType() : type;
+            if (elementType.isRecord()) {
+                nodes.add(new RecordNode(getter(component, Object.class), type.isArray(),
+                        resolveNodes(elementType, fields)));
+                continue;
+            }
+
+            if (!fields.hasNext()) {
+                throw new IllegalArgumentException("No layout field for record component " + component + "!");
+            }
+
+            var field = fields.next();
+            if (type == float.class) {
+                nodes.add(new FloatNode(getter(component, float.class), field));
+            } else if (type == int.class) {
+                nodes.add(new IntNode(getter(component, int.class), field));
+            } else if (type == boolean.class) {
+                nodes.add(new BooleanNode(getter(component, boolean.class), field));
+            } else {
+                nodes.add(new ValueNode(getter(component, Object.class), type.isArray(), field));
+            }
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Return a handle reading the given record component from an
+     * {@link Object}, returning the given type.
+     */
+    private static MethodHandle getter(RecordComponent component, Class<?> returnType) {
+        var accessor = component.getAccessor();
+        try {
+            accessor.setAccessible(true);
+            return MethodHandles.lookup().unreflect(accessor)
+                    .asType(MethodType.methodType(returnType, Object.class));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            throw new IllegalArgumentException("Can't access record component " + component + "!", ex);
+        }
+    }
+
+    private static int componentCount(ValueType type) {
+        return switch (type) {
+        case BOOLEAN, INTEGER, FLOAT -> 1;
+        case VECTOR2F -> 2;
+        case VECTOR3F -> 3;
+        case VECTOR4F -> 4;
+        case MATRIX3F -> 9;
+        case MATRIX4F -> 16;
+        };
+    }
+
+    private static Object get(MethodHandle getter, Object struct) {
+        try {
+            return (Object) getter.invokeExact(struct);
+        } catch (Throwable ex) {
+            throw readFailure(struct, ex);
+        }
+    }
+
+    private static IllegalStateException readFailure(Object struct, Throwable ex) {
+        return new IllegalStateException("Failed to read record component of " + struct + "!", ex);
+    }
+
+    @Override
+    public String toString() {
+        return "StructArrayWriter [layout=" + layout + ", parallelThreshold=" + parallelThreshold + "]";
+    }
+
+    @FunctionalInterface
+    private interface RangeWriter {
+
+        /**
+         * Write the elements in the given range, relative to the start of the mapped
+         * segment.
+         */
+        void write(MemorySegment segment, int start, int end);
+    }
+
+    private interface Node {
+
+        void write(MemorySegment segment, long structOffset, int index, Object struct);
+
+        /**
+         * Return the first layout field written by the node, whose count is the
+         * number of elements of the enclosing array.
+         */
+        FieldHandle firstField();
+    }
+
+    private record FloatNode(MethodHandle getter, FieldHandle field) implements Node {
+
+        @Override
+        public FieldHandle firstField() {
+            return field;
+        }
+
+        @Override
+        public void write(MemorySegment segment, long structOffset, int index, Object struct) {
+            float value;
+            try {
+                value = (float) getter.invokeExact(struct);
+            } catch (Throwable ex) {
+                throw readFailure(struct, ex);
+            }
+            field.setFloat(segment, structOffset, index, value);
+        }
+    }
+
+    private record IntNode(MethodHandle getter, FieldHandle field) implements Node {
+
+        @Override
+        public FieldHandle firstField() {
+            return field;
+        }
+
+        @Override
+        public void write(MemorySegment segment, long structOffset, int index, Object struct) {
+            int value;
+            try {
+                value = (int) getter.invokeExact(struct);
+            } catch (Throwable ex) {
+                throw readFailure(struct, ex);
+            }
+            field.setInt(segment, structOffset, index, value);
+        }
+    }
+
+    private record BooleanNode(MethodHandle getter, FieldHandle field) implements Node {
+
+        @Override
+        public FieldHandle firstField() {
+            return field;
+        }
+
+        @Override
+        public void write(MemorySegment segment, long structOffset, int index, Object struct) {
+            boolean value;
+            try {
+                value = (boolean) getter.invokeExact(struct);
+            } catch (Throwable ex) {
+                throw readFailure(struct, ex);
+            }
+            field.setBoolean(segment, structOffset, index, value);
+        }
+    }
+
+    /**
+     * Writes a vector, a matrix or an array component, read as a reference.
+     */
+    private record ValueNode(MethodHandle getter, boolean array, FieldHandle field) implements Node {
+
+        @Override
+        public FieldHandle firstField() {
+            return field;
+        }
+
+        @Override
+        public void write(MemorySegment segment, long structOffset, int index, Object struct) {
+            var value = get(getter, struct);
+            if (!array) {
+                field.setValue(segment, structOffset, index, value);
+                return;
+            }
+
+            switch (value) {
+            case float[] floats -> {
+                for (var i = 0; i < Math.min(floats.length, field.count()); ++i) {
+                    field.setFloat(segment, structOffset, i, floats[i]);
+                }
+            }
+            case int[] ints -> {
+                for (var i = 0; i < Math.min(ints.length, field.count()); ++i) {
+                    field.setInt(segment, structOffset, i, ints[i]);
+                }
+            }
+            case boolean[] booleans -> {
+                for (var i = 0; i < Math.min(booleans.length, field.count()); ++i) {
+                    field.setBoolean(segment, structOffset, i, booleans[i]);
+                }
+            }
+            case Object[] objects -> {
+                for (var i = 0; i < Math.min(objects.length, field.count()); ++i) {
+                    field.setValue(segment, structOffset, i, objects[i]);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unexpected array value " + value + "!");
+            }
+        }
+    }
+
+    private record RecordNode(MethodHandle getter, boolean array, List<Node> children) implements Node {
+
+        @Override
+        public FieldHandle firstField() {
+            return children.isEmpty() ? null : children.get(0).firstField();
+        }
+
+        @Override
+        public void write(MemorySegment segment, long structOffset, int index, Object struct) {
+            var value = get(getter, struct);
+            if (!array) {
+                for (var child : children) {
+                    child.write(segment, structOffset, index, value);
+                }
+                return;
+            }
+
+            // Truncate oversized arrays to the layout, like the arrays of values.
+            var elements = (Object[]) value;
+            var field = firstField();
+            var count = field != null ? Math.min(elements.length, field.count()) : 0;
+            for (var i = 0; i < count; ++i) {
+                for (var child : children) {
+                    child.write(segment, structOffset, i, elements[i]);
+                }
+            }
+        }
+    }
+
+    private static class WriteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient MemorySegment segment;
+        private final transient RangeWriter writer;
+        private final int start, end, threshold;
+
+        WriteTask(MemorySegment segment, RangeWriter writer, int start, int end, int threshold) {
+            this.segment = segment;
+            this.writer = writer;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                writer.write(segment, start, end);
+                return;
+            }
+
+            var middle = (start + end) >>> 1;
+            invokeAll(new WriteTask(segment, writer, start, middle, threshold),
+                    new WriteTask(segment, writer, middle, end, threshold));
+        }
+    }
+}
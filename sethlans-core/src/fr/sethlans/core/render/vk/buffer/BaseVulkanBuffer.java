@@ -34,7 +34,9 @@ public class BaseVulkanBuffer extends AbstractDeviceResource implements VulkanBu
         super(logicalDevice);
         this.size = size;
         this.usage = usage;
-        this.concurrent = concurrent;
+        // Concurrent sharing is only needed when transfers run on a distinct queue family.
+        var families = logicalDevice.getQueueFamilies();
+        this.concurrent = concurrent && families.graphics() != families.transfer();
         this.memory = new MemoryResource(logicalDevice, size.getBytes(), memProperty);
         
         try (var stack = MemoryStack.stackPush()) {
@@ -47,8 +49,7 @@ public class BaseVulkanBuffer extends AbstractDeviceResource implements VulkanBu
                     .usage(getUsage().bits());
             
             if (isConcurrent()) {
-                var pQueueFamilyIndices = stack.ints(logicalDevice.getQueueFamilies().graphics().index(),
-                        logicalDevice.getQueueFamilies().transfer().index());
+                var pQueueFamilyIndices = stack.ints(families.graphics().index(), families.transfer().index());
                 createInfo.pQueueFamilyIndices(pQueueFamilyIndices);
             }
 
@@ -63,7 +64,7 @@ public class BaseVulkanBuffer extends AbstractDeviceResource implements VulkanBu
             var memRequirements = VkMemoryRequirements.malloc(stack);
             VK10.vkGetBufferMemoryRequirements(vkDevice, handle(), memRequirements);
             
-            memory.allocate(stack, memRequirements);
+            memory.allocate(memRequirements);
             memory.bindMemory(this);
             
             ref = NativeResource.get().register(this);
@@ -74,12 +75,16 @@ public class BaseVulkanBuffer extends AbstractDeviceResource implements VulkanBu
 
     @Override
     public BufferMapping map(long offset, long size) {
-        return new SourceBufferMapping(this, memory.map(size().getOffset() + offset, size), size, () -> memory.unmap());
+        var memOffset = size().getOffset() + offset;
+        memory.invalidate(memOffset, size);
+        
+        // Memory stays mapped, closing the mapping only flushes host writes.
+        return new SourceBufferMapping(this, memory.map(memOffset, size), size, () -> memory.flush(memOffset, size));
     }
     
     @Override
     public void push(long offset, long size) {
-        
+        memory.flush(size().getOffset() + offset, size);
     }
 
     @Override
@@ -102,6 +107,9 @@ public class BaseVulkanBuffer extends AbstractDeviceResource implements VulkanBu
         return () -> {
             VK10.vkDestroyBuffer(logicalDeviceHandle(), handle(), null);
             unassignHandle();
+            
+            // Release the memory range for other resources.
+            memory.getNativeReference().destroy();
         };
     }
 }
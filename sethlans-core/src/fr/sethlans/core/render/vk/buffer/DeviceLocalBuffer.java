@@ -9,7 +9,12 @@ import fr.sethlans.core.render.vk.util.VkFlag;
 public class DeviceLocalBuffer extends BaseVulkanBuffer {
 
     public DeviceLocalBuffer(LogicalDevice logicalDevice, MemorySize size, VkFlag<BufferUsage> usage) {
-        super(logicalDevice, size, usage, MemoryProperty.DEVICE_LOCAL);
+        this(logicalDevice, size, usage, false);
+    }
+
+    public DeviceLocalBuffer(LogicalDevice logicalDevice, MemorySize size, VkFlag<BufferUsage> usage,
+            boolean concurrent) {
+        super(logicalDevice, size, usage, MemoryProperty.DEVICE_LOCAL, concurrent);
     }
 
     @Override
@@ -0,0 +1,208 @@
+package fr.sethlans.core.render.vk.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.material.layout.BindingLayout;
+import fr.sethlans.core.render.buffer.BufferMapping;
+import fr.sethlans.core.render.buffer.MemorySize;
+import fr.sethlans.core.render.struct.GpuStruct;
+import fr.sethlans.core.render.struct.GpuStructLayout.LayoutType;
+import fr.sethlans.core.render.struct.foreign.ForeignStructLayout;
+import fr.sethlans.core.render.struct.foreign.ForeignStructLayoutGenerator;
+import fr.sethlans.core.render.struct.foreign.StructArrayWriter;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+
+/**
+ * Persistently mapped storage buffers holding the model matrix of every drawn
+ * instance, one per frame in flight. Materials declare them with the
+ * {@value #BUILTIN_NAME} builtin, bound with the buffer of the current frame,
+ * and read the matrix of an instance with <code>gl_InstanceIndex</code>.
+ * Several geometries sharing a mesh and a material can then be drawn by a
+ * single instanced draw. The matrices of a batch are written as a column
+ * through a {@link StructArrayWriter}, which only maps and pushes the written
+ * range.
+ * <p>
+ * The buffer of a frame grows when it is full, so every instance of a frame
+ * must be allocated before its descriptors are staged and its commands
+ * recorded: the replaced buffer is destroyed at once, and the descriptor of the
+ * frame is rewritten with the new one.
+ */
+public final class InstanceRing {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.buffer");
+
+    /**
+     * The name of the builtin binding of the instance data.
+     */
+    public static final String BUILTIN_NAME = "Instances";
+
+    /**
+     * The size in bytes of the data of an instance, its model matrix.
+     */
+    public static final int INSTANCE_SIZE = 16 * Float.BYTES;
+
+    /**
+     * The default initial number of instances of the buffer of a frame.
+     */
+    public static final int DEFAULT_FRAME_CAPACITY = 16384;
+
+    record Instance(Matrix4f model) implements GpuStruct {
+    }
+
+    private final LogicalDevice logicalDevice;
+
+    /**
+     * The writer of the buffer of each frame, sized to its capacity.
+     */
+    private final List<StructArrayWriter<Instance>> writers = new ArrayList<>();
+
+    private final HostVisibleBuffer[] buffers;
+
+    private final BufferMapping[] mappings;
+
+    private final int[] capacities;
+
+    private int current = 0;
+
+    /**
+     * The number of instances allocated in the buffer of the current frame.
+     */
+    private int count = 0;
+
+    public InstanceRing(LogicalDevice logicalDevice, int frameCount) {
+        this(logicalDevice, DEFAULT_FRAME_CAPACITY, frameCount);
+    }
+
+    public InstanceRing(LogicalDevice logicalDevice, int frameCapacity, int frameCount) {
+        if (frameCapacity <= 0) {
+            throw new IllegalArgumentException("Frame capacity must be strictly positive, but got " + frameCapacity);
+        }
+
+        this.logicalDevice = logicalDevice;
+        this.buffers = new HostVisibleBuffer[frameCount];
+        this.mappings = new BufferMapping[frameCount];
+        this.capacities = new int[frameCount];
+        for (var i = 0; i < frameCount; ++i) {
+            writers.add(null);
+            allocate(i, frameCapacity);
+        }
+
+        logger.info("Created instance ring of " + frameCount + " x " + frameCapacity + " instances.");
+    }
+
+    private void allocate(int frame, int capacity) {
+        buffers[frame] = new HostVisibleBuffer(logicalDevice, MemorySize.bytes((long) capacity * INSTANCE_SIZE),
+                BufferUsage.STORAGE);
+        // The buffer memory is coherent and stays mapped for its whole lifetime.
+        mappings[frame] = buffers[frame].map();
+        capacities[frame] = capacity;
+
+        var layout = (ForeignStructLayout) ForeignStructLayoutGenerator.sequenceLayoutOf(Instance.class, capacity,
+                LayoutType.STD430);
+        writers.set(frame, StructArrayWriter.of(Instance.class, layout));
+    }
+
+    /**
+     * Return whether the given binding is the builtin instance data.
+     *
+     * @param bindingLayout The layout of the binding.
+     * @return Whether the binding is the {@value #BUILTIN_NAME} builtin.
+     */
+    public static boolean isInstances(BindingLayout bindingLayout) {
+        return bindingLayout.builtin() && BUILTIN_NAME.equals(bindingLayout.name());
+    }
+
+    /**
+     * Start writing in the buffer of the given frame, discarding its previous
+     * instances. The frame must no longer be in use by the device.
+     *
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void begin(int frameIndex) {
+        this.current = frameIndex % buffers.length;
+        this.count = 0;
+    }
+
+    /**
+     * Allocate consecutive instances in the buffer of the current frame, growing
+     * it if it is full. No command of the frame must have been recorded with the
+     * buffer yet.
+     *
+     * @param instanceCount The number of instances.
+     * @return The index of the first instance in the buffer, to use as first
+     *         instance of the draw.
+     */
+    public int allocate(int instanceCount) {
+        if (count + instanceCount > capacities[current]) {
+            grow(count + instanceCount);
+        }
+
+        var first = count;
+        count += instanceCount;
+        return first;
+    }
+
+    private void grow(int required) {
+        var capacity = capacities[current];
+        while (capacity < required) {
+            capacity *= 2;
+        }
+
+        var previous = buffers[current];
+        var previousMapping = mappings[current];
+        allocate(current, capacity);
+
+        // Keep the instances already written during the frame.
+        MemoryUtil.memCopy(previousMapping.getAddress(), mappings[current].getAddress(),
+                (long) count * INSTANCE_SIZE);
+        // The previous submission of the frame completed and nothing was recorded with it yet.
+        previous.getNativeReference().destroy();
+
+        logger.info("Grew instance buffer of frame " + current + " to " + capacity + " instances.");
+    }
+
+    /**
+     * Write the model matrices of consecutive allocated instances.
+     *
+     * @param firstInstance The index of the first instance in the buffer.
+     * @param modelMatrices The packed column-major model matrices, 16 floats per
+     *                      instance.
+     * @param count         The number of instances to write.
+     */
+    public void write(int firstInstance, float[] modelMatrices, int count) {
+        writers.get(current).writeColumn(buffers[current], "model", firstInstance, modelMatrices, count);
+    }
+
+    /**
+     * Return the buffer of the given frame, the descriptor of the frame must be
+     * rewritten when it changes.
+     *
+     * @param frameIndex The index of the frame in flight.
+     * @return The instance buffer of the frame.
+     */
+    public HostVisibleBuffer getBuffer(int frameIndex) {
+        return buffers[frameIndex % buffers.length];
+    }
+
+    public int usedInstances() {
+        return count;
+    }
+
+    public void destroy() {
+        for (var buffer : buffers) {
+            buffer.getNativeReference().destroy();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceRing [frameCount=" + buffers.length + ", capacity=" + capacities[current] + ", used="
+                + count + "]";
+    }
+}
@@ -0,0 +1,175 @@
+package fr.sethlans.core.render.vk.buffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.natives.NativeReference;
+import fr.sethlans.core.natives.NativeResource;
+import fr.sethlans.core.render.buffer.BufferMapping;
+import fr.sethlans.core.render.buffer.DirtyRegions;
+import fr.sethlans.core.render.buffer.MemorySize;
+import fr.sethlans.core.render.buffer.StageableBuffer;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.memory.MemoryProperty;
+import fr.sethlans.core.render.vk.util.VkFlag;
+
+/**
+ * A buffer written directly by the host without a staging copy, with one copy
+ * per frame in flight so that the host never writes memory read by a pending
+ * frame. The copies are placed in device-local host-visible memory when the
+ * device exposes it (resizable BAR), or in host-visible memory otherwise.
+ * <p>
+ * Each copy accumulates the regions of the source modified since it was last
+ * written, so that a copy only receives the bytes it missed.
+ * <p>
+ * The copies depend on the native reference of the buffer, so destroying the
+ * buffer destroys every copy.
+ */
+public class PerFrameBuffer implements VulkanBuffer {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.buffer");
+
+    private final BaseVulkanBuffer[] copies;
+
+    /**
+     * The regions of the source not written yet in each copy.
+     */
+    private final DirtyRegions[] pendingRegions;
+
+    private int current = 0;
+
+    private final NativeReference ref;
+
+    public PerFrameBuffer(LogicalDevice logicalDevice, MemorySize size, VkFlag<BufferUsage> usage, int frameCount) {
+        var physicalDevice = logicalDevice.physicalDevice();
+        var rebarProperty = MemoryProperty.DEVICE_LOCAL.add(MemoryProperty.HOST_VISIBLE);
+        var memProperty = physicalDevice.hasMemoryType(rebarProperty) ? rebarProperty
+                : MemoryProperty.HOST_VISIBLE.add(MemoryProperty.HOST_COHERENT);
+
+        this.copies = new BaseVulkanBuffer[frameCount];
+        this.pendingRegions = new DirtyRegions[frameCount];
+        for (var i = 0; i < frameCount; ++i) {
+            copies[i] = new BaseVulkanBuffer(logicalDevice, size, usage, memProperty);
+            // Every copy receives the whole source data first.
+            pendingRegions[i] = new DirtyRegions(size.getBytes());
+            pendingRegions[i].add(0, size.getBytes());
+        }
+
+        this.ref = NativeResource.get().register(this);
+        logicalDevice.getNativeReference().addDependent(ref);
+        for (var copy : copies) {
+            ref.addDependent(copy.getNativeReference());
+        }
+
+        logger.info("Created " + frameCount + " direct-write copies of " + size.getBytes() + " bytes with "
+                + memProperty.toString(MemoryProperty.class) + ".");
+    }
+
+    /**
+     * Select the copy used by the given frame, and write to it the regions of the
+     * source data which changed since the copy was last written.
+     *
+     * @param source     The host data to write.
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void update(StageableBuffer<?> source, int frameIndex) {
+        var regions = source.getDirtyRegions();
+        if (!regions.isEmpty()) {
+            for (var pending : pendingRegions) {
+                for (var i = 0; i < regions.regionCount(); ++i) {
+                    var start = regions.regionStart(i);
+                    var end = Math.min(regions.regionEnd(i), pending.capacity());
+                    if (start < end) {
+                        pending.add(start, end - start);
+                    }
+                }
+            }
+            regions.clear();
+        }
+
+        this.current = frameIndex % copies.length;
+        var pending = pendingRegions[current];
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try (var src = source.map()) {
+            var srcAddress = MemoryUtil.memAddress(src.getBytes());
+            var srcSize = src.getSize();
+            for (var i = 0; i < pending.regionCount(); ++i) {
+                var start = pending.regionStart(i);
+                var size = Math.min(pending.regionEnd(i), srcSize) - start;
+                if (size <= 0) {
+                    continue;
+                }
+
+                // Closing the mapping flushes the written region.
+                try (var dst = copies[current].map(start, size)) {
+                    MemoryUtil.memCopy(srcAddress + start, dst.getAddress(), size);
+                }
+            }
+        }
+
+        pending.clear();
+    }
+
+    @Override
+    public BufferMapping map(long offset, long size) {
+        return copies[current].map(offset, size);
+    }
+
+    @Override
+    public void push(long offset, long size) {
+        copies[current].push(offset, size);
+    }
+
+    @Override
+    public MemorySize size() {
+        return copies[current].size();
+    }
+
+    @Override
+    public VkFlag<BufferUsage> getUsage() {
+        return copies[current].getUsage();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return copies[current].isConcurrent();
+    }
+
+    @Override
+    public Long getNativeObject() {
+        return copies[current].getNativeObject();
+    }
+
+    @Override
+    public NativeReference getNativeReference() {
+        return ref;
+    }
+
+    @Override
+    public Runnable createDestroyAction() {
+        // Don't capture the buffer itself, so that it can be reclaimed.
+        var copies = this.copies;
+        return () -> {
+            for (var copy : copies) {
+                copy.getNativeReference().destroy();
+            }
+        };
+    }
+
+    /**
+     * Destroy every copy of the buffer. No pending frame must use it anymore.
+     */
+    public void destroy() {
+        ref.destroy();
+    }
+
+    @Override
+    public String toString() {
+        return "PerFrameBuffer [copies=" + copies.length + ", current=" + current + ", pending="
+                + pendingRegions[current].dirtySize() + "]";
+    }
+}
@@ -1,38 +1,116 @@
 package fr.sethlans.core.render.vk.buffer;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VK10;
+
 import fr.alchemy.utilities.logging.FactoryLogger;
 import fr.alchemy.utilities.logging.Logger;
-import fr.sethlans.core.render.buffer.BufferPartition;
+import fr.sethlans.core.render.buffer.BufferMapping;
 import fr.sethlans.core.render.buffer.MemorySize;
-import fr.sethlans.core.render.buffer.PersistentBuffer;
 import fr.sethlans.core.render.buffer.StageableBuffer;
+import fr.sethlans.core.render.vk.command.CommandBuffer;
+import fr.sethlans.core.render.vk.command.CommandPool;
+import fr.sethlans.core.render.vk.command.CommandPool.Create;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.sync.TimelineSemaphore;
+import fr.sethlans.core.render.vk.util.VkFlag;
 
 public final class PersistentStagingRing {
 
     private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.buffer");
 
+    /**
+     * The default capacity of the staging ring in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 16L * 1024 * 1024;
+
+    /**
+     * The alignment in bytes of each allocation inside the ring.
+     */
+    private static final long ALIGNMENT = 16;
+
     private final LogicalDevice logicalDevice;
 
-    private final int stagingByteSize;
+    private final HostVisibleBuffer ringBuffer;
+
+    private final BufferMapping mapping;
+
+    private final long capacity;
+
+    /**
+     * The monotonic position of the next free byte, shared by the staging threads.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The monotonic position before which the ring bytes were consumed by the
+     * device and can be reused.
+     */
+    private volatile long tail = 0;
+
+    /**
+     * The monotonic position before which every allocation was submitted.
+     */
+    private long submitted = 0;
 
-    private final Collection<StagingRing> rings = new ConcurrentLinkedQueue<>();
+    private final Queue<StagedCopy> copyCommands = new ConcurrentLinkedQueue<>();
 
-    private final Queue<BufferCopy> copyCommands = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<StagedCopy> outOfOrder = new PriorityQueue<>(
+            Comparator.comparingLong(StagedCopy::from));
+
+    private final Deque<Retirement> retirements = new ArrayDeque<>();
+
+    /**
+     * The timeline semaphore signaled by the transfer queue, or null if timeline
+     * semaphores are unsupported.
+     */
+    private final TimelineSemaphore timeline;
+
+    private final CommandPool commandPool;
+
+    private final Deque<CommandBuffer> freeCommands = new ArrayDeque<>();
+
+    /**
+     * The timeline value of the last submitted batch.
+     */
+    private long uploadValue = 0;
+
+    public PersistentStagingRing(LogicalDevice logicalDevice) {
+        this(logicalDevice, DEFAULT_CAPACITY);
+    }
 
-    public PersistentStagingRing(LogicalDevice logicalDevice, int stagingByteSize) {
+    public PersistentStagingRing(LogicalDevice logicalDevice, long capacity) {
         this.logicalDevice = logicalDevice;
-        this.stagingByteSize = stagingByteSize;
+        this.capacity = capacity;
+        this.ringBuffer = new HostVisibleBuffer(logicalDevice, MemorySize.bytes(capacity), BufferUsage.TRANSFER_SRC,
+                true);
+        // The ring memory is coherent and stays mapped for its whole lifetime.
+        this.mapping = ringBuffer.map();
+
+        if (logicalDevice.physicalDevice().supportsTimelineSemaphore()) {
+            this.timeline = new TimelineSemaphore(logicalDevice);
+            this.commandPool = new CommandPool(logicalDevice, logicalDevice.transferQueue(),
+                    VkFlag.of(Create.TRANSIENT, Create.RESET_COMMAND_BUFFER));
+        } else {
+            logger.warning("Timeline semaphores aren't supported, staging uploads will block the render thread.");
+            this.timeline = null;
+            this.commandPool = null;
+        }
     }
 
     public boolean stage(StageableBuffer<?> buffer) {
-        if (buffer.getDirtyRegions().isEmpty()) {
+        var regions = buffer.getDirtyRegions();
+        if (regions.isEmpty()) {
             return false;
         }
 
@@ -41,203 +119,219 @@ public final class PersistentStagingRing {
             throw new IllegalArgumentException(dst + " isn't a valid transfer destination!");
         }
 
-        var partition = allocate(buffer.getDirtyRegions().dirtySize());
+        var copy = reserve(dst, regions.dirtySize(), regions.regionCount());
         try (var srcM = buffer.map()) {
-            try (var partM = partition.map()) {
-                var srcBytes = srcM.getBytes();
-                var partitionBytes = partM.getBytes();
-                var copy = new BufferCopy(partition, dst);
-                var partitionOffset = 0;
-                for (var r : buffer.getDirtyRegions()) {
-                    if (r.end() > srcBytes.limit()) {
-                        throw new IllegalStateException("Buffer region extends outside source buffer!");
-                    }
-                    
-                    // Copy source dirty region to allocated staging region.
-                    MemoryUtil.memCopy(MemoryUtil.memAddress(srcBytes, (int) r.start()),
-                            MemoryUtil.memAddress(partitionBytes, partitionOffset), r.size());
-
-                    // Partition buffer offset + region offset.
-                    copy.srcOffset = (int) (partition.getOffset() + partitionOffset);
-                    copy.dstOffset = (int) r.start();
-                    copy.size = (int) r.size();
-                    
-                    partitionOffset += r.size();
-                } 
-
-                buffer.getDirtyRegions().clear();
-                copyCommands.add(copy);
-
-                logger.info("Staging " + buffer);
+            var srcBytes = srcM.getBytes();
+            var partitionOffset = 0L;
+            for (var i = 0; i < copy.maxRegions(); ++i) {
+                var start = regions.regionStart(i);
+                var size = regions.regionSize(i);
+                if (regions.regionEnd(i) > srcBytes.limit()) {
+                    throw new IllegalStateException("Buffer region extends outside source buffer!");
+                }
+
+                // Copy source dirty region to allocated staging region.
+                MemoryUtil.memCopy(MemoryUtil.memAddress(srcBytes, (int) start), copy.address + partitionOffset,
+                        size);
+                copy.addRegion(copy.srcOffset + partitionOffset, start, size);
+
+                partitionOffset += size;
             }
+        } catch (RuntimeException ex) {
+            // Still submit the reserved range, so that the following allocations can be retired.
+            copy.regionCount = 0;
+            copyCommands.add(copy);
+            throw ex;
         }
 
+        regions.clear();
+        copyCommands.add(copy);
+
+        logger.info("Staging " + buffer);
         return true;
     }
 
-    public void upload() {
-        if (copyCommands.isEmpty()) {
-            return;
-        }
-
-        var toRelease = new ArrayList<BufferCopy>(copyCommands.size());
-        try (var command = logicalDevice.singleUseTransferCommand()) {
-            command.beginRecording();
-            for (BufferCopy c; (c = copyCommands.poll()) != null;) {
-                command.copyBuffer(c.getSrc(), c.srcOffset, c.getDst(), c.dstOffset, c.size);
-                toRelease.add(c);
+    private StagedCopy reserve(VulkanBuffer dst, long bytes, int regionCount) {
+        for (;;) {
+            var from = head.get();
+            var start = align(from, ALIGNMENT);
+            // Never split an allocation across the end of the ring.
+            if (start % capacity + bytes > capacity) {
+                start = (start / capacity + 1) * capacity;
             }
-        }
 
-        logger.info("Submitted " + toRelease.size() + " staging command.");
-
-        for (var c : toRelease) {
-            c.release();
-        }
-    }
+            var end = start + bytes;
+            if (end - tail > capacity) {
+                break;
+            }
 
-    private BufferPartition<StagingRing> allocate(int bytes) {
-        for (var ring : rings) {
-            var p = ring.allocatePartition(bytes);
-            if (p != null) {
-                return p;
+            if (head.compareAndSet(from, end)) {
+                var srcOffset = start % capacity;
+                return new StagedCopy(from, end, ringBuffer, null, mapping.getAddress() + srcOffset, srcOffset,
+                        dst, regionCount);
             }
         }
 
-        // Create a new staging ring.
-        var ring = new StagingRing(logicalDevice, MemorySize.bytes(Math.max(bytes, stagingByteSize)));
-        rings.add(ring);
-        return ring.allocatePartition(bytes);
+        // The ring is full or too small, fall back to a temporary buffer retired like the ring bytes.
+        logger.warning("Staging ring of " + capacity + " bytes is full, allocating " + bytes + " bytes overflow buffer.");
+        var overflow = new HostVisibleBuffer(logicalDevice, MemorySize.bytes(bytes), BufferUsage.TRANSFER_SRC, true);
+        var address = overflow.map().getAddress();
+        return new StagedCopy(-1, -1, overflow, overflow, address, 0, dst, regionCount);
     }
 
-    private static class StagingRing extends PersistentBuffer<HostVisibleBuffer> {
-
-        private final AllocatedRegion head = new AllocatedRegion(this, 0, 0);
-
-        public StagingRing(LogicalDevice logicalDevice, MemorySize size) {
-            super(new HostVisibleBuffer(logicalDevice, size, BufferUsage.TRANSFER_SRC, true));
+    /**
+     * Submit the copies staged since the last call in a single transfer batch.
+     * When timeline semaphores are supported the batch is submitted on the
+     * transfer queue without waiting, and the returned value is signaled on the
+     * {@link #getTimeline() timeline} once the copies completed.
+     * 
+     * @return The timeline value signaled by the batch, or 0 if nothing was
+     *         submitted or the upload already completed.
+     */
+    public synchronized long upload() {
+        if (copyCommands.isEmpty()) {
+            return 0;
         }
 
-        public BufferPartition<StagingRing> allocatePartition(int bytes) {
-            for (AllocatedRegion r = head, prev = null; r != null; r = r.next) {
-                var p = r.allocateBytesAfter(bytes);
-                if (p != null) {
-                    return p;
-                }
-                if (prev != null && r.start == r.end) {
-                    prev.next = r.next;
-                    continue;
-                }
-                prev = r;
+        var value = ++uploadValue;
+        List<HostVisibleBuffer> overflows;
+        CommandBuffer command = null;
+        if (timeline != null) {
+            command = freeCommands.isEmpty() ? commandPool.createCommandBuffer() : freeCommands.poll();
+            command.reset().beginRecording(VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+            overflows = recordCopies(command);
+            command.end();
+            command.submit(timeline, value);
+
+        } else {
+            // Without timeline semaphores, block until the copies completed.
+            try (var singleUse = logicalDevice.singleUseTransferCommand()) {
+                singleUse.beginRecording();
+                overflows = recordCopies(singleUse);
             }
-            return null;
         }
 
-        public boolean releasePartition(BufferPartition<StagingRing> partition) {
-            for (var r = head; r != null; r = r.next) {
-                if (r.release(partition)) {
-                    return true;
-                }
-            }
-            return false;
+        // Only retire up to the first allocation which copy isn't submitted yet.
+        while (!outOfOrder.isEmpty() && outOfOrder.peek().from() == submitted) {
+            submitted = outOfOrder.poll().end();
         }
+
+        retirements.add(new Retirement(value, submitted, overflows, command));
+        return timeline != null ? value : 0;
     }
 
-    private static class AllocatedRegion {
-
-        private final StagingRing ring;
-        private long start, end;
-        private AllocatedRegion next;
-
-        public AllocatedRegion(StagingRing ring, long start, long end) {
-            this.ring = ring;
-            this.start = Math.min(start, ring.size().getBytes());
-            this.end = Math.min(end, ring.size().getBytes());
-        }
-
-        public BufferPartition<StagingRing> allocateBytesAfter(int bytes) {
-            if (availableBytesAfter() >= bytes) {
-                synchronized (this) {
-                    if (next == null) {
-                        // create next island so other concurrent allocation requests won't all pile
-                        // up trying to allocate after this island
-                        next = new AllocatedRegion(ring, end + bytes, end + bytes);
-                    }
-                    long a = availableBytesAfter();
-                    if (a >= bytes) {
-                        long pStart = end;
-                        if (a == bytes) {
-                            next.start = start;
-                            end = start; // collapse island
-                        } else {
-                            end += bytes;
-                        }
-                        return new BufferPartition<>(ring, MemorySize.bytes(pStart, bytes));
-                    }
-                }
+    private List<HostVisibleBuffer> recordCopies(CommandBuffer command) {
+        List<HostVisibleBuffer> overflows = List.of();
+        var count = 0;
+        for (StagedCopy c; (c = copyCommands.poll()) != null;) {
+            c.record(command);
+            if (c.overflow != null) {
+                overflows = overflows.isEmpty() ? new ArrayList<>() : overflows;
+                overflows.add(c.overflow);
+            } else {
+                outOfOrder.add(c);
             }
-            return null;
+            count++;
         }
 
-        public boolean release(BufferPartition<?> partition) {
-            if (start == end) {
-                return false;
-            }
-            long pEnd = partition.size().getEnd();
-            if (pEnd <= start || partition.getOffset() >= end) {
-                return false;
+        logger.info("Recorded " + count + " staging command.");
+        return overflows;
+    }
+
+    public synchronized void retire() {
+        var completedValue = timeline != null ? timeline.getCounterValue() : uploadValue;
+        while (!retirements.isEmpty() && retirements.peek().value() <= completedValue) {
+            var retirement = retirements.poll();
+            tail = Math.max(tail, retirement.position());
+
+            for (var overflow : retirement.overflows()) {
+                overflow.getNativeReference().destroy();
             }
-            synchronized (this) {
-                if (partition.getOffset() > start && pEnd < end) {
-                    AllocatedRegion r = new AllocatedRegion(ring, pEnd, end);
-                    r.next = next;
-                    next = r;
-                    end = partition.getOffset();
-                } else if (partition.getOffset() <= start) {
-                    start = pEnd;
-                } else {
-                    end = partition.getOffset();
-                }
+
+            if (retirement.command() != null) {
+                freeCommands.add(retirement.command());
             }
-            return true;
         }
+    }
 
-        public long availableBytesAfter() {
-            if (next == null) {
-                return ring.size().getBytes() - end;
-            }
+    /**
+     * Return the timeline semaphore signaled by the transfer batches, or null if
+     * uploads are blocking.
+     * 
+     * @return The upload timeline semaphore, or null.
+     */
+    public TimelineSemaphore getTimeline() {
+        return timeline;
+    }
 
-            return next.start - end;
-        }
+    public long capacity() {
+        return capacity;
+    }
+
+    public long usedBytes() {
+        return head.get() - tail;
+    }
+
+    private static long align(long position, long alignment) {
+        return ((position + alignment - 1) / alignment) * alignment;
     }
 
-    private static class BufferCopy {
+    private record Retirement(long value, long position, List<HostVisibleBuffer> overflows, CommandBuffer command) {
 
-        public final BufferPartition<StagingRing> src;
-        public final VulkanBuffer dst;
-        public int srcOffset, dstOffset, size;
+    }
 
-        public BufferCopy(BufferPartition<StagingRing> src, VulkanBuffer dst) {
+    private static class StagedCopy {
+
+        private final long from, end;
+        private final VulkanBuffer src;
+        private final HostVisibleBuffer overflow;
+        private final long address;
+        private final long srcOffset;
+        private final VulkanBuffer dst;
+        private final long[] regions;
+        private int regionCount;
+
+        StagedCopy(long from, long end, VulkanBuffer src, HostVisibleBuffer overflow, long address, long srcOffset,
+                VulkanBuffer dst, int maxRegions) {
+            this.from = from;
+            this.end = end;
             this.src = src;
+            this.overflow = overflow;
+            this.address = address;
+            this.srcOffset = srcOffset;
             this.dst = dst;
+            this.regions = new long[maxRegions * 3];
+        }
+
+        int maxRegions() {
+            return regions.length / 3;
         }
 
-        public VulkanBuffer getSrc() {
-            return src.getParentBuffer().getBuffer();
+        void addRegion(long srcOffset, long dstOffset, long size) {
+            var i = regionCount++ * 3;
+            regions[i] = srcOffset;
+            regions[i + 1] = dstOffset;
+            regions[i + 2] = size;
+        }
+
+        void record(CommandBuffer command) {
+            for (var i = 0; i < regionCount * 3; i += 3) {
+                command.copyBuffer(src, (int) regions[i], dst, (int) regions[i + 1], (int) regions[i + 2]);
+            }
         }
 
-        public VulkanBuffer getDst() {
-            return dst;
+        long from() {
+            return from;
         }
 
-        public void release() {
-            src.getParentBuffer().releasePartition(src);
+        long end() {
+            return end;
         }
 
         @Override
         public String toString() {
-            return "BufferCopy [src=" + src + ", dst=" + dst + ", srcOffset=" + srcOffset + ", dstOffset=" + dstOffset
-                    + ", size=" + size + "]";
+            return "StagedCopy [src=" + src + ", dst=" + dst + ", from=" + from + ", end=" + end + ", regions="
+                    + regionCount + "]";
         }
     }
 }
@@ -0,0 +1,125 @@
+package fr.sethlans.core.render.vk.buffer;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.buffer.BufferPartition;
+import fr.sethlans.core.render.buffer.MemorySize;
+import fr.sethlans.core.render.device.DeviceLimit;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+
+/**
+ * A persistently mapped uniform buffer split into one segment per frame in
+ * flight. Uniform data is written into the segment of the current frame and
+ * bound with a dynamic offset, so descriptor sets pointing to the ring are
+ * written once and only the offsets change between draws.
+ */
+public final class UniformRing {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.buffer");
+
+    /**
+     * The default capacity in bytes of the segment of a frame.
+     */
+    public static final long DEFAULT_FRAME_CAPACITY = 1024L * 1024;
+
+    private final HostVisibleBuffer ringBuffer;
+
+    private final long alignment;
+
+    private final long frameCapacity;
+
+    private final int frameCount;
+
+    /**
+     * The offset of the segment of the current frame.
+     */
+    private long frameStart = 0;
+
+    /**
+     * The offset of the next free byte in the segment of the current frame.
+     */
+    private long head = 0;
+
+    public UniformRing(LogicalDevice logicalDevice, int frameCount) {
+        this(logicalDevice, DEFAULT_FRAME_CAPACITY, frameCount);
+    }
+
+    public UniformRing(LogicalDevice logicalDevice, long frameCapacity, int frameCount) {
+        this.alignment = Math.max(1, logicalDevice.physicalDevice().getLongLimit(DeviceLimit.MIN_UBO_ALIGNMENT));
+        // Keep every segment aligned, so that allocations are aligned in the whole buffer.
+        this.frameCapacity = align(frameCapacity, alignment);
+        this.frameCount = frameCount;
+        if (this.frameCapacity * frameCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Uniform ring of " + frameCount + " x " + this.frameCapacity
+                    + " bytes can't be addressed with dynamic offsets!");
+        }
+
+        this.ringBuffer = new HostVisibleBuffer(logicalDevice, MemorySize.bytes(this.frameCapacity * frameCount),
+                BufferUsage.UNIFORM);
+        // The ring memory is coherent and stays mapped for its whole lifetime.
+        ringBuffer.map();
+
+        logger.info("Created uniform ring of " + frameCount + " x " + this.frameCapacity + " bytes with alignment "
+                + alignment + ".");
+    }
+
+    /**
+     * Start writing in the segment of the given frame, discarding its previous
+     * allocations. The frame must no longer be in use by the device.
+     *
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void begin(int frameIndex) {
+        this.frameStart = (frameIndex % frameCount) * frameCapacity;
+        this.head = frameStart;
+    }
+
+    /**
+     * Allocate an aligned range in the segment of the current frame.
+     *
+     * @param size The size of the range in bytes.
+     * @return A partition of the ring buffer, which offset is used as dynamic
+     *         offset.
+     * @throws IllegalStateException If the segment of the frame is full.
+     */
+    public BufferPartition<HostVisibleBuffer> allocate(long size) {
+        var offset = align(head, alignment);
+        if (offset + size > frameStart + frameCapacity) {
+            throw new IllegalStateException("Uniform ring segment of " + frameCapacity
+                    + " bytes is full, can't allocate " + size + " bytes!");
+        }
+
+        this.head = offset + size;
+        return new BufferPartition<>(ringBuffer, MemorySize.bytes(offset, size));
+    }
+
+    public HostVisibleBuffer getBuffer() {
+        return ringBuffer;
+    }
+
+    public long alignment() {
+        return alignment;
+    }
+
+    public long frameCapacity() {
+        return frameCapacity;
+    }
+
+    public long usedBytes() {
+        return head - frameStart;
+    }
+
+    public void destroy() {
+        ringBuffer.getNativeReference().destroy();
+    }
+
+    private static long align(long offset, long alignment) {
+        return ((offset + alignment - 1) / alignment) * alignment;
+    }
+
+    @Override
+    public String toString() {
+        return "UniformRing [frameCount=" + frameCount + ", frameCapacity=" + frameCapacity + ", used="
+                + usedBytes() + "]";
+    }
+}
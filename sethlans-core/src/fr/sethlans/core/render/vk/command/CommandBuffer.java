@@ -3,10 +3,14 @@ package fr.sethlans.core.render.vk.command;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 
 import org.joml.Matrix4f;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.KHRPushDescriptor;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VK13;
 import org.lwjgl.vulkan.VkCommandBuffer;
@@ -19,6 +23,7 @@ import org.lwjgl.vulkan.VkRect2D;
 import org.lwjgl.vulkan.VkRenderPassBeginInfo;
 import org.lwjgl.vulkan.VkRenderingInfo;
 import org.lwjgl.vulkan.VkViewport;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
 import fr.sethlans.core.natives.AbstractNativeResource;
 import fr.sethlans.core.natives.NativeResource;
@@ -27,6 +32,8 @@ import fr.sethlans.core.render.view.Scissor;
 import fr.sethlans.core.render.view.Viewport;
 import fr.sethlans.core.render.vk.buffer.VulkanBuffer;
 import fr.sethlans.core.render.vk.command.CommandPool.Create;
+import fr.sethlans.core.render.vk.descriptor.DescriptorSetWriter;
+import fr.sethlans.core.render.vk.descriptor.DescriptorUpdateTemplate;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.image.VulkanImage;
 import fr.sethlans.core.render.vk.image.VulkanImage.Filter;
@@ -40,6 +47,7 @@ import fr.sethlans.core.render.vk.pipeline.PipelineStage;
 import fr.sethlans.core.render.vk.swapchain.SwapChain;
 import fr.sethlans.core.render.vk.swapchain.VulkanFrame;
 import fr.sethlans.core.render.vk.sync.Fence;
+import fr.sethlans.core.render.vk.sync.TimelineSemaphore;
 import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.render.vk.util.VkUtil;
 
@@ -49,8 +57,17 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     
     private final CommandDelegate syncDelegate;
 
+    private final boolean secondary;
+
+    private final CommandState state = new CommandState();
+
     CommandBuffer(CommandPool commandPool) {
+        this(commandPool, false);
+    }
+
+    CommandBuffer(CommandPool commandPool, boolean secondary) {
         this.commandPool = commandPool;
+        this.secondary = secondary;
         var vkInstance = logicalDevice().physicalDevice().getContext().getVulkanInstance();
         this.syncDelegate = vkInstance.getApiVersion() >= VK13.VK_API_VERSION_1_3 ? CommandDelegate.COMMAND_2
                 : CommandDelegate.COMMAND;
@@ -60,7 +77,7 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
             var allocateInfo = VkCommandBufferAllocateInfo.calloc(stack)
                     .sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO)
                     .commandPool(commandPool.handle())
-                    .level(VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                    .level(secondary ? VK10.VK_COMMAND_BUFFER_LEVEL_SECONDARY : VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY)
                     .commandBufferCount(1);
 
             var vkDevice = commandPool.getLogicalDevice().getNativeObject();
@@ -89,8 +106,67 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
 
             var err = VK10.vkBeginCommandBuffer(object, beginInfo);
             VkUtil.throwOnFailure(err, "begin recording a command-buffer");
+            state.invalidate();
+            return this;
+        }
+    }
+
+    /**
+     * Begin recording a secondary command-buffer executed inside the render pass
+     * or the dynamic rendering described by the given inheritance.
+     * 
+     * @param inheritance The rendering state inherited from the primary
+     *                    command-buffer.
+     * @return The command buffer for chaining purposes.
+     */
+    public CommandBuffer beginRecording(RenderingInheritance inheritance) {
+        if (!secondary) {
+            throw new IllegalStateException("Only a secondary command-buffer can inherit rendering state!");
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            var inheritanceInfo = inheritance.createInfo(stack);
+            var beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                    .sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO)
+                    .flags(VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT
+                            | VK10.VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT)
+                    .pInheritanceInfo(inheritanceInfo);
+
+            var err = VK10.vkBeginCommandBuffer(object, beginInfo);
+            VkUtil.throwOnFailure(err, "begin recording a secondary command-buffer");
+            state.invalidate();
+            return this;
+        }
+    }
+
+    /**
+     * Execute the given secondary command-buffers in order.
+     * 
+     * @param commands The secondary command-buffers to execute.
+     * @return The command buffer for chaining purposes.
+     */
+    public CommandBuffer executeCommands(List<CommandBuffer> commands) {
+        if (commands.isEmpty()) {
             return this;
         }
+
+        try (var stack = MemoryStack.stackPush()) {
+            var pCommands = stack.mallocPointer(commands.size());
+            for (var command : commands) {
+                if (!command.isSecondary()) {
+                    throw new IllegalArgumentException("Can't execute primary command-buffer " + command + "!");
+                }
+                pCommands.put(command.getNativeObject());
+            }
+            pCommands.flip();
+
+            VK10.vkCmdExecuteCommands(object, pCommands);
+        }
+
+        // The state bound by the secondary command-buffers leaks into this one.
+        state.invalidate();
+
+        return this;
     }
     
     public CommandBuffer addBarrier(VulkanBuffer buffer, VkFlag<Access> srcAccess, VkFlag<Access> dstAccess, VkFlag<PipelineStage> srcStage, VkFlag<PipelineStage> dstStage) {
@@ -151,6 +227,10 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     }
 
     public CommandBuffer bindVertexBuffer(VulkanBuffer vertexBuffer) {
+        if (!state.bindVertexBuffer(vertexBuffer.handle())) {
+            return this;
+        }
+
         try (var stack = MemoryStack.stackPush()) {
             var pBufferHandles = stack.mallocLong(1);
             pBufferHandles.put(0, vertexBuffer.handle());
@@ -163,41 +243,109 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     }
 
     public <T extends VulkanBuffer> CommandBuffer bindIndexBuffer(IndexBuffer<T> indexBuffer) {
+        if (!state.bindIndexBuffer(indexBuffer.getNativeObject(), indexBuffer.getType().vkEnum())) {
+            return this;
+        }
+
         VK10.vkCmdBindIndexBuffer(object, indexBuffer.getNativeObject(), 0, indexBuffer.getType().vkEnum());
         return this;
     }
 
     public CommandBuffer bindPipeline(Pipeline pipeline) {
+        if (!state.bindPipeline(pipeline)) {
+            return this;
+        }
+
         VK10.vkCmdBindPipeline(object, pipeline.getBindPoint().vkEnum(), pipeline.handle());
         return this;
     }
 
     public CommandBuffer bindDescriptorSets(long pipelineLayoutHandle, BindPoint bindPoint, LongBuffer pDescriptorSets) {
-        VK10.vkCmdBindDescriptorSets(object, bindPoint.vkEnum(), pipelineLayoutHandle, 0,
-                pDescriptorSets, null);
-        return this;
+        return bindDescriptorSets(pipelineLayoutHandle, bindPoint, 0, pDescriptorSets, null);
     }
 
     public CommandBuffer bindDescriptorSets(long pipelineLayoutHandle, BindPoint bindPoint, LongBuffer pDescriptorSets,
             IntBuffer pDynamicOffsets) {
-        VK10.vkCmdBindDescriptorSets(object, bindPoint.vkEnum(), pipelineLayoutHandle, 0,
+        return bindDescriptorSets(pipelineLayoutHandle, bindPoint, 0, pDescriptorSets, pDynamicOffsets);
+    }
+
+    public CommandBuffer bindDescriptorSets(long pipelineLayoutHandle, BindPoint bindPoint, int firstSet,
+            LongBuffer pDescriptorSets, IntBuffer pDynamicOffsets) {
+        if (!state.bindDescriptorSets(pipelineLayoutHandle, bindPoint, firstSet, pDescriptorSets, pDynamicOffsets)) {
+            return this;
+        }
+
+        VK10.vkCmdBindDescriptorSets(object, bindPoint.vkEnum(), pipelineLayoutHandle, firstSet,
                 pDescriptorSets, pDynamicOffsets);
         return this;
     }
 
+    /**
+     * Push the descriptors of the given writers to a set of the pipeline layout,
+     * which must have been created with a push descriptor layout.
+     * 
+     * @param pipelineLayoutHandle The handle of the pipeline layout.
+     * @param bindPoint            The pipeline bind point.
+     * @param set                  The index of the pushed set.
+     * @param writers              The writers of the pushed descriptors.
+     * @return The command buffer for chaining purposes.
+     */
+    public CommandBuffer pushDescriptorSet(long pipelineLayoutHandle, BindPoint bindPoint, int set,
+            Collection<? extends DescriptorSetWriter> writers) {
+        try (var stack = MemoryStack.stackPush()) {
+            var pWrites = VkWriteDescriptorSet.calloc(writers.size(), stack);
+            for (var writer : writers) {
+                // The destination set is ignored when pushing descriptors.
+                writer.populateWrite(stack, pWrites.get().sType(VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET));
+            }
+            pWrites.flip();
+
+            KHRPushDescriptor.vkCmdPushDescriptorSetKHR(object, bindPoint.vkEnum(), pipelineLayoutHandle, set,
+                    pWrites);
+        }
+
+        state.pushDescriptorSet(bindPoint, pipelineLayoutHandle, set);
+
+        return this;
+    }
+
+    /**
+     * Push the descriptors packed with a push descriptor template.
+     * 
+     * @param template             The push descriptor update template.
+     * @param pipelineLayoutHandle The handle of the pipeline layout.
+     * @param set                  The index of the pushed set.
+     * @param data                 The template data.
+     * @return The command buffer for chaining purposes.
+     */
+    public CommandBuffer pushDescriptorSetWithTemplate(DescriptorUpdateTemplate template,
+            long pipelineLayoutHandle, int set, ByteBuffer data) {
+        KHRPushDescriptor.vkCmdPushDescriptorSetWithTemplateKHR(object, template.handle(), pipelineLayoutHandle, set,
+                MemoryUtil.memAddress(data));
+        state.pushDescriptorSet(template.getBindPoint(), pipelineLayoutHandle, set);
+        return this;
+    }
+
     public CommandBuffer pushConstants(long pipelineLayoutHandle, VkFlag<ShaderStage> stageFlags, int offset, Matrix4f matrix) {
         try (var stack = MemoryStack.stackPush()) {
             var buffer = stack.malloc(16 * Float.BYTES);
             matrix.get(buffer);
-            VK10.vkCmdPushConstants(object, pipelineLayoutHandle, stageFlags.bits(), offset, buffer);
+            return pushConstants(pipelineLayoutHandle, stageFlags, offset, buffer);
         }
-
-        return this;
     }
 
     public CommandBuffer pushConstants(long pipelineLayoutHandle, VkFlag<ShaderStage> stageFlags, int offset,
             ByteBuffer constantBuffer) {
-        VK10.vkCmdPushConstants(object, pipelineLayoutHandle, stageFlags.bits(), offset, constantBuffer);
+        var range = state.pushConstants(pipelineLayoutHandle, stageFlags.bits(), offset, constantBuffer);
+        if (range < 0L) {
+            return this;
+        }
+
+        // Only push the range which changed since the last push.
+        var first = (int) (range >>> 32);
+        var size = (int) range;
+        VK10.nvkCmdPushConstants(object, pipelineLayoutHandle, stageFlags.bits(), offset + first, size,
+                MemoryUtil.memAddress(constantBuffer) + first);
         return this;
     }
     
@@ -207,12 +355,21 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     }
     
     public CommandBuffer draw(int vertexCount) {
-        VK10.vkCmdDraw(object, vertexCount, 1, 0, 0);
+        return draw(vertexCount, 1, 0);
+    }
+
+    public CommandBuffer draw(int vertexCount, int instanceCount, int firstInstance) {
+        VK10.vkCmdDraw(object, vertexCount, instanceCount, 0, firstInstance);
         return this;
     }
 
     public <T extends VulkanBuffer> CommandBuffer drawIndexed(IndexBuffer<T> indexBuffer) {
-        VK10.vkCmdDrawIndexed(object, indexBuffer.getElements(), 1, 0, 0, 0);
+        return drawIndexed(indexBuffer, 1, 0);
+    }
+
+    public <T extends VulkanBuffer> CommandBuffer drawIndexed(IndexBuffer<T> indexBuffer, int instanceCount,
+            int firstInstance) {
+        VK10.vkCmdDrawIndexed(object, indexBuffer.getElements(), instanceCount, 0, 0, firstInstance);
         return this;
     }
 
@@ -232,6 +389,11 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     }
     
     public CommandBuffer setViewport(Viewport viewport) {
+        if (!state.setViewport(viewport.getX(), viewport.getY(), viewport.getWidth(), viewport.getHeight(),
+                viewport.getMinDepth(), viewport.getMaxDepth())) {
+            return this;
+        }
+
         try (var stack = MemoryStack.stackPush()) {
             // Define viewport dimension and origin.
             var vkViewport = VkViewport.calloc(1, stack);
@@ -250,6 +412,9 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     public CommandBuffer setViewport(SwapChain swapChain) {
         try (var stack = MemoryStack.stackPush()) {
             var framebufferExtent = swapChain.framebufferExtent(stack);
+            if (!state.setViewport(0f, 0f, framebufferExtent.width(), framebufferExtent.height(), 0f, 1f)) {
+                return this;
+            }
 
             // Define viewport dimension and origin.
             var viewport = VkViewport.calloc(1, stack);
@@ -266,6 +431,10 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     }
     
     public CommandBuffer setScissor(Scissor scissor) {
+        if (!state.setScissor(scissor.getX(), scissor.getY(), scissor.getWidth(), scissor.getHeight())) {
+            return this;
+        }
+
         try (var stack = MemoryStack.stackPush()) {
             // Define scissor to discard pixels outside the framebuffer.
             var vkScissor = VkRect2D.calloc(1, stack);
@@ -280,6 +449,9 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
     public CommandBuffer setScissor(SwapChain swapChain) {
         try (var stack = MemoryStack.stackPush()) {
             var framebufferExtent = swapChain.framebufferExtent(stack);
+            if (!state.setScissor(0, 0, framebufferExtent.width(), framebufferExtent.height())) {
+                return this;
+            }
 
             // Define scissor to discard pixels outside the framebuffer.
             var scissor = VkRect2D.calloc(1, stack);
@@ -295,6 +467,10 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
         return syncDelegate.submit(this, fence);
     }
 
+    public CommandBuffer submit(TimelineSemaphore semaphore, long signalValue) {
+        return syncDelegate.submit(this, semaphore, signalValue);
+    }
+
     public CommandBuffer submitFrame(VulkanFrame frame) {
         return syncDelegate.submitFrame(this, frame);
     }
@@ -327,6 +503,34 @@ public class CommandBuffer extends AbstractNativeResource<VkCommandBuffer> {
         return this;
     }
 
+    /**
+     * Return the number of binds and state commands recorded since the counters
+     * were reset.
+     * 
+     * @return The number of emitted commands.
+     */
+    public long emittedCount() {
+        return state.emittedCount();
+    }
+
+    /**
+     * Return the number of binds and state commands skipped since the counters
+     * were reset, because they matched the bound state.
+     * 
+     * @return The number of elided commands.
+     */
+    public long elidedCount() {
+        return state.elidedCount();
+    }
+
+    public void resetCounters() {
+        state.resetCounters();
+    }
+
+    public boolean isSecondary() {
+        return secondary;
+    }
+
     public LogicalDevice logicalDevice() {
         return commandPool.getLogicalDevice();
     }
@@ -4,6 +4,7 @@ import java.util.function.Consumer;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
 import org.lwjgl.vulkan.VK13;
 import org.lwjgl.vulkan.VkBlitImageInfo2;
 import org.lwjgl.vulkan.VkBufferCopy;
@@ -31,6 +32,7 @@ import org.lwjgl.vulkan.VkResolveImageInfo2;
 import org.lwjgl.vulkan.VkSemaphoreSubmitInfo;
 import org.lwjgl.vulkan.VkSubmitInfo;
 import org.lwjgl.vulkan.VkSubmitInfo2;
+import org.lwjgl.vulkan.VkTimelineSemaphoreSubmitInfo;
 
 import fr.sethlans.core.render.vk.buffer.BufferUsage;
 import fr.sethlans.core.render.vk.buffer.VulkanBuffer;
@@ -42,6 +44,7 @@ import fr.sethlans.core.render.vk.pipeline.Access;
 import fr.sethlans.core.render.vk.pipeline.PipelineStage;
 import fr.sethlans.core.render.vk.swapchain.VulkanFrame;
 import fr.sethlans.core.render.vk.sync.Fence;
+import fr.sethlans.core.render.vk.sync.TimelineSemaphore;
 import fr.sethlans.core.render.vk.util.VkFlag;
 
 public interface CommandDelegate {
@@ -238,22 +241,47 @@ public interface CommandDelegate {
 
         @Override
         public CommandBuffer submitFrame(CommandBuffer command, VulkanFrame frame) {
-            var signalHandle = frame.renderCompleteSemaphore() != null ? frame.renderCompleteSemaphore().handle()
-                    : VK10.VK_NULL_HANDLE;
-            var waitHandle = frame.imageAvailableSemaphore() != null ? frame.imageAvailableSemaphore().handle()
-                    : VK10.VK_NULL_HANDLE;
+            var imageAvailable = frame.imageAvailableSemaphore();
+            var uploadSemaphore = frame.uploadSemaphore();
+            var waitCount = (imageAvailable != null ? 1 : 0) + (uploadSemaphore != null ? 1 : 0);
 
             try (var stack = MemoryStack.stackPush()) {
+                var pWaitSemaphores = stack.mallocLong(Math.max(waitCount, 1));
+                var pWaitDstStageMask = stack.mallocInt(Math.max(waitCount, 1));
+                var pWaitValues = stack.mallocLong(Math.max(waitCount, 1));
+                if (imageAvailable != null) {
+                    pWaitSemaphores.put(imageAvailable.handle());
+                    pWaitDstStageMask.put(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
+                    pWaitValues.put(0L);
+                }
+                if (uploadSemaphore != null) {
+                    // Vertex and index data are read at the vertex input stage.
+                    pWaitSemaphores.put(uploadSemaphore.handle());
+                    pWaitDstStageMask.put(VK10.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT);
+                    pWaitValues.put(frame.uploadValue());
+                }
+                pWaitSemaphores.flip();
+                pWaitDstStageMask.flip();
+                pWaitValues.flip();
+
                 // Create submit info.
                 var submitInfo = VkSubmitInfo.calloc(1, stack)
                         .sType(VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO)
                         .pCommandBuffers(stack.pointers(command.getNativeObject()))
-                        .waitSemaphoreCount(frame.imageAvailableSemaphore() != null ? 1 : 0)
-                        .pWaitSemaphores(stack.longs(waitHandle))
-                        .pWaitDstStageMask(stack.ints(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT));
+                        .waitSemaphoreCount(waitCount)
+                        .pWaitSemaphores(pWaitSemaphores)
+                        .pWaitDstStageMask(pWaitDstStageMask);
 
                 if (frame.renderCompleteSemaphore() != null) {
-                    submitInfo.pSignalSemaphores(stack.longs(signalHandle));
+                    submitInfo.pSignalSemaphores(stack.longs(frame.renderCompleteSemaphore().handle()));
+                }
+
+                if (uploadSemaphore != null) {
+                    var timelineInfo = VkTimelineSemaphoreSubmitInfo.calloc(stack)
+                            .sType(VK12.VK_STRUCTURE_TYPE_TIMELINE_SEMAPHORE_SUBMIT_INFO)
+                            .waitSemaphoreValueCount(waitCount)
+                            .pWaitSemaphoreValues(pWaitValues);
+                    submitInfo.pNext(timelineInfo);
                 }
 
                 frame.fenceReset();
@@ -279,6 +307,28 @@ public interface CommandDelegate {
 
             return command;
         }
+
+        @Override
+        public CommandBuffer submit(CommandBuffer command, TimelineSemaphore semaphore, long signalValue) {
+            try (var stack = MemoryStack.stackPush()) {
+                var timelineInfo = VkTimelineSemaphoreSubmitInfo.calloc(stack)
+                        .sType(VK12.VK_STRUCTURE_TYPE_TIMELINE_SEMAPHORE_SUBMIT_INFO)
+                        .signalSemaphoreValueCount(1)
+                        .pSignalSemaphoreValues(stack.longs(signalValue));
+
+                // Create submit info.
+                var submitInfo = VkSubmitInfo.calloc(1, stack)
+                        .sType(VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO)
+                        .pNext(timelineInfo)
+                        .pCommandBuffers(stack.pointers(command.getNativeObject()))
+                        .pSignalSemaphores(stack.longs(semaphore.handle()));
+
+                var queue = command.getPool().getQueue();
+                queue.submit(submitInfo);
+            }
+
+            return command;
+        }
     };
     
     CommandDelegate COMMAND_2 = new CommandDelegate() {
@@ -541,12 +591,26 @@ public interface CommandDelegate {
                         .commandBuffer(command.getNativeObject());
                 submitInfo.pCommandBufferInfos(pCommandBufferInfos);
 
-                if (frame.imageAvailableSemaphore() != null) {
-                    var waitHandle = frame.imageAvailableSemaphore().handle();
-                    var pWaitSemaphoreInfos = VkSemaphoreSubmitInfo.calloc(1, stack)
-                            .sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO)
-                            .stageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT)
-                            .semaphore(waitHandle);
+                var imageAvailable = frame.imageAvailableSemaphore();
+                var uploadSemaphore = frame.uploadSemaphore();
+                var waitCount = (imageAvailable != null ? 1 : 0) + (uploadSemaphore != null ? 1 : 0);
+                if (waitCount > 0) {
+                    var pWaitSemaphoreInfos = VkSemaphoreSubmitInfo.calloc(waitCount, stack);
+                    var i = 0;
+                    if (imageAvailable != null) {
+                        pWaitSemaphoreInfos.get(i++)
+                                .sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO)
+                                .stageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT)
+                                .semaphore(imageAvailable.handle());
+                    }
+                    if (uploadSemaphore != null) {
+                        // Vertex and index data are read at the vertex input stage.
+                        pWaitSemaphoreInfos.get(i++)
+                                .sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO)
+                                .stageMask(VK13.VK_PIPELINE_STAGE_2_VERTEX_INPUT_BIT)
+                                .semaphore(uploadSemaphore.handle())
+                                .value(frame.uploadValue());
+                    }
                     submitInfo.pWaitSemaphoreInfos(pWaitSemaphoreInfos);
                 }
 
@@ -587,6 +651,33 @@ public interface CommandDelegate {
 
             return command;
         }
+
+        @Override
+        public CommandBuffer submit(CommandBuffer command, TimelineSemaphore semaphore, long signalValue) {
+            try (var stack = MemoryStack.stackPush()) {
+                var pCommandBufferInfos = VkCommandBufferSubmitInfo.calloc(1, stack)
+                        .sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_SUBMIT_INFO)
+                        .deviceMask(0)
+                        .commandBuffer(command.getNativeObject());
+
+                var pSignalSemaphoreInfos = VkSemaphoreSubmitInfo.calloc(1, stack)
+                        .sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO)
+                        .stageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT)
+                        .semaphore(semaphore.handle())
+                        .value(signalValue);
+
+                // Create submit info 2.
+                var submitInfo = VkSubmitInfo2.calloc(1, stack)
+                        .sType(VK13.VK_STRUCTURE_TYPE_SUBMIT_INFO_2)
+                        .pCommandBufferInfos(pCommandBufferInfos)
+                        .pSignalSemaphoreInfos(pSignalSemaphoreInfos);
+
+                var queue = command.getPool().getQueue();
+                queue.submit(submitInfo);
+            }
+
+            return command;
+        }
     };
     
     CommandBuffer addBarrier(CommandBuffer command, VulkanBuffer buffer, VkFlag<Access> srcAccess,
@@ -617,4 +708,6 @@ public interface CommandDelegate {
     CommandBuffer submitFrame(CommandBuffer command, VulkanFrame frame);
 
     CommandBuffer submit(CommandBuffer command, Fence fence);
+
+    CommandBuffer submit(CommandBuffer command, TimelineSemaphore semaphore, long signalValue);
 }
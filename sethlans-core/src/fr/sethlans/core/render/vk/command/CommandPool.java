@@ -44,6 +44,10 @@ public class CommandPool extends AbstractDeviceResource {
         return new CommandBuffer(this);
     }
 
+    public CommandBuffer createSecondaryCommandBuffer() {
+        return new CommandBuffer(this, true);
+    }
+
     public SingleUseCommand singleUseCommand() {
         return new SingleUseCommand(this);
     }
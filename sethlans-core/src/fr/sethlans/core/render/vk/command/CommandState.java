@@ -0,0 +1,316 @@
+package fr.sethlans.core.render.vk.command;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.BindPoint;
+import fr.sethlans.core.render.vk.pipeline.DynamicState;
+import fr.sethlans.core.render.vk.pipeline.GraphicsPipeline;
+import fr.sethlans.core.render.vk.pipeline.Pipeline;
+
+/**
+ * Shadows the state bound to a command-buffer during its recording, so that the
+ * binds identical to the current state are skipped.
+ * <p>
+ * The descriptor sets are shadowed per bind point and set slot, under the
+ * pipeline layout they were bound with: binding sets with another layout
+ * forgets the whole bind point, since the sets it disturbs depend on the layout
+ * compatibility. The push constants are shadowed byte per byte, so that only
+ * the changed range is pushed. The viewport and scissor persist across the
+ * pipelines declaring them dynamic, and are forgotten when a pipeline with a
+ * static viewport or scissor is bound.
+ * <p>
+ * Any unknown state must be {@link #invalidate() invalidated}, for instance when
+ * the recording begins or after executing secondary command-buffers.
+ */
+final class CommandState {
+
+    private static final int BIND_POINT_COUNT = BindPoint.values().length;
+
+    private final long[] pipelines = new long[BIND_POINT_COUNT];
+
+    private final long[] setLayouts = new long[BIND_POINT_COUNT];
+
+    /**
+     * The bound descriptor sets indexed by bind point, then set slot.
+     */
+    private final long[][] sets = new long[BIND_POINT_COUNT][8];
+
+    /**
+     * The dynamic offsets of the last bind starting at a set slot, indexed by bind
+     * point, then first set. A bind forgets the offsets of the binds starting at
+     * another slot, since their sets may overlap.
+     */
+    private final int[][][] dynamicOffsets = new int[BIND_POINT_COUNT][8][];
+
+    private long vertexBuffer;
+
+    private long indexBuffer;
+
+    private int indexType;
+
+    private long pushLayout;
+
+    private byte[] pushBytes = new byte[128];
+
+    private int[] pushStages = new int[128];
+
+    private final float[] viewport = new float[6];
+
+    private boolean viewportValid;
+
+    private final int[] scissor = new int[4];
+
+    private boolean scissorValid;
+
+    private long emitted, elided;
+
+    void invalidate() {
+        Arrays.fill(pipelines, 0L);
+        Arrays.fill(setLayouts, 0L);
+        for (var i = 0; i < BIND_POINT_COUNT; ++i) {
+            forgetSets(i);
+        }
+        vertexBuffer = 0L;
+        indexBuffer = 0L;
+        pushLayout = 0L;
+        viewportValid = false;
+        scissorValid = false;
+    }
+
+    boolean bindPipeline(Pipeline pipeline) {
+        var point = pipeline.getBindPoint().ordinal();
+        if (pipelines[point] == pipeline.handle()) {
+            return elide();
+        }
+
+        pipelines[point] = pipeline.handle();
+        if (pipeline instanceof GraphicsPipeline graphics) {
+            // A pipeline with a static state overwrites the dynamic one.
+            viewportValid &= graphics.isDynamic(DynamicState.VIEWPORT);
+            scissorValid &= graphics.isDynamic(DynamicState.SCISSOR);
+        }
+
+        return emit();
+    }
+
+    boolean bindDescriptorSets(long layout, BindPoint bindPoint, int firstSet, LongBuffer pDescriptorSets,
+            IntBuffer pDynamicOffsets) {
+        var point = bindPoint.ordinal();
+        var count = pDescriptorSets.remaining();
+        ensureSetCapacity(point, firstSet + count);
+
+        if (setLayouts[point] != layout) {
+            setLayouts[point] = layout;
+            forgetSets(point);
+
+        } else if (matchesSets(point, firstSet, pDescriptorSets, pDynamicOffsets)) {
+            return elide();
+        }
+
+        var bound = sets[point];
+        for (var i = 0; i < count; ++i) {
+            bound[firstSet + i] = pDescriptorSets.get(pDescriptorSets.position() + i);
+        }
+
+        var offsets = dynamicOffsets[point];
+        Arrays.fill(offsets, null);
+        offsets[firstSet] = toArray(pDynamicOffsets);
+        return emit();
+    }
+
+    private boolean matchesSets(int point, int firstSet, LongBuffer pDescriptorSets, IntBuffer pDynamicOffsets) {
+        var bound = sets[point];
+        for (var i = 0; i < pDescriptorSets.remaining(); ++i) {
+            var set = pDescriptorSets.get(pDescriptorSets.position() + i);
+            if (set == 0L || bound[firstSet + i] != set) {
+                return false;
+            }
+        }
+
+        var offsets = dynamicOffsets[point][firstSet];
+        if (offsets == null) {
+            return false;
+        }
+
+        var count = pDynamicOffsets != null ? pDynamicOffsets.remaining() : 0;
+        if (offsets.length != count) {
+            return false;
+        }
+
+        for (var i = 0; i < count; ++i) {
+            if (offsets[i] != pDynamicOffsets.get(pDynamicOffsets.position() + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Forget the set pushed to the given slot, its descriptors can't be compared.
+     */
+    void pushDescriptorSet(BindPoint bindPoint, long layout, int set) {
+        var point = bindPoint.ordinal();
+        if (setLayouts[point] != layout) {
+            setLayouts[point] = layout;
+            forgetSets(point);
+        }
+
+        ensureSetCapacity(point, set + 1);
+        sets[point][set] = 0L;
+        Arrays.fill(dynamicOffsets[point], null);
+        emit();
+    }
+
+    boolean bindVertexBuffer(long handle) {
+        if (vertexBuffer == handle) {
+            return elide();
+        }
+
+        vertexBuffer = handle;
+        return emit();
+    }
+
+    boolean bindIndexBuffer(long handle, int type) {
+        if (indexBuffer == handle && indexType == type) {
+            return elide();
+        }
+
+        indexBuffer = handle;
+        indexType = type;
+        return emit();
+    }
+
+    /**
+     * Compare the pushed constants with the shadowed bytes, and store them.
+     *
+     * @return The changed range as its offset in the high 32 bits and its size in
+     *         the low 32 bits, aligned to 4 bytes, or -1 if nothing changed.
+     */
+    long pushConstants(long layout, int stageFlags, int offset, ByteBuffer data) {
+        var size = data.remaining();
+        ensurePushCapacity(offset + size);
+
+        if (pushLayout != layout) {
+            pushLayout = layout;
+            Arrays.fill(pushStages, 0);
+        }
+
+        var first = -1;
+        var last = -1;
+        for (var i = 0; i < size; ++i) {
+            var value = data.get(data.position() + i);
+            var index = offset + i;
+            if (pushStages[index] != stageFlags || pushBytes[index] != value) {
+                pushStages[index] = stageFlags;
+                pushBytes[index] = value;
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+
+        if (first < 0) {
+            elide();
+            return -1L;
+        }
+
+        // Push constant offsets and sizes must be multiples of 4.
+        first &= ~3;
+        last = Math.min(size, (last | 3) + 1);
+        emit();
+        return (long) first << 32 | (last - first);
+    }
+
+    boolean setViewport(float x, float y, float width, float height, float minDepth, float maxDepth) {
+        if (viewportValid && viewport[0] == x && viewport[1] == y && viewport[2] == width
+                && viewport[3] == height && viewport[4] == minDepth && viewport[5] == maxDepth) {
+            return elide();
+        }
+
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        viewport[4] = minDepth;
+        viewport[5] = maxDepth;
+        viewportValid = true;
+        return emit();
+    }
+
+    boolean setScissor(int x, int y, int width, int height) {
+        if (scissorValid && scissor[0] == x && scissor[1] == y && scissor[2] == width && scissor[3] == height) {
+            return elide();
+        }
+
+        scissor[0] = x;
+        scissor[1] = y;
+        scissor[2] = width;
+        scissor[3] = height;
+        scissorValid = true;
+        return emit();
+    }
+
+    long emittedCount() {
+        return emitted;
+    }
+
+    long elidedCount() {
+        return elided;
+    }
+
+    void resetCounters() {
+        emitted = 0L;
+        elided = 0L;
+    }
+
+    private boolean emit() {
+        emitted++;
+        return true;
+    }
+
+    private boolean elide() {
+        elided++;
+        return false;
+    }
+
+    private void forgetSets(int point) {
+        Arrays.fill(sets[point], 0L);
+        Arrays.fill(dynamicOffsets[point], null);
+    }
+
+    private void ensureSetCapacity(int point, int count) {
+        if (count > sets[point].length) {
+            var capacity = Math.max(count, sets[point].length * 2);
+            sets[point] = Arrays.copyOf(sets[point], capacity);
+            dynamicOffsets[point] = Arrays.copyOf(dynamicOffsets[point], capacity);
+        }
+    }
+
+    private void ensurePushCapacity(int size) {
+        if (size > pushBytes.length) {
+            var capacity = Math.max(size, pushBytes.length * 2);
+            pushBytes = Arrays.copyOf(pushBytes, capacity);
+            pushStages = Arrays.copyOf(pushStages, capacity);
+        }
+    }
+
+    private static int[] toArray(IntBuffer buffer) {
+        if (buffer == null) {
+            return new int[0];
+        }
+
+        var result = new int[buffer.remaining()];
+        buffer.get(buffer.position(), result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandState [emitted=" + emitted + ", elided=" + elided + "]";
+    }
+}
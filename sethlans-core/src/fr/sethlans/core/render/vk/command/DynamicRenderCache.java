@@ -10,19 +10,23 @@ public class DynamicRenderCache {
 
     private final Map<Class<?>, DynamicRenderCommand<?>> renderCommands = new HashMap<>();
 
+    private CommandBuffer command;
+
     public DynamicRenderCache(CommandBuffer command) {
+        this.command = command;
+
         var viewport = new DynamicRenderCommand<Viewport>("Viewport") {
 
             @Override
             protected void apply(Viewport state) {
-                command.setViewport(state);
+                DynamicRenderCache.this.command.setViewport(state);
             }
         };
         var scissor = new DynamicRenderCommand<Scissor>("Scissor") {
 
             @Override
             protected void apply(Scissor state) {
-                command.setScissor(state);
+                DynamicRenderCache.this.command.setScissor(state);
             }
         };
         
@@ -30,6 +34,17 @@ public class DynamicRenderCache {
         renderCommands.put(Scissor.class, scissor);
     }
 
+    /**
+     * Record the dynamic states into another command-buffer, which starts without
+     * any of them.
+     * 
+     * @param command The command-buffer to record into.
+     */
+    public void setCommandBuffer(CommandBuffer command) {
+        this.command = command;
+        invalidateAll();
+    }
+
     public void applyAll() {
         for (var renderCommand : renderCommands.values()) {
             renderCommand.apply();
@@ -0,0 +1,205 @@
+package fr.sethlans.core.render.vk.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.sethlans.core.render.vk.command.CommandPool.Create;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+
+/**
+ * Records the draws of a render pass into secondary command-buffers on several
+ * threads, to be executed by the primary command-buffer.
+ * <p>
+ * The draws are split into contiguous chunks, each recorded into its own
+ * secondary command-buffer, and the buffers are returned in the order of the
+ * chunks. The recorded commands thus only depend on the draws, not on which
+ * thread recorded them. The calling thread records the first chunk itself.
+ * <p>
+ * Each chunk index owns a command pool per frame in flight, since a pool can't
+ * be used by two threads at once. The pools of a frame are reset as a whole by
+ * {@link #beginFrame(int)}, once the frame fence was waited.
+ */
+public class ParallelCommandRecorder {
+
+    /**
+     * The minimum number of draws worth recording on another thread.
+     */
+    public static final int MIN_CHUNK_SIZE = 64;
+
+    private final int threadCount;
+
+    private final ExecutorService executor;
+
+    /**
+     * The command pools indexed by frame in flight, then chunk.
+     */
+    private final ChunkPool[][] pools;
+
+    public ParallelCommandRecorder(LogicalDevice logicalDevice, int threadCount, int framesInFlight) {
+        if (threadCount <= 1) {
+            throw new IllegalArgumentException("Thread count must be greater than 1, but got " + threadCount);
+        }
+
+        this.threadCount = threadCount;
+        this.pools = new ChunkPool[framesInFlight][threadCount];
+        for (var frame = 0; frame < framesInFlight; ++frame) {
+            for (var chunk = 0; chunk < threadCount; ++chunk) {
+                pools[frame][chunk] = new ChunkPool(
+                        new CommandPool(logicalDevice, logicalDevice.graphicsQueue(), Create.TRANSIENT));
+            }
+        }
+
+        var threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threadCount - 1, r -> {
+            var thread = new Thread(r, "command-recorder-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reset the command pools of the given frame, whose previous submission must
+     * have completed.
+     *
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void beginFrame(int frameIndex) {
+        for (var pool : pools[frameIndex]) {
+            pool.commandPool.reset();
+            pool.next = 0;
+        }
+    }
+
+    /**
+     * Return the number of chunks the given number of draws is split into.
+     *
+     * @param drawCount The number of draws.
+     * @return The number of chunks, 1 if the draws aren't worth splitting.
+     */
+    public int chunkCount(int drawCount) {
+        return Math.max(1, Math.min(threadCount, drawCount / MIN_CHUNK_SIZE));
+    }
+
+    /**
+     * Record the given draws into secondary command-buffers inheriting the given
+     * rendering state, and wait for all of them.
+     *
+     * @param <T>         The type of draws.
+     * @param frameIndex  The index of the frame in flight.
+     * @param draws       The draws to record, in order.
+     * @param inheritance The rendering state of the primary command-buffer.
+     * @param recorder    The recorder of a chunk of draws, called concurrently.
+     * @return The recorded secondary command-buffers, in the order of the draws.
+     * @throws RuntimeException If a chunk failed to record.
+     */
+    public <T> List<CommandBuffer> record(int frameIndex, List<T> draws, RenderingInheritance inheritance,
+            ChunkRecorder<T> recorder) {
+        var chunkCount = chunkCount(draws.size());
+        var commands = new ArrayList<CommandBuffer>(chunkCount);
+        for (var chunk = 0; chunk < chunkCount; ++chunk) {
+            commands.add(pools[frameIndex][chunk].nextCommand());
+        }
+
+        var futures = new ArrayList<CompletableFuture<Void>>(chunkCount - 1);
+        for (var chunk = 1; chunk < chunkCount; ++chunk) {
+            var command = commands.get(chunk);
+            var chunkDraws = chunk(draws, chunk, chunkCount);
+            futures.add(CompletableFuture.runAsync(() -> record(command, chunkDraws, inheritance, recorder),
+                    executor));
+        }
+
+        record(commands.get(0), chunk(draws, 0, chunkCount), inheritance, recorder);
+
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+
+        return commands;
+    }
+
+    private static <T> void record(CommandBuffer command, List<T> draws, RenderingInheritance inheritance,
+            ChunkRecorder<T> recorder) {
+        command.beginRecording(inheritance);
+        recorder.record(command, draws);
+        command.end();
+    }
+
+    private static <T> List<T> chunk(List<T> draws, int chunk, int chunkCount) {
+        var size = draws.size();
+        return draws.subList(chunk * size / chunkCount, (chunk + 1) * size / chunkCount);
+    }
+
+    /**
+     * Stop the recording threads and destroy the command pools of every chunk.
+     * The device must no longer use the recorded command-buffers.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (var framePools : pools) {
+            for (var pool : framePools) {
+                pool.commands.clear();
+                pool.commandPool.getNativeReference().destroy();
+            }
+        }
+    }
+
+    public int threadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelCommandRecorder [threadCount=" + threadCount + ", framesInFlight=" + pools.length + "]";
+    }
+
+    /**
+     * Records a chunk of draws into a secondary command-buffer.
+     */
+    @FunctionalInterface
+    public interface ChunkRecorder<T> {
+
+        void record(CommandBuffer command, List<T> draws);
+    }
+
+    /**
+     * A command pool with the secondary command-buffers it allocated, reused
+     * once the pool is reset.
+     */
+    private static class ChunkPool {
+
+        private final CommandPool commandPool;
+
+        private final List<CommandBuffer> commands = new ArrayList<>();
+
+        private int next = 0;
+
+        ChunkPool(CommandPool commandPool) {
+            this.commandPool = commandPool;
+        }
+
+        CommandBuffer nextCommand() {
+            if (next == commands.size()) {
+                commands.add(commandPool.createSecondaryCommandBuffer());
+            }
+
+            return commands.get(next++);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package fr.sethlans.core.render.vk.command;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK13;
+import org.lwjgl.vulkan.VkCommandBufferInheritanceInfo;
+import org.lwjgl.vulkan.VkCommandBufferInheritanceRenderingInfo;
+
+import fr.sethlans.core.render.vk.pass.RenderPass;
+import fr.sethlans.core.render.vk.util.VulkanFormat;
+
+/**
+ * The rendering state a secondary command-buffer inherits from the primary one
+ * executing it, either a render pass and framebuffer, or the attachment formats
+ * of dynamic rendering when the render pass is null.
+ * 
+ * @param renderPass  The render pass, or null for dynamic rendering.
+ * @param framebuffer The handle of the framebuffer, or 0 if unknown.
+ * @param colorFormat The format of the color attachment.
+ * @param depthFormat The format of the depth attachment, or null.
+ * @param sampleCount The sample count of the attachments.
+ */
+public record RenderingInheritance(RenderPass renderPass, long framebuffer, VulkanFormat colorFormat,
+        VulkanFormat depthFormat, int sampleCount) {
+
+    VkCommandBufferInheritanceInfo createInfo(MemoryStack stack) {
+        var inheritanceInfo = VkCommandBufferInheritanceInfo.calloc(stack)
+                .sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_INFO);
+
+        if (renderPass != null) {
+            inheritanceInfo.renderPass(renderPass.handle())
+                    .subpass(0)
+                    .framebuffer(framebuffer);
+            return inheritanceInfo;
+        }
+
+        var pColorFormats = stack.ints(colorFormat.vkEnum());
+        var renderingInfo = VkCommandBufferInheritanceRenderingInfo.calloc(stack)
+                .sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_RENDERING_INFO)
+                .pColorAttachmentFormats(pColorFormats)
+                .depthAttachmentFormat(depthFormat != null ? depthFormat.vkEnum() : VK10.VK_FORMAT_UNDEFINED)
+                .rasterizationSamples(sampleCount);
+
+        return inheritanceInfo.pNext(renderingInfo);
+    }
+}
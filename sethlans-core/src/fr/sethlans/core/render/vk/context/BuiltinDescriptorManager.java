@@ -2,29 +2,40 @@ package fr.sethlans.core.render.vk.context;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import org.joml.Matrix4f;
 
 import fr.alchemy.utilities.logging.FactoryLogger;
 import fr.alchemy.utilities.logging.Logger;
 import fr.sethlans.core.material.layout.BindingLayout;
+import fr.sethlans.core.material.layout.BindingType;
 import fr.sethlans.core.render.Projection;
-import fr.sethlans.core.render.buffer.MemorySize;
 import fr.sethlans.core.render.struct.GpuStruct;
 import fr.sethlans.core.render.struct.GpuStructLayout;
 import fr.sethlans.core.render.struct.GpuStructLayout.LayoutType;
 import fr.sethlans.core.render.struct.foreign.ForeignStructLayoutGenerator;
 import fr.sethlans.core.render.view.Camera;
-import fr.sethlans.core.render.vk.buffer.BufferUsage;
-import fr.sethlans.core.render.vk.buffer.HostVisibleBuffer;
-import fr.sethlans.core.render.vk.command.CommandBuffer;
+import fr.sethlans.core.render.vk.buffer.InstanceRing;
+import fr.sethlans.core.render.vk.buffer.UniformRing;
 import fr.sethlans.core.render.vk.descriptor.AbstractDescriptorSet;
-import fr.sethlans.core.render.vk.descriptor.DescriptorPool;
+import fr.sethlans.core.render.vk.descriptor.BindlessTextureArray;
+import fr.sethlans.core.render.vk.descriptor.BufferSetWriter;
+import fr.sethlans.core.render.vk.descriptor.DescriptorAllocator;
+import fr.sethlans.core.render.vk.descriptor.DescriptorSet;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayout;
-import fr.sethlans.core.render.vk.device.LogicalDevice;
-import fr.sethlans.core.render.vk.uniform.StructUniform;
+import fr.sethlans.core.render.vk.descriptor.DescriptorUpdateQueue;
+import fr.sethlans.core.render.vk.descriptor.PerFrameDescriptorSet;
+import fr.sethlans.core.render.vk.image.VulkanTexture;
+import fr.sethlans.core.render.vk.pipeline.PipelineLibrary;
 import fr.sethlans.core.render.vk.uniform.UpdateRate;
 
+/**
+ * Manages the builtin uniform buffers shared by every material. The builtin
+ * data is written into the {@link UniformRing} each frame, and bound through
+ * dynamic uniform buffer descriptors only rewritten when the ring buffer
+ * changes, so that updating a builtin only moves its dynamic offset.
+ */
 public class BuiltinDescriptorManager {
     
     private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.context");
@@ -35,18 +46,47 @@ public class BuiltinDescriptorManager {
     record Dynamic(Matrix4f view) implements GpuStruct {
     }
 
-    private final DescriptorPool descriptorPool;
+    private final DescriptorAllocator descriptorAllocator;
+
+    private final UniformRing uniformRing;
+
+    private final InstanceRing instanceRing;
 
     private final Map<String, BuiltinBinding> builtinBindings = new HashMap<>();
 
-    private final Map<BuiltinBinding, AbstractDescriptorSet> setCache = new HashMap<>();
+    private final Map<BuiltinBinding, DescriptorSet> setCache = new HashMap<>();
+
+    private final Map<BuiltinBinding, Integer> dynamicOffsets = new HashMap<>();
+
+    /**
+     * The handle of the buffer each builtin descriptor set was written with.
+     */
+    private final Map<BuiltinBinding, Long> writtenBuffers = new HashMap<>();
+
+    /**
+     * The global texture array, or null if the device doesn't support bindless
+     * textures.
+     */
+    private final BindlessTextureArray bindlessTextures;
+
+    private PerFrameDescriptorSet instanceSet;
+
+    /**
+     * The handle of the buffer each frame of the instance descriptor set was
+     * written with.
+     */
+    private final long[] instanceBuffers = new long[VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT];
 
-    private final Map<BuiltinBinding, StructUniform> uniformCache = new HashMap<>();
+    private int frameIndex;
 
     private Projection projection;
 
-    BuiltinDescriptorManager(DescriptorPool descriptorPool, int width, int height) {
-        this.descriptorPool = descriptorPool;
+    BuiltinDescriptorManager(DescriptorAllocator descriptorAllocator, UniformRing uniformRing,
+            InstanceRing instanceRing, BindlessTextureArray bindlessTextures, int width, int height) {
+        this.descriptorAllocator = descriptorAllocator;
+        this.uniformRing = uniformRing;
+        this.instanceRing = instanceRing;
+        this.bindlessTextures = bindlessTextures;
         this.projection = new Projection(width, height);
 
         builtinBindings.put("Global", new BuiltinBinding("Global", UpdateRate.STATIC,
@@ -55,80 +95,193 @@ public class BuiltinDescriptorManager {
                 ForeignStructLayoutGenerator.layoutOf(Dynamic.class, LayoutType.STD140)));
     }
 
-    void update(Camera camera, int currentFrame) {
-        var uniform = get("Dynamic");
-        if (uniform != null) {
-            var buffer = uniform.map();
-            buffer.set("view", currentFrame, camera.getViewMatrix());
+    /**
+     * Start a new frame by writing the default value of every builtin into the
+     * segment of the frame in the uniform ring.
+     * 
+     * @param frameIndex The index of the frame in flight.
+     */
+    void beginFrame(int frameIndex) {
+        this.frameIndex = frameIndex;
+        uniformRing.begin(frameIndex);
+        instanceRing.begin(frameIndex);
+        if (bindlessTextures != null) {
+            bindlessTextures.beginFrame();
         }
+
+        write(builtinBindings.get("Global"), "projection", projection.getMatrix());
+        write(builtinBindings.get("Dynamic"), "view", new Matrix4f());
+    }
+
+    /**
+     * Register the struct layout of every builtin, so that it is validated against
+     * the shader blocks at pipeline creation.
+     * 
+     * @param pipelineLibrary The pipeline library.
+     */
+    void registerLayouts(PipelineLibrary pipelineLibrary) {
+        for (var builtin : builtinBindings.values()) {
+            pipelineLibrary.registerStructLayout(builtin.name(), builtin.layout());
+        }
+    }
+
+    void update(Camera camera) {
+        write(builtinBindings.get("Dynamic"), "view", camera.getViewMatrix());
     }
 
-    void resize(LogicalDevice logicalDevice, int width, int height) {
+    void resize(int width, int height) {
+        // The new projection is written at the beginning of the next frame.
         projection.update(width, height);
+    }
 
-        var uniform = get("Global");
-        var buffer = uniform.map();
-        buffer.set("projection", projection.getMatrix());
+    private void write(BuiltinBinding builtin, String name, Matrix4f value) {
+        var partition = uniformRing.allocate(builtin.layout().size().getBytes());
+        builtin.layout().set(partition, name, value);
+        dynamicOffsets.put(builtin, (int) partition.getOffset());
     }
 
     public AbstractDescriptorSet getOrCreate(BindingLayout bindingLayout, DescriptorSetLayout descLayout) {
-        var builtinName = bindingLayout.name();
-        var builtin = builtinBindings.get(builtinName);
-        if (builtin == null) {
-            throw new RuntimeException("Unrecognized builtin '" + builtinName + "'!");
+        if (BindlessTextureArray.isBindless(bindingLayout)) {
+            return getBindlessTextures().getOrCreate(descLayout);
         }
 
-        var descriptorSet = setCache.computeIfAbsent(builtin, k -> {
+        if (InstanceRing.isInstances(bindingLayout)) {
+            if (bindingLayout.type() != BindingType.STORAGE_BUFFER_DYNAMIC) {
+                throw new IllegalArgumentException("Builtin '" + InstanceRing.BUILTIN_NAME + "' must be bound as "
+                        + BindingType.STORAGE_BUFFER_DYNAMIC + ", but got " + bindingLayout.type() + "!");
+            }
 
-            AbstractDescriptorSet vkDescSet = null;
-            if (k.updateRate == UpdateRate.PER_FRAME) {
-                vkDescSet = descriptorPool.allocate(descLayout, VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
-            } else {
-                vkDescSet = descriptorPool.allocate(descLayout);
+            if (instanceSet == null) {
+                // Each frame in flight binds its own instance buffer.
+                instanceSet = descriptorAllocator.allocate(descLayout, VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
+                logger.info("Allocated dynamic descriptor set for builtin '" + InstanceRing.BUILTIN_NAME + "'.");
             }
+            return instanceSet;
+        }
+
+        var builtin = getBuiltin(bindingLayout);
+        if (bindingLayout.type() != BindingType.UNIFORM_BUFFER_DYNAMIC) {
+            throw new IllegalArgumentException("Builtin '" + builtin.name() + "' must be bound as "
+                    + BindingType.UNIFORM_BUFFER_DYNAMIC + ", but got " + bindingLayout.type() + "!");
+        }
 
+        var descriptorSet = setCache.computeIfAbsent(builtin, k -> {
+            var vkDescSet = descriptorAllocator.allocate(descLayout);
+            logger.info("Allocated dynamic descriptor set for builtin '" + k.name() + "'.");
             return vkDescSet;
         });
 
         return descriptorSet;
     }
 
-    public StructUniform get(String builtinName) {
-        var builtin = builtinBindings.get(builtinName);
-        var bufferUniform = uniformCache.get(builtin);
-        return bufferUniform;
-    }
+    /**
+     * Stage the write of the builtin descriptor set, only if the set doesn't
+     * point to the current uniform ring buffer yet.
+     * 
+     * @param bindingLayout The layout of the builtin binding.
+     * @param descLayout    The layout of the builtin descriptor set.
+     * @param updates       The queue of descriptor writes.
+     */
+    public void stage(BindingLayout bindingLayout, DescriptorSetLayout descLayout, DescriptorUpdateQueue updates) {
+        var descriptorSet = getOrCreate(bindingLayout, descLayout);
+        if (BindlessTextureArray.isBindless(bindingLayout)) {
+            bindlessTextures.stage(updates);
+            return;
+        }
 
-    public StructUniform getOrCreate(LogicalDevice logicalDevice, String builtinName, CommandBuffer command) {
-        var builtin = builtinBindings.get(builtinName);
-        var bufferUniform = uniformCache.computeIfAbsent(builtin, k -> {
-
-            var vkBuffUniform = new StructUniform(builtin.layout());
-            if (k.updateRate == UpdateRate.PER_FRAME) {
-                var globalUniform = new HostVisibleBuffer(logicalDevice,
-                        MemorySize.floats(16 * VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT), BufferUsage.UNIFORM);
-                vkBuffUniform.set(globalUniform);
-            } else {
-                var globalUniform = new HostVisibleBuffer(logicalDevice, MemorySize.floats(16), BufferUsage.UNIFORM);
-                vkBuffUniform.set(globalUniform);
+        if (InstanceRing.isInstances(bindingLayout)) {
+            // The buffer of the frame may have grown since the frame was last recorded.
+            var buffer = instanceRing.getBuffer(frameIndex);
+            var frame = frameIndex % instanceBuffers.length;
+            if (instanceBuffers[frame] != buffer.handle()) {
+                updates.stage(descriptorSet, frameIndex, new BufferSetWriter(
+                        descLayout.getBinding(bindingLayout.name()), buffer.handle(), 0, buffer.size().getBytes()));
+                instanceBuffers[frame] = buffer.handle();
             }
-            
-            computeInitialValue(vkBuffUniform, builtin);
-            return vkBuffUniform;
-        });
+            return;
+        }
 
-        return bufferUniform;
+        var builtin = getBuiltin(bindingLayout);
+
+        var bufferHandle = uniformRing.getBuffer().handle();
+        if (!Objects.equals(writtenBuffers.get(builtin), bufferHandle)) {
+            // The descriptor always points to the start of the ring, the dynamic offset selects the data.
+            updates.stage(descriptorSet, 0, new BufferSetWriter(descLayout.getBinding(bindingLayout.name()),
+                    bufferHandle, 0, builtin.layout().size().getBytes()));
+            writtenBuffers.put(builtin, bufferHandle);
+        }
     }
 
-    private void computeInitialValue(StructUniform uniform, BuiltinBinding builtin) {
-        if (builtin.name().equals("Global")) {
-            var buffer = uniform.map();
-            buffer.set("projection", projection.getMatrix());
+    /**
+     * Add the given texture to the bindless texture array.
+     * 
+     * @param texture The texture to add.
+     * @return The index of the texture in the array.
+     * @throws IllegalStateException If the device doesn't support bindless
+     *                               textures.
+     */
+    public int registerTexture(VulkanTexture texture) {
+        return getBindlessTextures().register(texture);
+    }
 
-        } else if (builtin.name().equals("Dynamic")) {
-            var buffer = uniform.map();
-            buffer.set("view", 0, new Matrix4f());
+    /**
+     * Remove the given texture from the bindless texture array, its index is
+     * reused once the pending frames completed.
+     * 
+     * @param texture The texture to remove.
+     */
+    public void releaseTexture(VulkanTexture texture) {
+        getBindlessTextures().release(texture);
+    }
+
+    private BindlessTextureArray getBindlessTextures() {
+        if (bindlessTextures == null) {
+            throw new IllegalStateException("Builtin '" + BindlessTextureArray.BUILTIN_NAME
+                    + "' requires a device supporting descriptor indexing!");
         }
+        return bindlessTextures;
+    }
+
+    /**
+     * Return whether the given builtin is bound with a dynamic offset.
+     * 
+     * @param bindingLayout The layout of the builtin binding.
+     * @return Whether the builtin consumes a dynamic offset.
+     */
+    public boolean isDynamic(BindingLayout bindingLayout) {
+        return !BindlessTextureArray.isBindless(bindingLayout);
+    }
+
+    /**
+     * Return the dynamic offset in the uniform ring of the last value written for
+     * the given builtin.
+     * 
+     * @param bindingLayout The layout of the builtin binding.
+     * @return The dynamic offset of the builtin data, in bytes.
+     */
+    public int getDynamicOffset(BindingLayout bindingLayout) {
+        if (InstanceRing.isInstances(bindingLayout)) {
+            // Every frame binds the start of its own buffer.
+            return 0;
+        }
+
+        var builtin = getBuiltin(bindingLayout);
+        var offset = dynamicOffsets.get(builtin);
+        if (offset == null) {
+            throw new IllegalStateException("Builtin '" + builtin.name() + "' wasn't written for the current frame!");
+        }
+
+        return offset;
+    }
+
+    private BuiltinBinding getBuiltin(BindingLayout bindingLayout) {
+        var builtinName = bindingLayout.name();
+        var builtin = builtinBindings.get(builtinName);
+        if (builtin == null) {
+            throw new RuntimeException("Unrecognized builtin '" + builtinName + "'!");
+        }
+
+        return builtin;
     }
 
     public record BuiltinBinding(String name, UpdateRate updateRate, GpuStructLayout layout) {
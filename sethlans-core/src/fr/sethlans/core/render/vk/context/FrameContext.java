@@ -0,0 +1,70 @@
+package fr.sethlans.core.render.vk.context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.sethlans.core.render.vk.command.CommandBuffer;
+import fr.sethlans.core.render.vk.command.CommandPool;
+import fr.sethlans.core.render.vk.command.CommandPool.Create;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+
+/**
+ * Owns the command-buffers recorded for a frame in flight.
+ * <p>
+ * The command-buffers are allocated on demand from a transient pool, and the
+ * whole pool is reset at once when the frame starts again, instead of resetting
+ * each buffer. The frame must only begin once its previous submission
+ * completed, so that the CPU records a frame while the GPU executes the other
+ * ones.
+ */
+public class FrameContext {
+
+    private final int frameIndex;
+
+    private final CommandPool commandPool;
+
+    private final List<CommandBuffer> commands = new ArrayList<>();
+
+    private int next = 0;
+
+    public FrameContext(LogicalDevice logicalDevice, int frameIndex) {
+        this.frameIndex = frameIndex;
+        this.commandPool = new CommandPool(logicalDevice, logicalDevice.graphicsQueue(), Create.TRANSIENT);
+    }
+
+    /**
+     * Reset the command-buffers of the frame, whose fence must have been waited.
+     */
+    public void begin() {
+        commandPool.reset();
+        next = 0;
+    }
+
+    /**
+     * Return a command-buffer in its initial state, reused from a previous use of
+     * the frame if possible.
+     *
+     * @return A command-buffer ready to be recorded.
+     */
+    public CommandBuffer nextCommandBuffer() {
+        if (next == commands.size()) {
+            commands.add(commandPool.createCommandBuffer());
+        }
+
+        return commands.get(next++);
+    }
+
+    public int frameIndex() {
+        return frameIndex;
+    }
+
+    public void destroy() {
+        commandPool.getNativeReference().destroy();
+        commands.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "FrameContext [frameIndex=" + frameIndex + ", commands=" + commands.size() + ", used=" + next + "]";
+    }
+}
@@ -3,16 +3,19 @@ package fr.sethlans.core.render.vk.context;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.glfw.GLFWVulkan.glfwVulkanSupported;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import fr.sethlans.core.app.ConfigFile;
 import fr.sethlans.core.app.SethlansApplication;
+import fr.sethlans.core.material.Material;
 import fr.sethlans.core.render.Window;
 import fr.sethlans.core.render.backend.GlfwBasedGraphicsBackend;
 import fr.sethlans.core.render.device.DeviceLimit;
@@ -30,7 +33,10 @@ import fr.sethlans.core.render.vk.pass.SubpassDependency.Dependency;
 import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.BindPoint;
 import fr.sethlans.core.render.vk.pipeline.Access;
 import fr.sethlans.core.render.vk.pipeline.PipelineCache;
+import fr.sethlans.core.render.vk.pipeline.PipelineCacheFile;
 import fr.sethlans.core.render.vk.pipeline.PipelineStage;
+import fr.sethlans.core.render.vk.shader.ShaderCompilationService;
+import fr.sethlans.core.render.vk.shader.SpirvCache;
 import fr.sethlans.core.render.vk.swapchain.OffscreenSwapChain;
 import fr.sethlans.core.render.vk.swapchain.PresentationSwapChain;
 import fr.sethlans.core.render.vk.swapchain.SwapChain;
@@ -49,6 +55,62 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
     
     public static final boolean DEFAULT_DYNAMIC_RENDERING = true;
 
+    /**
+     * The path of the file the pipeline cache is persisted to, or an empty string
+     * to disable persistence.
+     */
+    public static final String PIPELINE_CACHE_PATH_PROP = "PipelineCachePath";
+
+    public static final String DEFAULT_PIPELINE_CACHE_PATH = "cache/pipeline.cache";
+
+    /**
+     * The period in seconds between two background saves of the pipeline cache,
+     * or 0 to only save it at shutdown.
+     */
+    public static final String PIPELINE_CACHE_SAVE_INTERVAL_PROP = "PipelineCacheSaveInterval";
+
+    public static final int DEFAULT_PIPELINE_CACHE_SAVE_INTERVAL = 60;
+
+    /**
+     * The directory compiled SPIR-V code is cached in, or an empty string to
+     * always compile shaders.
+     */
+    public static final String SHADER_CACHE_PATH_PROP = "ShaderCachePath";
+
+    public static final String DEFAULT_SHADER_CACHE_PATH = "cache/shaders";
+
+    /**
+     * The number of threads compiling shaders, or 0 to use all processors but
+     * one.
+     */
+    public static final String SHADER_COMPILER_THREADS_PROP = "ShaderCompilerThreads";
+
+    public static final int DEFAULT_SHADER_COMPILER_THREADS = 0;
+
+    /**
+     * The number of threads compiling pipelines in the background, or 0 to
+     * compile them on the rendering thread when first drawn.
+     */
+    public static final String PIPELINE_COMPILER_THREADS_PROP = "PipelineCompilerThreads";
+
+    public static final int DEFAULT_PIPELINE_COMPILER_THREADS = 2;
+
+    /**
+     * Whether graphics pipelines are linked from separately compiled libraries,
+     * when the device supports it.
+     */
+    public static final String GRAPHICS_PIPELINE_LIBRARY_PROP = "GraphicsPipelineLibrary";
+
+    public static final boolean DEFAULT_GRAPHICS_PIPELINE_LIBRARY = true;
+
+    /**
+     * The number of threads recording the draws of a frame, or 0 to use all
+     * processors but one. A single thread records every draw inline.
+     */
+    public static final String COMMAND_RECORDING_THREADS_PROP = "CommandRecordingThreads";
+
+    public static final int DEFAULT_COMMAND_RECORDING_THREADS = 0;
+
     private VulkanContext context;
 
     private VulkanRenderer renderer;
@@ -69,6 +131,10 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
 
     private PipelineCache pipelineCache;
 
+    private PipelineCacheFile pipelineCacheFile;
+
+    private ShaderCompilationService shaderCompilationService;
+
     private List<Attachment> attachments;
 
     public VulkanGraphicsBackend(SethlansApplication application) {
@@ -159,9 +225,30 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
         this.framesInFlight = new HashMap<>(swapChain.imageCount());
 
         this.vulkanFrames = new VulkanFrame[MAX_FRAMES_IN_FLIGHT];
-        Arrays.fill(vulkanFrames, new VulkanFrame(logicalDevice, needsSurface));
+        for (var i = 0; i < vulkanFrames.length; ++i) {
+            vulkanFrames[i] = new VulkanFrame(logicalDevice, needsSurface);
+        }
 
-        this.pipelineCache = new PipelineCache(logicalDevice);
+        var cachePath = config.getString(PIPELINE_CACHE_PATH_PROP, DEFAULT_PIPELINE_CACHE_PATH);
+        if (cachePath.isBlank()) {
+            this.pipelineCache = new PipelineCache(logicalDevice);
+        } else {
+            this.pipelineCacheFile = new PipelineCacheFile(Path.of(cachePath), physicalDevice);
+            this.pipelineCache = pipelineCacheFile.createCache(logicalDevice);
+
+            var saveInterval = config.getInteger(PIPELINE_CACHE_SAVE_INTERVAL_PROP,
+                    DEFAULT_PIPELINE_CACHE_SAVE_INTERVAL);
+            if (saveInterval > 0) {
+                pipelineCacheFile.startAutoSave(pipelineCache, saveInterval, TimeUnit.SECONDS);
+            }
+        }
+
+        var shaderCachePath = config.getString(SHADER_CACHE_PATH_PROP, DEFAULT_SHADER_CACHE_PATH);
+        var spirvCache = shaderCachePath.isBlank() ? null : new SpirvCache(Path.of(shaderCachePath));
+        var compilerThreads = config.getInteger(SHADER_COMPILER_THREADS_PROP, DEFAULT_SHADER_COMPILER_THREADS);
+        this.shaderCompilationService = compilerThreads > 0
+                ? new ShaderCompilationService(compilerThreads, spirvCache)
+                : new ShaderCompilationService(spirvCache);
 
         this.renderer = new VulkanRenderer(context, config, swapChain);
     }
@@ -233,6 +320,7 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
         // Wait for completion of the previous frame.
         var frame = vulkanFrames[currentFrameIndex];
         frame.fenceWait();
+        renderer.retire();
         frame.reset();
 
         // Acquire the next presentation image from the swap-chain.
@@ -308,8 +396,6 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
         }
 
         waitIdle();
-        
-        renderer.recreate();
 
         // Recreate swap-chain.
         if (swapChain != null) {
@@ -351,17 +437,33 @@ public class VulkanGraphicsBackend extends GlfwBasedGraphicsBackend {
         return pipelineCache;
     }
 
+    public ShaderCompilationService getShaderCompilationService() {
+        return shaderCompilationService;
+    }
+
     public RenderPass getRenderPass() {
         return renderPass;
     }
 
+    @Override
+    public CompletableFuture<Void> precompileShaders(Material material) {
+        return shaderCompilationService.precompile(material);
+    }
+
     @Override
     public void terminate() {
         
         waitIdle();
 
+        if (pipelineCacheFile != null) {
+            pipelineCacheFile.close();
+            pipelineCacheFile.save(pipelineCache);
+        }
+
         renderer.destroy();
 
+        shaderCompilationService.shutdown();
+
         context.getVulkanInstance().getNativeReference().destroy();
 
         terminateGlfw();
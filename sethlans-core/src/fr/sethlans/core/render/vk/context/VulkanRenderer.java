@@ -1,6 +1,7 @@
 package fr.sethlans.core.render.vk.context;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.system.MemoryStack;
@@ -9,19 +10,28 @@ import fr.alchemy.utilities.logging.Logger;
 import fr.sethlans.core.app.ConfigFile;
 import fr.sethlans.core.app.SethlansApplication;
 import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.render.device.DeviceFeature;
 import fr.sethlans.core.render.view.RenderView;
 import fr.sethlans.core.render.vk.buffer.PersistentStagingRing;
+import fr.sethlans.core.render.vk.buffer.InstanceRing;
+import fr.sethlans.core.render.vk.buffer.UniformRing;
 import fr.sethlans.core.render.vk.buffer.VulkanBuffer;
 import fr.sethlans.core.render.vk.command.CommandBuffer;
-import fr.sethlans.core.render.vk.descriptor.DescriptorPool;
+import fr.sethlans.core.render.vk.command.ParallelCommandRecorder;
+import fr.sethlans.core.render.vk.command.RenderingInheritance;
+import fr.sethlans.core.render.vk.descriptor.BindlessTextureArray;
+import fr.sethlans.core.render.vk.descriptor.DescriptorAllocator;
 import fr.sethlans.core.render.vk.descriptor.DescriptorPool.Create;
+import fr.sethlans.core.render.vk.descriptor.DescriptorUpdateQueue;
 import fr.sethlans.core.render.vk.framebuffer.VulkanFrameBuffer;
+import fr.sethlans.core.render.vk.framebuffer.VulkanFrameBuffer.Render;
 import fr.sethlans.core.render.vk.image.VulkanImage.Layout;
 import fr.sethlans.core.render.vk.image.VulkanImage.Load;
 import fr.sethlans.core.render.vk.image.VulkanImage.Store;
 import fr.sethlans.core.render.vk.image.VulkanTexture;
 import fr.sethlans.core.render.vk.material.VulkanMaterial;
 import fr.sethlans.core.render.vk.mesh.VulkanMesh;
+import fr.sethlans.core.render.vk.pass.Subpass.SubpassContents;
 import fr.sethlans.core.render.vk.pipeline.Access;
 import fr.sethlans.core.render.vk.pipeline.Pipeline;
 import fr.sethlans.core.render.vk.pipeline.PipelineLibrary;
@@ -31,6 +41,7 @@ import fr.sethlans.core.render.vk.swapchain.DrawCommand;
 import fr.sethlans.core.render.vk.swapchain.SwapChain;
 import fr.sethlans.core.render.vk.swapchain.VulkanFrame;
 import fr.sethlans.core.render.vk.uniform.VulkanUniform;
+import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.scenegraph.Geometry;
 
 public class VulkanRenderer {
@@ -43,15 +54,28 @@ public class VulkanRenderer {
 
     private SwapChain swapChain;
 
+    /**
+     * The draw command and the command-buffers of each frame in flight.
+     */
     private DrawCommand[] drawCommands;
 
+    private FrameContext[] frameContexts;
+
     private final VulkanMesh[] meshes = new VulkanMesh[50];
 
     private final VulkanMaterial[] materials = new VulkanMaterial[50];
 
     private final VulkanTexture[] textures = new VulkanTexture[50];
 
-    private DescriptorPool descriptorPool;
+    /**
+     * The mesh buffers replaced by a larger one, destroyed once no frame in flight
+     * uses them anymore.
+     */
+    private final List<RetiredBuffer> retiredBuffers = new ArrayList<>();
+
+    private DescriptorAllocator descriptorAllocator;
+
+    private DescriptorUpdateQueue descriptorUpdates;
 
     private boolean useDynamicRendering = true;
 
@@ -59,10 +83,16 @@ public class VulkanRenderer {
 
     private PipelineLibrary pipelineLibrary;
 
+    private ParallelCommandRecorder commandRecorder;
+
     private BuiltinDescriptorManager builtinDescriptorManager;
     
     private PersistentStagingRing stagingRing;
 
+    private UniformRing uniformRing;
+
+    private InstanceRing instanceRing;
+
     public VulkanRenderer(VulkanContext context, ConfigFile config, SwapChain swapChain) {
         this.context = context;
         this.config = config;
@@ -73,35 +103,76 @@ public class VulkanRenderer {
         var renderPass = context.getBackend().getRenderPass();
 
         this.pipelineLibrary = new PipelineLibrary(pipelineCache, renderPass, swapChain);
+        pipelineLibrary.setCompilationService(context.getBackend().getShaderCompilationService());
+
+        var pipelineThreads = config.getInteger(VulkanGraphicsBackend.PIPELINE_COMPILER_THREADS_PROP,
+                VulkanGraphicsBackend.DEFAULT_PIPELINE_COMPILER_THREADS);
+        if (pipelineThreads > 0) {
+            pipelineLibrary.startAsyncCompilation(pipelineThreads);
+        }
+
+        var pipelineLibraries = config.getBoolean(VulkanGraphicsBackend.GRAPHICS_PIPELINE_LIBRARY_PROP,
+                VulkanGraphicsBackend.DEFAULT_GRAPHICS_PIPELINE_LIBRARY);
+        pipelineLibrary.setGraphicsPipelineLibrary(
+                pipelineLibraries && context.getPhysicalDevice().supportsGraphicsPipelineLibrary());
 
         var dynamicRendering = config.getBoolean(VulkanGraphicsBackend.DYNAMIC_RENDERING_PROP,
                 VulkanGraphicsBackend.DEFAULT_DYNAMIC_RENDERING);
         this.useDynamicRendering = dynamicRendering && context.getPhysicalDevice().supportsDynamicRendering();
 
-        this.drawCommands = new DrawCommand[swapChain.imageCount()];
-        Arrays.fill(drawCommands, new DrawCommand(this, logicalDevice.createGraphicsCommand()));
+        this.drawCommands = new DrawCommand[VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT];
+        this.frameContexts = new FrameContext[VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT];
+        for (var i = 0; i < frameContexts.length; ++i) {
+            drawCommands[i] = new DrawCommand(this);
+            frameContexts[i] = new FrameContext(logicalDevice, i);
+        }
+
+        var recordingThreads = config.getInteger(VulkanGraphicsBackend.COMMAND_RECORDING_THREADS_PROP,
+                VulkanGraphicsBackend.DEFAULT_COMMAND_RECORDING_THREADS);
+        if (recordingThreads <= 0) {
+            recordingThreads = Runtime.getRuntime().availableProcessors() - 1;
+        }
+        if (recordingThreads > 1) {
+            this.commandRecorder = new ParallelCommandRecorder(logicalDevice, recordingThreads,
+                    VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
+        }
 
-        this.descriptorPool = new DescriptorPool(logicalDevice, Create.FREE_DESCRIPTOR_SET, 16);
-        this.stagingRing = new PersistentStagingRing(logicalDevice, 1000);
+        this.descriptorAllocator = new DescriptorAllocator(logicalDevice, Create.FREE_DESCRIPTOR_SET);
+        this.descriptorUpdates = new DescriptorUpdateQueue(logicalDevice);
+        this.stagingRing = new PersistentStagingRing(logicalDevice);
         
-        this.builtinDescriptorManager = new BuiltinDescriptorManager(descriptorPool, swapChain.width(),
-                swapChain.height());
-    }
+        this.uniformRing = new UniformRing(logicalDevice, VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
+        this.instanceRing = new InstanceRing(logicalDevice, VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
 
-    public void recreate() {
-        Arrays.stream(drawCommands).forEach(DrawCommand::destroy);
+        // Bindless textures are optional, materials declaring them fail on devices without descriptor indexing.
+        var bindlessTextures = context.getPhysicalDevice().supportsFeature(DeviceFeature.DESCRIPTOR_INDEXING)
+                ? new BindlessTextureArray(logicalDevice)
+                : null;
 
-        this.drawCommands = new DrawCommand[swapChain.imageCount()];
-        Arrays.fill(drawCommands, new DrawCommand(this, context.getLogicalDevice().createGraphicsCommand()));
+        this.builtinDescriptorManager = new BuiltinDescriptorManager(descriptorAllocator, uniformRing,
+                instanceRing, bindlessTextures, swapChain.width(), swapChain.height());
+        builtinDescriptorManager.registerLayouts(pipelineLibrary);
     }
 
     public void resize() {
-        builtinDescriptorManager.resize(context.getLogicalDevice(), swapChain.width(), swapChain.height());
+        builtinDescriptorManager.resize(swapChain.width(), swapChain.height());
     }
 
     public void beginRender(VulkanFrame frame) {
         this.currentFrame = frame;
-        frame.setCommand(drawCommands[frame.imageIndex()]);
+
+        // The frame fence was waited, so its command-buffers can be recorded again.
+        getFrameContext().begin();
+        frame.setCommand(drawCommands[getCurrentFrameIndex()]);
+
+        // The frame fence was waited, so its uniform ring segment can be rewritten.
+        builtinDescriptorManager.beginFrame(getCurrentFrameIndex());
+        if (commandRecorder != null) {
+            commandRecorder.beginFrame(getCurrentFrameIndex());
+        }
+
+        // Draw with the pipelines compiled in the background since the last frame.
+        pipelineLibrary.update();
 
         if (useDynamicRendering) {
             var renderMode = config.getString(SethlansApplication.RENDER_MODE_PROP,
@@ -116,9 +187,21 @@ public class VulkanRenderer {
         }
     }
 
+    public void retire() {
+        // Release the staging bytes consumed by the completed uploads.
+        stagingRing.retire();
+
+        for (var it = retiredBuffers.iterator(); it.hasNext();) {
+            var retired = it.next();
+            if (--retired.framesLeft <= 0) {
+                retired.buffer.getNativeReference().destroy();
+                it.remove();
+            }
+        }
+    }
+
     public void beginDraw(DrawCommand drawCommand) {
-        var command = drawCommand.getCommandBuffer();
-        command.reset().beginRecording();
+        var command = drawCommand.beginRecording();
 
         var fb = swapChain.getFramebuffer();
         if (useDynamicRendering) {
@@ -130,20 +213,58 @@ public class VulkanRenderer {
 
     public void prepare(RenderView view) {
         var camera = view.getCamera();
-        builtinDescriptorManager.update(camera, getCurrentFrameIndex());
+        builtinDescriptorManager.update(camera);
     }
 
     public void beginRendering(DrawCommand drawCommand, VulkanFrameBuffer fbo) {
+        beginRendering(drawCommand, fbo, false);
+    }
+
+    /**
+     * Begin rendering to the given framebuffer.
+     * 
+     * @param drawCommand The draw command recording the primary command-buffer.
+     * @param fbo         The framebuffer to render to.
+     * @param secondary   Whether the draws are recorded into secondary
+     *                    command-buffers instead of inline.
+     */
+    public void beginRendering(DrawCommand drawCommand, VulkanFrameBuffer fbo, boolean secondary) {
         var command = drawCommand.getCommandBuffer();
 
         if (useDynamicRendering) {
-            fbo.beginRendering(command, Load.CLEAR, Store.STORE, Load.CLEAR, Store.STORE);
+            fbo.beginRendering(command, Load.CLEAR, Store.STORE, Load.CLEAR, Store.STORE,
+                    secondary ? Render.CONTENTS_SECONDARY_COMMAND_BUFFERS : VkFlag.empty());
         } else {
-            context.getBackend().getRenderPass().begin(command, fbo);
+            context.getBackend().getRenderPass().begin(command, fbo,
+                    secondary ? SubpassContents.SECONDARY_COMMAND_BUFFERS : SubpassContents.INLINE);
         }
     }
 
+    /**
+     * Return the rendering state inherited by the secondary command-buffers
+     * rendering to the given framebuffer.
+     * 
+     * @param fbo The framebuffer rendered to.
+     * @return The rendering inheritance.
+     */
+    public RenderingInheritance getRenderingInheritance(VulkanFrameBuffer fbo) {
+        if (useDynamicRendering) {
+            return new RenderingInheritance(null, 0, swapChain.imageFormat(), swapChain.depthFormat(),
+                    swapChain.sampleCount());
+        }
+
+        return new RenderingInheritance(context.getBackend().getRenderPass(),
+                fbo.getHandle(context.getLogicalDevice()), swapChain.imageFormat(), swapChain.depthFormat(),
+                swapChain.sampleCount());
+    }
+
     public void endRender(VulkanFrame frame) {
+        // Submit the copies staged by the frame in a single batch the frame waits on.
+        var uploadValue = stagingRing.upload();
+        if (uploadValue > 0) {
+            frame.waitUpload(stagingRing.getTimeline(), uploadValue);
+        }
+
         if (useDynamicRendering) {
             var renderMode = config.getString(SethlansApplication.RENDER_MODE_PROP,
                     SethlansApplication.DEFAULT_RENDER_MODE);
@@ -179,23 +300,8 @@ public class VulkanRenderer {
     }
 
     public VulkanMesh bind(Pipeline pipeline, Geometry geometry, CommandBuffer command, int imageIndex) {
-        var logicalDevice = context.getLogicalDevice();
         var material = geometry.getMaterialInstance();
-
-        VulkanMaterial vkMaterial = null;
-        if (material.hasBackendObject()) {
-            vkMaterial = materials[material.backendId()];
-
-        } else {
-            for (var i = 0; i < materials.length; ++i) {
-                if (materials[i] == null) {
-                    materials[i] = new VulkanMaterial(logicalDevice, material);
-                    vkMaterial = materials[i];
-                    material.assignId(i);
-                    break;
-                }
-            }
-        }
+        var vkMaterial = getVulkanMaterial(geometry);
 
         if (material.isDirty()) {
             logger.info("Update material for " + geometry);
@@ -203,33 +309,32 @@ public class VulkanRenderer {
             material.clean();
         }
 
-        vkMaterial.bind(pipeline, "forward", geometry, builtinDescriptorManager, command, descriptorPool, imageIndex);
+        vkMaterial.bind(pipeline, "forward", geometry, builtinDescriptorManager, command, descriptorAllocator,
+                descriptorUpdates, imageIndex);
 
         VulkanMesh vkMesh = getVulkanMesh(geometry);
-        
-        stagingRing.upload();
 
         return vkMesh;
     }
     
+    /**
+     * Record the bindings of the material of the given geometry, whose descriptors
+     * were already staged and flushed for the frame. Several threads can record
+     * at once.
+     * 
+     * @param pipeline   The pipeline the geometry is drawn with.
+     * @param geometry   The geometry to draw.
+     * @param command    The command-buffer to record into.
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void recordBindings(Pipeline pipeline, Geometry geometry, CommandBuffer command, int frameIndex) {
+        var vkMaterial = materials[geometry.getMaterialInstance().backendId()];
+        vkMaterial.recordBindings(pipeline, "forward", geometry, builtinDescriptorManager, command, frameIndex);
+    }
+
     public void drawParticles(Pipeline pipeline, Geometry geometry, CommandBuffer command, int imageIndex) {
-        var logicalDevice = context.getLogicalDevice();
         var material = geometry.getMaterialInstance();
-        
-        VulkanMaterial vkMaterial = null;
-        if (material.hasBackendObject()) {
-            vkMaterial = materials[material.backendId()];
-
-        } else {
-            for (var i = 0; i < materials.length; ++i) {
-                if (materials[i] == null) {
-                    materials[i] = new VulkanMaterial(logicalDevice, material);
-                    vkMaterial = materials[i];
-                    material.assignId(i);
-                    break;
-                }
-            }
-        }
+        var vkMaterial = getVulkanMaterial(geometry);
 
         if (material.isDirty()) {
             logger.info("Update material for " + material);
@@ -237,7 +342,8 @@ public class VulkanRenderer {
             material.clean();
         }
 
-        vkMaterial.bind(pipeline, "forward", geometry, builtinDescriptorManager, command, descriptorPool, imageIndex);
+        vkMaterial.bind(pipeline, "forward", geometry, builtinDescriptorManager, command, descriptorAllocator,
+                descriptorUpdates, imageIndex);
         
         try (var stack = MemoryStack.stackPush()) {
             var buff = stack.malloc(6 * Float.BYTES);
@@ -258,22 +364,8 @@ public class VulkanRenderer {
     }
     
     public void computeParticles(Pipeline pipeline, Geometry geometry, CommandBuffer command, int imageIndex) {
-        var logicalDevice = context.getLogicalDevice();
         var material = geometry.getMaterialInstance();
-        VulkanMaterial vkMaterial = null;
-        if (material.hasBackendObject()) {
-            vkMaterial = materials[material.backendId()];
-
-        } else {
-            for (var i = 0; i < materials.length; ++i) {
-                if (materials[i] == null) {
-                    materials[i] = new VulkanMaterial(logicalDevice, material);
-                    vkMaterial = materials[i];
-                    material.assignId(i);
-                    break;
-                }
-            }
-        }
+        var vkMaterial = getVulkanMaterial(geometry);
 
         if (material.isDirty()) {
             logger.info("Update material " + material);
@@ -281,7 +373,8 @@ public class VulkanRenderer {
             material.clean();
         }
         
-        vkMaterial.bind(pipeline, "compute", geometry, builtinDescriptorManager, command, descriptorPool, imageIndex);
+        vkMaterial.bind(pipeline, "compute", geometry, builtinDescriptorManager, command, descriptorAllocator,
+                descriptorUpdates, imageIndex);
         VulkanUniform<VulkanBuffer> uniform = vkMaterial.getUniform("Particles");
         
         try (var stack = MemoryStack.stackPush()) {
@@ -317,6 +410,54 @@ public class VulkanRenderer {
         command.addBarrier(uniform.get(), Access.SHADER_WRITE, Access.VERTEX_ATTRIBUTE_READ, PipelineStage.COMPUTE_SHADER, PipelineStage.VERTEX_INPUT);
     }
     
+    /**
+     * Allocate the descriptor-sets of the geometry material and stage their
+     * changed writes, to be applied by {@link #flushDescriptorUpdates()} before
+     * recording.
+     * 
+     * @param pipeline The pipeline the geometry will be drawn with.
+     * @param geometry The geometry to draw.
+     * @param pass     The name of the material pass.
+     */
+    public void stageDescriptors(Pipeline pipeline, Geometry geometry, String pass) {
+        var material = geometry.getMaterialInstance();
+        var vkMaterial = getVulkanMaterial(geometry);
+        if (material.isDirty()) {
+            logger.info("Update material for " + geometry);
+            vkMaterial.uploadData(material, geometry);
+            material.clean();
+        }
+
+        vkMaterial.stageDescriptors(pipeline, pass, builtinDescriptorManager, descriptorAllocator, descriptorUpdates,
+                getCurrentFrameIndex());
+    }
+
+    /**
+     * Apply the staged descriptor writes in a single update.
+     * 
+     * @return The number of descriptor writes applied.
+     */
+    public int flushDescriptorUpdates() {
+        return descriptorUpdates.flush();
+    }
+
+    private VulkanMaterial getVulkanMaterial(Geometry geometry) {
+        var material = geometry.getMaterialInstance();
+        if (material.hasBackendObject()) {
+            return materials[material.backendId()];
+        }
+
+        for (var i = 0; i < materials.length; ++i) {
+            if (materials[i] == null) {
+                materials[i] = new VulkanMaterial(context.getLogicalDevice(), material);
+                material.assignId(i);
+                return materials[i];
+            }
+        }
+
+        return null;
+    }
+
     public VulkanMesh getVulkanMesh(Geometry geometry) {
         var mesh = geometry.getMesh();
         var logicalDevice = context.getLogicalDevice();
@@ -338,10 +479,12 @@ public class VulkanRenderer {
 
         if (mesh.isDirty()) {
             logger.info("Update mesh for " + geometry);
-            vkMesh.uploadData(mesh, stagingRing);
+            vkMesh.uploadData(mesh, stagingRing, b -> retiredBuffers.add(new RetiredBuffer(b)));
             mesh.clean();
         }
 
+        vkMesh.prepare(getCurrentFrameIndex());
+
         return vkMesh;
     }
     
@@ -361,6 +504,47 @@ public class VulkanRenderer {
         return pipeline;
     }
 
+    /**
+     * Return the pipeline drawing the given mesh with the pass, or null if it's
+     * still compiling in the background and the draw must be skipped.
+     * 
+     * @param mesh         The mesh to draw.
+     * @param materialPass The material pass.
+     * @return The ready pipeline, or null.
+     */
+    public Pipeline getReadyPipeline(VulkanMesh mesh, MaterialPass materialPass) {
+        return pipelineLibrary.getIfReady(context.getLogicalDevice(), mesh, materialPass);
+    }
+
+    /**
+     * Return the recorder of draws on several threads, or null to record them
+     * inline.
+     * 
+     * @return The parallel command recorder, or null.
+     */
+    public ParallelCommandRecorder getCommandRecorder() {
+        return commandRecorder;
+    }
+
+    public InstanceRing getInstanceRing() {
+        return instanceRing;
+    }
+
+    public PipelineLibrary getPipelineLibrary() {
+        return pipelineLibrary;
+    }
+
+    /**
+     * Return the context of the current frame, owning the transient command pool
+     * its primary command-buffers are recorded from, which is reset once the
+     * frame starts again.
+     * 
+     * @return The frame context of the current frame.
+     */
+    public FrameContext getFrameContext() {
+        return frameContexts[getCurrentFrameIndex()];
+    }
+
     public SwapChain getSwapChain() {
         return swapChain;
     }
@@ -371,8 +555,33 @@ public class VulkanRenderer {
 
     public void destroy() {
 
+        pipelineLibrary.shutdown();
+        if (commandRecorder != null) {
+            commandRecorder.shutdown();
+        }
+
         for (var drawCommand : drawCommands) {
             drawCommand.destroy();
         }
+        for (var frameContext : frameContexts) {
+            frameContext.destroy();
+        }
+
+        // The device is idle, so the retired buffers can go right away.
+        for (var retired : retiredBuffers) {
+            retired.buffer.getNativeReference().destroy();
+        }
+        retiredBuffers.clear();
+    }
+
+    private static class RetiredBuffer {
+
+        private final VulkanBuffer buffer;
+
+        private int framesLeft = VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT + 1;
+
+        RetiredBuffer(VulkanBuffer buffer) {
+            this.buffer = buffer;
+        }
     }
 }
@@ -1,6 +1,8 @@
 package fr.sethlans.core.render.vk.descriptor;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
@@ -15,6 +17,12 @@ public abstract class AbstractDescriptorSet extends AbstractDeviceResource {
 
     protected final DescriptorSetLayout layout;
 
+    /**
+     * The last writer applied to each handle, binding and array element of the
+     * set.
+     */
+    private final Map<Long, DescriptorSetWriter> contents = new HashMap<>();
+
     protected AbstractDescriptorSet(LogicalDevice logicalDevice, DescriptorPool descriptorPool,
             DescriptorSetLayout layout) {
         super(logicalDevice);
@@ -33,8 +41,41 @@ public abstract class AbstractDescriptorSet extends AbstractDeviceResource {
             writeDescriptor.flip();
             VK10.vkUpdateDescriptorSets(logicalDeviceHandle(), writeDescriptor, null);
         }
+
+        for (var writer : writers) {
+            markWritten(frameIndex, writer);
+        }
+    }
+
+    /**
+     * Return whether the given writer was the last one applied to its binding for
+     * the given frame, in which case writing it again is redundant.
+     * 
+     * @param frameIndex The index of the frame in flight.
+     * @param writer     The descriptor writer.
+     * @return Whether the set already holds the content of the writer.
+     */
+    public boolean isWritten(int frameIndex, DescriptorSetWriter writer) {
+        return writer.equals(contents.get(slot(frameIndex, writer)));
     }
 
+    void markWritten(int frameIndex, DescriptorSetWriter writer) {
+        contents.put(slot(frameIndex, writer), writer);
+    }
+
+    private long slot(int frameIndex, DescriptorSetWriter writer) {
+        return ((long) frameSlot(frameIndex) << 48) | ((long) writer.binding() << 24) | writer.arrayElement();
+    }
+
+    /**
+     * Return the index of the handle written for the given frame, so that the
+     * frames sharing a handle share its written content.
+     * 
+     * @param frameIndex The index of the frame in flight.
+     * @return The index of the handle of the frame.
+     */
+    abstract int frameSlot(int frameIndex);
+
     public abstract long handle(int frameIndex);
 
     public DescriptorPool getDescriptorPool() {
@@ -1,6 +1,11 @@
 package fr.sethlans.core.render.vk.descriptor;
 
+import java.nio.ByteBuffer;
+
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
 import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
 public abstract class AbstractSetWriter implements DescriptorSetWriter {
@@ -23,5 +28,31 @@ public abstract class AbstractSetWriter implements DescriptorSetWriter {
         populate(stack, write);
     }
 
+    @Override
+    public int binding() {
+        return bindingLayout.binding();
+    }
+
+    @Override
+    public int arrayElement() {
+        return arrayElement;
+    }
+
     protected abstract void populate(MemoryStack stack, VkWriteDescriptorSet write);
+
+    protected static void putImageInfo(ByteBuffer data, int offset, long samplerHandle, long imageViewHandle,
+            int imageLayout) {
+        VkDescriptorImageInfo.create(MemoryUtil.memAddress(data, offset))
+                .sampler(samplerHandle)
+                .imageView(imageViewHandle)
+                .imageLayout(imageLayout);
+    }
+
+    protected static void putBufferInfo(ByteBuffer data, int offset, long bufferHandle, long bufferOffset,
+            long range) {
+        VkDescriptorBufferInfo.create(MemoryUtil.memAddress(data, offset))
+                .buffer(bufferHandle)
+                .offset(bufferOffset)
+                .range(range);
+    }
 }
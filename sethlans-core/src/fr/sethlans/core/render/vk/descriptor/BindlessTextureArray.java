@@ -0,0 +1,232 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.material.layout.BindingLayout;
+import fr.sethlans.core.material.layout.BindingType;
+import fr.sethlans.core.render.device.DeviceFeature;
+import fr.sethlans.core.render.device.DeviceLimit;
+import fr.sethlans.core.render.vk.context.VulkanGraphicsBackend;
+import fr.sethlans.core.render.vk.descriptor.DescriptorPool.Create;
+import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayoutBinding.BindingFlag;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.image.VulkanTexture;
+import fr.sethlans.core.render.vk.util.VkFlag;
+
+/**
+ * A global array of textures bound once as a single partially bound,
+ * update-after-bind combined image sampler binding. Materials declare it with
+ * the {@value #BUILTIN_NAME} builtin and select their texture with the index
+ * returned by {@link #register(VulkanTexture)}, so that drawing with another
+ * material doesn't rebind any descriptor set.
+ */
+public class BindlessTextureArray {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.descriptor");
+
+    /**
+     * The name of the builtin binding of the texture array.
+     */
+    public static final String BUILTIN_NAME = "Textures";
+
+    /**
+     * The default number of textures of the array.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    static final VkFlag<BindingFlag> BINDING_FLAGS = VkFlag.of(BindingFlag.PARTIALLY_BOUND,
+            BindingFlag.UPDATE_AFTER_BIND, BindingFlag.UPDATE_UNUSED_WHILE_PENDING);
+
+    private final LogicalDevice logicalDevice;
+
+    private final int capacity;
+
+    private final Map<VulkanTexture, Integer> indices = new IdentityHashMap<>();
+
+    private final VulkanTexture[] textures;
+
+    private final Deque<Integer> freeIndices = new ArrayDeque<>();
+
+    /**
+     * The released indices with the frame they were released in, reused once no
+     * pending frame can sample them anymore.
+     */
+    private final Deque<long[]> retiredIndices = new ArrayDeque<>();
+
+    private long frame = 0;
+
+    /**
+     * The indices which descriptor wasn't written to the set yet.
+     */
+    private final BitSet pendingIndices = new BitSet();
+
+    private int nextIndex = 0;
+
+    private DescriptorPool descriptorPool;
+
+    private DescriptorSet descriptorSet;
+
+    private DescriptorSetLayoutBinding binding;
+
+    public BindlessTextureArray(LogicalDevice logicalDevice) {
+        this(logicalDevice, DEFAULT_CAPACITY);
+    }
+
+    public BindlessTextureArray(LogicalDevice logicalDevice, int capacity) {
+        var physicalDevice = logicalDevice.physicalDevice();
+        if (!physicalDevice.supportsFeature(DeviceFeature.DESCRIPTOR_INDEXING)) {
+            throw new IllegalStateException("Physical device " + physicalDevice
+                    + " doesn't support descriptor indexing required by bindless textures!");
+        }
+
+        this.logicalDevice = logicalDevice;
+        this.capacity = clampCapacity(logicalDevice, capacity);
+        this.textures = new VulkanTexture[this.capacity];
+
+        logger.info("Created bindless texture array of " + this.capacity + " textures.");
+    }
+
+    /**
+     * Return whether the given binding is the bindless texture array.
+     *
+     * @param bindingLayout The layout of the binding.
+     * @return Whether the binding is the bindless texture array.
+     */
+    public static boolean isBindless(BindingLayout bindingLayout) {
+        return bindingLayout.builtin() && BUILTIN_NAME.equals(bindingLayout.name());
+    }
+
+    /**
+     * Clamp the given number of textures to the update-after-bind limits of the
+     * device, which also sizes the layout binding of the array.
+     *
+     * @param logicalDevice The logical device.
+     * @param capacity      The requested number of textures.
+     * @return The number of textures the array can hold.
+     */
+    public static int clampCapacity(LogicalDevice logicalDevice, int capacity) {
+        return Math.min(capacity,
+                logicalDevice.physicalDevice().getIntLimit(DeviceLimit.MAX_UPDATE_AFTER_BIND_DESCRIPTOR_SAMPLERS));
+    }
+
+    /**
+     * Add the given texture to the array, or return its index if it was already
+     * added. Its descriptor is written on the next {@link #stage}.
+     *
+     * @param texture The texture to add.
+     * @return The index of the texture in the array.
+     * @throws IllegalStateException If the array is full.
+     */
+    public int register(VulkanTexture texture) {
+        var index = indices.get(texture);
+        if (index != null) {
+            return index;
+        }
+
+        if (!freeIndices.isEmpty()) {
+            index = freeIndices.poll();
+        } else if (nextIndex < capacity) {
+            index = nextIndex++;
+        } else {
+            throw new IllegalStateException("Bindless texture array of " + capacity + " textures is full!");
+        }
+
+        indices.put(texture, index);
+        textures[index] = texture;
+        pendingIndices.set(index);
+        return index;
+    }
+
+    /**
+     * Remove the given texture from the array, its index being reused by the next
+     * registered texture. The texture must no longer be sampled by pending frames.
+     *
+     * @param texture The texture to remove.
+     */
+    public void release(VulkanTexture texture) {
+        var index = indices.remove(texture);
+        if (index != null) {
+            // The descriptor is left as is, partially bound arrays only require used elements to be valid.
+            textures[index] = null;
+            pendingIndices.clear(index);
+            retiredIndices.add(new long[] { index, frame });
+        }
+    }
+
+    /**
+     * Start a new frame, making the indices released long enough ago available
+     * again.
+     */
+    public void beginFrame() {
+        frame++;
+        while (!retiredIndices.isEmpty()
+                && frame - retiredIndices.peek()[1] > VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT) {
+            freeIndices.add((int) retiredIndices.poll()[0]);
+        }
+    }
+
+    /**
+     * Return the set of the texture array, allocating it on first use from a
+     * dedicated update-after-bind pool.
+     *
+     * @param descLayout The layout of the descriptor-set declaring the array.
+     * @return The descriptor set of the texture array.
+     * @throws IllegalArgumentException If the binding isn't an array of at
+     *                                  least {@link #capacity()} combined image
+     *                                  samplers.
+     */
+    public DescriptorSet getOrCreate(DescriptorSetLayout descLayout) {
+        if (descriptorSet != null) {
+            return descriptorSet;
+        }
+
+        var layoutBinding = descLayout.getBinding(BUILTIN_NAME);
+        if (layoutBinding.type() != DescriptorType.COMBINED_IMAGE_SAMPLER || layoutBinding.descriptorCount() < capacity) {
+            throw new IllegalArgumentException("Builtin '" + BUILTIN_NAME + "' must be an array of " + capacity + " "
+                    + BindingType.COMBINED_IMAGE_SAMPLER + ", but got " + layoutBinding + "!");
+        }
+
+        this.binding = layoutBinding;
+        this.descriptorPool = new DescriptorPool(logicalDevice, Create.UPDATE_AFTER_BIND, 1,
+                Map.of(DescriptorType.COMBINED_IMAGE_SAMPLER, layoutBinding.descriptorCount()));
+        this.descriptorSet = descriptorPool.allocate(descLayout);
+        return descriptorSet;
+    }
+
+    /**
+     * Stage the descriptors of the textures added since the last call. The array
+     * binding is update-after-bind, so the writes may be applied while the set is
+     * bound by pending frames.
+     *
+     * @param updates The queue of descriptor writes.
+     */
+    public void stage(DescriptorUpdateQueue updates) {
+        if (descriptorSet == null) {
+            return;
+        }
+
+        for (var i = pendingIndices.nextSetBit(0); i >= 0; i = pendingIndices.nextSetBit(i + 1)) {
+            updates.stage(descriptorSet, 0, new ImageSetWriter(binding, i, textures[i]));
+        }
+        pendingIndices.clear();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return indices.size();
+    }
+
+    @Override
+    public String toString() {
+        return "BindlessTextureArray [capacity=" + capacity + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,63 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+/**
+ * Writes a range of a buffer to a buffer binding. Two writers are equal if they
+ * write the same range of the same buffer to the same binding.
+ */
+public class BufferSetWriter extends AbstractSetWriter {
+
+    private final long bufferHandle, offset, range;
+
+    public BufferSetWriter(DescriptorSetLayoutBinding bindingLayout, long bufferHandle, long offset, long range) {
+        super(bindingLayout, 0, 1);
+        this.bufferHandle = bufferHandle;
+        this.offset = offset;
+        this.range = range;
+    }
+
+    @Override
+    protected void populate(MemoryStack stack, VkWriteDescriptorSet write) {
+        write.pBufferInfo(VkDescriptorBufferInfo.calloc(1, stack)
+                .buffer(bufferHandle)
+                .offset(offset)
+                .range(range));
+    }
+
+    @Override
+    public void populateTemplate(ByteBuffer data, int offset, int stride) {
+        putBufferInfo(data, offset, bufferHandle, this.offset, range);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bindingLayout, bufferHandle, offset, range);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        var other = (BufferSetWriter) obj;
+        return bufferHandle == other.bufferHandle && offset == other.offset && range == other.range
+                && bindingLayout.equals(other.bindingLayout);
+    }
+
+    @Override
+    public String toString() {
+        return "BufferSetWriter [binding=" + bindingLayout.binding() + ", buffer=" + bufferHandle + ", offset="
+                + offset + ", range=" + range + "]";
+    }
+}
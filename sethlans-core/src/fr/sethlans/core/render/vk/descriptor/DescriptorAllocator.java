@@ -0,0 +1,244 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.vk.descriptor.DescriptorPool.Create;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.util.VkFlag;
+import fr.sethlans.core.render.vk.util.VkUtil;
+
+/**
+ * Allocates descriptor sets from a growing list of {@link DescriptorPool}s.
+ * When the current pool runs out of sets or descriptors, a new pool is created
+ * with twice as many sets, and with descriptor counts sized from the layouts
+ * allocated so far.
+ * <p>
+ * An allocator created without {@link Create#FREE_DESCRIPTOR_SET} can be
+ * {@link #reset()} as a whole, which is cheaper than freeing sets one by one
+ * and suits sets that only live for a frame.
+ */
+public class DescriptorAllocator {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.descriptor");
+
+    /**
+     * The default number of sets of the first pool.
+     */
+    public static final int DEFAULT_SETS_PER_POOL = 64;
+
+    /**
+     * The maximum number of sets of a single pool.
+     */
+    public static final int MAX_SETS_PER_POOL = 4096;
+
+    private final LogicalDevice logicalDevice;
+
+    private final VkFlag<Create> createFlags;
+
+    /**
+     * The number of descriptors of each type requested by the allocated sets.
+     */
+    private final Map<DescriptorType, Long> observedDescriptors = new EnumMap<>(DescriptorType.class);
+
+    private long observedSets = 0;
+
+    /**
+     * The pools which failed an allocation, only reused after a reset.
+     */
+    private final List<DescriptorPool> exhaustedPools = new ArrayList<>();
+
+    /**
+     * The pools reset and ready to be reused before creating a new one.
+     */
+    private final Deque<DescriptorPool> freePools = new ArrayDeque<>();
+
+    private DescriptorPool currentPool;
+
+    private int setsPerPool;
+
+    public DescriptorAllocator(LogicalDevice logicalDevice, VkFlag<Create> createFlags) {
+        this(logicalDevice, createFlags, DEFAULT_SETS_PER_POOL);
+    }
+
+    public DescriptorAllocator(LogicalDevice logicalDevice, VkFlag<Create> createFlags, int setsPerPool) {
+        if (setsPerPool <= 0) {
+            throw new IllegalArgumentException("Sets per pool must be strictly positive, but got " + setsPerPool);
+        }
+
+        this.logicalDevice = logicalDevice;
+        this.createFlags = createFlags;
+        this.setsPerPool = setsPerPool;
+    }
+
+    public DescriptorSet allocate(DescriptorSetLayout layout) {
+        return allocateAll(List.of(layout))[0];
+    }
+
+    public PerFrameDescriptorSet allocate(DescriptorSetLayout layout, int frameCount) {
+        var layouts = new DescriptorSetLayout[frameCount];
+        Arrays.fill(layouts, layout);
+
+        var allocation = allocate(Arrays.asList(layouts));
+        return new PerFrameDescriptorSet(logicalDevice, allocation.pool(), layout, allocation.handles());
+    }
+
+    public DescriptorSet[] allocateAll(DescriptorSetLayout... layouts) {
+        return allocateAll(Arrays.asList(layouts));
+    }
+
+    public DescriptorSet[] allocateAll(List<DescriptorSetLayout> layouts) {
+        var sets = new DescriptorSet[layouts.size()];
+        var allocation = allocate(layouts);
+        for (var i = 0; i < layouts.size(); ++i) {
+            sets[i] = new DescriptorSet(logicalDevice, allocation.pool(), layouts.get(i), allocation.handles()[i]);
+        }
+
+        return sets;
+    }
+
+    private Allocation allocate(List<DescriptorSetLayout> layouts) {
+        for (var layout : layouts) {
+            observe(layout);
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            var pSetLayouts = stack.mallocLong(layouts.size());
+            for (var layout : layouts) {
+                pSetLayouts.put(layout.handle());
+            }
+            pSetLayouts.flip();
+
+            var pHandles = stack.mallocLong(layouts.size());
+            if (currentPool != null) {
+                var err = currentPool.allocateHandles(pSetLayouts, pHandles);
+                if (!DescriptorPool.isExhausted(err)) {
+                    VkUtil.throwOnFailure(err, "allocate " + layouts.size() + " descriptor-sets");
+                    return new Allocation(currentPool, toArray(pHandles));
+                }
+
+                exhaustedPools.add(currentPool);
+            }
+
+            // Retry once in a reset or a brand new pool, which should only fail if the request is too large.
+            currentPool = nextPool(layouts.size());
+            var err = currentPool.allocateHandles(pSetLayouts, pHandles);
+            VkUtil.throwOnFailure(err, "allocate " + layouts.size() + " descriptor-sets from a new pool");
+            return new Allocation(currentPool, toArray(pHandles));
+        }
+    }
+
+    private DescriptorPool nextPool(int requiredSets) {
+        var pool = freePools.poll();
+        if (pool != null && pool.getMaxSets() >= requiredSets) {
+            return pool;
+        } else if (pool != null) {
+            exhaustedPools.add(pool);
+        }
+
+        var maxSets = Math.max(setsPerPool, requiredSets);
+        var poolSizes = sizePool(maxSets);
+        pool = new DescriptorPool(logicalDevice, createFlags, maxSets, poolSizes);
+        logger.info("Created descriptor pool of " + maxSets + " sets with " + poolSizes + ", "
+                + (exhaustedPools.size() + freePools.size() + 1) + " pools in use.");
+
+        // Grow the next pools geometrically, so that few pools are needed.
+        setsPerPool = Math.min(setsPerPool * 2, MAX_SETS_PER_POOL);
+        return pool;
+    }
+
+    private Map<DescriptorType, Integer> sizePool(int maxSets) {
+        var poolSizes = new EnumMap<DescriptorType, Integer>(DescriptorType.class);
+        for (var type : DescriptorType.values()) {
+            if (type == DescriptorType.INLINE_UNIFORM_BLOCK) {
+                continue;
+            }
+
+            // Keep room for types not observed yet, so that a new kind of layout doesn't need another pool.
+            var count = Math.max(1, maxSets / 8);
+            var observed = observedDescriptors.getOrDefault(type, 0L);
+            if (observed > 0) {
+                var perSet = (double) observed / observedSets;
+                count = Math.max(count, (int) Math.ceil(perSet * maxSets));
+            }
+            poolSizes.put(type, count);
+        }
+        return poolSizes;
+    }
+
+    private void observe(DescriptorSetLayout layout) {
+        for (var binding : layout.getBindings()) {
+            var b = binding.getValue();
+            observedDescriptors.merge(b.type(), (long) b.descriptorCount(), Long::sum);
+        }
+        observedSets++;
+    }
+
+    /**
+     * Reset every pool of the allocator, invalidating all the sets allocated from
+     * it. The sets must no longer be in use by the device.
+     *
+     * @throws IllegalStateException If the sets of the allocator can be freed
+     *                               individually.
+     */
+    public void reset() {
+        if (createFlags.contains(Create.FREE_DESCRIPTOR_SET)) {
+            throw new IllegalStateException("Can't reset an allocator of individually freed descriptor-sets!");
+        }
+
+        if (currentPool != null) {
+            exhaustedPools.add(currentPool);
+            currentPool = null;
+        }
+        for (var pool : exhaustedPools) {
+            pool.reset();
+            freePools.add(pool);
+        }
+        exhaustedPools.clear();
+    }
+
+    public void destroy() {
+        if (currentPool != null) {
+            currentPool.getNativeReference().destroy();
+            currentPool = null;
+        }
+        exhaustedPools.forEach(pool -> pool.getNativeReference().destroy());
+        exhaustedPools.clear();
+        freePools.forEach(pool -> pool.getNativeReference().destroy());
+        freePools.clear();
+    }
+
+    public VkFlag<Create> getCreateFlags() {
+        return createFlags;
+    }
+
+    public int poolCount() {
+        return exhaustedPools.size() + freePools.size() + (currentPool != null ? 1 : 0);
+    }
+
+    private static long[] toArray(LongBuffer pHandles) {
+        var handles = new long[pHandles.remaining()];
+        pHandles.get(handles);
+        return handles;
+    }
+
+    @Override
+    public String toString() {
+        return "DescriptorAllocator [createFlags=" + createFlags + ", pools=" + poolCount() + ", setsPerPool="
+                + setsPerPool + "]";
+    }
+
+    private record Allocation(DescriptorPool pool, long[] handles) {
+
+    }
+}
@@ -1,10 +1,14 @@
 package fr.sethlans.core.render.vk.descriptor;
 
+import java.nio.LongBuffer;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK11;
 import org.lwjgl.vulkan.VK12;
 import org.lwjgl.vulkan.VkDescriptorPoolCreateInfo;
 import org.lwjgl.vulkan.VkDescriptorPoolSize;
@@ -19,28 +23,43 @@ import fr.sethlans.core.render.vk.util.VkUtil;
 public class DescriptorPool extends AbstractDeviceResource {
     
     private final VkFlag<Create> createFlags;
+
+    private final int maxSets;
     
     public DescriptorPool(LogicalDevice logicalDevice, int poolSize) {
         this(logicalDevice, VkFlag.empty(), poolSize);
     }
 
     public DescriptorPool(LogicalDevice logicalDevice, VkFlag<Create> createFlags, int poolSize) {
+        this(logicalDevice, createFlags, poolSize, uniformSizes(poolSize));
+    }
+
+    /**
+     * Create a pool of at most the given number of sets, holding the given number
+     * of descriptors of each type.
+     * 
+     * @param logicalDevice The logical device.
+     * @param createFlags   The pool creation flags.
+     * @param maxSets       The maximum number of sets allocated from the pool.
+     * @param poolSizes     The number of descriptors of each type.
+     */
+    public DescriptorPool(LogicalDevice logicalDevice, VkFlag<Create> createFlags, int maxSets,
+            Map<DescriptorType, Integer> poolSizes) {
         super(logicalDevice);
         this.createFlags = createFlags;
+        this.maxSets = maxSets;
 
         try (var stack = MemoryStack.stackPush()) {
-            var pPoolSizes = VkDescriptorPoolSize.calloc(3, stack);
-            // The UBO descriptor pool will contain poolSize descriptors.
-            pPoolSizes.get(0).type(VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER).descriptorCount(poolSize);
-            // The sampler descriptor pool will contain poolSize descriptors.
-            pPoolSizes.get(1).type(VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER).descriptorCount(poolSize);
-            // The UBO descriptor pool will contain poolSize descriptors.
-            pPoolSizes.get(2).type(VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC).descriptorCount(poolSize);
+            var pPoolSizes = VkDescriptorPoolSize.calloc(poolSizes.size(), stack);
+            for (var entry : poolSizes.entrySet()) {
+                pPoolSizes.get().type(entry.getKey().vkEnum()).descriptorCount(entry.getValue());
+            }
+            pPoolSizes.flip();
 
             var createInfo = VkDescriptorPoolCreateInfo.calloc(stack)
                     .sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO)
                     .flags(createFlags.bits())
-                    .maxSets(poolSize)
+                    .maxSets(maxSets)
                     .pPoolSizes(pPoolSizes);
 
             var pHandle = stack.mallocLong(1);
@@ -52,17 +71,56 @@ public class DescriptorPool extends AbstractDeviceResource {
             logicalDevice.getNativeReference().addDependent(ref);
         }
     }
-    
-    public DescriptorSet allocate(DescriptorSetLayout layout) {
+
+    /**
+     * Size the pool with the same number of descriptors of every type, except
+     * inline uniform blocks which are sized in bytes.
+     */
+    private static Map<DescriptorType, Integer> uniformSizes(int poolSize) {
+        var poolSizes = new EnumMap<DescriptorType, Integer>(DescriptorType.class);
+        for (var type : DescriptorType.values()) {
+            if (type != DescriptorType.INLINE_UNIFORM_BLOCK) {
+                poolSizes.put(type, poolSize);
+            }
+        }
+        return poolSizes;
+    }
+
+    /**
+     * Allocate one set for each of the given layout handles without throwing on
+     * failure, so that the caller can fall back to another pool.
+     * 
+     * @param pSetLayouts The handles of the set layouts.
+     * @param pHandles    The buffer to store the handles of the allocated sets.
+     * @return The result of the allocation.
+     */
+    int allocateHandles(LongBuffer pSetLayouts, LongBuffer pHandles) {
         try (var stack = MemoryStack.stackPush()) {
-            var pSetLayouts = stack.longs(layout.handle());
             var allocate = VkDescriptorSetAllocateInfo.calloc(stack)
                     .sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
                     .descriptorPool(handle())
                     .pSetLayouts(pSetLayouts);
 
+            return VK10.vkAllocateDescriptorSets(logicalDeviceHandle(), allocate, pHandles);
+        }
+    }
+
+    /**
+     * Return whether the given allocation result means the pool has no room left
+     * for the requested sets.
+     * 
+     * @param vkResult The result of the allocation.
+     * @return Whether the pool is exhausted.
+     */
+    static boolean isExhausted(int vkResult) {
+        return vkResult == VK11.VK_ERROR_OUT_OF_POOL_MEMORY || vkResult == VK10.VK_ERROR_FRAGMENTED_POOL;
+    }
+    
+    public DescriptorSet allocate(DescriptorSetLayout layout) {
+        try (var stack = MemoryStack.stackPush()) {
+            var pSetLayouts = stack.longs(layout.handle());
             var pHandle = stack.mallocLong(1);
-            var err = VK10.vkAllocateDescriptorSets(logicalDeviceHandle(), allocate, pHandle);
+            var err = allocateHandles(pSetLayouts, pHandle);
             VkUtil.throwOnFailure(err, "allocate descriptor-set");
             
             var set = new DescriptorSet(getLogicalDevice(), this, layout, pHandle.get());
@@ -77,13 +135,8 @@ public class DescriptorPool extends AbstractDeviceResource {
                 pSetLayouts.put(layout.handle());
             }
             pSetLayouts.flip();
-            var allocate = VkDescriptorSetAllocateInfo.calloc(stack)
-                    .sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
-                    .descriptorPool(handle())
-                    .pSetLayouts(pSetLayouts);
-
             var pHandles = stack.mallocLong(frameCount);
-            var err = VK10.vkAllocateDescriptorSets(logicalDeviceHandle(), allocate, pHandles);
+            var err = allocateHandles(pSetLayouts, pHandles);
             VkUtil.throwOnFailure(err, "allocate " + frameCount + " descriptor-sets");
 
             var array = new long[frameCount];
@@ -108,13 +161,8 @@ public class DescriptorPool extends AbstractDeviceResource {
                 pSetLayouts.put(l.handle());
             }
             pSetLayouts.flip();
-            var allocate = VkDescriptorSetAllocateInfo.calloc(stack)
-                    .sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
-                    .descriptorPool(handle())
-                    .pSetLayouts(pSetLayouts);
-
             var pHandles = stack.mallocLong(layouts.size());
-            var err = VK10.vkAllocateDescriptorSets(logicalDeviceHandle(), allocate, pHandles);
+            var err = allocateHandles(pSetLayouts, pHandles);
             VkUtil.throwOnFailure(err, "allocate " + layouts.size() + " descriptor-sets");
 
             for (var i = 0; i < layouts.size(); ++i) {
@@ -129,6 +177,10 @@ public class DescriptorPool extends AbstractDeviceResource {
         return createFlags;
     }
 
+    public int getMaxSets() {
+        return maxSets;
+    }
+
     public void reset() {
         var err = VK10.vkResetDescriptorPool(logicalDeviceHandle(), handle(), 0);
         VkUtil.throwOnFailure(err, "reset descriptor-set pool");
@@ -95,6 +95,12 @@ public class DescriptorSet extends AbstractDescriptorSet {
         return this;
     }
 
+    @Override
+    int frameSlot(int frameIndex) {
+        // Every frame writes the same handle.
+        return 0;
+    }
+
     @Override
     public long handle(int frameIndex) {
         return handle();
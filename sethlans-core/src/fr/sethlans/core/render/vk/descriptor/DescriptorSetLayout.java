@@ -1,7 +1,9 @@
 package fr.sethlans.core.render.vk.descriptor;
 
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -9,8 +11,11 @@ import java.util.Set;
 import java.util.function.Consumer;
 
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.KHRPushDescriptor;
 import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
 import org.lwjgl.vulkan.VkDescriptorSetLayoutBinding;
+import org.lwjgl.vulkan.VkDescriptorSetLayoutBindingFlagsCreateInfo;
 import org.lwjgl.vulkan.VkDescriptorSetLayoutCreateInfo;
 
 import fr.alchemy.utilities.logging.FactoryLogger;
@@ -18,9 +23,12 @@ import fr.alchemy.utilities.logging.Logger;
 import fr.sethlans.core.material.layout.BindingLayout;
 import fr.sethlans.core.natives.NativeResource;
 import fr.sethlans.core.natives.cache.CacheableNativeBuilder;
+import fr.sethlans.core.render.device.DeviceFeature;
+import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayoutBinding.BindingFlag;
 import fr.sethlans.core.render.vk.device.AbstractDeviceResource;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.pipeline.PipelineLibrary;
+import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.render.vk.util.VkShader;
 import fr.sethlans.core.render.vk.util.VkUtil;
 
@@ -30,6 +38,14 @@ public class DescriptorSetLayout extends AbstractDeviceResource {
     
     private final Map<String, DescriptorSetLayoutBinding> bindings = new HashMap<>();
 
+    private List<Entry<String, DescriptorSetLayoutBinding>> orderedBindings;
+
+    /**
+     * Whether the descriptors are pushed into command buffers instead of being
+     * written to allocated sets.
+     */
+    private boolean pushDescriptor;
+
     protected DescriptorSetLayout(LogicalDevice logicalDevice) {
        super(logicalDevice);
     }
@@ -38,9 +54,43 @@ public class DescriptorSetLayout extends AbstractDeviceResource {
         return Collections.unmodifiableSet(bindings.entrySet());
     }
 
+    /**
+     * Return the binding of the given name.
+     * 
+     * @param name The name of the binding.
+     * @return The layout binding.
+     * @throws IllegalArgumentException If the layout has no such binding.
+     */
+    public DescriptorSetLayoutBinding getBinding(String name) {
+        var binding = bindings.get(name);
+        if (binding == null) {
+            throw new IllegalArgumentException("Descriptor-set layout has no binding '" + name + "'!");
+        }
+        return binding;
+    }
+
+    /**
+     * Return the bindings sorted by binding number, which is the order dynamic
+     * offsets are consumed in when binding the set.
+     * 
+     * @return The sorted bindings of the layout.
+     */
+    public List<Entry<String, DescriptorSetLayoutBinding>> getOrderedBindings() {
+        if (orderedBindings == null) {
+            orderedBindings = bindings.entrySet().stream()
+                    .sorted(Comparator.comparingInt(e -> e.getValue().binding()))
+                    .toList();
+        }
+        return orderedBindings;
+    }
+
+    public boolean isPushDescriptor() {
+        return pushDescriptor;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(bindings);
+        return Objects.hash(bindings, pushDescriptor);
     }
 
     @Override
@@ -54,12 +104,12 @@ public class DescriptorSetLayout extends AbstractDeviceResource {
         }
         
         var other = (DescriptorSetLayout) obj;
-        return Objects.equals(bindings, other.bindings);
+        return pushDescriptor == other.pushDescriptor && Objects.equals(bindings, other.bindings);
     }
 
     @Override
     public String toString() {
-        return "DescriptorSetLayout [bindings=" + bindings + "]";
+        return "DescriptorSetLayout [bindings=" + bindings + ", pushDescriptor=" + pushDescriptor + "]";
     }
 
     @Override
@@ -76,20 +126,49 @@ public class DescriptorSetLayout extends AbstractDeviceResource {
         return b.build();
     }
 
-    public class Builder extends CacheableNativeBuilder<Long, DescriptorSetLayout, DescriptorSetLayout> {
+    public class Builder extends CacheableNativeBuilder<DescriptorSetLayout, DescriptorSetLayout, DescriptorSetLayout> {
 
         @Override
         protected void construct(MemoryStack stack) {
             var pBindings = VkDescriptorSetLayoutBinding.calloc(bindings.size(), stack);
+            var pBindingFlags = stack.mallocInt(bindings.size());
+            var flagged = false;
+            var updateAfterBind = false;
             for (var binding : bindings.values()) {
+                if (pushDescriptor && (binding.type() == DescriptorType.UNIFORM_BUFFER_DYNAMIC
+                        || binding.type() == DescriptorType.STORAGE_BUFFER_DYNAMIC)) {
+                    throw new IllegalStateException("Push descriptor layout can't declare dynamic buffers!");
+                }
+
                 binding.fillLayoutBinding(pBindings.get());
+                pBindingFlags.put(binding.bindingFlags().bits());
+                flagged |= binding.bindingFlags().bits() != 0;
+                updateAfterBind |= binding.bindingFlags().contains(BindingFlag.UPDATE_AFTER_BIND);
             }
             pBindings.flip();
+            pBindingFlags.flip();
             
             var createInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
                     .sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_CREATE_INFO)
                     .pBindings(pBindings);
 
+            if (flagged) {
+                var bindingFlagsInfo = VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack)
+                        .sType(VK12.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_BINDING_FLAGS_CREATE_INFO)
+                        .pBindingFlags(pBindingFlags);
+                createInfo.pNext(bindingFlagsInfo);
+            }
+            if (updateAfterBind && pushDescriptor) {
+                throw new IllegalStateException("Push descriptor layout can't be updated after bind!");
+            }
+            if (updateAfterBind) {
+                // Update-after-bind sets can only be allocated from update-after-bind pools.
+                createInfo.flags(VK12.VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT);
+            }
+            if (pushDescriptor) {
+                createInfo.flags(KHRPushDescriptor.VK_DESCRIPTOR_SET_LAYOUT_CREATE_PUSH_DESCRIPTOR_BIT_KHR);
+            }
+
             var pHandle = stack.mallocLong(1);
             var err = VK10.vkCreateDescriptorSetLayout(logicalDeviceHandle(), createInfo, null, pHandle);
             VkUtil.throwOnFailure(err, "create descriptor-set layout");
@@ -106,10 +185,32 @@ public class DescriptorSetLayout extends AbstractDeviceResource {
             return DescriptorSetLayout.this;
         }
 
+        /**
+         * Set whether the descriptors of the layout are pushed into command buffers,
+         * which requires {@link DeviceFeature#PUSH_DESCRIPTOR}.
+         * 
+         * @param pushDescriptor Whether to push the descriptors.
+         */
+        public void setPushDescriptor(boolean pushDescriptor) {
+            if (pushDescriptor && !getLogicalDevice().physicalDevice().supportsFeature(DeviceFeature.PUSH_DESCRIPTOR)) {
+                throw new IllegalStateException("Push descriptors aren't supported by " 
+                        + getLogicalDevice().physicalDevice() + "!");
+            }
+
+            DescriptorSetLayout.this.pushDescriptor = pushDescriptor;
+        }
+
         public void addBinding(BindingLayout binding) {
+            orderedBindings = null;
+            var bindless = BindlessTextureArray.isBindless(binding);
+            var bindingFlags = bindless ? BindlessTextureArray.BINDING_FLAGS : VkFlag.<BindingFlag>empty();
+            // The texture array is sized to what the device can bind, the shader declares it unsized.
+            var count = bindless ? BindlessTextureArray.clampCapacity(getLogicalDevice(), binding.count())
+                    : binding.count();
             bindings.put(binding.name(),
                     new DescriptorSetLayoutBinding(PipelineLibrary.getVkDescriptorType(binding.type()),
-                            binding.binding(), binding.count(), VkShader.getShaderStages(binding.shaderTypes())));
+                            binding.binding(), count, VkShader.getShaderStages(binding.shaderTypes()),
+                            bindingFlags));
         }
     }
 }
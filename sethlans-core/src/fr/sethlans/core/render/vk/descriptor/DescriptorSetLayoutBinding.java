@@ -1,11 +1,18 @@
 package fr.sethlans.core.render.vk.descriptor;
 
+import org.lwjgl.vulkan.VK12;
 import org.lwjgl.vulkan.VkDescriptorSetLayoutBinding;
 
 import fr.sethlans.core.render.vk.shader.ShaderStage;
 import fr.sethlans.core.render.vk.util.VkFlag;
 
-public record DescriptorSetLayoutBinding(DescriptorType type, int binding, int descriptorCount, VkFlag<ShaderStage> stageFlags) {
+public record DescriptorSetLayoutBinding(DescriptorType type, int binding, int descriptorCount,
+        VkFlag<ShaderStage> stageFlags, VkFlag<BindingFlag> bindingFlags) {
+
+    public DescriptorSetLayoutBinding(DescriptorType type, int binding, int descriptorCount,
+            VkFlag<ShaderStage> stageFlags) {
+        this(type, binding, descriptorCount, stageFlags, VkFlag.empty());
+    }
 
     void fillLayoutBinding(VkDescriptorSetLayoutBinding layoutBinding) {
         layoutBinding.descriptorType(type().vkEnum())
@@ -18,6 +25,29 @@ public record DescriptorSetLayoutBinding(DescriptorType type, int binding, int d
     @Override
     public String toString() {
         return "DescriptorSetLayoutBinding [type=" + type + ", binding=" + binding + ", descriptorCount="
-                + descriptorCount + ", stageFlags=" + stageFlags.toString(ShaderStage.class) + "]";
+                + descriptorCount + ", stageFlags=" + stageFlags.toString(ShaderStage.class) + ", bindingFlags="
+                + bindingFlags.toString(BindingFlag.class) + "]";
+    }
+
+    public enum BindingFlag implements VkFlag<BindingFlag> {
+
+        UPDATE_AFTER_BIND(VK12.VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT),
+
+        UPDATE_UNUSED_WHILE_PENDING(VK12.VK_DESCRIPTOR_BINDING_UPDATE_UNUSED_WHILE_PENDING_BIT),
+
+        PARTIALLY_BOUND(VK12.VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT),
+
+        VARIABLE_DESCRIPTOR_COUNT(VK12.VK_DESCRIPTOR_BINDING_VARIABLE_DESCRIPTOR_COUNT_BIT);
+
+        private final int vkEnum;
+
+        BindingFlag(int vkEnum) {
+            this.vkEnum = vkEnum;
+        }
+
+        @Override
+        public int bits() {
+            return vkEnum;
+        }
     }
 }
@@ -1,9 +1,25 @@
 package fr.sethlans.core.render.vk.descriptor;
 
+import java.nio.ByteBuffer;
+
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
 public interface DescriptorSetWriter {
 
     void populateWrite(MemoryStack stack, VkWriteDescriptorSet write);
+
+    /**
+     * Write the descriptor infos into the packed data of a
+     * {@link DescriptorUpdateTemplate}.
+     * 
+     * @param data   The template data.
+     * @param offset The offset in bytes of the first written array element.
+     * @param stride The stride in bytes between two array elements.
+     */
+    void populateTemplate(ByteBuffer data, int offset, int stride);
+
+    int binding();
+
+    int arrayElement();
 }
@@ -0,0 +1,123 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+
+/**
+ * Collects the descriptor writes of a frame and applies them with a single
+ * {@code vkUpdateDescriptorSets} call. A write is dropped if the set already
+ * holds the same content, and a later write to the same binding replaces the
+ * pending one.
+ * <p>
+ * The queue must be flushed before the staged sets are bound in a command
+ * buffer being recorded.
+ */
+public class DescriptorUpdateQueue {
+
+    /**
+     * The estimated stack bytes of a single write, including its image or buffer
+     * info.
+     */
+    private static final int BYTES_PER_WRITE = 128;
+
+    private final LogicalDevice logicalDevice;
+
+    private final Map<Slot, DescriptorSetWriter> pending = new LinkedHashMap<>();
+
+    private MemoryStack flushStack;
+
+    public DescriptorUpdateQueue(LogicalDevice logicalDevice) {
+        this.logicalDevice = logicalDevice;
+    }
+
+    /**
+     * Stage a write to the given set, unless the set already holds its content.
+     *
+     * @param set        The descriptor set to write.
+     * @param frameIndex The index of the frame in flight, which selects the set
+     *                   of a per-frame descriptor set.
+     * @param writer     The descriptor writer.
+     * @return Whether the write was staged.
+     */
+    public boolean stage(AbstractDescriptorSet set, int frameIndex, DescriptorSetWriter writer) {
+        // Writes to the frames of a single handle target the same slot.
+        var slot = new Slot(set, set.frameSlot(frameIndex), writer.binding(), writer.arrayElement());
+        if (set.isWritten(frameIndex, writer)) {
+            // Drop a pending write which would overwrite the same content.
+            pending.remove(slot);
+            return false;
+        }
+
+        pending.put(slot, writer);
+        return true;
+    }
+
+    /**
+     * Apply every staged write in a single update.
+     *
+     * @return The number of descriptor writes applied.
+     */
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        var requiredBytes = pending.size() * BYTES_PER_WRITE;
+        if (flushStack == null || flushStack.getSize() < requiredBytes) {
+            flushStack = MemoryStack.create(Math.max(requiredBytes, 64 * BYTES_PER_WRITE));
+        }
+
+        try (var stack = flushStack.push()) {
+            var writeDescriptor = VkWriteDescriptorSet.calloc(pending.size(), stack);
+            for (var entry : pending.entrySet()) {
+                var slot = entry.getKey();
+                entry.getValue().populateWrite(stack, writeDescriptor.get()
+                        .sType(VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                        .dstSet(slot.set().handle(slot.frameIndex())));
+            }
+            writeDescriptor.flip();
+            VK10.vkUpdateDescriptorSets(logicalDevice.getNativeObject(), writeDescriptor, null);
+        }
+
+        for (var entry : pending.entrySet()) {
+            entry.getKey().set().markWritten(entry.getKey().frameIndex(), entry.getValue());
+        }
+
+        var count = pending.size();
+        pending.clear();
+        return count;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DescriptorUpdateQueue [pending=" + pending.size() + "]";
+    }
+
+    /**
+     * The destination of a write. The set is compared by identity, since the sets
+     * of a per-frame descriptor set share no single handle.
+     */
+    private record Slot(AbstractDescriptorSet set, int frameIndex, int binding, int arrayElement) {
+
+        @Override
+        public int hashCode() {
+            return ((System.identityHashCode(set) * 31 + frameIndex) * 31 + binding) * 31 + arrayElement;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Slot other && set == other.set && frameIndex == other.frameIndex
+                    && binding == other.binding && arrayElement == other.arrayElement;
+        }
+    }
+}
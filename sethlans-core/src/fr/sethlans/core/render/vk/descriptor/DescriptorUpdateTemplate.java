@@ -0,0 +1,204 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.KHRPushDescriptor;
+import org.lwjgl.vulkan.VK11;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
+import org.lwjgl.vulkan.VkDescriptorUpdateTemplateCreateInfo;
+import org.lwjgl.vulkan.VkDescriptorUpdateTemplateEntry;
+
+import fr.sethlans.core.natives.NativeResource;
+import fr.sethlans.core.render.vk.device.AbstractDeviceResource;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.BindPoint;
+import fr.sethlans.core.render.vk.pipeline.PipelineLayout;
+import fr.sethlans.core.render.vk.util.VkUtil;
+
+/**
+ * Describes how the descriptors of a {@link DescriptorSetLayout} are read from
+ * a packed data buffer, so that a whole set is updated or pushed with a single
+ * call instead of one {@link org.lwjgl.vulkan.VkWriteDescriptorSet} per
+ * binding.
+ * <p>
+ * Every binding of the layout gets an entry in binding order, each array
+ * element taking {@link #ENTRY_STRIDE} bytes of the data.
+ */
+public class DescriptorUpdateTemplate extends AbstractDeviceResource {
+
+    /**
+     * The stride in bytes between two descriptors in the template data, large
+     * enough for either an image or a buffer info.
+     */
+    public static final int ENTRY_STRIDE = Math.max(VkDescriptorImageInfo.SIZEOF, VkDescriptorBufferInfo.SIZEOF);
+
+    private final DescriptorSetLayout layout;
+
+    private final BindPoint bindPoint;
+
+    /**
+     * The offset in bytes of the entry of each binding number, or -1.
+     */
+    private final int[] entryOffsets;
+
+    private final int dataSize;
+
+    /**
+     * Create a template to update sets allocated with the given layout.
+     *
+     * @param logicalDevice The logical device.
+     * @param layout        The layout of the updated sets.
+     */
+    public DescriptorUpdateTemplate(LogicalDevice logicalDevice, DescriptorSetLayout layout) {
+        this(logicalDevice, layout, null, null, 0);
+    }
+
+    /**
+     * Create a template to push descriptors to the given set of a pipeline
+     * layout.
+     *
+     * @param logicalDevice  The logical device.
+     * @param layout         The push descriptor layout of the set.
+     * @param pipelineLayout The pipeline layout to push with.
+     * @param bindPoint      The pipeline bind point.
+     * @param set            The index of the pushed set in the pipeline layout.
+     */
+    public DescriptorUpdateTemplate(LogicalDevice logicalDevice, DescriptorSetLayout layout,
+            PipelineLayout pipelineLayout, BindPoint bindPoint, int set) {
+        super(logicalDevice);
+        this.layout = layout;
+        this.bindPoint = bindPoint;
+
+        var push = pipelineLayout != null;
+        if (push != layout.isPushDescriptor()) {
+            throw new IllegalArgumentException("Layout " + layout + (push ? " isn't" : " is")
+                    + " a push descriptor layout!");
+        }
+
+        var bindings = layout.getOrderedBindings();
+        var maxBinding = bindings.isEmpty() ? -1 : bindings.get(bindings.size() - 1).getValue().binding();
+        this.entryOffsets = new int[maxBinding + 1];
+        Arrays.fill(entryOffsets, -1);
+
+        try (var stack = MemoryStack.stackPush()) {
+            var pEntries = VkDescriptorUpdateTemplateEntry.calloc(bindings.size(), stack);
+            var offset = 0;
+            for (var entry : bindings) {
+                var binding = entry.getValue();
+                pEntries.get()
+                        .dstBinding(binding.binding())
+                        .dstArrayElement(0)
+                        .descriptorCount(binding.descriptorCount())
+                        .descriptorType(binding.type().vkEnum())
+                        .offset(offset)
+                        .stride(ENTRY_STRIDE);
+
+                entryOffsets[binding.binding()] = offset;
+                offset += binding.descriptorCount() * ENTRY_STRIDE;
+            }
+            pEntries.flip();
+            this.dataSize = offset;
+
+            var createInfo = VkDescriptorUpdateTemplateCreateInfo.calloc(stack)
+                    .sType(VK11.VK_STRUCTURE_TYPE_DESCRIPTOR_UPDATE_TEMPLATE_CREATE_INFO)
+                    .pDescriptorUpdateEntries(pEntries);
+            if (push) {
+                createInfo.templateType(KHRPushDescriptor.VK_DESCRIPTOR_UPDATE_TEMPLATE_TYPE_PUSH_DESCRIPTORS_KHR)
+                        .pipelineBindPoint(bindPoint.vkEnum())
+                        .pipelineLayout(pipelineLayout.handle())
+                        .set(set);
+            } else {
+                createInfo.templateType(VK11.VK_DESCRIPTOR_UPDATE_TEMPLATE_TYPE_DESCRIPTOR_SET)
+                        .descriptorSetLayout(layout.handle());
+            }
+
+            var pHandle = stack.mallocLong(1);
+            var err = VK11.vkCreateDescriptorUpdateTemplate(logicalDeviceHandle(), createInfo, null, pHandle);
+            VkUtil.throwOnFailure(err, "create descriptor update template");
+            assignHandle(pHandle.get(0));
+
+            ref = NativeResource.get().register(this);
+            logicalDevice.getNativeReference().addDependent(ref);
+        }
+    }
+
+    /**
+     * Pack the descriptors of the given writers into template data allocated on
+     * the stack. Bindings without a writer are left zeroed.
+     *
+     * @param stack   The memory stack.
+     * @param writers The writers of the bindings.
+     * @return The packed template data.
+     */
+    public ByteBuffer pack(MemoryStack stack, Collection<? extends DescriptorSetWriter> writers) {
+        var data = stack.calloc(dataSize);
+        for (var writer : writers) {
+            var binding = writer.binding();
+            if (binding >= entryOffsets.length || entryOffsets[binding] < 0) {
+                throw new IllegalArgumentException("Template of " + layout + " has no binding " + binding + "!");
+            }
+
+            writer.populateTemplate(data, entryOffsets[binding] + writer.arrayElement() * ENTRY_STRIDE,
+                    ENTRY_STRIDE);
+        }
+
+        return data;
+    }
+
+    /**
+     * Update the given set with the packed template data, and record the written
+     * contents in the set.
+     *
+     * @param set        The descriptor set to update.
+     * @param frameIndex The index of the frame in flight.
+     * @param data       The template data packed with the writers.
+     * @param writers    The writers the data was packed with.
+     */
+    public void update(AbstractDescriptorSet set, int frameIndex, ByteBuffer data,
+            Collection<? extends DescriptorSetWriter> writers) {
+        if (layout.isPushDescriptor()) {
+            throw new IllegalStateException("Can't update a descriptor-set with a push descriptor template!");
+        }
+
+        VK11.vkUpdateDescriptorSetWithTemplate(logicalDeviceHandle(), set.handle(frameIndex), handle(),
+                MemoryUtil.memAddress(data));
+        for (var writer : writers) {
+            set.markWritten(frameIndex, writer);
+        }
+    }
+
+    public DescriptorSetLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Return the bind point the descriptors are pushed to.
+     *
+     * @return The pipeline bind point, or null if the template updates sets.
+     */
+    public BindPoint getBindPoint() {
+        return bindPoint;
+    }
+
+    public int dataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public Runnable createDestroyAction() {
+        return () -> {
+            VK11.vkDestroyDescriptorUpdateTemplate(logicalDeviceHandle(), handle(), null);
+            unassignHandle();
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "DescriptorUpdateTemplate [layout=" + layout + ", dataSize=" + dataSize + "]";
+    }
+}
@@ -0,0 +1,66 @@
+package fr.sethlans.core.render.vk.descriptor;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+import fr.sethlans.core.render.vk.image.VulkanTexture;
+
+/**
+ * Writes a texture to an element of a combined image sampler binding. Two
+ * writers are equal if they write the same image view and sampler to the same
+ * element of the same binding.
+ */
+public class ImageSetWriter extends AbstractSetWriter {
+
+    private final long imageViewHandle, samplerHandle;
+
+    public ImageSetWriter(DescriptorSetLayoutBinding bindingLayout, int arrayElement, VulkanTexture texture) {
+        super(bindingLayout, arrayElement, 1);
+        this.imageViewHandle = texture.imageViewHandle();
+        this.samplerHandle = texture.samplerHandle();
+    }
+
+    @Override
+    protected void populate(MemoryStack stack, VkWriteDescriptorSet write) {
+        write.pImageInfo(VkDescriptorImageInfo.calloc(1, stack)
+                .imageLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                .imageView(imageViewHandle)
+                .sampler(samplerHandle));
+    }
+
+    @Override
+    public void populateTemplate(ByteBuffer data, int offset, int stride) {
+        putImageInfo(data, offset, samplerHandle, imageViewHandle, VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bindingLayout, arrayElement, imageViewHandle, samplerHandle);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        var other = (ImageSetWriter) obj;
+        return arrayElement == other.arrayElement && imageViewHandle == other.imageViewHandle
+                && samplerHandle == other.samplerHandle && bindingLayout.equals(other.bindingLayout);
+    }
+
+    @Override
+    public String toString() {
+        return "ImageSetWriter [binding=" + bindingLayout.binding() + ", arrayElement=" + arrayElement
+                + ", imageView=" + imageViewHandle + ", sampler=" + samplerHandle + "]";
+    }
+}
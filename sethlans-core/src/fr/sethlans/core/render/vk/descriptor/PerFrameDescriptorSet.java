@@ -24,6 +24,11 @@ public class PerFrameDescriptorSet extends AbstractDescriptorSet {
         }
     }
 
+    @Override
+    int frameSlot(int frameIndex) {
+        return frameIndex;
+    }
+
     @Override
     public long handle(int frameIndex) {
         return handles[frameIndex];
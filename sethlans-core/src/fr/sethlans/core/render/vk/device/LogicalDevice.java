@@ -16,6 +16,7 @@ import fr.sethlans.core.render.vk.command.CommandPool;
 import fr.sethlans.core.render.vk.command.SingleUseCommand;
 import fr.sethlans.core.render.vk.command.CommandPool.Create;
 import fr.sethlans.core.render.vk.context.VulkanContext;
+import fr.sethlans.core.render.vk.memory.MemoryAllocator;
 import fr.sethlans.core.render.vk.util.VkUtil;
 
 public class LogicalDevice extends AbstractNativeResource<VkDevice> {
@@ -33,6 +34,8 @@ public class LogicalDevice extends AbstractNativeResource<VkDevice> {
     private CommandPool commandPool;
     private CommandPool transferPool;
 
+    private final MemoryAllocator memoryAllocator;
+
     public LogicalDevice(VulkanContext context) {
         this.physicalDevice = context.getPhysicalDevice();
         
@@ -78,6 +81,8 @@ public class LogicalDevice extends AbstractNativeResource<VkDevice> {
         physicalDevice.getNativeReference().addDependent(ref);
 
         createQueues();
+
+        this.memoryAllocator = new MemoryAllocator(this);
     }
     
     protected void createQueues() {
@@ -116,6 +121,10 @@ public class LogicalDevice extends AbstractNativeResource<VkDevice> {
         return physicalDevice;
     }
 
+    public MemoryAllocator getMemoryAllocator() {
+        return memoryAllocator;
+    }
+
     public CommandBuffer createGraphicsCommand() {
         return commandPool.createCommandBuffer();
     }
@@ -136,6 +145,10 @@ public class LogicalDevice extends AbstractNativeResource<VkDevice> {
         return graphicsQueue;
     }
 
+    public Queue transferQueue() {
+        return transferQueue == null ? graphicsQueue : transferQueue;
+    }
+
     public Queue presentationQueue() {
         return presentationQueue;
     }
@@ -147,7 +160,7 @@ public class LogicalDevice extends AbstractNativeResource<VkDevice> {
     @Override
     public Runnable createDestroyAction() {
        return () -> {
-           logger.info("Destroyed resources from " + physicalDevice);
+           logger.info("Destroyed resources from " + physicalDevice + ", " + memoryAllocator.getStats());
            VK10.vkDestroyDevice(object, null);
            this.object = null;
         };
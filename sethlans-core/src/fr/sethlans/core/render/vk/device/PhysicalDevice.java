@@ -17,6 +17,7 @@ import org.lwjgl.vulkan.KHRGetSurfaceCapabilities2;
 import org.lwjgl.vulkan.KHRIndexTypeUint8;
 import org.lwjgl.vulkan.KHRPipelineLibrary;
 import org.lwjgl.vulkan.KHRPortabilitySubset;
+import org.lwjgl.vulkan.KHRPushDescriptor;
 import org.lwjgl.vulkan.KHRSharedPresentableImage;
 import org.lwjgl.vulkan.KHRSurface;
 import org.lwjgl.vulkan.KHRSwapchain;
@@ -34,6 +35,8 @@ import org.lwjgl.vulkan.VkFormatProperties;
 import org.lwjgl.vulkan.VkFormatProperties2;
 import org.lwjgl.vulkan.VkPhysicalDevice;
 import org.lwjgl.vulkan.VkPhysicalDeviceDriverProperties;
+import org.lwjgl.vulkan.VkPhysicalDeviceDescriptorIndexingFeatures;
+import org.lwjgl.vulkan.VkPhysicalDeviceDescriptorIndexingProperties;
 import org.lwjgl.vulkan.VkPhysicalDeviceDynamicRenderingFeaturesKHR;
 import org.lwjgl.vulkan.VkPhysicalDeviceFeatures;
 import org.lwjgl.vulkan.VkPhysicalDeviceFeatures2;
@@ -45,6 +48,8 @@ import org.lwjgl.vulkan.VkPhysicalDevicePortabilitySubsetFeaturesKHR;
 import org.lwjgl.vulkan.VkPhysicalDeviceProperties;
 import org.lwjgl.vulkan.VkPhysicalDeviceProperties2;
 import org.lwjgl.vulkan.VkPhysicalDeviceSynchronization2Features;
+import org.lwjgl.vulkan.VkPhysicalDeviceScalarBlockLayoutFeatures;
+import org.lwjgl.vulkan.VkPhysicalDeviceTimelineSemaphoreFeatures;
 import org.lwjgl.vulkan.VkPhysicalDeviceToolProperties;
 import org.lwjgl.vulkan.VkQueueFamilyProperties;
 
@@ -156,6 +161,14 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
     private final VulkanContext context;
     
     private final DeviceInfo info;
+
+    /**
+     * The identity of the device and driver, which pipeline cache data is only
+     * compatible with.
+     */
+    private int vendorID, deviceID, driverVersion;
+
+    private byte[] pipelineCacheUUID;
     
     private final EnumSet<DeviceFeature> features = EnumSet.noneOf(DeviceFeature.class);
     
@@ -173,6 +186,8 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
 
     private boolean graphicsPipelineLibrarySupported;
 
+    private boolean timelineSemaphoreSupported;
+
     public PhysicalDevice(VulkanContext context, long handle) {
         this.context = context;
         var instance = context.getVulkanInstance();
@@ -198,9 +213,15 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
             
             String driverName = null;
             String driverInfo = null;
+            gatherDeviceLimits(properties.limits());
+            limits.put(DeviceLimit.MAX_UPDATE_AFTER_BIND_DESCRIPTOR_SAMPLERS, 0);
+
             if (context.getVulkanInstance().getApiVersion() >= VK12.VK_API_VERSION_1_2) {
+                var indexingProps = VkPhysicalDeviceDescriptorIndexingProperties.calloc(stack)
+                        .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_DESCRIPTOR_INDEXING_PROPERTIES);
                 var driverProps = VkPhysicalDeviceDriverProperties.calloc(stack)
-                        .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_DRIVER_PROPERTIES);
+                        .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_DRIVER_PROPERTIES)
+                        .pNext(indexingProps.address());
                 var properties2 = VkPhysicalDeviceProperties2.calloc(stack)
                         .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PROPERTIES_2)
                         .pNext(driverProps.address());
@@ -208,9 +229,20 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
 
                 driverName = driverProps.driverNameString();
                 driverInfo = driverProps.driverInfoString();
+
+                // A combined image sampler counts both as a sampler and as a sampled image.
+                limits.put(DeviceLimit.MAX_UPDATE_AFTER_BIND_DESCRIPTOR_SAMPLERS, Math.min(
+                        Math.min(indexingProps.maxPerStageDescriptorUpdateAfterBindSamplers(),
+                                indexingProps.maxPerStageDescriptorUpdateAfterBindSampledImages()),
+                        Math.min(indexingProps.maxDescriptorSetUpdateAfterBindSamplers(),
+                                indexingProps.maxDescriptorSetUpdateAfterBindSampledImages())));
             }
 
-            gatherDeviceLimits(properties.limits());
+            this.vendorID = properties.vendorID();
+            this.deviceID = properties.deviceID();
+            this.driverVersion = properties.driverVersion();
+            this.pipelineCacheUUID = new byte[VK10.VK_UUID_SIZE];
+            properties.pipelineCacheUUID().get(pipelineCacheUUID);
             
             var info = new DeviceInfo(properties.deviceNameString(), vendor, type, driverName, driverInfo);
             return info;
@@ -219,7 +251,12 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
     
     private void gatherDeviceLimits(VkPhysicalDeviceLimits vkLimits) {
         limits.put(DeviceLimit.MAX_PUSH_CONSTANT_SIZE, vkLimits.maxPushConstantsSize());
+        // A combined image sampler counts both as a sampler and as a sampled image.
+        limits.put(DeviceLimit.MAX_PER_STAGE_DESCRIPTOR_SAMPLERS,
+                Math.min(vkLimits.maxPerStageDescriptorSamplers(), vkLimits.maxPerStageDescriptorSampledImages()));
         limits.put(DeviceLimit.MIN_UBO_ALIGNMENT, vkLimits.minUniformBufferOffsetAlignment());
+        limits.put(DeviceLimit.MIN_SSBO_ALIGNMENT, vkLimits.minStorageBufferOffsetAlignment());
+        limits.put(DeviceLimit.NON_COHERENT_ATOM_SIZE, vkLimits.nonCoherentAtomSize());
         limits.put(DeviceLimit.MAX_SAMPLER_ANISOTROPY, vkLimits.maxSamplerAnisotropy());
 
         putSampleLimit(DeviceLimit.FRAMEBUFFER_COLOR_SAMPLES, vkLimits.framebufferColorSampleCounts());
@@ -321,13 +358,25 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
                     VkPhysicalDeviceGraphicsPipelineLibraryFeaturesEXT.calloc(stack)
                         .sType(EXTGraphicsPipelineLibrary.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_GRAPHICS_PIPELINE_LIBRARY_FEATURES_EXT);
 
+            var timelineFeatures = VkPhysicalDeviceTimelineSemaphoreFeatures.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_TIMELINE_SEMAPHORE_FEATURES);
+
+            var scalarBlockLayoutFeatures = VkPhysicalDeviceScalarBlockLayoutFeatures.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_SCALAR_BLOCK_LAYOUT_FEATURES);
+
+            var descriptorIndexingFeatures = VkPhysicalDeviceDescriptorIndexingFeatures.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_DESCRIPTOR_INDEXING_FEATURES);
+
             var features2 = VkPhysicalDeviceFeatures2.calloc(stack)
                     .sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2)
                     .pNext(uint8Features)
                     .pNext(portabilityFeatures)
                     .pNext(dynamicRenderingFeatures)
                     .pNext(sync2Features)
-                    .pNext(graphicsPipelineLibraryFeatures);
+                    .pNext(graphicsPipelineLibraryFeatures)
+                    .pNext(timelineFeatures)
+                    .pNext(scalarBlockLayoutFeatures)
+                    .pNext(descriptorIndexingFeatures);
 
             // Request features2 for the physical device.
             VK11.vkGetPhysicalDeviceFeatures2(object, features2);
@@ -382,6 +431,54 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
                 createInfo.pNext(graphicsPipelineLibraryFeatures);
             }
 
+            // Timeline semaphores are core since Vulkan 1.2.
+            if (timelineFeatures.timelineSemaphore() && instance.getApiVersion() >= VK12.VK_API_VERSION_1_2) {
+                timelineFeatures.timelineSemaphore(true);
+                this.timelineSemaphoreSupported = true;
+                logger.info("Timeline semaphore supported by " + this + ".");
+
+                // Request timeline semaphore support.
+                createInfo.pNext(timelineFeatures);
+            }
+
+            // Scalar block layout is core since Vulkan 1.2.
+            if (scalarBlockLayoutFeatures.scalarBlockLayout() && instance.getApiVersion() >= VK12.VK_API_VERSION_1_2) {
+                scalarBlockLayoutFeatures.scalarBlockLayout(true);
+                features.add(DeviceFeature.SCALAR_BLOCK_LAYOUT);
+                logger.info("Scalar block layout supported by " + this + ".");
+
+                // Request scalar block layout support.
+                createInfo.pNext(scalarBlockLayoutFeatures);
+            }
+
+            // Descriptor indexing is core since Vulkan 1.2, only request what bindless textures need.
+            if (descriptorIndexingFeatures.shaderSampledImageArrayNonUniformIndexing()
+                    && descriptorIndexingFeatures.runtimeDescriptorArray()
+                    && descriptorIndexingFeatures.descriptorBindingPartiallyBound()
+                    && descriptorIndexingFeatures.descriptorBindingSampledImageUpdateAfterBind()
+                    && descriptorIndexingFeatures.descriptorBindingUpdateUnusedWhilePending()
+                    && instance.getApiVersion() >= VK12.VK_API_VERSION_1_2) {
+                var requested = VkPhysicalDeviceDescriptorIndexingFeatures.calloc(stack)
+                        .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_DESCRIPTOR_INDEXING_FEATURES)
+                        .shaderSampledImageArrayNonUniformIndexing(true)
+                        .runtimeDescriptorArray(true)
+                        .descriptorBindingPartiallyBound(true)
+                        .descriptorBindingSampledImageUpdateAfterBind(true)
+                        .descriptorBindingUpdateUnusedWhilePending(true);
+                features.add(DeviceFeature.DESCRIPTOR_INDEXING);
+                logger.info("Descriptor indexing supported by " + this + ".");
+
+                // Request descriptor indexing support.
+                createInfo.pNext(requested);
+            }
+
+            // Push descriptors are updated with templates, which are core since Vulkan 1.1.
+            if (hasExtension(KHRPushDescriptor.VK_KHR_PUSH_DESCRIPTOR_EXTENSION_NAME)
+                    && instance.getApiVersion() >= VK11.VK_API_VERSION_1_1) {
+                features.add(DeviceFeature.PUSH_DESCRIPTOR);
+                logger.info("Push descriptor supported by " + this + ".");
+            }
+
             // Enable all available queue families.
             var familiesBuff = listQueueFamilies(stack);
             var familyCount = familiesBuff.capacity();
@@ -424,6 +521,11 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
                         EXTIndexTypeUint8.VK_EXT_INDEX_TYPE_UINT8_EXTENSION_NAME, stack);
             }
 
+            if (supportsFeature(DeviceFeature.PUSH_DESCRIPTOR)) {
+                requiredExtensions = VkUtil.appendStringPointer(requiredExtensions,
+                        KHRPushDescriptor.VK_KHR_PUSH_DESCRIPTOR_EXTENSION_NAME, stack);
+            }
+
             var osArch = application.getOsArch();
             if (osArch.os().equals(OS.MAC_OS)) {
                 requiredExtensions = VkUtil.appendStringPointer(requiredExtensions,
@@ -654,7 +756,7 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
                     var memType = memProperties.memoryTypes(typeIndex);
                     var props = memType.propertyFlags();
                    
-                    if ((props & memProperty.bits()) != 0) {
+                    if (memProperty.containedIn(props)) {
                         return typeIndex;
                     }
                 }
@@ -664,6 +766,10 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
         }
     }
 
+    public boolean hasMemoryType(VkFlag<MemoryProperty> memProperty) {
+        return gatherMemoryType(0xFFFFFFFF, memProperty) != null;
+    }
+
     public void gatherQueueFamilyProperties(MemoryStack stack, long surfaceHandle) {
         // Count the number of queue families.
         var pCount = stack.mallocInt(1);
@@ -712,6 +818,10 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
     public boolean supportsGraphicsPipelineLibrary() {
         return graphicsPipelineLibrarySupported;
     }
+
+    public boolean supportsTimelineSemaphore() {
+        return timelineSemaphoreSupported;
+    }
     
     private IntBuffer listQueueFamilies(MemoryStack stack) {
         var families = queueFamilies();
@@ -748,6 +858,22 @@ public class PhysicalDevice extends AbstractNativeResource<VkPhysicalDevice> imp
         return info;
     }
 
+    public int getVendorID() {
+        return vendorID;
+    }
+
+    public int getDeviceID() {
+        return deviceID;
+    }
+
+    public int getDriverVersion() {
+        return driverVersion;
+    }
+
+    public byte[] getPipelineCacheUUID() {
+        return pipelineCacheUUID.clone();
+    }
+
     public VulkanContext getContext() {
         return context;
     }
@@ -108,7 +108,7 @@ public class BaseVulkanImage extends AbstractDeviceResource implements VulkanIma
             VK10.vkGetImageMemoryRequirements(vkDevice, handle(), memRequirements);
             
             this.memory = new MemoryResource(getLogicalDevice(), memRequirements.size(), memProperty);
-            memory.allocate(stack, memRequirements);
+            memory.allocate(memRequirements, getTiling() == Tiling.LINEAR);
             memory.bindMemory(this);
             
             ref = NativeResource.get().register(this);
@@ -179,6 +179,9 @@ public class BaseVulkanImage extends AbstractDeviceResource implements VulkanIma
         return () -> {
             VK10.vkDestroyImage(logicalDeviceHandle(), handle(), null);
             unassignHandle();
+            
+            // Release the memory range for other resources.
+            memory.getNativeReference().destroy();
         };
     }
 
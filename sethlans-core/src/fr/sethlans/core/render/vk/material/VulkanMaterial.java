@@ -1,7 +1,8 @@
 package fr.sethlans.core.render.vk.material;
 
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
@@ -24,10 +25,12 @@ import fr.sethlans.core.render.vk.buffer.DeviceLocalBuffer;
 import fr.sethlans.core.render.vk.command.CommandBuffer;
 import fr.sethlans.core.render.vk.context.BuiltinDescriptorManager;
 import fr.sethlans.core.render.vk.descriptor.AbstractDescriptorSet;
-import fr.sethlans.core.render.vk.descriptor.DescriptorPool;
+import fr.sethlans.core.render.vk.descriptor.BindlessTextureArray;
+import fr.sethlans.core.render.vk.descriptor.DescriptorAllocator;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSet;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayout;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSetWriter;
+import fr.sethlans.core.render.vk.descriptor.DescriptorUpdateQueue;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.image.VulkanTexture;
 import fr.sethlans.core.render.vk.pipeline.Pipeline;
@@ -44,12 +47,20 @@ public class VulkanMaterial {
     private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.context");
 
     private final Map<String, VulkanUniform<?>> uniforms = new HashMap<>();
-    private final Map<DescriptorSetLayout, CachedDescriptorSet> setCache = new HashMap<>();
+    private final Map<DescriptorSetLayout, DescriptorSet> setCache = new HashMap<>();
 
     private LogicalDevice logicalDevice;
 
     private MaterialInstance material;
 
+    /**
+     * The texture of the bindless uniform registered in the bindless texture
+     * array, and its index, or -1 if no texture is registered.
+     */
+    private VulkanTexture bindlessTexture;
+
+    private int bindlessIndex = -1;
+
     public VulkanMaterial(LogicalDevice logicalDevice, MaterialInstance material) {
         this.logicalDevice = logicalDevice;
         this.material = material;
@@ -59,6 +70,15 @@ public class VulkanMaterial {
         var layout = material.getMaterial().getDefaultMaterialPass().getLayout();
         for (var entry : layout.setLayouts()) {
             for (var bindLayout : entry.getValue()) {
+                if (BindlessTextureArray.isBindless(bindLayout)) {
+                    // The texture is registered in the array when the descriptors are staged.
+                    var uniform = (TextureUniform) uniforms.computeIfAbsent(bindLayout.name(),
+                            _ -> new TextureUniform());
+                    uniform.set(material.getTexture() != null ? new VulkanTexture(logicalDevice, material.getTexture())
+                            : null);
+                    continue;
+                }
+
                 if (bindLayout.builtin()) {
                     continue;
                 }
@@ -101,65 +121,152 @@ public class VulkanMaterial {
         }
     }
 
-    public void bind(Pipeline pipeline, String pass, Geometry geometry,
-            BuiltinDescriptorManager builtinDescriptorManager, CommandBuffer command, DescriptorPool pool,
-            int imageIndex) {
-        var layout = pipeline.getLayout();
-        var descLayouts = layout.getSetLayouts();
-        List<DescriptorSetLayout> reqSetAllocation = new ArrayList<>(descLayouts.size());
+    /**
+     * Allocate the missing descriptor-sets of the pipeline layout and stage the
+     * writes of the changed uniforms into the update queue.
+     * 
+     * @param pipeline                 The pipeline to bind the material with.
+     * @param pass                     The name of the material pass.
+     * @param builtinDescriptorManager The manager of the builtin descriptor-sets.
+     * @param allocator                The allocator of the material sets.
+     * @param updates                  The queue of descriptor writes.
+     * @param frameIndex               The index of the frame in flight.
+     */
+    public void stageDescriptors(Pipeline pipeline, String pass, BuiltinDescriptorManager builtinDescriptorManager,
+            DescriptorAllocator allocator, DescriptorUpdateQueue updates, int frameIndex) {
+        var descLayouts = pipeline.getLayout().getSetLayouts();
+        List<DescriptorSetLayout> reqSetAllocation = null;
         for (DescriptorSetLayout l : descLayouts) {
-            if (!setCache.containsKey(l)) {
+            // Sets only made of builtins are provided by the builtin manager, and pushed sets aren't allocated.
+            if (!setCache.containsKey(l) && !isBuiltinOnly(l, pass) && !l.isPushDescriptor()) {
+                if (reqSetAllocation == null) {
+                    reqSetAllocation = new ArrayList<>(descLayouts.size());
+                }
                 reqSetAllocation.add(l);
             }
         }
 
-        if (!reqSetAllocation.isEmpty()) {
-            var allocatedSets = pool.allocateAll(reqSetAllocation);
+        if (reqSetAllocation != null) {
+            var allocatedSets = allocator.allocateAll(reqSetAllocation);
             for (ListIterator<DescriptorSetLayout> it = reqSetAllocation.listIterator(); it.hasNext();) {
-                setCache.put(it.next(), new CachedDescriptorSet(allocatedSets[it.previousIndex()]));
+                setCache.put(it.next(), allocatedSets[it.previousIndex()]);
             }
         }
 
+        for (var descLayout : descLayouts) {
+            if (descLayout.isPushDescriptor()) {
+                // Pushed with the draw commands.
+                continue;
+            }
+
+            var set = setCache.get(descLayout);
+            for (var binding : descLayout.getOrderedBindings()) {
+                var bindingLayout = getBindingLayout(binding.getKey(), pass);
+                if (BindlessTextureArray.isBindless(bindingLayout)) {
+                    registerBindlessTexture(bindingLayout, builtinDescriptorManager);
+                }
+
+                if (bindingLayout.builtin()) {
+                    builtinDescriptorManager.stage(bindingLayout, descLayout, updates);
+                    continue;
+                }
+
+                VulkanUniform<?> uniform = uniforms.get(binding.getKey());
+                if (uniform == null) {
+                    throw new NullPointerException(
+                            "Layout requires uniform '" + binding.getKey() + "' which does not exist.");
+                }
+
+                DescriptorSetWriter writer = uniform.createWriter(binding.getValue());
+                if (writer != null) {
+                    updates.stage(set, frameIndex, writer);
+                }
+            }
+        }
+    }
+
+    private void registerBindlessTexture(BindingLayout bindingLayout,
+            BuiltinDescriptorManager builtinDescriptorManager) {
+        var texture = uniforms.get(bindingLayout.name()) instanceof TextureUniform tu ? tu.get() : null;
+        if (texture == bindlessTexture) {
+            return;
+        }
+
+        // The texture was replaced, free the index of the previous one.
+        if (bindlessTexture != null) {
+            builtinDescriptorManager.releaseTexture(bindlessTexture);
+        }
+
+        this.bindlessTexture = texture;
+        this.bindlessIndex = texture != null ? builtinDescriptorManager.registerTexture(texture) : -1;
+    }
+
+    public void bind(Pipeline pipeline, String pass, Geometry geometry,
+            BuiltinDescriptorManager builtinDescriptorManager, CommandBuffer command, DescriptorAllocator allocator,
+            DescriptorUpdateQueue updates, int imageIndex) {
+        // Writes staged ahead of recording were already flushed, only late changes are applied here.
+        stageDescriptors(pipeline, pass, builtinDescriptorManager, allocator, updates, imageIndex);
+        updates.flush();
+
+        recordBindings(pipeline, pass, geometry, builtinDescriptorManager, command, imageIndex);
+    }
+
+    /**
+     * Record the binding of the descriptor-sets and push constants of the
+     * material, without staging any descriptor write. The descriptors must have
+     * been staged and flushed beforehand, in which case several threads can
+     * record at once.
+     * 
+     * @param pipeline                 The pipeline to bind for.
+     * @param pass                     The name of the material pass.
+     * @param geometry                 The drawn geometry, or null.
+     * @param builtinDescriptorManager The manager of the builtin descriptors.
+     * @param command                  The command-buffer to record into.
+     * @param imageIndex               The index of the frame in flight.
+     */
+    public void recordBindings(Pipeline pipeline, String pass, Geometry geometry,
+            BuiltinDescriptorManager builtinDescriptorManager, CommandBuffer command, int imageIndex) {
+        var layout = pipeline.getLayout();
+        var descLayouts = layout.getSetLayouts();
         try (var stack = MemoryStack.stackPush()) {
             var pDescriptorSets = stack.mallocLong(descLayouts.size());
+            var bindingCount = 0;
             for (var descLayout : descLayouts) {
-                var set = setCache.get(descLayout);
-                if (set == null) {
-                    throw new NullPointerException("Cached descriptor set not available.");
+                bindingCount += descLayout.getBindings().size();
+            }
+            var pDynamicOffsets = stack.mallocInt(bindingCount);
+
+            // Bound sets must be consecutive, so bind them in runs separated by the pushed sets.
+            var firstSet = 0;
+            for (var i = 0; i < descLayouts.size(); ++i) {
+                var descLayout = descLayouts.get(i);
+                if (descLayout.isPushDescriptor()) {
+                    bindDescriptorSets(pipeline, command, firstSet, pDescriptorSets, pDynamicOffsets);
+                    pushDescriptors(pipeline, i, descLayout, command, stack);
+                    firstSet = i + 1;
+                    continue;
                 }
 
-                AbstractDescriptorSet desc = null;
-                for (var binding : descLayout.getBindings()) {
+                AbstractDescriptorSet desc = setCache.get(descLayout);
+                // Dynamic offsets are consumed in set order, then binding order.
+                for (var binding : descLayout.getOrderedBindings()) {
                     var bindingLayout = getBindingLayout(binding.getKey(), pass);
                     if (bindingLayout.builtin()) {
                         desc = builtinDescriptorManager.getOrCreate(bindingLayout, descLayout);
-                        var buff = builtinDescriptorManager.getOrCreate(logicalDevice, bindingLayout.name(), command);
-                        desc.write(Arrays.asList(buff.createWriter(binding.getValue())), imageIndex);
-
-                    } else {
-                        desc = set.getSet();
-
-                        VulkanUniform<?> uniform = uniforms.get(binding.getKey());
-                        if (uniform == null) {
-                            throw new NullPointerException(
-                                    "Layout requires uniform '" + binding.getKey() + "' which does not exist.");
+                        if (builtinDescriptorManager.isDynamic(bindingLayout)) {
+                            pDynamicOffsets.put(builtinDescriptorManager.getDynamicOffset(bindingLayout));
                         }
-
-                        DescriptorSetWriter writer = uniform.createWriter(binding.getValue());
-                        if (writer == null) {
-                            continue;
-                        }
-
-                        set.stageWriter(binding.getKey(), writer);
                     }
                 }
 
-                set.writeChanges(imageIndex);
+                if (desc == null) {
+                    throw new NullPointerException("Cached descriptor set not available.");
+                }
+
                 pDescriptorSets.put(desc.handle(imageIndex));
             }
 
-            pDescriptorSets.flip();
-            command.bindDescriptorSets(pipeline.getLayout().handle(), pipeline.getBindPoint(), pDescriptorSets, null);
+            bindDescriptorSets(pipeline, command, firstSet, pDescriptorSets, pDynamicOffsets);
 
             if (!layout.getPushConstants().isEmpty()) {
                 try (var push = new DirectBufferMapping(stack.malloc(layout.getPushConstantBytes()))) {
@@ -173,10 +280,24 @@ public class VulkanMaterial {
 
                         var buffUniform = (PushConstantUniform) uniform;
 
+                        var offset = (int) pushConstant.size().getOffset();
+                        var size = (int) pushConstant.size().getBytes();
                         if (pushConstant.name().equals("Object") && geometry != null) {
-                            geometry.getModelMatrix().get(0, push.getBytes());
+                            geometry.getModelMatrix().get(offset, push.getBytes());
                             command.pushConstants(layout.handle(), VkShader.getShaderStages(pushConstant.shaderTypes()),
-                                    0, push.getBytes());
+                                    offset, push.getBytes().slice(offset, size));
+                        }
+
+                        if (pushConstant.name().equals("Material")) {
+                            if (bindlessIndex < 0) {
+                                throw new IllegalStateException("Material " + material
+                                        + " has no texture in the bindless texture array!");
+                            }
+
+                            // Select the material texture in the bindless texture array.
+                            push.getBytes().putInt(offset, bindlessIndex);
+                            command.pushConstants(layout.handle(), VkShader.getShaderStages(pushConstant.shaderTypes()),
+                                    offset, push.getBytes().slice(offset, size));
                         }
 
                         if (pushConstant.name().equals("Params")
@@ -199,10 +320,54 @@ public class VulkanMaterial {
         }
     }
 
+    private void bindDescriptorSets(Pipeline pipeline, CommandBuffer command, int firstSet, LongBuffer pDescriptorSets,
+            IntBuffer pDynamicOffsets) {
+        pDescriptorSets.flip();
+        pDynamicOffsets.flip();
+        if (pDescriptorSets.hasRemaining()) {
+            command.bindDescriptorSets(pipeline.getLayout().handle(), pipeline.getBindPoint(), firstSet,
+                    pDescriptorSets, pDynamicOffsets.hasRemaining() ? pDynamicOffsets : null);
+        }
+
+        // Reuse the buffers for the next run of sets.
+        pDescriptorSets.clear();
+        pDynamicOffsets.clear();
+    }
+
+    private void pushDescriptors(Pipeline pipeline, int set, DescriptorSetLayout descLayout, CommandBuffer command,
+            MemoryStack stack) {
+        List<DescriptorSetWriter> writers = new ArrayList<>(descLayout.getBindings().size());
+        for (var binding : descLayout.getOrderedBindings()) {
+            VulkanUniform<?> uniform = uniforms.get(binding.getKey());
+            if (uniform == null) {
+                throw new NullPointerException(
+                        "Layout requires uniform '" + binding.getKey() + "' which does not exist.");
+            }
+
+            var writer = uniform.createWriter(binding.getValue());
+            if (writer != null) {
+                writers.add(writer);
+            }
+        }
+
+        var layout = pipeline.getLayout();
+        var template = layout.getPushDescriptorTemplate(set, pipeline.getBindPoint());
+        command.pushDescriptorSetWithTemplate(template, layout.handle(), set, template.pack(stack, writers));
+    }
+
     public <T> VulkanUniform<T> getUniform(String name) {
         return (VulkanUniform<T>) uniforms.get(name);
     }
 
+    private boolean isBuiltinOnly(DescriptorSetLayout descLayout, String pass) {
+        for (var binding : descLayout.getOrderedBindings()) {
+            if (!getBindingLayout(binding.getKey(), pass).builtin()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private BindingLayout getBindingLayout(String name, String pass) {
         for (var entry : material.getMaterial().getMaterialPass(pass).getLayout().setLayouts()) {
             for (var bindLayout : entry.getValue()) {
@@ -213,35 +378,4 @@ public class VulkanMaterial {
         }
         return null;
     }
-
-    protected static class CachedDescriptorSet {
-
-        private final DescriptorSet set;
-        private final Map<String, DescriptorSetWriter> writers = new HashMap<>();
-        private final Map<String, DescriptorSetWriter> changes = new HashMap<>();
-
-        public CachedDescriptorSet(DescriptorSet set) {
-            this.set = set;
-        }
-
-        public void stageWriter(String name, DescriptorSetWriter writer) {
-            if (!Objects.equals(writers.put(name, writer), writer)) {
-                changes.put(name, writer);
-            }
-        }
-
-        public void writeChanges(int imageIndex) {
-            if (changes.isEmpty()) {
-                return;
-            }
-
-            set.write(changes.values(), imageIndex);
-            changes.clear();
-        }
-
-        public DescriptorSet getSet() {
-            return set;
-        }
-
-    }
 }
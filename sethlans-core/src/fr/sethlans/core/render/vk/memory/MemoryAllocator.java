@@ -0,0 +1,162 @@
+package fr.sethlans.core.render.vk.memory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkMemoryRequirements;
+import org.lwjgl.vulkan.VkPhysicalDeviceMemoryProperties;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.device.DeviceLimit;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.util.VkFlag;
+
+public class MemoryAllocator {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.memory");
+
+    /**
+     * The preferred size of a memory block for heaps larger than
+     * {@link #SMALL_HEAP_SIZE}.
+     */
+    public static final long DEFAULT_BLOCK_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The heap size under which blocks are sized to an eighth of the heap.
+     */
+    public static final long SMALL_HEAP_SIZE = 1024L * 1024 * 1024;
+
+    private final LogicalDevice logicalDevice;
+
+    private final int[] typeProperties;
+
+    private final long[] blockSizes;
+
+    /**
+     * The blocks per memory type, linear and non-linear resources are kept in
+     * separate pools to respect the buffer-image granularity.
+     */
+    private final Map<Integer, List<MemoryBlock>> pools = new HashMap<>();
+
+    public MemoryAllocator(LogicalDevice logicalDevice) {
+        this.logicalDevice = logicalDevice;
+
+        try (var stack = MemoryStack.stackPush()) {
+            var memProperties = VkPhysicalDeviceMemoryProperties.malloc(stack);
+            VK10.vkGetPhysicalDeviceMemoryProperties(logicalDevice.physicalDevice().handle(), memProperties);
+
+            var numTypes = memProperties.memoryTypeCount();
+            this.typeProperties = new int[numTypes];
+            this.blockSizes = new long[numTypes];
+            for (var i = 0; i < numTypes; ++i) {
+                var memType = memProperties.memoryTypes(i);
+                var heapSize = memProperties.memoryHeaps(memType.heapIndex()).size();
+                typeProperties[i] = memType.propertyFlags();
+                blockSizes[i] = heapSize <= SMALL_HEAP_SIZE ? heapSize / 8 : DEFAULT_BLOCK_SIZE;
+            }
+        }
+    }
+
+    public synchronized MemoryBlock allocate(MemoryResource resource, VkMemoryRequirements memRequirements,
+            boolean linear) {
+        var memoryType = logicalDevice.physicalDevice().gatherMemoryType(memRequirements.memoryTypeBits(),
+                resource.getMemProperty());
+        if (memoryType == null) {
+            throw new IllegalStateException("No memory type found supporting " + resource.getMemProperty()
+                    .toString(MemoryProperty.class) + " for type filter " + memRequirements.memoryTypeBits());
+        }
+
+        var size = memRequirements.size();
+        var alignment = memRequirements.alignment();
+        var memProperty = VkFlag.<MemoryProperty>of(typeProperties[memoryType]);
+        if (memProperty.contains(MemoryProperty.HOST_VISIBLE) && !memProperty.contains(MemoryProperty.HOST_COHERENT)) {
+            // Flushed and invalidated ranges are rounded out to the atom size, so give each
+            // resource its own atoms to never touch the host writes of a neighbour.
+            var atomSize = logicalDevice.physicalDevice().getLongLimit(DeviceLimit.NON_COHERENT_ATOM_SIZE);
+            alignment = Math.max(alignment, atomSize);
+            size = MemoryBlock.align(size, atomSize);
+        }
+        var blockSize = blockSizes[memoryType];
+
+        // Large resources get their own memory block.
+        if (size > blockSize / 2) {
+            var block = new MemoryBlock(logicalDevice, memoryType, memProperty, size, true);
+            resource.setAllocation(block.allocate(size, alignment), size);
+            pool(memoryType, linear).add(block);
+            return block;
+        }
+
+        var pool = pool(memoryType, linear);
+        for (var block : pool) {
+            if (block.isDedicated()) {
+                continue;
+            }
+
+            var offset = block.allocate(size, alignment);
+            if (offset >= 0) {
+                resource.setAllocation(offset, size);
+                return block;
+            }
+        }
+
+        var block = new MemoryBlock(logicalDevice, memoryType, memProperty, blockSize, false);
+        logger.info("Allocated " + block + " for " + (linear ? "linear" : "non-linear") + " resources.");
+        resource.setAllocation(block.allocate(size, alignment), size);
+        pool.add(block);
+        return block;
+    }
+
+    synchronized void free(MemoryBlock block, long offset, long size) {
+        if (block.getNativeReference().isDestroyed()) {
+            return;
+        }
+
+        block.free(offset, size);
+        if (!block.isEmpty()) {
+            return;
+        }
+
+        // Keep a single empty shared block per pool to avoid allocation churn.
+        for (var entry : pools.entrySet()) {
+            var pool = entry.getValue();
+            if (!pool.contains(block)) {
+                continue;
+            }
+
+            var hasOtherEmpty = pool.stream().anyMatch(b -> b != block && b.isEmpty() && !b.isDedicated());
+            if (block.isDedicated() || hasOtherEmpty) {
+                pool.remove(block);
+                block.getNativeReference().destroy();
+            }
+            return;
+        }
+    }
+
+    private List<MemoryBlock> pool(int memoryType, boolean linear) {
+        var key = (memoryType << 1) | (linear ? 1 : 0);
+        return pools.computeIfAbsent(key, _ -> new ArrayList<>());
+    }
+
+    public synchronized MemoryStats getStats() {
+        int blockCount = 0, dedicatedCount = 0, allocationCount = 0;
+        long blockBytes = 0, usedBytes = 0, largestFreeRange = 0;
+        for (var pool : pools.values()) {
+            for (var block : pool) {
+                blockCount++;
+                dedicatedCount += block.isDedicated() ? 1 : 0;
+                allocationCount += block.allocationCount();
+                blockBytes += block.size();
+                usedBytes += block.usedBytes();
+                largestFreeRange = Math.max(largestFreeRange, block.largestFreeRange());
+            }
+        }
+
+        return new MemoryStats(blockCount, dedicatedCount, allocationCount, blockBytes, usedBytes,
+                blockBytes - usedBytes, largestFreeRange);
+    }
+}
@@ -0,0 +1,259 @@
+package fr.sethlans.core.render.vk.memory;
+
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkMappedMemoryRange;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+
+import fr.sethlans.core.natives.NativeResource;
+import fr.sethlans.core.render.device.DeviceLimit;
+import fr.sethlans.core.render.vk.device.AbstractDeviceResource;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.util.VkFlag;
+import fr.sethlans.core.render.vk.util.VkUtil;
+
+public class MemoryBlock extends AbstractDeviceResource {
+
+    private static final Comparator<FreeRange> BEST_FIT = Comparator.comparingLong(FreeRange::size)
+            .thenComparingLong(FreeRange::offset);
+
+    private final int memoryTypeIndex;
+
+    private final VkFlag<MemoryProperty> memProperty;
+
+    private final long size;
+
+    private final boolean dedicated;
+
+    /**
+     * The free ranges of the block sorted by offset, used to coalesce neighbours.
+     */
+    private final NavigableMap<Long, Long> freeByOffset = new TreeMap<>();
+
+    /**
+     * The free ranges of the block sorted by size, used to find the best fitting
+     * range.
+     */
+    private final NavigableSet<FreeRange> freeBySize = new TreeSet<>(BEST_FIT);
+
+    private long usedBytes = 0;
+
+    private int allocationCount = 0;
+
+    private long mappedAddress = VK10.VK_NULL_HANDLE;
+
+    MemoryBlock(LogicalDevice logicalDevice, int memoryTypeIndex, VkFlag<MemoryProperty> memProperty, long size,
+            boolean dedicated) {
+        super(logicalDevice);
+        this.memoryTypeIndex = memoryTypeIndex;
+        this.memProperty = memProperty;
+        this.size = size;
+        this.dedicated = dedicated;
+
+        try (var stack = MemoryStack.stackPush()) {
+            var allocInfo = VkMemoryAllocateInfo.calloc(stack)
+                    .sType(VK10.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
+                    .allocationSize(size)
+                    .memoryTypeIndex(memoryTypeIndex);
+
+            var pMemory = stack.mallocLong(1);
+            var err = VK10.vkAllocateMemory(logicalDeviceHandle(), allocInfo, null, pMemory);
+            VkUtil.throwOnFailure(err, "allocate a memory block");
+            assignHandle(pMemory.get(0));
+
+            ref = NativeResource.get().register(this);
+            logicalDevice.getNativeReference().addDependent(ref);
+        }
+
+        insertFree(0, size);
+    }
+
+    synchronized long allocate(long requestedSize, long alignment) {
+        for (var range : freeBySize.tailSet(new FreeRange(requestedSize, 0), true)) {
+            var alignedOffset = align(range.offset(), alignment);
+            var padding = alignedOffset - range.offset();
+            if (padding + requestedSize > range.size()) {
+                continue;
+            }
+
+            removeFree(range.offset(), range.size());
+            if (padding > 0) {
+                insertFree(range.offset(), padding);
+            }
+
+            var remaining = range.size() - padding - requestedSize;
+            if (remaining > 0) {
+                insertFree(alignedOffset + requestedSize, remaining);
+            }
+
+            usedBytes += requestedSize;
+            allocationCount++;
+            return alignedOffset;
+        }
+
+        return -1;
+    }
+
+    synchronized void free(long offset, long allocatedSize) {
+        var start = offset;
+        var end = offset + allocatedSize;
+
+        // Coalesce with the previous free range.
+        var previous = freeByOffset.floorEntry(start);
+        if (previous != null && previous.getKey() + previous.getValue() == start) {
+            removeFree(previous.getKey(), previous.getValue());
+            start = previous.getKey();
+        }
+
+        // Coalesce with the next free range.
+        var next = freeByOffset.ceilingEntry(end);
+        if (next != null && next.getKey() == end) {
+            removeFree(next.getKey(), next.getValue());
+            end = next.getKey() + next.getValue();
+        }
+
+        insertFree(start, end - start);
+        usedBytes -= allocatedSize;
+        allocationCount--;
+    }
+
+    synchronized long map() {
+        // Host-visible blocks stay mapped for their whole lifetime once mapped.
+        if (mappedAddress == VK10.VK_NULL_HANDLE) {
+            try (var stack = MemoryStack.stackPush()) {
+                var pData = stack.mallocPointer(1);
+                var err = VK10.vkMapMemory(logicalDeviceHandle(), handle(), 0, VK10.VK_WHOLE_SIZE, 0, pData);
+                VkUtil.throwOnFailure(err, "map a memory block");
+                mappedAddress = pData.get(0);
+            }
+        }
+
+        return mappedAddress;
+    }
+
+    void flush(long offset, long rangeSize) {
+        if (isCoherent()) {
+            return;
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            var pRange = describeRange(stack, offset, rangeSize);
+            var err = VK10.vkFlushMappedMemoryRanges(logicalDeviceHandle(), pRange);
+            VkUtil.throwOnFailure(err, "flush mapped memory range");
+        }
+    }
+
+    void invalidate(long offset, long rangeSize) {
+        if (isCoherent()) {
+            return;
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            var pRange = describeRange(stack, offset, rangeSize);
+            var err = VK10.vkInvalidateMappedMemoryRanges(logicalDeviceHandle(), pRange);
+            VkUtil.throwOnFailure(err, "invalidate mapped memory range");
+        }
+    }
+
+    private VkMappedMemoryRange.Buffer describeRange(MemoryStack stack, long offset, long rangeSize) {
+        // Ranges of non-coherent memory must be aligned to the atom size.
+        var atomSize = getLogicalDevice().physicalDevice().getLongLimit(DeviceLimit.NON_COHERENT_ATOM_SIZE);
+        var start = (offset / atomSize) * atomSize;
+        var end = align(offset + rangeSize, atomSize);
+
+        var pRange = VkMappedMemoryRange.calloc(1, stack)
+                .sType(VK10.VK_STRUCTURE_TYPE_MAPPED_MEMORY_RANGE)
+                .memory(handle())
+                .offset(start)
+                .size(end >= size ? VK10.VK_WHOLE_SIZE : end - start);
+
+        return pRange;
+    }
+
+    private void insertFree(long offset, long freeSize) {
+        freeByOffset.put(offset, freeSize);
+        freeBySize.add(new FreeRange(freeSize, offset));
+    }
+
+    private void removeFree(long offset, long freeSize) {
+        freeByOffset.remove(offset);
+        freeBySize.remove(new FreeRange(freeSize, offset));
+    }
+
+    public int memoryTypeIndex() {
+        return memoryTypeIndex;
+    }
+
+    public VkFlag<MemoryProperty> getMemProperty() {
+        return memProperty;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isCoherent() {
+        return memProperty.contains(MemoryProperty.HOST_COHERENT);
+    }
+
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    public synchronized boolean isEmpty() {
+        return allocationCount == 0;
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long freeBytes() {
+        return size - usedBytes;
+    }
+
+    public synchronized long largestFreeRange() {
+        return freeBySize.isEmpty() ? 0 : freeBySize.last().size();
+    }
+
+    public synchronized int allocationCount() {
+        return allocationCount;
+    }
+
+    @Override
+    public Runnable createDestroyAction() {
+        return () -> {
+            if (mappedAddress != VK10.VK_NULL_HANDLE) {
+                VK10.vkUnmapMemory(logicalDeviceHandle(), handle());
+                mappedAddress = VK10.VK_NULL_HANDLE;
+            }
+
+            VK10.vkFreeMemory(logicalDeviceHandle(), handle(), null);
+            unassignHandle();
+        };
+    }
+
+    static long align(long offset, long alignment) {
+        if (alignment <= 1) {
+            return offset;
+        }
+
+        return ((offset + alignment - 1) / alignment) * alignment;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBlock [type=" + memoryTypeIndex + ", size=" + size + ", used=" + usedBytes + ", allocations="
+                + allocationCount + ", dedicated=" + dedicated + "]";
+    }
+
+    private record FreeRange(long size, long offset) {
+
+    }
+}
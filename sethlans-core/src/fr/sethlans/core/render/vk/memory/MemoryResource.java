@@ -1,12 +1,8 @@
 package fr.sethlans.core.render.vk.memory;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Objects;
 
-import org.lwjgl.PointerBuffer;
-import org.lwjgl.system.MemoryStack;
-import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VK10;
-import org.lwjgl.vulkan.VkMemoryAllocateInfo;
 import org.lwjgl.vulkan.VkMemoryRequirements;
 
 import fr.sethlans.core.natives.NativeResource;
@@ -21,10 +17,12 @@ public class MemoryResource extends AbstractDeviceResource {
 
     private final long size;
 
-    private final AtomicBoolean mapped = new AtomicBoolean(false);
+    private MemoryBlock block;
+
+    private long allocatedSize;
+
+    private long offset;
 
-    private PointerBuffer mapping = null;
-    
     private VkFlag<MemoryProperty> memProperty;
     
     public MemoryResource(LogicalDevice device, long size) {
@@ -37,99 +35,108 @@ public class MemoryResource extends AbstractDeviceResource {
         this.memProperty = memProperty;
     }
     
-    public void allocate(MemoryStack stack, VkMemoryRequirements memRequirements) {
+    public void allocate(VkMemoryRequirements memRequirements) {
+        allocate(memRequirements, true);
+    }
+
+    public void allocate(VkMemoryRequirements memRequirements, boolean linear) {
         if (hasAssignedHandle()) {
             throw new IllegalStateException(
                     "Resource is already allocated with memory" + Long.toHexString(handle()));
         }
 
-        // Create allocation info struct.
-        var typeFilter = memRequirements.memoryTypeBits();
-        var memoryType = getLogicalDevice().physicalDevice().gatherMemoryType(typeFilter, memProperty);
-        var allocInfo = VkMemoryAllocateInfo.calloc(stack)
-                .sType(VK10.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
-                .allocationSize(memRequirements.size())
-                .memoryTypeIndex(memoryType);
+        // Sub-allocate a range from one of the device memory blocks.
+        var allocator = getLogicalDevice().getMemoryAllocator();
+        this.block = allocator.allocate(this, memRequirements, linear);
+        assignHandle(block.handle());
 
-        var vkDevice = logicalDeviceHandle();
-        var pMemory = stack.mallocLong(1);
-        var err = VK10.vkAllocateMemory(vkDevice, allocInfo, null, pMemory);
-        VkUtil.throwOnFailure(err, "allocate memory for a resource");
-        assignHandle(pMemory.get(0));
-        
         ref = NativeResource.get().register(this);
-        getLogicalDevice().getNativeReference().addDependent(ref);
+        block.getNativeReference().addDependent(ref);
     }
 
     public void bindMemory(VulkanBuffer buffer) {
-        // Bind allocated memory to the buffer object.
+        // Bind allocated memory range to the buffer object.
         var vkDevice = logicalDeviceHandle();
-        var err = VK10.vkBindBufferMemory(vkDevice, buffer.handle(), handle(), 0);
+        var err = VK10.vkBindBufferMemory(vkDevice, buffer.handle(), handle(), offset);
         VkUtil.throwOnFailure(err, "bind memory to a buffer");
     }
     
     public void bindMemory(VulkanImage image) {
-        // Bind allocated memory to the image object.
+        // Bind allocated memory range to the image object.
         var vkDevice = logicalDeviceHandle();
-        var err = VK10.vkBindImageMemory(vkDevice, image.handle(), handle(), 0);
+        var err = VK10.vkBindImageMemory(vkDevice, image.handle(), handle(), offset);
         VkUtil.throwOnFailure(err, "bind memory to an image");
     }
 
-    public PointerBuffer map(long offset, long size) {
+    public long map(long offset, long size) {
         assert hasAssignedHandle();
         
         if (!memProperty.contains(MemoryProperty.HOST_VISIBLE)) {
             throw new IllegalStateException("Unable to map memory that is not host visible.");
         }
-        if (mapped.getAndSet(true)) {
-            throw new IllegalStateException("Memory already mapped.");
+        if (offset < 0 || offset + size > allocatedSize) {
+            throw new IndexOutOfBoundsException("Mapped range [" + offset + ", " + (offset + size)
+                    + "[ exceeds the allocated " + allocatedSize + " bytes.");
         }
 
-        if (mapping == null) {
-            mapping = MemoryUtil.memCallocPointer(1);
-        }
-        
-        var vkDevice = logicalDeviceHandle();
-        var err = VK10.vkMapMemory(vkDevice, handle(), offset, size, 0, mapping);
-        VkUtil.throwOnFailure(err, "map a buffer's memory");
-
-        return mapping;
+        // The block is persistently mapped, so only a view into it is returned.
+        var address = block.map();
+        return address + this.offset + offset;
     }
 
-    public void unmap() {
-        if (!mapped.getAndSet(false)) {
-            throw new IllegalStateException("Memory is not mapped.");
-        }
+    public void flush(long offset, long size) {
+        // Make host writes visible to the device for non-coherent memory.
+        block.flush(this.offset + offset, size);
+    }
 
-        mapping.put(0, VK10.VK_NULL_HANDLE);
+    public void invalidate(long offset, long size) {
+        // Make device writes visible to the host for non-coherent memory.
+        block.invalidate(this.offset + offset, size);
+    }
 
-        if (hasAssignedHandle()) {
-            var vkDevice = logicalDeviceHandle();
-            VK10.vkUnmapMemory(vkDevice, handle());
-        }
+    public boolean isCoherent() {
+        return block.isCoherent();
     }
 
     public long size() {
         return size;
     }
 
+    public long offset() {
+        return offset;
+    }
+
+    void setAllocation(long offset, long allocatedSize) {
+        this.offset = offset;
+        this.allocatedSize = allocatedSize;
+    }
+
+    public MemoryBlock getBlock() {
+        return block;
+    }
+
     public VkFlag<MemoryProperty> getMemProperty() {
         return memProperty;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), offset);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && offset == ((MemoryResource) obj).offset;
+    }
+
     @Override
     public Runnable createDestroyAction() {
         return () -> {
             if (hasAssignedHandle()) {
-                var vkDevice = logicalDeviceHandle();
-
-                VK10.vkFreeMemory(vkDevice, handle(), null);
+                // Return the range to its block.
+                getLogicalDevice().getMemoryAllocator().free(block, offset, allocatedSize);
                 unassignHandle();
             }
-            
-            if (mapping != null)  {
-                MemoryUtil.memFree(mapping);
-            }
         };
     }
 }
@@ -0,0 +1,26 @@
+package fr.sethlans.core.render.vk.memory;
+
+public record MemoryStats(int blockCount, int dedicatedBlockCount, int allocationCount, long blockBytes,
+        long usedBytes, long freeBytes, long largestFreeRange) {
+
+    /**
+     * Return the external fragmentation of the free memory, between 0 when all free
+     * bytes are contiguous and 1 when they are scattered in many small ranges.
+     *
+     * @return The fragmentation ratio of the free memory.
+     */
+    public float fragmentation() {
+        if (freeBytes == 0) {
+            return 0.0f;
+        }
+
+        return 1.0f - (float) largestFreeRange / freeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryStats [blocks=" + blockCount + ", dedicated=" + dedicatedBlockCount + ", allocations="
+                + allocationCount + ", blockBytes=" + blockBytes + ", used=" + usedBytes + ", free=" + freeBytes
+                + ", fragmentation=" + fragmentation() + "]";
+    }
+}
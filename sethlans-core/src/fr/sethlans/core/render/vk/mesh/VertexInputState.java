@@ -3,6 +3,7 @@ package fr.sethlans.core.render.vk.mesh;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
@@ -13,6 +14,11 @@ import fr.sethlans.core.scenegraph.mesh.Mesh;
 
 public class VertexInputState {
 
+    /**
+     * The canonical instance of each distinct vertex input state.
+     */
+    private static final Map<VertexInputState, VertexInputState> INTERNED = new ConcurrentHashMap<>();
+
     private final Map<Integer, BindingEntry> bindings = new HashMap<>();
     private final Map<Integer, AttributeEntry> attributes = new HashMap<>();
 
@@ -24,6 +30,19 @@ public class VertexInputState {
         }
     }
 
+    /**
+     * Return the canonical vertex input state of the given mesh, shared by every
+     * mesh with the same vertex layout so that it can be compared by identity.
+     * 
+     * @param mesh The mesh.
+     * @return The interned vertex input state.
+     */
+    public static VertexInputState of(Mesh mesh) {
+        var state = new VertexInputState(mesh);
+        var interned = INTERNED.putIfAbsent(state, state);
+        return interned != null ? interned : state;
+    }
+
     public VkVertexInputBindingDescription.Buffer getBindings(MemoryStack stack) {
         var pAttribs = VkVertexInputBindingDescription.malloc(bindings.size(), stack);
         for (BindingEntry b : bindings.values()) {
@@ -1,17 +1,24 @@
 package fr.sethlans.core.render.vk.mesh;
 
+import java.util.function.Consumer;
+
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkPipelineInputAssemblyStateCreateInfo;
 
 import fr.alchemy.utilities.logging.FactoryLogger;
 import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.buffer.AccessHint;
 import fr.sethlans.core.render.buffer.IndexBuffer;
+import fr.sethlans.core.render.buffer.StageableBuffer;
 import fr.sethlans.core.render.device.DeviceFeature;
 import fr.sethlans.core.render.vk.buffer.BufferUsage;
 import fr.sethlans.core.render.vk.buffer.DeviceLocalBuffer;
+import fr.sethlans.core.render.vk.buffer.PerFrameBuffer;
 import fr.sethlans.core.render.vk.buffer.PersistentStagingRing;
+import fr.sethlans.core.render.vk.buffer.VulkanBuffer;
 import fr.sethlans.core.render.vk.command.CommandBuffer;
+import fr.sethlans.core.render.vk.context.VulkanGraphicsBackend;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.scenegraph.mesh.Mesh;
@@ -23,52 +30,104 @@ public class VulkanMesh {
 
     private LogicalDevice logicalDevice;
 
-    private DeviceLocalBuffer vertexBuffer;
+    private VulkanBuffer vertexBuffer;
 
-    private IndexBuffer<DeviceLocalBuffer> indexBuffer;
+    private IndexBuffer<VulkanBuffer> indexBuffer;
 
     private Mesh mesh;
 
+    private VertexInputState vertexInputState;
+
     public VulkanMesh(LogicalDevice logicalDevice, Mesh mesh) {
         this.logicalDevice = logicalDevice;
         this.mesh = mesh;
+        this.vertexInputState = VertexInputState.of(mesh);
 
         if (mesh.getVertexData() != null) {
-            this.vertexBuffer = new DeviceLocalBuffer(logicalDevice, mesh.getVertexData().size(),
-                    VkFlag.of(BufferUsage.TRANSFER_DST, BufferUsage.VERTEX));
-            mesh.getVertexData().setDestBuffer(vertexBuffer);
+            this.vertexBuffer = createBuffer(mesh.getVertexData(), BufferUsage.VERTEX);
         }
 
         if (mesh.getIndices() != null) {
-            this.indexBuffer = new IndexBuffer<>(mesh.getIndices().getBuffer().getType(), new DeviceLocalBuffer(
-                    logicalDevice, mesh.getIndices().size(), VkFlag.of(BufferUsage.TRANSFER_DST, BufferUsage.INDEX)));
-            mesh.getIndices().setDestBuffer(indexBuffer.getBuffer());
+            this.indexBuffer = new IndexBuffer<>(mesh.getIndices().getBuffer().getType(),
+                    createBuffer(mesh.getIndices(), BufferUsage.INDEX));
+        }
+    }
+
+    private VulkanBuffer createBuffer(StageableBuffer<?> data, BufferUsage usage) {
+        if (data.getAccessHint() == AccessHint.STATIC) {
+            var buffer = new DeviceLocalBuffer(logicalDevice, data.size(), VkFlag.of(BufferUsage.TRANSFER_DST, usage),
+                    true);
+            data.setDestBuffer(buffer);
+            return buffer;
         }
+
+        // Frequently updated data is written directly by the host, without staging copy.
+        return new PerFrameBuffer(logicalDevice, data.size(), VkFlag.of(usage),
+                VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT);
     }
 
-    public void uploadData(Mesh mesh, PersistentStagingRing stagingRing) {
+    /**
+     * Upload the changed data of the mesh, replacing the buffers it outgrew.
+     * 
+     * @param mesh           The mesh to upload.
+     * @param stagingRing    The staging ring of the device-local buffers.
+     * @param retiredBuffers Receives the replaced buffers, which the frames in
+     *                       flight may still read.
+     */
+    public void uploadData(Mesh mesh, PersistentStagingRing stagingRing, Consumer<VulkanBuffer> retiredBuffers) {
+        this.vertexInputState = VertexInputState.of(mesh);
+
         if (mesh.getVertexData() != null) {
             if (mesh.getVertexData().size().getBytes() > vertexBuffer.size().getBytes()) {
-                this.vertexBuffer = new DeviceLocalBuffer(logicalDevice, mesh.getVertexData().size(),
-                        VkFlag.of(BufferUsage.TRANSFER_DST, BufferUsage.VERTEX));
-                mesh.getVertexData().setDestBuffer(vertexBuffer);
+                retiredBuffers.accept(vertexBuffer);
+                this.vertexBuffer = createBuffer(mesh.getVertexData(), BufferUsage.VERTEX);
+            }
+            if (mesh.getVertexData().getAccessHint() == AccessHint.STATIC) {
+                stagingRing.stage(mesh.getVertexData());
             }
-            stagingRing.stage(mesh.getVertexData());
         }
 
         if (mesh.getIndices() != null) {
             if (mesh.getIndices().size().getBytes() > indexBuffer.size().getBytes()) {
+                retiredBuffers.accept(indexBuffer.getBuffer());
                 this.indexBuffer = new IndexBuffer<>(mesh.getIndices().getBuffer().getType(),
-                        new DeviceLocalBuffer(logicalDevice, mesh.getIndices().size(),
-                                VkFlag.of(BufferUsage.TRANSFER_DST, BufferUsage.INDEX)));
-                mesh.getIndices().setDestBuffer(indexBuffer.getBuffer());
+                        createBuffer(mesh.getIndices(), BufferUsage.INDEX));
+            }
+            if (mesh.getIndices().getAccessHint() == AccessHint.STATIC) {
+                stagingRing.stage(mesh.getIndices());
             }
-            stagingRing.stage(mesh.getIndices());
         }
 
     }
 
+    /**
+     * Write the changed host data of the directly written buffers to the copies
+     * used by the given frame.
+     * 
+     * @param frameIndex The index of the frame in flight.
+     */
+    public void prepare(int frameIndex) {
+        if (vertexBuffer instanceof PerFrameBuffer perFrame) {
+            perFrame.update(mesh.getVertexData(), frameIndex);
+        }
+        if (indexBuffer != null && indexBuffer.getBuffer() instanceof PerFrameBuffer perFrame) {
+            perFrame.update(mesh.getIndices(), frameIndex);
+        }
+    }
+
     public void render(CommandBuffer command) {
+        render(command, 1, 0);
+    }
+
+    /**
+     * Record the draw of instances of the mesh, whose data is read with
+     * <code>gl_InstanceIndex</code>.
+     * 
+     * @param command       The command-buffer to record into.
+     * @param instanceCount The number of instances to draw.
+     * @param firstInstance The index of the first instance.
+     */
+    public void render(CommandBuffer command, int instanceCount, int firstInstance) {
         if (vertexBuffer != null) {
             command.bindVertexBuffer(vertexBuffer);
         }
@@ -77,10 +136,10 @@ public class VulkanMesh {
         }
 
         if (indexBuffer != null && indexBuffer.getElements() > 0) {
-            command.drawIndexed(indexBuffer);
+            command.drawIndexed(indexBuffer, instanceCount, firstInstance);
 
         } else {
-            command.draw(mesh.vertexCount());
+            command.draw(mesh.vertexCount(), instanceCount, firstInstance);
         }
     }
 
@@ -88,8 +147,14 @@ public class VulkanMesh {
         return mesh.topology();
     }
 
-    public VertexInputState createVertexInputState() {
-        return new VertexInputState(mesh);
+    /**
+     * Return the vertex input state of the mesh, interned so that meshes with the
+     * same vertex layout return the same instance.
+     * 
+     * @return The vertex input state.
+     */
+    public VertexInputState getVertexInputState() {
+        return vertexInputState;
     }
 
     public static VkPipelineInputAssemblyStateCreateInfo createInputAssemblyState(LogicalDevice logicalDevice,
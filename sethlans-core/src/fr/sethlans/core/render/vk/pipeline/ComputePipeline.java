@@ -1,5 +1,7 @@
 package fr.sethlans.core.render.vk.pipeline;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
 
@@ -15,6 +17,7 @@ import fr.sethlans.core.natives.cache.Cache;
 import fr.sethlans.core.natives.cache.CacheableNativeBuilder;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.shader.ShaderModule;
+import fr.sethlans.core.render.vk.shader.ShaderCompilationService;
 import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.render.vk.util.VkUtil;
 
@@ -34,6 +37,11 @@ public class ComputePipeline extends AbstractPipeline {
         return createFlags;
     }
 
+    @Override
+    public Collection<ShaderModule> getShaderModules() {
+        return List.of(stage);
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(createFlags, parent, stage);
@@ -65,7 +73,7 @@ public class ComputePipeline extends AbstractPipeline {
         return b.build();
     }
 
-    public class Builder extends CacheableNativeBuilder<Long, Pipeline, ComputePipeline> {
+    public class Builder extends CacheableNativeBuilder<Pipeline, Pipeline, ComputePipeline> {
 
         @Override
         protected void construct(MemoryStack stack) {
@@ -95,13 +103,19 @@ public class ComputePipeline extends AbstractPipeline {
             return stageCreateInfos;
         }
 
-        public void apply(ShaderModuleInfo moduleInfo, Cache<Long, ShaderModule> shaderCache) {
+        public void apply(ShaderModuleInfo moduleInfo, Cache<ShaderModule, ShaderModule> shaderCache) {
+            apply(moduleInfo, shaderCache, null);
+        }
+
+        public void apply(ShaderModuleInfo moduleInfo, Cache<ShaderModule, ShaderModule> shaderCache,
+                ShaderCompilationService compilationService) {
             if (moduleInfo.type() != ShaderType.COMPUTE) {
                 throw new IllegalStateException("Shader module must be a compute shader, " + moduleInfo.type() + "!");
             }
             
             stage = ShaderModule.build(getLogicalDevice(), b -> {
                 b.setCache(shaderCache);
+                b.setCompilationService(compilationService);
                 b.setModuleInfo(moduleInfo);
             });
         }
@@ -3,20 +3,26 @@ package fr.sethlans.core.render.vk.pipeline;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.EXTGraphicsPipelineLibrary;
 import org.lwjgl.vulkan.KHRDynamicRendering;
+import org.lwjgl.vulkan.KHRPipelineLibrary;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkGraphicsPipelineCreateInfo;
+import org.lwjgl.vulkan.VkGraphicsPipelineLibraryCreateInfoEXT;
 import org.lwjgl.vulkan.VkPipelineColorBlendAttachmentState;
 import org.lwjgl.vulkan.VkPipelineColorBlendStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineDepthStencilStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineDynamicStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineInputAssemblyStateCreateInfo;
+import org.lwjgl.vulkan.VkPipelineLibraryCreateInfoKHR;
 import org.lwjgl.vulkan.VkPipelineMultisampleStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineRasterizationStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineRenderingCreateInfoKHR;
@@ -24,6 +30,7 @@ import org.lwjgl.vulkan.VkPipelineShaderStageCreateInfo;
 import org.lwjgl.vulkan.VkPipelineVertexInputStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineViewportStateCreateInfo;
 import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.material.MaterialPass.ShaderType;
 import fr.sethlans.core.natives.NativeResource;
 import fr.sethlans.core.natives.cache.Cache;
 import fr.sethlans.core.natives.cache.CacheableNativeBuilder;
@@ -37,6 +44,7 @@ import fr.sethlans.core.render.vk.mesh.VertexInputState;
 import fr.sethlans.core.render.vk.mesh.VulkanMesh;
 import fr.sethlans.core.render.vk.pass.RenderPass;
 import fr.sethlans.core.render.vk.shader.ShaderModule;
+import fr.sethlans.core.render.vk.shader.ShaderCompilationService;
 import fr.sethlans.core.render.vk.util.VkFlag;
 import fr.sethlans.core.render.vk.util.VkRenderState;
 import fr.sethlans.core.render.vk.util.VkUtil;
@@ -78,6 +86,18 @@ public class GraphicsPipeline extends AbstractPipeline {
     private final List<PipelineColorBlendAttachment> colorBlendAttachments = new ArrayList<>();
 
     private final EnumSet<DynamicState> dynamicStates = EnumSet.noneOf(DynamicState.class);
+
+    /**
+     * The state subsets defined by the pipeline if it's a library, or empty for an
+     * executable pipeline.
+     */
+    private VkFlag<LibraryPart> libraryParts = VkFlag.empty();
+
+    /**
+     * The libraries the pipeline is linked from, or empty to create it from its
+     * own state.
+     */
+    private final List<GraphicsPipeline> libraries = new ArrayList<>();
     
     protected GraphicsPipeline(LogicalDevice logicalDevice, PipelineLayout layout) {
         super(logicalDevice, BindPoint.GRAPHICS, layout);
@@ -90,13 +110,32 @@ public class GraphicsPipeline extends AbstractPipeline {
     public boolean isDynamic(DynamicState state) {
         return dynamicStates.contains(state);
     }
+
+    /**
+     * Return whether the pipeline is a graphics pipeline library, which can't be
+     * bound but only linked into executable pipelines.
+     * 
+     * @return Whether the pipeline is a library.
+     */
+    public boolean isLibrary() {
+        return !libraryParts.isEmpty();
+    }
+
+    public VkFlag<LibraryPart> getLibraryParts() {
+        return libraryParts;
+    }
     
+    @Override
+    public Collection<ShaderModule> getShaderModules() {
+        return Collections.unmodifiableCollection(shaders);
+    }
+
     @Override
     public int hashCode() {
         var result = Objects.hash(createFlags, colorAttachmentFormat, depthAttachmentFormat, 
                 dynamicStates, parent, pipelineCache, primitiveRestart, rasterizationState, 
-                multisampleState, depthStencilState, renderPass, shaders, topology, 
-                Arrays.hashCode(blendConstants), colorBlendAttachments);
+                multisampleState, depthStencilState, renderPass, shaders, topology, vertexInput,
+                Arrays.hashCode(blendConstants), colorBlendAttachments, libraryParts.bits(), libraries);
         result = !logicOpEnable ? result : Objects.hash(result, logicOp);
         return result;
     }
@@ -126,7 +165,9 @@ public class GraphicsPipeline extends AbstractPipeline {
                 && Objects.equals(multisampleState, other.multisampleState)
                 && Objects.equals(depthStencilState, other.depthStencilState)
                 && Objects.equals(renderPass, other.renderPass)
-                && Objects.equals(shaders, other.shaders) && topology == other.topology;
+                && Objects.equals(shaders, other.shaders) && topology == other.topology
+                && Objects.equals(vertexInput, other.vertexInput)
+                && libraryParts.is(other.libraryParts) && Objects.equals(libraries, other.libraries);
     }
 
     @Override
@@ -138,7 +179,8 @@ public class GraphicsPipeline extends AbstractPipeline {
                 + ", multisampleState=" + multisampleState + ", depthStencilState=" + depthStencilState
                 + ", logicOpEnable=" + logicOpEnable + ", logicOp=" + logicOp + ", blendConstants="
                 + Arrays.toString(blendConstants) + ", colorBlendAttachments=" + colorBlendAttachments
-                + ", dynamicStates=" + dynamicStates + "]";
+                + ", dynamicStates=" + dynamicStates + ", libraryParts=" + libraryParts + ", libraries="
+                + libraries.size() + "]";
     }
 
     public static GraphicsPipeline build(LogicalDevice logicalDevice, PipelineLayout layout, Consumer<Builder> config) {
@@ -147,7 +189,7 @@ public class GraphicsPipeline extends AbstractPipeline {
         return b.build();
     }
 
-    public class Builder extends CacheableNativeBuilder<Long, Pipeline, GraphicsPipeline> {
+    public class Builder extends CacheableNativeBuilder<Pipeline, Pipeline, GraphicsPipeline> {
 
         @Override
         protected void construct(MemoryStack stack) {
@@ -166,6 +208,13 @@ public class GraphicsPipeline extends AbstractPipeline {
         }
         
         protected VkGraphicsPipelineCreateInfo.Buffer createPipelineInfo(MemoryStack stack) {
+            if (!libraries.isEmpty()) {
+                return createLinkInfo(stack);
+            }
+            if (!libraryParts.isEmpty()) {
+                return createLibraryInfo(stack);
+            }
+
             var createInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
                     .sType(VK10.VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO)
                     .flags(createFlags.addIf(parent != null, Create.DERIVATIVE).bits())
@@ -196,6 +245,80 @@ public class GraphicsPipeline extends AbstractPipeline {
             return createInfo;
         }
         
+        /**
+         * Describe a pipeline linked from its libraries, which define all of its
+         * state.
+         */
+        protected VkGraphicsPipelineCreateInfo.Buffer createLinkInfo(MemoryStack stack) {
+            var pLibraries = stack.mallocLong(libraries.size());
+            for (var library : libraries) {
+                pLibraries.put(library.handle());
+            }
+            pLibraries.flip();
+
+            var libraryInfo = VkPipelineLibraryCreateInfoKHR.calloc(stack)
+                    .sType(KHRPipelineLibrary.VK_STRUCTURE_TYPE_PIPELINE_LIBRARY_CREATE_INFO_KHR)
+                    .pLibraries(pLibraries);
+
+            var createInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                    .sType(VK10.VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO)
+                    .pNext(libraryInfo)
+                    .flags(createFlags.bits())
+                    .layout(getLayout().handle());
+
+            return createInfo;
+        }
+
+        /**
+         * Describe a library defining only the state of its parts.
+         */
+        protected VkGraphicsPipelineCreateInfo.Buffer createLibraryInfo(MemoryStack stack) {
+            var libraryInfo = VkGraphicsPipelineLibraryCreateInfoEXT.calloc(stack)
+                    .sType(EXTGraphicsPipelineLibrary.VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_LIBRARY_CREATE_INFO_EXT)
+                    .flags(libraryParts.bits());
+
+            // Retain the link-time optimization info, so that an optimized pipeline can be linked later.
+            var createInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                    .sType(VK10.VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO)
+                    .pNext(libraryInfo)
+                    .flags(createFlags.add(Create.LIBRARY).add(Create.RETAIN_LINK_TIME_OPTIMIZATION_INFO).bits())
+                    .pDynamicState(createDynamicStateInfo(stack));
+
+            if (libraryParts.contains(LibraryPart.VERTEX_INPUT)) {
+                createInfo.pVertexInputState(createVertexInputStateInfo(stack))
+                        .pInputAssemblyState(createInputAssemblyStateInfo(stack));
+            }
+            if (libraryParts.contains(LibraryPart.PRE_RASTERIZATION)) {
+                createInfo.pViewportState(createViewportStateInfo(stack))
+                        .pRasterizationState(createRasterizationStateInfo(stack));
+            }
+            if (libraryParts.contains(LibraryPart.FRAGMENT_SHADER)) {
+                createInfo.pDepthStencilState(createDepthStencilStateInfo(stack))
+                        .pMultisampleState(createMultisampleStateInfo(stack));
+            }
+            if (libraryParts.contains(LibraryPart.FRAGMENT_OUTPUT)) {
+                createInfo.pColorBlendState(createColorBlendStateInfo(stack))
+                        .pMultisampleState(createMultisampleStateInfo(stack));
+            }
+
+            var shaderParts = libraryParts.contains(LibraryPart.PRE_RASTERIZATION)
+                    || libraryParts.contains(LibraryPart.FRAGMENT_SHADER);
+            if (shaderParts) {
+                createInfo.pStages(createShaderStageInfo(stack))
+                        .layout(getLayout().handle());
+            }
+
+            if (shaderParts || libraryParts.contains(LibraryPart.FRAGMENT_OUTPUT)) {
+                if (renderPass == null) {
+                    libraryInfo.pNext(createPipelineRenderingInfo(stack).address());
+                } else {
+                    createInfo.renderPass(renderPass.handle());
+                }
+            }
+
+            return createInfo;
+        }
+        
         protected VkPipelineShaderStageCreateInfo.Buffer createShaderStageInfo(MemoryStack stack) {
             var stageCreateInfos = VkPipelineShaderStageCreateInfo.calloc(shaders.size(), stack);
             for (ShaderModule shader : shaders) {
@@ -355,25 +478,79 @@ public class GraphicsPipeline extends AbstractPipeline {
             return GraphicsPipeline.this;
         }
         
-        public void apply(VulkanMesh mesh, MaterialPass materialPass, Cache<Long, ShaderModule> shaderCache) {
+        public void apply(VulkanMesh mesh, MaterialPass materialPass, Cache<ShaderModule, ShaderModule> shaderCache) {
+            apply(mesh, materialPass, shaderCache, null);
+        }
+
+        public void apply(VulkanMesh mesh, MaterialPass materialPass, Cache<ShaderModule, ShaderModule> shaderCache,
+                ShaderCompilationService compilationService) {
+            addShaders(materialPass, shaderCache, compilationService);
+            
+            if (mesh != null) {
+                setTopology(mesh.topology());
+                setVertexInputState(mesh.getVertexInputState());
+            }
+            
+            applyRenderState(materialPass.getRenderState());
+        }
+        
+        /**
+         * Apply the state described by the given key, instead of the current state of
+         * its material pass.
+         * 
+         * @param key                The pipeline key.
+         * @param shaderCache        The cache of shader modules.
+         * @param compilationService The shader compilation service, or null.
+         */
+        public void apply(PipelineKey key, Cache<ShaderModule, ShaderModule> shaderCache,
+                ShaderCompilationService compilationService) {
+            addShaders(key.materialPass(), shaderCache, compilationService);
+
+            if (key.vertexInput() != null) {
+                setTopology(key.topology());
+                setVertexInputState(key.vertexInput());
+            }
+
+            applyRasterizationState(key.rasterizationState());
+            applyMultisampleState(key.multisampleState());
+            applyDepthStencilState(key.depthStencilState());
+            applyColorBlendState(key.colorBlendState());
+            setColorAttachmentFormat(key.colorFormat());
+            setDepthAttachmentFormat(key.depthFormat());
+        }
+
+        private void addShaders(MaterialPass materialPass, Cache<ShaderModule, ShaderModule> shaderCache,
+                ShaderCompilationService compilationService) {
+            addShaders(materialPass, _ -> true, shaderCache, compilationService);
+        }
+
+        /**
+         * Add the shaders of the given types from the material pass, for instance to
+         * create a library of a single part.
+         * 
+         * @param materialPass       The material pass.
+         * @param filter             The filter on the shader types to add.
+         * @param shaderCache        The cache of shader modules.
+         * @param compilationService The shader compilation service, or null.
+         */
+        public void addShaders(MaterialPass materialPass, Predicate<ShaderType> filter,
+                Cache<ShaderModule, ShaderModule> shaderCache, ShaderCompilationService compilationService) {
             var sources = materialPass.getShaderSources();
             Collection<ShaderModule> modules = new ArrayList<>(shaders.size());
             for (var source : sources) {
+                if (!filter.test(source.getKey())) {
+                    continue;
+                }
+
                 modules.add(ShaderModule.build(getLogicalDevice(), b -> {
                     b.setCache(shaderCache);
+                    b.setCompilationService(compilationService);
                     b.setModuleInfo(source.getValue());
                 }));
             }
             shaders.addAll(modules);
-            
-            if (mesh != null) {
-                setTopology(mesh.topology());
-                setVertexInputState(mesh.createVertexInputState());
-            }
-            
-            applyRenderState(materialPass.getRenderState());
         }
-        
+
         public void applyRenderState(RenderState state) {
             applyRasterizationState(state.getRasterizationState());
             applyMultisampleState(state.getMultisampleState());
@@ -450,5 +627,64 @@ public class GraphicsPipeline extends AbstractPipeline {
                 dynamicStates.remove(state);
             }
         }
+
+        /**
+         * Create the pipeline as a library defining only the state of the given parts.
+         * 
+         * @param parts The state subsets of the library.
+         */
+        public void setLibraryParts(VkFlag<LibraryPart> parts) {
+            if (!parts.isEmpty() && !getLogicalDevice().physicalDevice().supportsGraphicsPipelineLibrary()) {
+                throw new IllegalStateException("Graphics pipeline libraries aren't supported by "
+                        + getLogicalDevice().physicalDevice() + "!");
+            }
+            GraphicsPipeline.this.libraryParts = parts;
+        }
+
+        /**
+         * Link the pipeline from the given library, instead of its own state.
+         * 
+         * @param library The library to link.
+         */
+        public void addLibrary(GraphicsPipeline library) {
+            if (!library.isLibrary()) {
+                throw new IllegalArgumentException("Can't link " + library + " which isn't a library!");
+            }
+            GraphicsPipeline.this.libraries.add(library);
+        }
+    }
+
+    /**
+     * The state subsets a graphics pipeline library can define.
+     */
+    public enum LibraryPart implements VkFlag<LibraryPart> {
+
+        /**
+         * The vertex input and input assembly state.
+         */
+        VERTEX_INPUT(EXTGraphicsPipelineLibrary.VK_GRAPHICS_PIPELINE_LIBRARY_VERTEX_INPUT_INTERFACE_BIT_EXT),
+        /**
+         * The pre-rasterization shaders, viewport and rasterization state.
+         */
+        PRE_RASTERIZATION(EXTGraphicsPipelineLibrary.VK_GRAPHICS_PIPELINE_LIBRARY_PRE_RASTERIZATION_SHADERS_BIT_EXT),
+        /**
+         * The fragment shader, depth-stencil and multisample state.
+         */
+        FRAGMENT_SHADER(EXTGraphicsPipelineLibrary.VK_GRAPHICS_PIPELINE_LIBRARY_FRAGMENT_SHADER_BIT_EXT),
+        /**
+         * The color blend and multisample state, and the attachment formats.
+         */
+        FRAGMENT_OUTPUT(EXTGraphicsPipelineLibrary.VK_GRAPHICS_PIPELINE_LIBRARY_FRAGMENT_OUTPUT_INTERFACE_BIT_EXT);
+
+        private final int bits;
+
+        private LibraryPart(int bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public int bits() {
+            return bits;
+        }
     }
 }
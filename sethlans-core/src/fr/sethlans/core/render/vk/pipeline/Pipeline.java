@@ -1,11 +1,16 @@
 package fr.sethlans.core.render.vk.pipeline;
 
+import java.util.Collection;
+
 import fr.sethlans.core.render.vk.device.VulkanResource;
 import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.BindPoint;
+import fr.sethlans.core.render.vk.shader.ShaderModule;
 
 public interface Pipeline extends VulkanResource {
 
     BindPoint getBindPoint();
 
     PipelineLayout getLayout();
+
+    Collection<ShaderModule> getShaderModules();
 }
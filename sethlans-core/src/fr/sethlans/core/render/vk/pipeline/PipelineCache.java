@@ -3,6 +3,7 @@ package fr.sethlans.core.render.vk.pipeline;
 import java.nio.ByteBuffer;
 
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
 
@@ -46,6 +47,38 @@ public class PipelineCache extends AbstractDeviceResource {
         return cacheData;
     }
 
+    /**
+     * Return a copy of the cache data, which may be too large to be allocated on
+     * the stack.
+     * 
+     * @return The cache data.
+     */
+    public byte[] getData() {
+        try (var stack = MemoryStack.stackPush()) {
+            var pCacheSize = stack.mallocPointer(1);
+            while (true) {
+                var err = VK10.vkGetPipelineCacheData(logicalDeviceHandle(), handle(), pCacheSize, null);
+                VkUtil.throwOnFailure(err, "query pipeline cache size");
+
+                var cacheData = MemoryUtil.memAlloc((int) pCacheSize.get(0));
+                try {
+                    err = VK10.vkGetPipelineCacheData(logicalDeviceHandle(), handle(), pCacheSize, cacheData);
+                    if (err == VK10.VK_INCOMPLETE) {
+                        // Pipelines were added to the cache in the meantime, query the new size.
+                        continue;
+                    }
+                    VkUtil.throwOnFailure(err, "get pipeline cache data");
+
+                    var data = new byte[(int) pCacheSize.get(0)];
+                    cacheData.get(0, data);
+                    return data;
+                } finally {
+                    MemoryUtil.memFree(cacheData);
+                }
+            }
+        }
+    }
+
     @Override
     public Runnable createDestroyAction() {
         return () -> {
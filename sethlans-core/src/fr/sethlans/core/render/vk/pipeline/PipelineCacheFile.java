@@ -0,0 +1,261 @@
+package fr.sethlans.core.render.vk.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.lwjgl.system.MemoryUtil;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.device.PhysicalDevice;
+
+/**
+ * Persists the data of a {@link PipelineCache} in a file, so that pipelines
+ * compiled by the driver are reused across runs.
+ * <p>
+ * The data is prefixed with a header identifying the device and driver which
+ * produced it, along with a checksum. A file written by another device or
+ * driver, or a corrupted one, is ignored and an empty cache is created instead.
+ * The file is replaced atomically, so that a crash while saving never leaves a
+ * truncated cache behind.
+ */
+public class PipelineCacheFile implements AutoCloseable {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.pipeline");
+
+    /**
+     * The magic number of a cache file, reading 'SLPC'.
+     */
+    private static final int MAGIC_NUMBER = 0x534C5043;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path path;
+
+    private final int vendorID, deviceID, driverVersion;
+
+    private final byte[] pipelineCacheUUID;
+
+    private ScheduledExecutorService saveExecutor;
+
+    /**
+     * The checksum of the data last loaded or saved, used to skip saving an
+     * unchanged cache.
+     */
+    private long savedChecksum = -1;
+
+    public PipelineCacheFile(Path path, PhysicalDevice physicalDevice) {
+        this.path = path;
+        this.vendorID = physicalDevice.getVendorID();
+        this.deviceID = physicalDevice.getDeviceID();
+        this.driverVersion = physicalDevice.getDriverVersion();
+        this.pipelineCacheUUID = physicalDevice.getPipelineCacheUUID();
+    }
+
+    /**
+     * Create a pipeline cache filled with the data of the file, or an empty one if
+     * the file doesn't exist or can't be used by the device.
+     *
+     * @param logicalDevice The logical device.
+     * @return A new pipeline cache.
+     */
+    public PipelineCache createCache(LogicalDevice logicalDevice) {
+        var data = load();
+        if (data == null) {
+            return new PipelineCache(logicalDevice);
+        }
+
+        var cacheData = MemoryUtil.memAlloc(data.length);
+        try {
+            cacheData.put(0, data);
+            var cache = new PipelineCache(logicalDevice, cacheData);
+            logger.info("Loaded pipeline cache of " + data.length + " bytes from '" + path + "'.");
+            return cache;
+        } catch (RuntimeException ex) {
+            logger.warning("Pipeline cache '" + path + "' was rejected by the driver, starting from an empty cache.");
+            return new PipelineCache(logicalDevice);
+        } finally {
+            MemoryUtil.memFree(cacheData);
+        }
+    }
+
+    private byte[] load() {
+        try (var in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != MAGIC_NUMBER || in.readInt() != FORMAT_VERSION) {
+                logger.warning("Unrecognized pipeline cache file '" + path + "', ignoring it.");
+                return null;
+            }
+
+            var fileVendorID = in.readInt();
+            var fileDeviceID = in.readInt();
+            var fileDriverVersion = in.readInt();
+            var uuid = new byte[pipelineCacheUUID.length];
+            in.readFully(uuid);
+            if (fileVendorID != vendorID || fileDeviceID != deviceID || fileDriverVersion != driverVersion
+                    || !Arrays.equals(uuid, pipelineCacheUUID)) {
+                logger.info("Pipeline cache '" + path + "' was written by another device or driver, ignoring it.");
+                return null;
+            }
+
+            var length = in.readInt();
+            var checksum = in.readLong();
+            if (length < 0) {
+                throw new IOException("Negative pipeline cache length " + length);
+            }
+
+            var data = in.readNBytes(length);
+            if (data.length != length) {
+                throw new EOFException("Truncated pipeline cache data");
+            }
+            if (checksum(data) != checksum) {
+                throw new IOException("Pipeline cache checksum mismatch");
+            }
+
+            savedChecksum = checksum;
+            return data;
+
+        } catch (NoSuchFileException ex) {
+            logger.info("No pipeline cache found at '" + path + "'.");
+            return null;
+        } catch (IOException ex) {
+            logger.error("Corrupted pipeline cache '" + path + "', starting from an empty cache.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Save the data of the given cache, unless it didn't change since it was
+     * last loaded or saved.
+     *
+     * @param pipelineCache The pipeline cache to save.
+     * @return Whether the file was written.
+     */
+    public synchronized boolean save(PipelineCache pipelineCache) {
+        var data = pipelineCache.getData();
+        var checksum = checksum(data);
+        if (checksum == savedChecksum) {
+            return false;
+        }
+
+        try {
+            var bytes = new ByteArrayOutputStream(data.length + 64);
+            try (var out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC_NUMBER);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(vendorID);
+                out.writeInt(deviceID);
+                out.writeInt(driverVersion);
+                out.write(pipelineCacheUUID);
+                out.writeInt(data.length);
+                out.writeLong(checksum);
+                out.write(data);
+            }
+
+            var directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+
+            // Write a temporary file next to the cache, then replace it in one step.
+            var temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                move(temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            savedChecksum = checksum;
+            logger.info("Saved pipeline cache of " + data.length + " bytes to '" + path + "'.");
+            return true;
+
+        } catch (IOException ex) {
+            logger.error("Failed to save pipeline cache to '" + path + "'!", ex);
+            return false;
+        }
+    }
+
+    private void move(Path temp) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Periodically save the given cache from a background thread, until the file
+     * is closed.
+     *
+     * @param pipelineCache The pipeline cache to save.
+     * @param period        The period between two saves.
+     * @param unit          The time unit of the period.
+     */
+    public synchronized void startAutoSave(PipelineCache pipelineCache, long period, TimeUnit unit) {
+        if (saveExecutor != null) {
+            throw new IllegalStateException("Pipeline cache '" + path + "' is already saved periodically!");
+        }
+
+        saveExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "pipeline-cache-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saveExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                save(pipelineCache);
+            } catch (RuntimeException ex) {
+                logger.error("Failed to save pipeline cache to '" + path + "'!", ex);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop saving the cache periodically, waiting for a save in progress.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = saveExecutor;
+            saveExecutor = null;
+        }
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        var crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineCacheFile [path=" + path + "]";
+    }
+}
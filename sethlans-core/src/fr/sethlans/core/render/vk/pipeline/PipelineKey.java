@@ -0,0 +1,198 @@
+package fr.sethlans.core.render.vk.pipeline;
+
+import java.util.Objects;
+
+import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.render.state.RenderState;
+import fr.sethlans.core.render.state.blend.ColorBlendState;
+import fr.sethlans.core.render.state.depth.DepthStencilState;
+import fr.sethlans.core.render.state.multisample.MultisampleState;
+import fr.sethlans.core.render.state.raster.RasterizationState;
+import fr.sethlans.core.render.vk.mesh.VertexInputState;
+import fr.sethlans.core.render.vk.util.VulkanFormat;
+import fr.sethlans.core.scenegraph.mesh.Topology;
+
+/**
+ * The state a pipeline is created from, used to look a pipeline up without
+ * building it.
+ * <p>
+ * The key copies the render state of its material pass, so that a later change
+ * to the pass yields another key instead of altering this one. The states it
+ * returns must not be modified. Its 64-bit hash is computed once, and equal
+ * keys are interned by the {@link PipelineLibrary} so that they mostly compare
+ * by identity. Keys are equal only if all their states are, so two pipelines
+ * never share a Vulkan object because their hashes collide.
+ */
+public final class PipelineKey {
+
+    private final MaterialPass materialPass;
+
+    private final Topology topology;
+
+    private final VertexInputState vertexInput;
+
+    private final RasterizationState rasterizationState;
+
+    private final MultisampleState multisampleState;
+
+    private final DepthStencilState depthStencilState;
+
+    private final ColorBlendState colorBlendState;
+
+    private final VulkanFormat colorFormat, depthFormat;
+
+    private final long hash;
+
+    private PipelineKey(MaterialPass materialPass, Topology topology, VertexInputState vertexInput,
+            RenderState renderState, int sampleCount, VulkanFormat colorFormat, VulkanFormat depthFormat) {
+        this.materialPass = materialPass;
+        this.topology = topology;
+        this.vertexInput = vertexInput;
+        this.colorFormat = colorFormat;
+        this.depthFormat = depthFormat;
+
+        if (renderState != null) {
+            this.rasterizationState = renderState.getRasterizationState().copy();
+            this.multisampleState = renderState.getMultisampleState().copy();
+            this.multisampleState.setSampleCount(sampleCount);
+            this.depthStencilState = renderState.getDepthStencilState().copy();
+            this.colorBlendState = renderState.getColorBlendState().copy();
+        } else {
+            this.rasterizationState = null;
+            this.multisampleState = null;
+            this.depthStencilState = null;
+            this.colorBlendState = null;
+        }
+
+        // The pass itself is compared by identity, it holds the shaders and the layout.
+        var h = mix(0xCBF29CE484222325L, System.identityHashCode(materialPass));
+        h = mix(h, Objects.hashCode(topology));
+        h = mix(h, Objects.hashCode(vertexInput));
+        h = mix(h, Objects.hashCode(rasterizationState));
+        h = mix(h, Objects.hashCode(multisampleState));
+        h = mix(h, Objects.hashCode(depthStencilState));
+        h = mix(h, Objects.hashCode(colorBlendState));
+        h = mix(h, Objects.hashCode(colorFormat));
+        h = mix(h, Objects.hashCode(depthFormat));
+        this.hash = finish(h);
+    }
+
+    /**
+     * Create the key of a graphics pipeline drawing meshes with the given vertex
+     * layout.
+     *
+     * @param materialPass The material pass.
+     * @param topology     The primitive topology of the meshes.
+     * @param vertexInput  The vertex input state of the meshes.
+     * @param sampleCount  The sample count of the render target.
+     * @param colorFormat  The format of the color attachment.
+     * @param depthFormat  The format of the depth attachment.
+     * @return A new key.
+     */
+    public static PipelineKey graphics(MaterialPass materialPass, Topology topology, VertexInputState vertexInput,
+            int sampleCount, VulkanFormat colorFormat, VulkanFormat depthFormat) {
+        return new PipelineKey(materialPass, topology, vertexInput, materialPass.getRenderState(), sampleCount,
+                colorFormat, depthFormat);
+    }
+
+    /**
+     * Create the key of the compute pipeline of the given pass.
+     *
+     * @param materialPass The compute material pass.
+     * @return A new key.
+     */
+    public static PipelineKey compute(MaterialPass materialPass) {
+        return new PipelineKey(materialPass, null, null, null, 0, null, null);
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001B3L;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public boolean isCompute() {
+        return materialPass.isComputePass();
+    }
+
+    public MaterialPass materialPass() {
+        return materialPass;
+    }
+
+    public Topology topology() {
+        return topology;
+    }
+
+    public VertexInputState vertexInput() {
+        return vertexInput;
+    }
+
+    public RasterizationState rasterizationState() {
+        return rasterizationState;
+    }
+
+    public MultisampleState multisampleState() {
+        return multisampleState;
+    }
+
+    public DepthStencilState depthStencilState() {
+        return depthStencilState;
+    }
+
+    public ColorBlendState colorBlendState() {
+        return colorBlendState;
+    }
+
+    public VulkanFormat colorFormat() {
+        return colorFormat;
+    }
+
+    public VulkanFormat depthFormat() {
+        return depthFormat;
+    }
+
+    /**
+     * Return the full 64-bit hash of the key.
+     *
+     * @return The precomputed hash.
+     */
+    public long hash64() {
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof PipelineKey other) || hash != other.hash) {
+            return false;
+        }
+
+        return materialPass == other.materialPass && topology == other.topology
+                && colorFormat == other.colorFormat && depthFormat == other.depthFormat
+                && Objects.equals(vertexInput, other.vertexInput)
+                && Objects.equals(rasterizationState, other.rasterizationState)
+                && Objects.equals(multisampleState, other.multisampleState)
+                && Objects.equals(depthStencilState, other.depthStencilState)
+                && Objects.equals(colorBlendState, other.colorBlendState);
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineKey [materialPass=" + materialPass.getFullName() + ", topology=" + topology
+                + ", colorFormat=" + colorFormat + ", depthFormat=" + depthFormat + ", hash="
+                + Long.toHexString(hash) + "]";
+    }
+}
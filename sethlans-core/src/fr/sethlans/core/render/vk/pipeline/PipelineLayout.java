@@ -3,7 +3,9 @@ package fr.sethlans.core.render.vk.pipeline;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import org.lwjgl.system.MemoryStack;
@@ -18,8 +20,10 @@ import fr.sethlans.core.natives.NativeResource;
 import fr.sethlans.core.natives.cache.CacheableNativeBuilder;
 import fr.sethlans.core.render.device.DeviceLimit;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayout;
+import fr.sethlans.core.render.vk.descriptor.DescriptorUpdateTemplate;
 import fr.sethlans.core.render.vk.device.AbstractDeviceResource;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.BindPoint;
 import fr.sethlans.core.render.vk.util.VkShader;
 import fr.sethlans.core.render.vk.util.VkUtil;
 
@@ -33,6 +37,13 @@ public class PipelineLayout extends AbstractDeviceResource {
     
     private int pushConstantBytes;
 
+    /**
+     * The update templates of the push descriptor sets, indexed by bind point and
+     * set index. They're created lazily while recording, possibly on several
+     * threads.
+     */
+    private final Map<Integer, DescriptorUpdateTemplate> pushTemplates = new ConcurrentHashMap<>();
+
     protected PipelineLayout(LogicalDevice logicalDevice) {
         super(logicalDevice);
     }
@@ -49,6 +60,20 @@ public class PipelineLayout extends AbstractDeviceResource {
         return pushConstantBytes;
     }
 
+    /**
+     * Return the update template used to push the descriptors of the given set,
+     * creating it if needed.
+     * 
+     * @param set       The index of the set, which must have a push descriptor
+     *                  layout.
+     * @param bindPoint The pipeline bind point.
+     * @return The push descriptor update template.
+     */
+    public DescriptorUpdateTemplate getPushDescriptorTemplate(int set, BindPoint bindPoint) {
+        return pushTemplates.computeIfAbsent(set * BindPoint.values().length + bindPoint.ordinal(),
+                _ -> new DescriptorUpdateTemplate(getLogicalDevice(), layouts.get(set), this, bindPoint, set));
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(layouts, pushConstants);
@@ -87,7 +112,7 @@ public class PipelineLayout extends AbstractDeviceResource {
         return b.build();
     }
 
-    public class Builder extends CacheableNativeBuilder<Long, PipelineLayout, PipelineLayout> {
+    public class Builder extends CacheableNativeBuilder<PipelineLayout, PipelineLayout, PipelineLayout> {
 
         @Override
         protected void construct(MemoryStack stack) {
@@ -98,8 +123,8 @@ public class PipelineLayout extends AbstractDeviceResource {
                     : null;
             var physicalDevice = getLogicalDevice().physicalDevice();
             var maxPush = physicalDevice.getIntLimit(DeviceLimit.MAX_PUSH_CONSTANT_SIZE);
+            pushConstantBytes = 0;
             for (var i = 0; i < numPushConstantLayouts; ++i) {
-                pushConstantBytes = 0;
                 var pc = pushConstants.get(i);
                 var pushSize = pc.size().getBytes();
                 if (pushSize > maxPush) {
@@ -113,7 +138,8 @@ public class PipelineLayout extends AbstractDeviceResource {
                         .stageFlags(VkShader.getShaderStages(pc.shaderTypes()).bits())
                         .offset((int) pc.size().getOffset())
                         .size((int) pushSize);
-                pushConstantBytes += pushSize;
+                // Ranges may be sparse, so cover up to the end of the furthest one.
+                pushConstantBytes = (int) Math.max(pushConstantBytes, pc.size().getOffset() + pushSize);
             }
 
             // Define descriptor-set layouts.
@@ -1,29 +1,132 @@
 package fr.sethlans.core.render.vk.pipeline;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
 import fr.sethlans.core.material.MaterialLayout;
 import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.material.MaterialPass.ShaderType;
+import fr.sethlans.core.material.layout.BindingLayout;
 import fr.sethlans.core.material.layout.BindingType;
 import fr.sethlans.core.natives.cache.Cache;
+import fr.sethlans.core.render.device.DeviceFeature;
+import fr.sethlans.core.render.state.blend.ColorBlendState;
+import fr.sethlans.core.render.state.depth.DepthStencilState;
+import fr.sethlans.core.render.state.multisample.MultisampleState;
+import fr.sethlans.core.render.state.raster.RasterizationState;
+import fr.sethlans.core.render.struct.GpuStructLayout;
+import fr.sethlans.core.render.struct.GpuStructLayout.LayoutType;
+import fr.sethlans.core.render.struct.foreign.ForeignStructLayout;
+import fr.sethlans.core.render.vk.context.VulkanGraphicsBackend;
 import fr.sethlans.core.render.vk.descriptor.DescriptorSetLayout;
 import fr.sethlans.core.render.vk.descriptor.DescriptorType;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.mesh.VertexInputState;
 import fr.sethlans.core.render.vk.mesh.VulkanMesh;
 import fr.sethlans.core.render.vk.pass.RenderPass;
+import fr.sethlans.core.render.vk.pipeline.AbstractPipeline.Create;
+import fr.sethlans.core.render.vk.pipeline.GraphicsPipeline.LibraryPart;
 import fr.sethlans.core.render.vk.shader.ShaderModule;
+import fr.sethlans.core.render.vk.shader.ShaderCompilationService;
 import fr.sethlans.core.render.vk.swapchain.SwapChain;
+import fr.sethlans.core.render.vk.util.VkFlag;
+import fr.sethlans.core.render.vk.util.VulkanFormat;
+import fr.sethlans.core.scenegraph.mesh.Topology;
 
 public class PipelineLibrary {
 
-    private final Cache<Long, Pipeline> inMemPipelineCache = new Cache<>(p -> (long) p.hashCode());
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.pipeline");
+
+    // Key the caches on the objects themselves, so that colliding hashes are told apart by equality.
+    private final Cache<Pipeline, Pipeline> inMemPipelineCache = new Cache<>(p -> p);
+
+    private final Cache<ShaderModule, ShaderModule> shaderCache = new Cache<>(s -> s);
+
+    private final Cache<PipelineLayout, PipelineLayout> pipelineLayoutCache = new Cache<>(s -> s);
+
+    private final Cache<DescriptorSetLayout, DescriptorSetLayout> descSetLayoutCache = new Cache<>(s -> s);
+
+    /**
+     * The canonical instance of each pipeline key, only kept while its pipeline
+     * is compiling or ready.
+     */
+    private final Map<PipelineKey, PipelineKey> internedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * The struct layouts written to the blocks bound under a given binding name.
+     */
+    private final Map<String, GpuStructLayout> structLayouts = new HashMap<>();
+
+    private final Set<Pipeline> validatedPipelines = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /**
+     * The pipelines being compiled in the background, picked up by
+     * {@link #update()}.
+     */
+    private final Map<PipelineKey, CompletableFuture<Pipeline>> pendingPipelines = new ConcurrentHashMap<>();
+
+    /**
+     * The pipelines ready to be drawn with, only accessed by the rendering
+     * thread.
+     */
+    private final Map<PipelineKey, Pipeline> readyPipelines = new HashMap<>();
+
+    private final AtomicInteger pendingCompiles = new AtomicInteger(), completedCompiles = new AtomicInteger();
 
-    private final Cache<Long, ShaderModule> shaderCache = new Cache<>(s -> (long) s.hashCode());
+    private final AtomicLong totalCompileNanos = new AtomicLong(), maxCompileNanos = new AtomicLong();
 
-    private final Cache<Long, PipelineLayout> pipelineLayoutCache = new Cache<>(s -> (long) s.hashCode());
+    private ExecutorService compileExecutor;
 
-    private final Cache<Long, DescriptorSetLayout> descSetLayoutCache = new Cache<>(s -> (long) s.hashCode());
+    /**
+     * Whether graphics pipelines are linked from separately compiled libraries.
+     */
+    private boolean linkLibraries = false;
+
+    /**
+     * The graphics pipeline libraries, keyed on the subset of the pipeline state
+     * they're compiled from, so that a part is shared by every pipeline using the
+     * same state.
+     */
+    private final Map<Object, CompletableFuture<GraphicsPipeline>> libraryParts = new ConcurrentHashMap<>();
+
+    /**
+     * The link-time optimized pipelines being linked in the background, swapped
+     * with their fast-linked pipeline by {@link #update()}.
+     */
+    private final Map<PipelineKey, CompletableFuture<Pipeline>> optimizedPipelines = new ConcurrentHashMap<>();
+
+    /**
+     * The fast-linked pipelines replaced by an optimized one, destroyed once no
+     * frame in flight uses them anymore.
+     */
+    private final List<RetiredPipeline> retiredPipelines = new ArrayList<>();
+
+    /**
+     * Incremented whenever resolved pipelines may no longer match their material
+     * pass, to invalidate the pipelines memoized by callers.
+     */
+    private int generation = 0;
 
     private PipelineCache pipelineCache;
 
+    private ShaderCompilationService compilationService;
+
     private RenderPass renderPass;
 
     private SwapChain swapChain;
@@ -40,8 +143,13 @@ public class PipelineLibrary {
             b.addPushConstants(layout.pushConstantLayouts());
 
             for (var setLayout : layout.setLayouts()) {
+                // Sets of builtins are shared between materials, so only push material owned sets.
+                var push = layout.isPushDescriptorSet(setLayout.getKey())
+                        && setLayout.getValue().stream().noneMatch(BindingLayout::builtin)
+                        && device.physicalDevice().supportsFeature(DeviceFeature.PUSH_DESCRIPTOR);
                 b.addBindingLayout(c -> {
                     c.setCache(descSetLayoutCache);
+                    c.setPushDescriptor(push);
                     for (var bindingLayout : setLayout.getValue()) {
                         c.addBinding(bindingLayout);
                     }
@@ -57,34 +165,561 @@ public class PipelineLibrary {
         
         var pipeline = ComputePipeline.build(logicalDevice, pipelineLayout, b -> {
             b.setCache(inMemPipelineCache);
-            b.apply(materialPass.getComputeShader(), shaderCache);
+            b.apply(materialPass.getComputeShader(), shaderCache, compilationService);
         });
+
+        validateStructLayouts(logicalDevice, pipeline, materialPass.getLayout());
         return pipeline;
     }
 
     public GraphicsPipeline getOrCreate(LogicalDevice device, VulkanMesh mesh, MaterialPass materialPass) {
+        return getOrCreate(device, keyOf(mesh, materialPass));
+    }
 
+    private GraphicsPipeline getOrCreate(LogicalDevice device, PipelineKey key) {
+        var materialPass = key.materialPass();
         var pipelineLayout = getOrCreate(device, materialPass.getLayout());
 
-        // TODO: enforce render state.
-        materialPass.getRenderState().getMultisampleState().setSampleCount(swapChain.sampleCount());
-        
         var pipeline = GraphicsPipeline.build(device, pipelineLayout, b -> {
-            b.apply(mesh, materialPass, shaderCache);
+            b.apply(key, shaderCache, compilationService);
             b.setRenderPass(renderPass);
             b.setPipelineCache(pipelineCache);
             b.setCache(inMemPipelineCache);
             b.setDynamic(DynamicState.VIEWPORT, true);
             b.setDynamic(DynamicState.SCISSOR, true);
-            b.setColorAttachmentFormat(swapChain.imageFormat());
-            b.setDepthAttachmentFormat(swapChain.depthFormat());
-            // TODO: enforce render state.
-            // b.setSampleCount(swapChain.sampleCount());
         });
 
+        validateStructLayouts(device, pipeline, materialPass.getLayout());
+        return pipeline;
+    }
+
+    /**
+     * Return the interned key of the pipeline drawing the given mesh with the pass
+     * in the swap-chain.
+     * 
+     * @param mesh         The mesh to draw, or null for a compute pass.
+     * @param materialPass The material pass.
+     * @return The canonical pipeline key.
+     */
+    public PipelineKey keyOf(VulkanMesh mesh, MaterialPass materialPass) {
+        var key = materialPass.isComputePass() ? PipelineKey.compute(materialPass)
+                : PipelineKey.graphics(materialPass, mesh != null ? mesh.topology() : null,
+                        mesh != null ? mesh.getVertexInputState() : null, swapChain.sampleCount(),
+                        swapChain.imageFormat(), swapChain.depthFormat());
+
+        var interned = internedKeys.putIfAbsent(key, key);
+        return interned != null ? interned : key;
+    }
+
+    /**
+     * Return the compute pipeline of the given pass if it's ready, or start
+     * compiling it in the background.
+     * 
+     * @param logicalDevice The logical device.
+     * @param materialPass  The compute material pass.
+     * @return The ready pipeline, or null if it's still compiling.
+     */
+    public Pipeline getIfReady(LogicalDevice logicalDevice, MaterialPass materialPass) {
+        return getIfReady(logicalDevice, null, materialPass);
+    }
+
+    /**
+     * Return the pipeline drawing the given mesh with the pass if it's ready, or
+     * start compiling it in the background. A pipeline compiled in the
+     * background is only returned once picked up by {@link #update()}, so that
+     * the whole frame sees the same pipelines. Without background compilation,
+     * the pipeline is created right away.
+     * 
+     * @param device       The logical device.
+     * @param mesh         The mesh to draw, or null for a compute pass.
+     * @param materialPass The material pass.
+     * @return The ready pipeline, or null if it's still compiling.
+     */
+    public Pipeline getIfReady(LogicalDevice device, VulkanMesh mesh, MaterialPass materialPass) {
+        return getIfReady(device, keyOf(mesh, materialPass));
+    }
+
+    /**
+     * Return the pipeline of the given key if it's ready, or start compiling it in
+     * the background.
+     * 
+     * @param device The logical device.
+     * @param key    The pipeline key.
+     * @return The ready pipeline, or null if it's still compiling.
+     * @see #getIfReady(LogicalDevice, VulkanMesh, MaterialPass)
+     */
+    public Pipeline getIfReady(LogicalDevice device, PipelineKey key) {
+        var pipeline = readyPipelines.get(key);
+        if (pipeline != null) {
+            return pipeline;
+        }
+
+        if (compileExecutor == null) {
+            pipeline = compile(device, key);
+            readyPipelines.put(key, pipeline);
+            return pipeline;
+        }
+
+        if (canLink(key) && !pendingPipelines.containsKey(key)) {
+            // Linking compiled parts only takes a fraction of a millisecond, so don't wait for a worker.
+            var parts = readyParts(key);
+            if (parts != null) {
+                pipeline = fastLink(device, key, parts);
+                readyPipelines.put(key, pipeline);
+                return pipeline;
+            }
+        }
+
+        pendingPipelines.computeIfAbsent(key, r -> {
+            pendingCompiles.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compile(device, r);
+                } finally {
+                    pendingCompiles.decrementAndGet();
+                }
+            }, compileExecutor);
+        });
+        return null;
+    }
+
+    /**
+     * Pick up the pipelines compiled in the background since the last call, to be
+     * called by the rendering thread at the start of a frame.
+     * 
+     * @return The number of pipelines which became ready.
+     * @throws RuntimeException If a pipeline failed to compile.
+     */
+    public int update() {
+        for (var it = retiredPipelines.iterator(); it.hasNext();) {
+            var retired = it.next();
+            if (--retired.framesLeft <= 0) {
+                retired.pipeline.getNativeReference().destroy();
+                it.remove();
+            }
+        }
+
+        var count = 0;
+        for (var it = pendingPipelines.entrySet().iterator(); it.hasNext();) {
+            var entry = it.next();
+            if (!entry.getValue().isDone()) {
+                continue;
+            }
+
+            it.remove();
+            try {
+                readyPipelines.put(entry.getKey(), entry.getValue().join());
+                count++;
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw ex;
+            }
+        }
+
+        // Only swap pipelines which were picked up, the optimized one may finish first.
+        for (var it = optimizedPipelines.entrySet().iterator(); it.hasNext();) {
+            var entry = it.next();
+            var fastLinked = readyPipelines.get(entry.getKey());
+            if (!entry.getValue().isDone() || fastLinked == null) {
+                continue;
+            }
+
+            it.remove();
+            try {
+                readyPipelines.put(entry.getKey(), entry.getValue().join());
+                retiredPipelines.add(new RetiredPipeline(fastLinked));
+                // Have callers resolve the optimized pipeline instead of the memoized one.
+                generation++;
+
+            } catch (CompletionException ex) {
+                logger.error("Failed to link optimized pipeline of " + entry.getKey().materialPass().getFullName()
+                        + ", keeping the fast-linked pipeline.", ex.getCause());
+            }
+        }
+
+        evictInternedKeys();
+        return count;
+    }
+
+    /**
+     * Forget the interned keys without a pipeline, like the ones of a previous
+     * swap-chain format or of a pipeline only created on demand, so that they
+     * don't keep their material pass reachable.
+     */
+    private void evictInternedKeys() {
+        if (internedKeys.size() <= readyPipelines.size() + pendingPipelines.size()) {
+            return;
+        }
+
+        internedKeys.keySet().removeIf(k -> !readyPipelines.containsKey(k) && !pendingPipelines.containsKey(k)
+                && !optimizedPipelines.containsKey(k));
+    }
+
+    private Pipeline compile(LogicalDevice device, PipelineKey key) {
+        var start = System.nanoTime();
+        Pipeline pipeline;
+        if (key.isCompute()) {
+            pipeline = getOrCreate(device, key.materialPass());
+        } else if (canLink(key)) {
+            pipeline = compileParts(device, key);
+        } else {
+            pipeline = getOrCreate(device, key);
+        }
+
+        var elapsed = System.nanoTime() - start;
+        totalCompileNanos.addAndGet(elapsed);
+        maxCompileNanos.accumulateAndGet(elapsed, Math::max);
+        completedCompiles.incrementAndGet();
+
+        logger.info("Compiled pipeline of " + key.materialPass().getFullName() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms on " + Thread.currentThread().getName() + ".");
         return pipeline;
     }
 
+    private boolean canLink(PipelineKey key) {
+        return linkLibraries && !key.isCompute() && key.vertexInput() != null;
+    }
+
+    /**
+     * Compile the missing library parts of the given pipeline and link them. In
+     * the background, the parts are quickly linked without optimization while an
+     * optimized pipeline is linked to replace it.
+     */
+    private Pipeline compileParts(LogicalDevice device, PipelineKey key) {
+        var materialPass = key.materialPass();
+        var pipelineLayout = getOrCreate(device, materialPass.getLayout());
+
+        var parts = new ArrayList<GraphicsPipeline>(4);
+        var partKeys = partKeysOf(key);
+        for (var i = 0; i < partKeys.length; ++i) {
+            parts.add(getOrCreatePart(device, partKeys[i], LibraryPart.values()[i], key, pipelineLayout));
+        }
+
+        // The linked pipeline has no shaders of its own, so validate the parts instead.
+        validateStructLayouts(device, parts.get(1), materialPass.getLayout());
+        validateStructLayouts(device, parts.get(2), materialPass.getLayout());
+
+        if (compileExecutor == null) {
+            return link(device, key, parts, true);
+        }
+
+        return fastLink(device, key, parts);
+    }
+
+    private Pipeline fastLink(LogicalDevice device, PipelineKey key, List<GraphicsPipeline> parts) {
+        var pipeline = link(device, key, parts, false);
+        optimizedPipelines.computeIfAbsent(key,
+                k -> CompletableFuture.supplyAsync(() -> link(device, k, parts, true), compileExecutor));
+        return pipeline;
+    }
+
+    private GraphicsPipeline link(LogicalDevice device, PipelineKey key, List<GraphicsPipeline> parts,
+            boolean optimize) {
+        var pipelineLayout = getOrCreate(device, key.materialPass().getLayout());
+
+        // Linked pipelines aren't cached, since a fast-linked one is destroyed once its optimized one is ready.
+        return GraphicsPipeline.build(device, pipelineLayout, b -> {
+            b.setPipelineCache(pipelineCache);
+            b.setCreateFlags(optimize ? Create.LINK_TIME_OPTIMIZATION : VkFlag.empty());
+            b.setDynamic(DynamicState.VIEWPORT, true);
+            b.setDynamic(DynamicState.SCISSOR, true);
+            for (var part : parts) {
+                b.addLibrary(part);
+            }
+        });
+    }
+
+    /**
+     * Return the library parts of the given pipeline if they're all compiled, or
+     * null.
+     */
+    private List<GraphicsPipeline> readyParts(PipelineKey key) {
+        var parts = new ArrayList<GraphicsPipeline>(4);
+        for (var partKey : partKeysOf(key)) {
+            var part = libraryParts.get(partKey);
+            if (part == null || !part.isDone() || part.isCompletedExceptionally()) {
+                return null;
+            }
+            parts.add(part.join());
+        }
+
+        return parts;
+    }
+
+    private GraphicsPipeline getOrCreatePart(LogicalDevice device, Object partKey, LibraryPart part,
+            PipelineKey key, PipelineLayout pipelineLayout) {
+        var existing = libraryParts.get(partKey);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        // Claim the part first, so that a concurrent compilation waits for this one instead of repeating it.
+        var created = new CompletableFuture<GraphicsPipeline>();
+        existing = libraryParts.putIfAbsent(partKey, created);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            var library = createPart(device, part, key, pipelineLayout);
+            created.complete(library);
+            return library;
+        } catch (RuntimeException ex) {
+            libraryParts.remove(partKey, created);
+            created.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private GraphicsPipeline createPart(LogicalDevice device, LibraryPart part, PipelineKey key,
+            PipelineLayout pipelineLayout) {
+        var materialPass = key.materialPass();
+        // The interface parts don't depend on the material, so they're shared without a layout.
+        var shaderPart = part == LibraryPart.PRE_RASTERIZATION || part == LibraryPart.FRAGMENT_SHADER;
+
+        return GraphicsPipeline.build(device, shaderPart ? pipelineLayout : null, b -> {
+            b.setLibraryParts(part);
+            b.setRenderPass(renderPass);
+            b.setPipelineCache(pipelineCache);
+            b.setColorAttachmentFormat(key.colorFormat());
+            b.setDepthAttachmentFormat(key.depthFormat());
+            b.setDynamic(DynamicState.VIEWPORT, true);
+            b.setDynamic(DynamicState.SCISSOR, true);
+
+            switch (part) {
+            case VERTEX_INPUT:
+                b.setTopology(key.topology());
+                b.setVertexInputState(key.vertexInput());
+                break;
+            case PRE_RASTERIZATION:
+                b.addShaders(materialPass, t -> t != ShaderType.FRAGMENT, shaderCache, compilationService);
+                b.applyRasterizationState(key.rasterizationState());
+                break;
+            case FRAGMENT_SHADER:
+                b.addShaders(materialPass, t -> t == ShaderType.FRAGMENT, shaderCache, compilationService);
+                b.applyDepthStencilState(key.depthStencilState());
+                b.applyMultisampleState(key.multisampleState());
+                break;
+            case FRAGMENT_OUTPUT:
+                b.applyColorBlendState(key.colorBlendState());
+                b.applyMultisampleState(key.multisampleState());
+                break;
+            }
+        });
+    }
+
+    /**
+     * Return the keys of the library parts of the given pipeline, in the order of
+     * {@link LibraryPart}.
+     */
+    private static Object[] partKeysOf(PipelineKey key) {
+        return new Object[] { 
+                new VertexInputPart(key.topology(), key.vertexInput()),
+                new PreRasterizationPart(key.materialPass(), key.rasterizationState(), key.colorFormat(),
+                        key.depthFormat()),
+                new FragmentShaderPart(key.materialPass(), key.depthStencilState(), key.multisampleState(),
+                        key.colorFormat(), key.depthFormat()),
+                new FragmentOutputPart(key.colorBlendState(), key.multisampleState(), key.colorFormat(),
+                        key.depthFormat()) };
+    }
+
+    /**
+     * Link graphics pipelines from separately compiled libraries, so that a new
+     * combination of already compiled states is linked instead of compiled from
+     * scratch.
+     * 
+     * @param enable Whether to link pipelines from libraries.
+     */
+    public void setGraphicsPipelineLibrary(boolean enable) {
+        this.linkLibraries = enable;
+    }
+
+    /**
+     * Compile the pipelines requested by {@link #getIfReady} on background
+     * threads, instead of the rendering thread.
+     * 
+     * @param threadCount The number of compiling threads.
+     */
+    public void startAsyncCompilation(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be strictly positive, but got " + threadCount);
+        }
+        if (compileExecutor != null) {
+            throw new IllegalStateException("Pipelines are already compiled in the background!");
+        }
+
+        var threadIndex = new AtomicInteger();
+        this.compileExecutor = Executors.newFixedThreadPool(threadCount, r -> {
+            var thread = new Thread(r, "pipeline-compiler-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop compiling pipelines in the background, waiting for the compilations in
+     * progress.
+     */
+    public void shutdown() {
+        if (compileExecutor == null) {
+            return;
+        }
+
+        compileExecutor.shutdown();
+        try {
+            compileExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        compileExecutor = null;
+        pendingPipelines.clear();
+        optimizedPipelines.clear();
+    }
+
+    /**
+     * Notify that the render state of material passes changed, so that the
+     * pipelines memoized by callers are resolved again.
+     */
+    public void invalidate() {
+        generation++;
+    }
+
+    /**
+     * Return the generation of the resolved pipelines, which changes when the
+     * pipelines memoized by callers must be resolved again.
+     * 
+     * @return The current generation.
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Return the number of pipelines still compiling in the background.
+     * 
+     * @return The number of pending compiles.
+     */
+    public int pendingCompileCount() {
+        return pendingCompiles.get();
+    }
+
+    /**
+     * Return the number of pipelines compiled through {@link #getIfReady},
+     * whether in the background or not.
+     * 
+     * @return The number of completed compiles.
+     */
+    public int completedCompileCount() {
+        return completedCompiles.get();
+    }
+
+    public long totalCompileTime(TimeUnit unit) {
+        return unit.convert(totalCompileNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long maxCompileTime(TimeUnit unit) {
+        return unit.convert(maxCompileNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the service compiling the shaders of the created pipelines.
+     * 
+     * @param compilationService The compilation service, or null to compile shaders
+     *                           on the calling thread.
+     */
+    public void setCompilationService(ShaderCompilationService compilationService) {
+        this.compilationService = compilationService;
+    }
+
+    /**
+     * Register the struct layout written to the blocks bound under the given name,
+     * so that its offsets are checked against the shaders of each created
+     * pipeline.
+     * 
+     * @param bindingName The name of the binding.
+     * @param layout      The struct layout of the block.
+     */
+    public void registerStructLayout(String bindingName, GpuStructLayout layout) {
+        structLayouts.put(bindingName, layout);
+    }
+
+    private void validateStructLayouts(LogicalDevice device, Pipeline pipeline, MaterialLayout layout) {
+        if (structLayouts.isEmpty() || !validatedPipelines.add(pipeline)) {
+            return;
+        }
+
+        List<String> mismatches = new ArrayList<>();
+        for (var setLayout : layout.setLayouts()) {
+            for (var bindingLayout : setLayout.getValue()) {
+                var structLayout = structLayouts.get(bindingLayout.name());
+                if (structLayout == null) {
+                    continue;
+                }
+
+                if (structLayout.type() == LayoutType.SCALAR
+                        && !device.physicalDevice().supportsFeature(DeviceFeature.SCALAR_BLOCK_LAYOUT)) {
+                    mismatches.add("Block '" + bindingLayout.name()
+                            + "' uses the scalar block layout, which isn't supported by the device");
+                }
+
+                if (!(structLayout instanceof ForeignStructLayout foreignLayout)) {
+                    continue;
+                }
+
+                for (var shader : pipeline.getShaderModules()) {
+                    var block = shader.getReflection().getBlock(setLayout.getKey(), bindingLayout.binding());
+                    if (block == null) {
+                        continue;
+                    }
+
+                    for (var mismatch : block.compare(foreignLayout)) {
+                        mismatches.add(mismatch + " in " + shader);
+                    }
+                }
+            }
+        }
+
+        if (!mismatches.isEmpty()) {
+            throw new IllegalStateException("Struct layouts don't match the shader blocks of " + pipeline + ":\n"
+                    + String.join("\n", mismatches));
+        }
+
+        logger.info("Validated struct layouts of " + pipeline + ".");
+    }
+
+    private record VertexInputPart(Topology topology, VertexInputState vertexInput) {
+
+    }
+
+    private record PreRasterizationPart(MaterialPass materialPass, RasterizationState rasterizationState,
+            VulkanFormat colorFormat, VulkanFormat depthFormat) {
+
+    }
+
+    private record FragmentShaderPart(MaterialPass materialPass, DepthStencilState depthStencilState,
+            MultisampleState multisampleState, VulkanFormat colorFormat, VulkanFormat depthFormat) {
+
+    }
+
+    private record FragmentOutputPart(ColorBlendState colorBlendState, MultisampleState multisampleState,
+            VulkanFormat colorFormat, VulkanFormat depthFormat) {
+
+    }
+
+    private static class RetiredPipeline {
+
+        private final Pipeline pipeline;
+
+        private int framesLeft = VulkanGraphicsBackend.MAX_FRAMES_IN_FLIGHT + 1;
+
+        RetiredPipeline(Pipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+    }
+
     public static DescriptorType getVkDescriptorType(BindingType type) {
         switch (type) {
         case UNIFORM_BUFFER:
@@ -0,0 +1,234 @@
+package fr.sethlans.core.render.vk.shader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.shaderc.Shaderc;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.material.Material;
+import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.material.MaterialPass.ShaderModuleInfo;
+import fr.sethlans.core.render.vk.util.VkShader;
+
+/**
+ * Compiles shaders to SPIR-V on a pool of worker threads, so that the shaders
+ * of the loaded materials compile concurrently instead of one by one when their
+ * pipelines are first created.
+ * <p>
+ * Each worker keeps its own shaderc compiler and options for its whole life,
+ * since they can't be shared between threads and are costly to create for every
+ * shader. A shader requested several times is only compiled once, and its code
+ * is kept until {@link #clear()} is called. The returned buffers are shared and
+ * must not be modified.
+ */
+public class ShaderCompilationService {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.shader");
+
+    private final SpirvCache spirvCache;
+
+    private final ExecutorService executor;
+
+    private final Map<Request, CompletableFuture<ByteBuffer>> results = new ConcurrentHashMap<>();
+
+    /**
+     * Create a service with a worker per available processor but one, leaving a
+     * processor to the rendering thread.
+     *
+     * @param spirvCache The SPIR-V cache to look the code up in before compiling,
+     *                   or null to always compile.
+     */
+    public ShaderCompilationService(SpirvCache spirvCache) {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), spirvCache);
+    }
+
+    public ShaderCompilationService(int threadCount, SpirvCache spirvCache) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be strictly positive, but got " + threadCount);
+        }
+
+        this.spirvCache = spirvCache;
+
+        var threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threadCount,
+                r -> new CompilerThread(r, "shader-compiler-" + threadIndex.getAndIncrement()));
+    }
+
+    /**
+     * Compile the given shader in the background, or return the pending or
+     * completed compilation of the same shader.
+     *
+     * @param shaderFile The path of the GLSL source file.
+     * @param entry      The name of the entry point.
+     * @param stage      The shader stage.
+     * @return A future completed with the SPIR-V code.
+     */
+    public CompletableFuture<ByteBuffer> compile(String shaderFile, String entry, ShaderStage stage) {
+        var request = new Request(shaderFile, entry, stage);
+        var result = results.get(request);
+        if (result != null && !result.isCompletedExceptionally()) {
+            return result;
+        }
+
+        // Retry a failed compilation, the source may have been fixed since.
+        return results.compute(request, (_, previous) -> {
+            if (previous != null && !previous.isCompletedExceptionally()) {
+                return previous;
+            }
+
+            return CompletableFuture.supplyAsync(() -> compile(request), executor);
+        });
+    }
+
+    public CompletableFuture<ByteBuffer> compile(ShaderModuleInfo info) {
+        return compile(info.shaderName(), info.entryPoint(), VkShader.getShaderStage(info.type()));
+    }
+
+    /**
+     * Compile every shader of the given material pass in the background.
+     *
+     * @param materialPass The material pass.
+     * @return A future completed when all the shaders are compiled.
+     */
+    public CompletableFuture<Void> precompile(MaterialPass materialPass) {
+        var futures = new ArrayList<CompletableFuture<ByteBuffer>>();
+        for (var source : materialPass.getShaderSources()) {
+            futures.add(compile(source.getValue()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Compile every shader of the passes of the given material in the background.
+     *
+     * @param material The material.
+     * @return A future completed when all the shaders are compiled.
+     */
+    public CompletableFuture<Void> precompile(Material material) {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var materialPass : material.getMaterialPasses()) {
+            futures.add(precompile(materialPass));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    private ByteBuffer compile(Request request) {
+        var thread = (CompilerThread) Thread.currentThread();
+        var start = System.nanoTime();
+        try {
+            var code = spirvCache != null
+                    ? spirvCache.getOrCompile(request.shaderFile(), request.entry(), request.stage(), thread::compile)
+                    : thread.compile(request.shaderFile(), request.entry(), request.stage());
+
+            logger.debug("Prepared SPIR-V of '" + request.shaderFile() + "' on " + thread.getName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+            return code;
+
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Forget the compiled code, for instance once the pipelines of a level are
+     * created. Pending compilations still complete.
+     */
+    public void clear() {
+        results.values().removeIf(CompletableFuture::isDone);
+    }
+
+    /**
+     * Stop the workers once the pending compilations complete, and release their
+     * compilers.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warning("Shader compilations still running after shutdown, interrupting them.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        results.clear();
+    }
+
+    public SpirvCache getSpirvCache() {
+        return spirvCache;
+    }
+
+    public int pendingCount() {
+        return (int) results.values().stream().filter(f -> !f.isDone()).count();
+    }
+
+    @Override
+    public String toString() {
+        return "ShaderCompilationService [results=" + results.size() + ", spirvCache=" + spirvCache + "]";
+    }
+
+    private record Request(String shaderFile, String entry, ShaderStage stage) {
+
+    }
+
+    /**
+     * A worker owning a shaderc compiler and options, created on first use and
+     * released when the worker terminates.
+     */
+    private static class CompilerThread extends Thread {
+
+        private long compiler = MemoryUtil.NULL;
+
+        private long options = MemoryUtil.NULL;
+
+        CompilerThread(Runnable task, String name) {
+            super(task, name);
+            setDaemon(true);
+        }
+
+        ByteBuffer compile(String shaderFile, String entry, ShaderStage stage) throws IOException {
+            if (compiler == MemoryUtil.NULL) {
+                compiler = Shaderc.shaderc_compiler_initialize();
+            }
+            if (options == MemoryUtil.NULL) {
+                options = Shaderc.shaderc_compile_options_initialize();
+            }
+            if (compiler == MemoryUtil.NULL || options == MemoryUtil.NULL) {
+                throw new IOException("Failed to create shader compiler on " + getName() + "!");
+            }
+
+            return VkShader.compileShader(compiler, options, shaderFile, entry, stage);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                // A worker only served from the SPIR-V cache never created a compiler.
+                if (options != MemoryUtil.NULL) {
+                    Shaderc.shaderc_compile_options_release(options);
+                }
+                if (compiler != MemoryUtil.NULL) {
+                    Shaderc.shaderc_compiler_release(compiler);
+                }
+            }
+        }
+    }
+}
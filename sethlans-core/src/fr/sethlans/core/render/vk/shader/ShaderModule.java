@@ -32,6 +32,10 @@ public class ShaderModule extends AbstractDeviceResource {
     
     private String entryPoint = DEFAULT_ENTRY_POINT;
 
+    private SpirvReflection reflection;
+
+    private ShaderCompilationService compilationService;
+
     ShaderModule(LogicalDevice logicalDevice) {
         super(logicalDevice);
     }
@@ -43,6 +47,15 @@ public class ShaderModule extends AbstractDeviceResource {
                 .pName(stack.UTF8Safe(entryPoint));
     }
 
+    /**
+     * Return the block layouts declared by the compiled module.
+     * 
+     * @return The SPIR-V reflection of the module.
+     */
+    public SpirvReflection getReflection() {
+        return reflection;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(entryPoint, shaderName, stage);
@@ -82,13 +95,15 @@ public class ShaderModule extends AbstractDeviceResource {
         return b.build();
     }
     
-    public class Builder extends CacheableNativeBuilder<Long, ShaderModule, ShaderModule> {
+    public class Builder extends CacheableNativeBuilder<ShaderModule, ShaderModule, ShaderModule> {
 
         @Override
         protected void construct(MemoryStack stack) {
             ByteBuffer shaderCode = null;
             try {
-                shaderCode = VkShader.compileShader(shaderName, entryPoint, stage);
+                shaderCode = compilationService != null
+                        ? compilationService.compile(shaderName, entryPoint, stage).join()
+                        : VkShader.compileShader(shaderName, entryPoint, stage);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -100,6 +115,8 @@ public class ShaderModule extends AbstractDeviceResource {
             var err = VK10.vkCreateShaderModule(logicalDeviceHandle(), createInfo, null, pHandle);
             VkUtil.throwOnFailure(err, "create shader module");
             assignHandle(pHandle.get(0));
+
+            ShaderModule.this.reflection = SpirvReflection.reflect(shaderCode);
             
             logger.info("Created and cached " + getBuildTarget() + " with hash= " + hashCode());
             
@@ -112,6 +129,17 @@ public class ShaderModule extends AbstractDeviceResource {
             return ShaderModule.this;
         }
 
+        /**
+         * Set the service compiling the code of the module, which may already hold
+         * it if the module was precompiled.
+         * 
+         * @param compilationService The compilation service, or null to compile on
+         *                           the calling thread.
+         */
+        public void setCompilationService(ShaderCompilationService compilationService) {
+            ShaderModule.this.compilationService = compilationService;
+        }
+
         public void setModuleInfo(ShaderModuleInfo info) {
             ShaderModule.this.stage = VkShader.getShaderStage(info.type());
             ShaderModule.this.shaderName = info.shaderName();
@@ -0,0 +1,252 @@
+package fr.sethlans.core.render.vk.shader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.lwjgl.Version;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.util.shaderc.Shaderc;
+
+import fr.alchemy.utilities.logging.FactoryLogger;
+import fr.alchemy.utilities.logging.Logger;
+import fr.sethlans.core.render.vk.util.VkShader;
+
+/**
+ * A content-addressed cache of compiled SPIR-V code, stored in a directory.
+ * <p>
+ * The key of a shader hashes its source, the sources of the files it includes,
+ * its stage, entry point, the compiler options and the shaderc version, so any
+ * change to them compiles the shader again. A hit is memory-mapped instead of
+ * being read in a heap buffer, and skips shaderc entirely.
+ */
+public class SpirvCache {
+
+    private static final Logger logger = FactoryLogger.getLogger("sethlans-core.render.vk.shader");
+
+    /**
+     * The version of the key derivation, to change when it no longer matches
+     * the compiled code, for instance when compiler options are added.
+     */
+    private static final int KEY_VERSION = 1;
+
+    /**
+     * The compiler options shaders are compiled with, part of the cache key.
+     */
+    private static final String COMPILER_OPTIONS = "default";
+
+    private static final int SPIRV_MAGIC_NUMBER = 0x07230203;
+
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("^\\s*#\\s*include\\s*[<\"]([^>\"]+)[>\"]",
+            Pattern.MULTILINE);
+
+    private final Path directory;
+
+    private final String compilerVersion;
+
+    private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+    public SpirvCache(Path directory) {
+        this.directory = directory;
+        this.compilerVersion = queryCompilerVersion();
+    }
+
+    /**
+     * Return the SPIR-V code of the given shader, compiling it only if the cache
+     * has no code for its current sources.
+     *
+     * @param shaderFile The path of the GLSL source file.
+     * @param entry      The name of the entry point.
+     * @param stage      The shader stage.
+     * @return The SPIR-V code, either memory-mapped or freshly compiled.
+     * @throws IOException If the shader can't be read or compiled.
+     */
+    public ByteBuffer getOrCompile(String shaderFile, String entry, ShaderStage stage) throws IOException {
+        return getOrCompile(shaderFile, entry, stage, VkShader::compileShader);
+    }
+
+    /**
+     * Return the SPIR-V code of the given shader, compiling it with the given
+     * compiler only if the cache has no code for its current sources. The cache
+     * can be used by several threads at once.
+     *
+     * @param shaderFile The path of the GLSL source file.
+     * @param entry      The name of the entry point.
+     * @param stage      The shader stage.
+     * @param compiler   The compiler to use on a miss.
+     * @return The SPIR-V code, either memory-mapped or freshly compiled.
+     * @throws IOException If the shader can't be read or compiled.
+     */
+    public ByteBuffer getOrCompile(String shaderFile, String entry, ShaderStage stage, Compiler compiler)
+            throws IOException {
+        var key = computeKey(Path.of(shaderFile), entry, stage);
+        var file = directory.resolve(key + ".spv");
+
+        var code = map(file);
+        if (code != null) {
+            hits.incrementAndGet();
+            logger.debug("Loaded SPIR-V of '" + shaderFile + "' from cache " + file + ".");
+            return code;
+        }
+
+        misses.incrementAndGet();
+        code = compiler.compile(shaderFile, entry, stage);
+        store(file, code);
+        return code;
+    }
+
+    private ByteBuffer map(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size == 0 || size % Integer.BYTES != 0) {
+                throw new IOException("Invalid SPIR-V size " + size);
+            }
+
+            // The mapping stays valid once the channel is closed.
+            var code = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (code.order(ByteOrder.LITTLE_ENDIAN).getInt(0) != SPIRV_MAGIC_NUMBER) {
+                throw new IOException("Invalid SPIR-V magic number");
+            }
+
+            return code.order(ByteOrder.nativeOrder());
+
+        } catch (IOException ex) {
+            logger.warning("Discarding corrupted SPIR-V cache entry " + file + ": " + ex.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Overwritten by the next store anyway.
+            }
+            return null;
+        }
+    }
+
+    private void store(Path file, ByteBuffer code) {
+        try {
+            Files.createDirectories(directory);
+
+            // Write a temporary file, so that a concurrent reader never maps a partial entry.
+            var temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    var source = code.duplicate();
+                    while (source.hasRemaining()) {
+                        channel.write(source);
+                    }
+                }
+
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+        } catch (IOException ex) {
+            logger.warning("Failed to store SPIR-V cache entry " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private String computeKey(Path shaderFile, String entry, ShaderStage stage) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 isn't supported by the platform!", ex);
+        }
+
+        update(digest, "v" + KEY_VERSION);
+        update(digest, compilerVersion);
+        update(digest, COMPILER_OPTIONS);
+        update(digest, stage.name());
+        update(digest, entry);
+        hashSource(digest, shaderFile, new HashSet<>());
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void hashSource(MessageDigest digest, Path file, Set<Path> visited) throws IOException {
+        var normalized = file.toAbsolutePath().normalize();
+        if (!visited.add(normalized)) {
+            return;
+        }
+
+        var source = Files.readAllBytes(file);
+        update(digest, Integer.toString(source.length));
+        digest.update(source);
+
+        // Hash the included files, so that editing one invalidates every shader including it.
+        var matcher = INCLUDE_PATTERN.matcher(new String(source, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            var include = normalized.resolveSibling(matcher.group(1));
+            update(digest, matcher.group(1));
+            if (Files.isRegularFile(include)) {
+                hashSource(digest, include, visited);
+            } else {
+                update(digest, "missing");
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // Separate the values, so that their concatenation is unambiguous.
+        digest.update((byte) 0);
+    }
+
+    private static String queryCompilerVersion() {
+        try (var stack = MemoryStack.stackPush()) {
+            var pVersion = stack.mallocInt(1);
+            var pRevision = stack.mallocInt(1);
+            Shaderc.shaderc_get_spv_version(pVersion, pRevision);
+            return "shaderc-spv" + Integer.toHexString(pVersion.get(0)) + "." + pRevision.get(0) + "-lwjgl"
+                    + Version.getVersion();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int hitCount() {
+        return hits.get();
+    }
+
+    public int missCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpirvCache [directory=" + directory + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    /**
+     * Compiles a shader missing from the cache.
+     */
+    @FunctionalInterface
+    public interface Compiler {
+
+        ByteBuffer compile(String shaderFile, String entry, ShaderStage stage) throws IOException;
+    }
+}
@@ -0,0 +1,273 @@
+package fr.sethlans.core.render.vk.shader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.sethlans.core.render.struct.ValueType;
+import fr.sethlans.core.render.struct.foreign.ForeignStructLayout;
+
+/**
+ * Reflects the layout of the uniform and storage blocks declared by a SPIR-V
+ * module, as decorated by the shader compiler.
+ */
+public final class SpirvReflection {
+
+    private static final int MAGIC_NUMBER = 0x07230203;
+
+    private static final int HEADER_WORDS = 5;
+
+    private static final int OP_NAME = 5;
+    private static final int OP_MEMBER_NAME = 6;
+    private static final int OP_TYPE_ARRAY = 28;
+    private static final int OP_TYPE_RUNTIME_ARRAY = 29;
+    private static final int OP_TYPE_STRUCT = 30;
+    private static final int OP_TYPE_POINTER = 32;
+    private static final int OP_VARIABLE = 59;
+    private static final int OP_DECORATE = 71;
+    private static final int OP_MEMBER_DECORATE = 72;
+
+    private static final int DECORATION_BLOCK = 2;
+    private static final int DECORATION_BUFFER_BLOCK = 3;
+    private static final int DECORATION_ARRAY_STRIDE = 6;
+    private static final int DECORATION_MATRIX_STRIDE = 7;
+    private static final int DECORATION_BINDING = 33;
+    private static final int DECORATION_DESCRIPTOR_SET = 34;
+    private static final int DECORATION_OFFSET = 35;
+
+    private final Map<Long, BlockLayout> blocks = new HashMap<>();
+
+    private final Map<Integer, String> names = new HashMap<>();
+    private final Map<Long, String> memberNames = new HashMap<>();
+    private final Map<Integer, int[]> structs = new HashMap<>();
+    private final Map<Integer, Integer> arrays = new HashMap<>();
+    private final Map<Integer, Integer> pointers = new HashMap<>();
+    private final Map<Integer, Integer> arrayStrides = new HashMap<>();
+    private final Map<Long, Integer> memberOffsets = new HashMap<>();
+    private final Map<Long, Integer> matrixStrides = new HashMap<>();
+    private final Map<Integer, Integer> bindings = new HashMap<>();
+    private final Map<Integer, Integer> descriptorSets = new HashMap<>();
+    private final List<Integer> blockTypes = new ArrayList<>();
+    private final List<int[]> variables = new ArrayList<>();
+
+    private SpirvReflection() {
+
+    }
+
+    /**
+     * Reflect the block layouts of the given SPIR-V code. The buffer position is
+     * left untouched.
+     *
+     * @param spirv The SPIR-V code.
+     * @return The reflected module.
+     * @throws IllegalArgumentException If the code isn't valid SPIR-V.
+     */
+    public static SpirvReflection reflect(ByteBuffer spirv) {
+        var words = spirv.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (words.remaining() < HEADER_WORDS || words.get(0) != MAGIC_NUMBER) {
+            throw new IllegalArgumentException("Invalid SPIR-V module header!");
+        }
+
+        var reflection = new SpirvReflection();
+        reflection.parse(words);
+        reflection.resolveBlocks();
+        return reflection;
+    }
+
+    private void parse(IntBuffer words) {
+        var i = HEADER_WORDS;
+        while (i < words.limit()) {
+            var instruction = words.get(i);
+            var wordCount = instruction >>> 16;
+            var opCode = instruction & 0xFFFF;
+            if (wordCount == 0 || i + wordCount > words.limit()) {
+                throw new IllegalArgumentException("Truncated SPIR-V instruction at word " + i + "!");
+            }
+
+            switch (opCode) {
+            case OP_NAME -> names.put(words.get(i + 1), readString(words, i + 2, i + wordCount));
+            case OP_MEMBER_NAME -> memberNames.put(key(words.get(i + 1), words.get(i + 2)),
+                    readString(words, i + 3, i + wordCount));
+            case OP_TYPE_ARRAY, OP_TYPE_RUNTIME_ARRAY -> arrays.put(words.get(i + 1), words.get(i + 2));
+            case OP_TYPE_STRUCT -> {
+                var members = new int[wordCount - 2];
+                for (var m = 0; m < members.length; ++m) {
+                    members[m] = words.get(i + 2 + m);
+                }
+                structs.put(words.get(i + 1), members);
+            }
+            case OP_TYPE_POINTER -> pointers.put(words.get(i + 1), words.get(i + 3));
+            case OP_VARIABLE -> variables.add(new int[] { words.get(i + 2), words.get(i + 1) });
+            case OP_DECORATE -> decorate(words.get(i + 1), words.get(i + 2), wordCount > 3 ? words.get(i + 3) : 0);
+            case OP_MEMBER_DECORATE -> {
+                var member = key(words.get(i + 1), words.get(i + 2));
+                var decoration = words.get(i + 3);
+                if (decoration == DECORATION_OFFSET) {
+                    memberOffsets.put(member, words.get(i + 4));
+                } else if (decoration == DECORATION_MATRIX_STRIDE) {
+                    matrixStrides.put(member, words.get(i + 4));
+                }
+            }
+            default -> {
+            }
+            }
+
+            i += wordCount;
+        }
+    }
+
+    private void decorate(int target, int decoration, int operand) {
+        switch (decoration) {
+        case DECORATION_BLOCK, DECORATION_BUFFER_BLOCK -> blockTypes.add(target);
+        case DECORATION_ARRAY_STRIDE -> arrayStrides.put(target, operand);
+        case DECORATION_BINDING -> bindings.put(target, operand);
+        case DECORATION_DESCRIPTOR_SET -> descriptorSets.put(target, operand);
+        default -> {
+        }
+        }
+    }
+
+    private void resolveBlocks() {
+        for (var variable : variables) {
+            var id = variable[0];
+            var binding = bindings.get(id);
+            if (binding == null) {
+                continue;
+            }
+
+            var type = pointers.getOrDefault(variable[1], -1);
+            // Unwrap arrays of descriptors.
+            while (arrays.containsKey(type)) {
+                type = arrays.get(type);
+            }
+
+            if (!blockTypes.contains(type)) {
+                continue;
+            }
+
+            List<BlockMember> members = new ArrayList<>();
+            collectMembers(type, "", 0, 0, members);
+
+            var set = descriptorSets.getOrDefault(id, 0);
+            var name = names.getOrDefault(type, names.getOrDefault(id, ""));
+            blocks.put(key(set, binding), new BlockLayout(name, set, binding, Collections.unmodifiableList(members)));
+        }
+    }
+
+    private void collectMembers(int structType, String prefix, long baseOffset, long enclosingStride,
+            List<BlockMember> members) {
+        var memberTypes = structs.get(structType);
+        for (var m = 0; m < memberTypes.length; ++m) {
+            var member = key(structType, m);
+            var path = prefix + memberNames.getOrDefault(member, String.valueOf(m));
+            var offset = baseOffset + memberOffsets.getOrDefault(member, 0);
+
+            var type = memberTypes[m];
+            var stride = enclosingStride;
+            if (arrays.containsKey(type)) {
+                stride = arrayStrides.getOrDefault(type, 0);
+                type = arrays.get(type);
+            }
+
+            if (structs.containsKey(type)) {
+                collectMembers(type, path + ".", offset, stride, members);
+            } else {
+                members.add(new BlockMember(path, offset, stride, matrixStrides.getOrDefault(member, 0)));
+            }
+        }
+    }
+
+    private static String readString(IntBuffer words, int start, int end) {
+        var bytes = new byte[(end - start) * Integer.BYTES];
+        var length = 0;
+        for (var w = start; w < end; ++w) {
+            var word = words.get(w);
+            for (var b = 0; b < Integer.BYTES; ++b) {
+                var c = (byte) (word >>> (b * 8));
+                if (c == 0) {
+                    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+                }
+                bytes[length++] = c;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the layout of the block bound to the given descriptor set and
+     * binding, or null if the module declares no block there.
+     *
+     * @param set     The descriptor set index.
+     * @param binding The binding number.
+     * @return The block layout, or null.
+     */
+    public BlockLayout getBlock(int set, int binding) {
+        return blocks.get(key(set, binding));
+    }
+
+    public Map<Long, BlockLayout> getBlocks() {
+        return Collections.unmodifiableMap(blocks);
+    }
+
+    /**
+     * The layout of a uniform or storage block, with its value members flattened
+     * in declaration order.
+     */
+    public record BlockLayout(String name, int set, int binding, List<BlockMember> members) {
+
+        /**
+         * Compare the offsets and strides of the given struct layout to the block
+         * decorations. Fields are matched in declaration order, since the shader and
+         * the struct may name them differently.
+         *
+         * @param layout The struct layout bound to the block.
+         * @return The description of each mismatch, or an empty list.
+         */
+        public List<String> compare(ForeignStructLayout layout) {
+            List<String> mismatches = new ArrayList<>();
+            var fields = new ArrayList<>(layout.getFields().values());
+            if (fields.size() != members.size()) {
+                mismatches.add("Struct declares " + fields.size() + " fields, but block " + name + " declares "
+                        + members.size() + " members");
+            }
+
+            for (var i = 0; i < Math.min(fields.size(), members.size()); ++i) {
+                var field = fields.get(i);
+                var member = members.get(i);
+                var description = "Field '" + field.path() + "' (shader member '" + member.path() + "')";
+                if (field.offset() != member.offset()) {
+                    mismatches.add(description + " is at offset " + field.offset() + ", but shader expects "
+                            + member.offset());
+                }
+                if (field.count() > 1 && field.stride() != member.arrayStride()) {
+                    mismatches.add(description + " has array stride " + field.stride() + ", but shader expects "
+                            + member.arrayStride());
+                }
+                if (field.type() == ValueType.MATRIX3F && field.columnStride() != member.matrixStride()) {
+                    mismatches.add(description + " has matrix stride " + field.columnStride()
+                            + ", but shader expects " + member.matrixStride());
+                }
+            }
+
+            return mismatches;
+        }
+    }
+
+    /**
+     * A value member of a block. The offset is relative to the start of the block,
+     * and the array stride is the one of the array the member belongs to, or 0.
+     */
+    public record BlockMember(String path, long offset, long arrayStride, long matrixStride) {
+
+    }
+}
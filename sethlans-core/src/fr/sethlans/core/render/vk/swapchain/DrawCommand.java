@@ -1,19 +1,30 @@
 package fr.sethlans.core.render.vk.swapchain;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import fr.sethlans.core.material.MaterialPass;
 import fr.sethlans.core.render.view.RenderView;
 import fr.sethlans.core.render.view.Scissor;
 import fr.sethlans.core.render.view.Viewport;
+import fr.sethlans.core.render.vk.buffer.InstanceRing;
 import fr.sethlans.core.render.vk.command.CommandBuffer;
 import fr.sethlans.core.render.vk.command.DynamicRenderCache;
+import fr.sethlans.core.render.vk.command.ParallelCommandRecorder;
 import fr.sethlans.core.render.vk.context.VulkanRenderer;
 import fr.sethlans.core.render.vk.framebuffer.VulkanFrameBuffer;
+import fr.sethlans.core.render.vk.mesh.VertexInputState;
+import fr.sethlans.core.render.vk.mesh.VulkanMesh;
 import fr.sethlans.core.render.vk.pipeline.DynamicState;
 import fr.sethlans.core.render.vk.pipeline.GraphicsPipeline;
 import fr.sethlans.core.render.vk.pipeline.Pipeline;
+import fr.sethlans.core.render.vk.swapchain.RenderQueue.Draw;
+import fr.sethlans.core.render.vk.util.VulkanFormat;
 import fr.sethlans.core.scenegraph.Geometry;
+import fr.sethlans.core.scenegraph.mesh.Topology;
 
 public class DrawCommand {
 
@@ -27,10 +38,32 @@ public class DrawCommand {
 
     private Pipeline pipeline;
 
-    public DrawCommand(VulkanRenderer renderer, CommandBuffer command) {
+    /**
+     * The pipelines resolved for each material pass, keyed on the vertex layout
+     * and topology they draw, and reused while the render target doesn't change.
+     */
+    private final Map<MaterialPass, PipelineMemo> pipelineMemos = new IdentityHashMap<>();
+
+    /**
+     * The queue of each view, since every view is batched before any is recorded.
+     */
+    private final List<RenderQueue> renderQueues = new ArrayList<>();
+
+    public DrawCommand(VulkanRenderer renderer) {
         this.renderer = renderer;
-        this.command = command;
-        this.dynamicRender = new DynamicRenderCache(command);
+        this.dynamicRender = new DynamicRenderCache(null);
+    }
+
+    /**
+     * Begin recording into a new command-buffer of the current frame, which is
+     * the one submitted with the frame.
+     * 
+     * @return The command-buffer being recorded.
+     */
+    public CommandBuffer beginRecording() {
+        this.command = renderer.getFrameContext().nextCommandBuffer();
+        dynamicRender.setCommandBuffer(command);
+        return command.beginRecording();
     }
 
     public void begin(Geometry geometry, MaterialPass materialPass) {
@@ -38,6 +71,12 @@ public class DrawCommand {
             throw new IllegalStateException("DrawCommand already started!");
         }
 
+        if (materialPass.getLayout().hasBuiltin(InstanceRing.BUILTIN_NAME)) {
+            // The single geometry path doesn't write any instance data.
+            throw new IllegalArgumentException("Material pass reading builtin '" + InstanceRing.BUILTIN_NAME
+                    + "' must be rendered through a render view!");
+        }
+
         var vkMesh = renderer.getVulkanMesh(geometry);
         pipeline = renderer.getPipeline(vkMesh, materialPass);
 
@@ -55,24 +94,36 @@ public class DrawCommand {
             }
 
         } else {
-            var command = getCommandBuffer();
-            command.reset().beginRecording();
-
-            command.bindPipeline(pipeline);
+            beginRecording().bindPipeline(pipeline);
         }
 
         this.started = true;
     }
 
     public void render(Collection<RenderView> views) {
+        // Batch every view first, the instance buffer of the frame may grow while allocating and
+        // its descriptor must be staged with the final buffer.
+        var viewDraws = new ArrayList<List<Draw>>(views.size());
+        for (var view : views) {
+            viewDraws.add(prepare(view, renderQueue(viewDraws.size())));
+        }
+
+        // Apply the descriptor writes of every draw at once, before any set is bound.
+        for (var draws : viewDraws) {
+            for (var draw : draws) {
+                renderer.stageDescriptors(draw.pipeline(), draw.geometry(), "forward");
+            }
+        }
+        renderer.flushDescriptorUpdates();
+
         if (!started) {
             this.started = true;
-            var command = getCommandBuffer();
-            command.reset().beginRecording();
+            beginRecording();
         }
 
+        var i = 0;
         for (var view : views) {
-            render(view);
+            record(view, viewDraws.get(i++));
         }
 
         command.end();
@@ -80,13 +131,57 @@ public class DrawCommand {
         this.started = false;
     }
 
-    public void render(RenderView view) {
+    private RenderQueue renderQueue(int viewIndex) {
+        while (renderQueues.size() <= viewIndex) {
+            renderQueues.add(new RenderQueue());
+        }
+        return renderQueues.get(viewIndex);
+    }
+
+    /**
+     * Order the draws of the view to change pipelines and bindings as rarely as
+     * possible, and merge the ones which can be instanced together.
+     *
+     * @return The draws of the view in drawing order, empty if it is disabled.
+     */
+    private List<Draw> prepare(RenderView view, RenderQueue renderQueue) {
         if (!view.isEnabled() || view.getGeometries().isEmpty()) {
+            return List.of();
+        }
+
+        renderQueue.begin(view.getCamera());
+        for (var geometry : view.getGeometries()) {
+            var vkMesh = renderer.getVulkanMesh(geometry);
+            var materialPass = geometry.getMaterial().getMaterialPass("forward");
+
+            var p = resolvePipeline(vkMesh, materialPass);
+            if (p == null) {
+                // Skip the draw until its pipeline is compiled.
+                continue;
+            }
+
+            renderQueue.add(geometry, vkMesh, materialPass, p);
+        }
+        renderQueue.sort();
+        // Draw the geometries sharing a mesh, a material and a pipeline in a single instanced draw.
+        return renderQueue.batch(renderer.getInstanceRing());
+    }
+
+    private void record(RenderView view, List<Draw> draws) {
+        if (draws.isEmpty()) {
             return;
         }
 
         var fbo = (VulkanFrameBuffer) (view.getFramebuffer() == null ? renderer.getSwapChain().getFramebuffer()
                 : view.getFramebuffer());
+
+        var recorder = renderer.getCommandRecorder();
+        if (recorder != null && recorder.chunkCount(draws.size()) > 1) {
+            renderParallel(view, fbo, draws, recorder);
+            return;
+        }
+
+        var frameIndex = renderer.getCurrentFrameIndex();
         renderer.beginRendering(this, fbo);
         renderer.prepare(view);
 
@@ -94,23 +189,19 @@ public class DrawCommand {
         dynamicRender.push(view.getScissor());
         dynamicRender.applyAll();
 
-        for (var geometry : view.getGeometries()) {
-
-            var vkMesh = renderer.getVulkanMesh(geometry);
-            var materialPass = geometry.getMaterial().getMaterialPass("forward");
-
-            var p = renderer.getPipeline(vkMesh, materialPass);
-            if (p != pipeline) {
-                pipeline = p;
+        for (var draw : draws) {
+            if (draw.pipeline() != pipeline) {
+                pipeline = draw.pipeline();
                 command.bindPipeline(pipeline);
                 
-                // Some drivers require re-emitting dynamic state after pipeline bind.
+                // The command-buffer only emits the dynamic state again if the pipeline disturbed it.
                 dynamicRender.invalidateAll();
                 dynamicRender.applyAll();
             }
 
-            getRenderer().bind(pipeline, geometry, command, renderer.getCurrentFrameIndex());
-            vkMesh.render(command);
+            // The descriptors were staged and flushed before recording, only bind them.
+            renderer.recordBindings(pipeline, draw.geometry(), command, frameIndex);
+            draw.render(command);
         }
 
         dynamicRender.pop(Viewport.class);
@@ -119,10 +210,65 @@ public class DrawCommand {
         pipeline = null;
     }
 
+    /**
+     * Render the view with the draws recorded into secondary command-buffers on
+     * several threads. Everything which isn't thread-safe, like resolving meshes
+     * and pipelines, is done beforehand on the calling thread.
+     */
+    private void renderParallel(RenderView view, VulkanFrameBuffer fbo, List<Draw> draws,
+            ParallelCommandRecorder recorder) {
+        var frameIndex = renderer.getCurrentFrameIndex();
+
+        renderer.beginRendering(this, fbo, true);
+        renderer.prepare(view);
+
+        var viewport = view.getViewport();
+        var scissor = view.getScissor();
+        var commands = recorder.record(frameIndex, draws, renderer.getRenderingInheritance(fbo), (cmd, chunk) -> {
+            // Secondary command-buffers don't inherit any state, so each chunk binds its own.
+            Pipeline bound = null;
+            for (var draw : chunk) {
+                if (draw.pipeline() != bound) {
+                    bound = draw.pipeline();
+                    cmd.bindPipeline(bound);
+                    cmd.setViewport(viewport);
+                    cmd.setScissor(scissor);
+                }
+
+                renderer.recordBindings(bound, draw.geometry(), cmd, frameIndex);
+                draw.render(cmd);
+            }
+        });
+
+        command.executeCommands(commands);
+        renderer.endRendering(this, fbo);
+    }
+
+    private Pipeline resolvePipeline(VulkanMesh vkMesh, MaterialPass materialPass) {
+        var targetFormat = renderer.getSwapChain().imageFormat();
+        var generation = renderer.getPipelineLibrary().generation();
+
+        var memo = pipelineMemos.computeIfAbsent(materialPass, k -> new PipelineMemo());
+        if (memo.targetFormat != targetFormat || memo.generation != generation) {
+            memo.reset(targetFormat, generation);
+        }
+
+        // The vertex input state is interned, so it's keyed on identity.
+        var pipelines = memo.pipelines.computeIfAbsent(vkMesh.getVertexInputState(),
+                k -> new Pipeline[Topology.values().length]);
+        var topology = vkMesh.topology().ordinal();
+        if (pipelines[topology] != null) {
+            return pipelines[topology];
+        }
+
+        var p = renderer.getReadyPipeline(vkMesh, materialPass);
+        pipelines[topology] = p;
+        return p;
+    }
+
     // TODO Remove.
     public void computeParticles(Geometry geometry) {
-        var command = getCommandBuffer();
-        command.reset().beginRecording();
+        var command = beginRecording();
 
         this.started = true;
 
@@ -170,6 +316,24 @@ public class DrawCommand {
     }
 
     public void destroy() {
-        command.destroy();
+        for (var renderQueue : renderQueues) {
+            renderQueue.destroy();
+        }
+        renderQueues.clear();
+    }
+
+    private static class PipelineMemo {
+
+        private final Map<VertexInputState, Pipeline[]> pipelines = new IdentityHashMap<>();
+
+        private VulkanFormat targetFormat;
+
+        private int generation;
+
+        void reset(VulkanFormat targetFormat, int generation) {
+            this.pipelines.clear();
+            this.targetFormat = targetFormat;
+            this.generation = generation;
+        }
     }
 }
@@ -57,7 +57,7 @@ public class OffscreenSwapChain extends SwapChain {
         var channels = 4;
         var size = new MemorySize(width * height * channels);
         this.screenBuffer = new BaseVulkanBuffer(getLogicalDevice(), size, BufferUsage.TRANSFER_DST,
-                VkFlag.of(MemoryProperty.HOST_VISIBLE, MemoryProperty.HOST_COHERENT, MemoryProperty.HOST_CACHED));
+                VkFlag.of(MemoryProperty.HOST_VISIBLE, MemoryProperty.HOST_CACHED));
 
         logger.info("Requested " + width + " " + height + "  images for the swapchain.");
     }
@@ -81,7 +81,7 @@ public class OffscreenSwapChain extends SwapChain {
             var channels = 4;
             var size = new MemorySize(width * height * channels);
             this.screenBuffer = new BaseVulkanBuffer(getLogicalDevice(), size, BufferUsage.TRANSFER_DST,
-                    VkFlag.of(MemoryProperty.HOST_VISIBLE, MemoryProperty.HOST_COHERENT, MemoryProperty.HOST_CACHED));
+                    VkFlag.of(MemoryProperty.HOST_VISIBLE, MemoryProperty.HOST_CACHED));
 
             resizeNeeded.getAndSet(false);
         }
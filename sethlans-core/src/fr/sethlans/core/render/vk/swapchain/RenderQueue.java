@@ -0,0 +1,407 @@
+package fr.sethlans.core.render.vk.swapchain;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import fr.sethlans.core.material.MaterialPass;
+import fr.sethlans.core.render.view.Camera;
+import fr.sethlans.core.render.vk.buffer.InstanceRing;
+import fr.sethlans.core.render.vk.command.CommandBuffer;
+import fr.sethlans.core.render.vk.mesh.VulkanMesh;
+import fr.sethlans.core.render.vk.pipeline.Pipeline;
+import fr.sethlans.core.scenegraph.Geometry;
+
+/**
+ * Orders the draws of a view to minimize the state changes between them.
+ * <p>
+ * Each draw gets a 64-bit key, sorted as an unsigned value. Opaque draws come
+ * first and are grouped by pass, pipeline, material and mesh, then sorted
+ * front-to-back within a group. Transparent draws follow and are sorted
+ * back-to-front first, since their order changes the result. The keys are
+ * radix-sorted in off-heap memory, and draws with equal keys keep their
+ * insertion order.
+ * <p>
+ * The sorted draws of a pass reading the {@value InstanceRing#BUILTIN_NAME}
+ * builtin can then be batched: consecutive draws sharing a mesh, a material and
+ * a pipeline become a single instanced draw.
+ */
+public class RenderQueue {
+
+    private static final int DEPTH_BITS = 17;
+
+    private static final int PASS_BITS = 10;
+
+    private static final int ID_BITS = 12;
+
+    private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+
+    private static final long PASS_MASK = (1L << PASS_BITS) - 1;
+
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+    /**
+     * The number of bits of the state part of a key: the pass, pipeline, material
+     * and mesh.
+     */
+    private static final int STATE_BITS = PASS_BITS + 3 * ID_BITS;
+
+    private static final long TRANSPARENT_BIT = 1L << 63;
+
+    private static final int RADIX_BITS = 8;
+
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final List<Draw> draws = new ArrayList<>();
+
+    private final List<Draw> sortedDraws = new ArrayList<>();
+
+    private final List<Draw> batchedDraws = new ArrayList<>();
+
+    /**
+     * Dense identifiers of the material passes keyed on their sort identifier, to
+     * fit them in the keys however many passes were created.
+     */
+    private final LongIntMap passIds = new LongIntMap();
+
+    /**
+     * Dense identifiers of the pipelines keyed on their handle, to fit them in the
+     * keys without keeping destroyed pipelines reachable.
+     */
+    private final LongIntMap pipelineIds = new LongIntMap();
+
+    /**
+     * The packed model matrices of the batch being written to the instance ring.
+     */
+    private float[] matrices = new float[64 * 16];
+
+    private final int[] histograms = new int[Long.SIZE / RADIX_BITS * RADIX];
+
+    private LongBuffer keys, tempKeys;
+
+    private IntBuffer indices, tempIndices;
+
+    private Matrix4f viewMatrix;
+
+    private float nearDistance, farDistance;
+
+    public RenderQueue() {
+        allocate(1024);
+    }
+
+    /**
+     * Clear the queue to add the draws of a view seen by the given camera.
+     *
+     * @param camera The camera of the view.
+     */
+    public void begin(Camera camera) {
+        if (passIds.size() > PASS_MASK) {
+            // Forget the passes no longer drawn, the remaining ones are numbered again.
+            passIds.clear();
+        }
+        if (pipelineIds.size() > ID_MASK) {
+            // Forget the destroyed pipelines, the remaining ones are numbered again.
+            pipelineIds.clear();
+        }
+
+        draws.clear();
+        sortedDraws.clear();
+        batchedDraws.clear();
+        this.viewMatrix = camera.getViewMatrix();
+        this.nearDistance = camera.getNearDistance();
+        this.farDistance = camera.getFarDistance();
+    }
+
+    /**
+     * Add a draw to the queue.
+     *
+     * @param geometry     The geometry to draw.
+     * @param mesh         The mesh of the geometry.
+     * @param materialPass The material pass to draw with.
+     * @param pipeline     The pipeline of the pass.
+     */
+    public void add(Geometry geometry, VulkanMesh mesh, MaterialPass materialPass, Pipeline pipeline) {
+        var index = draws.size();
+        if (index == keys.capacity()) {
+            allocate(index * 2);
+        }
+
+        keys.put(index, computeKey(geometry, materialPass, pipeline));
+        indices.put(index, index);
+        var instanced = materialPass.getLayout().hasBuiltin(InstanceRing.BUILTIN_NAME);
+        draws.add(new Draw(geometry, mesh, pipeline, instanced, 1, 0));
+    }
+
+    private long computeKey(Geometry geometry, MaterialPass materialPass, Pipeline pipeline) {
+        var state = (passId(materialPass) & PASS_MASK) << 3 * ID_BITS
+                | (pipelineId(pipeline) & ID_MASK) << 2 * ID_BITS
+                | (geometry.getMaterialInstance().backendId() & ID_MASK) << ID_BITS
+                | (geometry.getMesh().backendId() & ID_MASK);
+
+        var depth = depthBucket(geometry);
+        if (materialPass.getRenderState().getColorBlendState().isBlending()) {
+            return TRANSPARENT_BIT | (DEPTH_MASK - depth) << STATE_BITS | state;
+        }
+
+        return state << DEPTH_BITS | depth;
+    }
+
+    private long passId(MaterialPass materialPass) {
+        return passIds.getOrAdd(materialPass.sortId());
+    }
+
+    private long pipelineId(Pipeline pipeline) {
+        // Numbering again in the middle of a view would mix up the keys already computed, so the
+        // identifiers only wrap past the key bits until the next view.
+        return pipelineIds.getOrAdd(pipeline.handle());
+    }
+
+    /**
+     * Quantize the view-space depth of the geometry origin between the near and
+     * far planes.
+     */
+    private long depthBucket(Geometry geometry) {
+        var model = geometry.getModelMatrix();
+        var x = model.m30();
+        var y = model.m31();
+        var z = model.m32();
+        var viewZ = viewMatrix.m02() * x + viewMatrix.m12() * y + viewMatrix.m22() * z + viewMatrix.m32();
+
+        // The camera looks down the negative z axis.
+        var t = (-viewZ - nearDistance) / (farDistance - nearDistance);
+        t = Math.max(0f, Math.min(1f, t));
+        return (long) (t * DEPTH_MASK);
+    }
+
+    /**
+     * Sort the added draws on their keys.
+     *
+     * @return The draws in drawing order, valid until the queue begins again.
+     */
+    public List<Draw> sort() {
+        var count = draws.size();
+        radixSort(count);
+
+        sortedDraws.clear();
+        for (var i = 0; i < count; ++i) {
+            sortedDraws.add(draws.get(indices.get(i)));
+        }
+
+        return sortedDraws;
+    }
+
+    /**
+     * Merge the consecutive sorted draws which can be instanced together, and
+     * write the model matrices of their instances to the given ring.
+     *
+     * @param instanceRing The ring of the instance data of the current frame.
+     * @return The draws in drawing order, valid until the queue begins again.
+     */
+    public List<Draw> batch(InstanceRing instanceRing) {
+        batchedDraws.clear();
+
+        var count = sortedDraws.size();
+        var i = 0;
+        while (i < count) {
+            var draw = sortedDraws.get(i);
+            if (!draw.instanced()) {
+                batchedDraws.add(draw);
+                i++;
+                continue;
+            }
+
+            var end = i + 1;
+            while (end < count && canBatch(draw, sortedDraws.get(end))) {
+                end++;
+            }
+
+            var instanceCount = end - i;
+            if (matrices.length < instanceCount * 16) {
+                matrices = new float[Math.max(instanceCount, matrices.length / 16 * 2) * 16];
+            }
+            for (var j = i; j < end; ++j) {
+                sortedDraws.get(j).geometry().getModelMatrix().get(matrices, (j - i) * 16);
+            }
+
+            var firstInstance = instanceRing.allocate(instanceCount);
+            instanceRing.write(firstInstance, matrices, instanceCount);
+
+            batchedDraws.add(new Draw(draw.geometry(), draw.mesh(), draw.pipeline(), true, instanceCount,
+                    firstInstance));
+            i = end;
+        }
+
+        return batchedDraws;
+    }
+
+    private static boolean canBatch(Draw draw, Draw other) {
+        // Geometries drawn with the same backend material bind the same descriptors.
+        return other.instanced() && draw.mesh() == other.mesh() && draw.pipeline() == other.pipeline()
+                && draw.geometry().getMaterialInstance().backendId() == other.geometry().getMaterialInstance()
+                        .backendId();
+    }
+
+    private void radixSort(int count) {
+        Arrays.fill(histograms, 0);
+        for (var i = 0; i < count; ++i) {
+            var key = keys.get(i);
+            for (var pass = 0; pass < Long.SIZE / RADIX_BITS; ++pass) {
+                histograms[pass * RADIX + digit(key, pass)]++;
+            }
+        }
+
+        for (var pass = 0; pass < Long.SIZE / RADIX_BITS; ++pass) {
+            var offset = pass * RADIX;
+            // Skip the digits every key shares, typically the unused high bits.
+            if (count == 0 || histograms[offset + digit(keys.get(0), pass)] == count) {
+                continue;
+            }
+
+            var sum = 0;
+            for (var d = 0; d < RADIX; ++d) {
+                var c = histograms[offset + d];
+                histograms[offset + d] = sum;
+                sum += c;
+            }
+
+            for (var i = 0; i < count; ++i) {
+                var key = keys.get(i);
+                var position = histograms[offset + digit(key, pass)]++;
+                tempKeys.put(position, key);
+                tempIndices.put(position, indices.get(i));
+            }
+
+            var k = keys;
+            keys = tempKeys;
+            tempKeys = k;
+            var idx = indices;
+            indices = tempIndices;
+            tempIndices = idx;
+        }
+    }
+
+    private static int digit(long key, int pass) {
+        return (int) (key >>> (pass * RADIX_BITS)) & (RADIX - 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = keys == null ? MemoryUtil.memAllocLong(capacity) : MemoryUtil.memRealloc(keys, capacity);
+        tempKeys = tempKeys == null ? MemoryUtil.memAllocLong(capacity) : MemoryUtil.memRealloc(tempKeys, capacity);
+        indices = indices == null ? MemoryUtil.memAllocInt(capacity) : MemoryUtil.memRealloc(indices, capacity);
+        tempIndices = tempIndices == null ? MemoryUtil.memAllocInt(capacity)
+                : MemoryUtil.memRealloc(tempIndices, capacity);
+    }
+
+    public int size() {
+        return draws.size();
+    }
+
+    public void destroy() {
+        MemoryUtil.memFree(keys);
+        MemoryUtil.memFree(tempKeys);
+        MemoryUtil.memFree(indices);
+        MemoryUtil.memFree(tempIndices);
+        keys = tempKeys = null;
+        indices = tempIndices = null;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderQueue [draws=" + draws.size() + ", batches=" + batchedDraws.size() + ", passes="
+                + passIds.size() + ", pipelines=" + pipelineIds.size() + "]";
+    }
+
+    /**
+     * Numbers long keys densely in their insertion order, with open addressing to
+     * avoid boxing them on every draw.
+     */
+    private static class LongIntMap {
+
+        private long[] keys = new long[64];
+
+        /**
+         * The identifier of each key, or -1 if its slot is empty.
+         */
+        private int[] values = new int[64];
+
+        private int size = 0;
+
+        LongIntMap() {
+            Arrays.fill(values, -1);
+        }
+
+        int getOrAdd(long key) {
+            var mask = keys.length - 1;
+            var i = slot(key, mask);
+            while (values[i] != -1) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+
+            var id = size++;
+            keys[i] = key;
+            values[i] = id;
+            if (size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            return id;
+        }
+
+        private void rehash(int capacity) {
+            var oldKeys = keys;
+            var oldValues = values;
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+
+            var mask = capacity - 1;
+            for (var j = 0; j < oldKeys.length; ++j) {
+                if (oldValues[j] == -1) {
+                    continue;
+                }
+
+                var i = slot(oldKeys[j], mask);
+                while (values[i] != -1) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            // Spread the handles, which are often aligned, over the low bits.
+            var h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(values, -1);
+            size = 0;
+        }
+    }
+
+    /**
+     * A draw of a geometry with a ready pipeline. An instanced draw renders the
+     * instances written in the instance ring from the first one, the geometry
+     * only provides the bindings of the material.
+     */
+    public record Draw(Geometry geometry, VulkanMesh mesh, Pipeline pipeline, boolean instanced, int instanceCount,
+            int firstInstance) {
+
+        public void render(CommandBuffer command) {
+            mesh.render(command, instanceCount, firstInstance);
+        }
+    }
+}
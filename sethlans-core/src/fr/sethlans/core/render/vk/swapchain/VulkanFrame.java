@@ -7,6 +7,7 @@ import fr.sethlans.core.render.view.RenderView;
 import fr.sethlans.core.render.vk.device.LogicalDevice;
 import fr.sethlans.core.render.vk.sync.Fence;
 import fr.sethlans.core.render.vk.sync.Semaphore;
+import fr.sethlans.core.render.vk.sync.TimelineSemaphore;
 import fr.sethlans.core.scenegraph.Geometry;
 
 public class VulkanFrame {
@@ -27,6 +28,14 @@ public class VulkanFrame {
 
     private DrawCommand command;
 
+    /**
+     * The timeline semaphore signaled by the transfer uploads this frame depends
+     * on, or null if it doesn't wait for any upload.
+     */
+    private TimelineSemaphore uploadSemaphore;
+
+    private long uploadValue;
+
     private volatile State state = State.WAITING;
 
     public VulkanFrame(LogicalDevice logicalDevice, boolean sync) {
@@ -39,6 +48,10 @@ public class VulkanFrame {
         this.sync = null;
     }
 
+    public long id() {
+        return id;
+    }
+
     public boolean isInvalid() {
         return this == INVALID_FRAME;
     }
@@ -51,10 +64,25 @@ public class VulkanFrame {
         return sync.imageAvailableSemaphore();
     }
 
+    public TimelineSemaphore uploadSemaphore() {
+        return uploadSemaphore;
+    }
+
+    public long uploadValue() {
+        return uploadValue;
+    }
+
+    public void waitUpload(TimelineSemaphore semaphore, long value) {
+        this.uploadSemaphore = semaphore;
+        this.uploadValue = value;
+    }
+
     public void reset() {
         this.id = ID_FACTORY.getAndIncrement();
         this.imageIndex = -1;
         this.command = null;
+        this.uploadSemaphore = null;
+        this.uploadValue = 0;
         setState(State.WAITING);
     }
 
@@ -0,0 +1,74 @@
+package fr.sethlans.core.render.vk.sync;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
+import org.lwjgl.vulkan.VkSemaphoreCreateInfo;
+import org.lwjgl.vulkan.VkSemaphoreTypeCreateInfo;
+import org.lwjgl.vulkan.VkSemaphoreWaitInfo;
+
+import fr.sethlans.core.natives.NativeResource;
+import fr.sethlans.core.render.vk.device.AbstractDeviceResource;
+import fr.sethlans.core.render.vk.device.LogicalDevice;
+import fr.sethlans.core.render.vk.util.VkUtil;
+
+public class TimelineSemaphore extends AbstractDeviceResource {
+
+    public TimelineSemaphore(LogicalDevice logicalDevice) {
+        this(logicalDevice, 0L);
+    }
+
+    public TimelineSemaphore(LogicalDevice logicalDevice, long initialValue) {
+        super(logicalDevice);
+
+        try (var stack = MemoryStack.stackPush()) {
+
+            var typeCreateInfo = VkSemaphoreTypeCreateInfo.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_SEMAPHORE_TYPE_CREATE_INFO)
+                    .semaphoreType(VK12.VK_SEMAPHORE_TYPE_TIMELINE)
+                    .initialValue(initialValue);
+
+            var createInfo = VkSemaphoreCreateInfo.calloc(stack)
+                    .sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO)
+                    .pNext(typeCreateInfo);
+
+            var pHandle = stack.mallocLong(1);
+            var err = VK10.vkCreateSemaphore(logicalDeviceHandle(), createInfo, null, pHandle);
+            VkUtil.throwOnFailure(err, "create a timeline semaphore");
+            assignHandle(pHandle.get(0));
+
+            ref = NativeResource.get().register(this);
+            logicalDevice.getNativeReference().addDependent(ref);
+        }
+    }
+
+    public long getCounterValue() {
+        try (var stack = MemoryStack.stackPush()) {
+            var pValue = stack.mallocLong(1);
+            var err = VK12.vkGetSemaphoreCounterValue(logicalDeviceHandle(), handle(), pValue);
+            VkUtil.throwOnFailure(err, "get timeline semaphore value");
+            return pValue.get(0);
+        }
+    }
+
+    public void waitValue(long value) {
+        try (var stack = MemoryStack.stackPush()) {
+            var waitInfo = VkSemaphoreWaitInfo.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_SEMAPHORE_WAIT_INFO)
+                    .semaphoreCount(1)
+                    .pSemaphores(stack.longs(handle()))
+                    .pValues(stack.longs(value));
+
+            var err = VK12.vkWaitSemaphores(logicalDeviceHandle(), waitInfo, Long.MAX_VALUE);
+            VkUtil.throwOnFailure(err, "wait for timeline semaphore");
+        }
+    }
+
+    @Override
+    public Runnable createDestroyAction() {
+        return () -> {
+            VK10.vkDestroySemaphore(logicalDeviceHandle(), handle(), null);
+            unassignHandle();
+        };
+    }
+}
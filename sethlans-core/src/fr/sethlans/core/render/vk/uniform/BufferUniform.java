@@ -1,5 +1,6 @@
 package fr.sethlans.core.render.vk.uniform;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import org.lwjgl.system.MemoryStack;
@@ -54,6 +55,11 @@ public class BufferUniform implements VulkanUniform<VulkanBuffer> {
                     .range(bytes));
         }
 
+        @Override
+        public void populateTemplate(ByteBuffer data, int offset, int stride) {
+            putBufferInfo(data, offset, id, 0L, bytes);
+        }
+
         @Override
         public int hashCode() {
             return Objects.hash(bindingLayout, id, bytes);
@@ -70,7 +76,8 @@ public class BufferUniform implements VulkanUniform<VulkanBuffer> {
             }
                 
             var other = (Writer) obj;
-            return Objects.equals(buffer, other.buffer) && bytes == other.bytes && id == other.id;
+            return Objects.equals(bindingLayout, other.bindingLayout) && Objects.equals(buffer, other.buffer)
+                    && bytes == other.bytes && id == other.id;
         }
     }
 }
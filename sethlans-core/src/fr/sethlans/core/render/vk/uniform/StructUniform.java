@@ -1,5 +1,6 @@
 package fr.sethlans.core.render.vk.uniform;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import org.lwjgl.system.MemoryStack;
@@ -73,6 +74,11 @@ public class StructUniform implements VulkanUniform<VulkanBuffer> {
             write.pBufferInfo(VkDescriptorBufferInfo.calloc(1, stack).buffer(id).offset(offset).range(bytes));
         }
 
+        @Override
+        public void populateTemplate(ByteBuffer data, int offset, int stride) {
+            putBufferInfo(data, offset, id, this.offset, bytes);
+        }
+
         @Override
         public int hashCode() {
             return Objects.hash(bindingLayout, id, offset, bytes);
@@ -89,7 +95,8 @@ public class StructUniform implements VulkanUniform<VulkanBuffer> {
             }
 
             var other = (Writer) obj;
-            return offset == other.offset && bytes == other.bytes && id == other.id;
+            return Objects.equals(bindingLayout, other.bindingLayout) && offset == other.offset
+                    && bytes == other.bytes && id == other.id;
         }
     }
 }
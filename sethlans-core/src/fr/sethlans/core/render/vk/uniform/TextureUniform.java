@@ -1,5 +1,8 @@
 package fr.sethlans.core.render.vk.uniform;
 
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkDescriptorImageInfo;
@@ -52,5 +55,30 @@ public class TextureUniform implements VulkanUniform<VulkanTexture> {
                     .imageView(imageViewHandle)
                     .sampler(samplerHandle));
         }
+
+        @Override
+        public void populateTemplate(ByteBuffer data, int offset, int stride) {
+            putImageInfo(data, offset, samplerHandle, imageViewHandle, layout);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bindingLayout, imageViewHandle, samplerHandle, layout);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            var other = (Writer) obj;
+            return Objects.equals(bindingLayout, other.bindingLayout) && imageViewHandle == other.imageViewHandle
+                    && samplerHandle == other.samplerHandle && layout == other.layout;
+        }
     }
 }
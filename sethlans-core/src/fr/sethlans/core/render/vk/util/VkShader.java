@@ -2,6 +2,7 @@ package fr.sethlans.core.render.vk.util;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.EnumSet;
@@ -62,8 +63,6 @@ public final class VkShader {
             throws IOException {
 
         long compiler = MemoryUtil.NULL;
-        long handle = MemoryUtil.NULL;
-        ByteBuffer byteCode = null;
 
         try {
 
@@ -72,9 +71,36 @@ public final class VkShader {
                 throw new IOException("Failed to create shader compiler!");
             }
 
+            return compileShader(compiler, MemoryUtil.NULL, shaderFile, entry, shaderStage);
+
+        } finally {
+            Shaderc.shaderc_compiler_release(compiler);
+        }
+    }
+
+    /**
+     * Compile the given shader with an existing compiler, which can't be used by
+     * another thread at the same time.
+     * 
+     * @param compiler    The shaderc compiler handle.
+     * @param options     The shaderc compile options handle, or NULL for the
+     *                    defaults.
+     * @param shaderFile  The path of the GLSL source file.
+     * @param entry       The name of the entry point.
+     * @param shaderStage The shader stage.
+     * @return The SPIR-V code, copied in a direct buffer owned by the caller.
+     * @throws IOException If the shader can't be read or compiled.
+     */
+    public static ByteBuffer compileShader(long compiler, long options, String shaderFile, String entry,
+            ShaderStage shaderStage) throws IOException {
+
+        long handle = MemoryUtil.NULL;
+
+        try {
+
             var sourceCode = Files.readString(Paths.get(shaderFile));
             handle = Shaderc.shaderc_compile_into_spv(compiler, sourceCode, getShadercType(shaderStage), shaderFile,
-                    entry, MemoryUtil.NULL);
+                    entry, options);
             if (handle == MemoryUtil.NULL) {
                 throw new IOException("Failed to compile shader '" + shaderFile + "'!");
             }
@@ -85,12 +111,14 @@ public final class VkShader {
                 throw new RuntimeException("Failed to compile shader '" + shaderFile + "':\n " + errorMsg);
             }
 
-            byteCode = Shaderc.shaderc_result_get_bytes(handle);
+            // The bytes belong to the result, so copy them before releasing it.
+            var result = Shaderc.shaderc_result_get_bytes(handle);
+            var byteCode = ByteBuffer.allocateDirect(result.remaining()).order(ByteOrder.nativeOrder());
+            byteCode.put(result).flip();
+            return byteCode;
 
         } finally {
-            Shaderc.shaderc_compiler_release(compiler);
+            Shaderc.shaderc_result_release(handle);
         }
-
-        return byteCode;
     }
 }
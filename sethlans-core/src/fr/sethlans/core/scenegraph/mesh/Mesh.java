@@ -5,6 +5,7 @@ import java.util.List;
 
 import fr.alchemy.utilities.Validator;
 import fr.sethlans.core.render.backend.BackendObject;
+import fr.sethlans.core.render.buffer.AccessHint;
 import fr.sethlans.core.render.buffer.IndexBuffer;
 import fr.sethlans.core.render.buffer.NativeBuffer;
 import fr.sethlans.core.render.buffer.StageableBuffer;
@@ -29,25 +30,35 @@ public class Mesh extends BackendObject {
     }
 
     public Mesh(Topology topology, Collection<Integer> indices, List<Vertex> vertices) {
+        this(topology, indices, vertices, AccessHint.STATIC);
+    }
+
+    public Mesh(Topology topology, Collection<Integer> indices, List<Vertex> vertices, AccessHint accessHint) {
         Validator.nonNull(topology, "The mesh topology can't be null!");
+        Validator.nonNull(accessHint, "The mesh access hint can't be null!");
         this.topology = topology;
         this.vertexCount = vertices.size();
 
-        this.indices = new StageableBuffer<>(BufferUtils.create(indices));
+        this.indices = new StageableBuffer<>(BufferUtils.create(indices), accessHint);
 
         var vertex = vertices.get(0);
         this.fpv = vertex.numFloats();
-        this.vertexData = new StageableBuffer<>(BufferUtils.createVertex(vertices, vertex));
+        this.vertexData = new StageableBuffer<>(BufferUtils.createVertex(vertices, vertex), accessHint);
     }
 
     public Mesh(Topology topology, int[] indices, float[] vertices, int fpv) {
+        this(topology, indices, vertices, fpv, AccessHint.STATIC);
+    }
+
+    public Mesh(Topology topology, int[] indices, float[] vertices, int fpv, AccessHint accessHint) {
         Validator.nonNull(topology, "The mesh topology can't be null!");
+        Validator.nonNull(accessHint, "The mesh access hint can't be null!");
         this.topology = topology;
         this.vertexCount = vertices.length / fpv;
 
-        this.indices = new StageableBuffer<>(BufferUtils.create(indices));
+        this.indices = new StageableBuffer<>(BufferUtils.create(indices), accessHint);
         this.fpv = fpv;
-        this.vertexData = new StageableBuffer<>(BufferUtils.create(vertices));
+        this.vertexData = new StageableBuffer<>(BufferUtils.create(vertices), accessHint);
     }
 
     public int vertexCount() {